@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fluidinfo.json.DefaultJsonCodec;
+
+/**
+ * Compares org.json with DefaultJsonCodec at reading (from the bytes of a response, as
+ * FluidResponse.getJson does) and writing the sort of JSON FluidDB sends back. Run with
+ * -prof gc to see the allocation per call (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    
+    @Param({"namespace", "permission", "object", "search"})
+    public String payload;
+    
+    private byte[] bytes;
+    
+    private JSONObject orgJson;
+    
+    private Object value;
+    
+    private DefaultJsonCodec codec = new DefaultJsonCodec();
+    
+    @Setup
+    public void setUp() throws Exception {
+        String json;
+        if(this.payload.equals("namespace")) {
+            json = "{\"id\": \"5ef5d5e4-5a0c-4b5a-9e1c-1a4f3c1e8e0a\", \"description\": \"ntoll's books, " +
+                "r\\u00e9sum\\u00e9s and notes\", \"namespaceNames\": [\"books\", \"films\", \"music\", " +
+                "\"private\", \"work\"], \"tagNames\": [\"rating\", \"read\", \"owned\", \"title\", \"author\", " +
+                "\"isbn\", \"published\", \"comment\"]}";
+        } else if(this.payload.equals("permission")) {
+            json = "{\"policy\": \"closed\", \"exceptions\": [\"ntoll\", \"fluiddb\", \"terrycojones\"]}";
+        } else if(this.payload.equals("object")) {
+            StringBuilder sb = new StringBuilder("{\"about\": \"book:the hitchhiker's guide to the galaxy\", \"tagPaths\": [");
+            for(int i = 0; i < 40; i++) {
+                sb.append(i == 0 ? "" : ", ").append("\"fluiddb/users/user").append(i).append("/books/rating\"");
+            }
+            json = sb.append("]}").toString();
+        } else {
+            StringBuilder sb = new StringBuilder("{\"ids\": [");
+            for(int i = 0; i < 1000; i++) {
+                sb.append(i == 0 ? "" : ", ").append('"').append(new java.util.UUID(i*31L, i*17L)).append('"');
+            }
+            json = sb.append("]}").toString();
+        }
+        this.bytes = json.getBytes(StandardCharsets.UTF_8);
+        this.orgJson = new JSONObject(new JSONTokener(json));
+        this.value = this.codec.read(this.bytes, 0, this.bytes.length);
+    }
+    
+    @Benchmark
+    public Object orgJsonRead() throws Exception {
+        return new JSONObject(new JSONTokener(new String(this.bytes, StandardCharsets.UTF_8)));
+    }
+    
+    @Benchmark
+    public Object codecRead() throws Exception {
+        return this.codec.read(this.bytes, 0, this.bytes.length);
+    }
+    
+    @Benchmark
+    public String orgJsonWrite() {
+        return this.orgJson.toString();
+    }
+    
+    @Benchmark
+    public String codecWrite() throws Exception {
+        return this.codec.write(this.value);
+    }
+}
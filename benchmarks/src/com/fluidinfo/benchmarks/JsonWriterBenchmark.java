@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fluidinfo.json.Json;
+import com.fluidinfo.json.JsonWriter;
+
+/**
+ * Compares the ways of turning request payloads into the bytes that are sent: org.json
+ * (a throwaway JSONObject, toString then getBytes), the codec (a Map, Json.write then 
+ * getBytes) and the thread's JsonWriter. Run with -prof gc to see the allocation per 
+ * call (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonWriterBenchmark {
+    
+    private String description = "Ratings (out of ten) for the books I've read";
+    
+    private String name = "rating";
+    
+    private String[] values = {"fiction", "science fiction", "humour", "caf\u00e9 culture", "douglas adams"};
+    
+    @Benchmark
+    public byte[] orgJsonCreateTag() throws Exception {
+        JSONObject jsonPayload = new JSONObject();
+        jsonPayload.put("description", this.description);
+        jsonPayload.put("indexed", false);
+        jsonPayload.put("name", this.name);
+        return jsonPayload.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Benchmark
+    public byte[] codecCreateTag() throws Exception {
+        Map<String, Object> jsonPayload = new LinkedHashMap<String, Object>();
+        jsonPayload.put("description", this.description);
+        jsonPayload.put("indexed", Boolean.FALSE);
+        jsonPayload.put("name", this.name);
+        return Json.write(jsonPayload).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Benchmark
+    public byte[] writerCreateTag() {
+        return JsonWriter.get().beginObject()
+            .name("description").value(this.description)
+            .name("indexed").value(false)
+            .name("name").value(this.name)
+            .endObject().toByteArray();
+    }
+    
+    @Benchmark
+    public byte[] legacyStringArrayValue() {
+        // how Object.tag(Tag, String[]) used to build the value
+        StringBuffer jsonArray = new StringBuffer();
+        jsonArray.append("[ ");
+        for(int i=0; i<this.values.length; i++) {
+            jsonArray.append(JSONObject.quote(this.values[i]));
+            jsonArray.append(",");
+        }
+        jsonArray.deleteCharAt(jsonArray.length()-1);
+        jsonArray.append(" ]");
+        return jsonArray.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Benchmark
+    public byte[] writerStringArrayValue() {
+        return JsonWriter.get().value(this.values).toByteArray();
+    }
+    
+    @Benchmark
+    public byte[] writerDoubleValue() throws Exception {
+        return JsonWriter.get().value(4.5).toByteArray();
+    }
+    
+    @Benchmark
+    public byte[] orgJsonDoubleValue() throws Exception {
+        return JSONObject.doubleToString(4.5).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.fom.TagValue;
+
+/**
+ * Compares reading a numeric tag value from the response to GETting it: decoding the
+ * body to a String and parsing that (with org.json or parseDouble) against TagValue. 
+ * Each call starts from a fresh response, as it would when reading the tag across many
+ * objects. Run with -prof gc to see the allocation per call (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TagValueBenchmark {
+    
+    @Param({"42", "3.75", "1234.5678"})
+    public String value;
+    
+    private byte[] bytes;
+    
+    @Setup
+    public void setUp() throws Exception {
+        this.bytes = this.value.getBytes("UTF-8");
+    }
+    
+    private FluidResponse response() {
+        return new FluidResponse(200, "OK", "application/vnd.fluiddb.value+json", this.bytes, "", "");
+    }
+    
+    @Benchmark
+    public double orgJson() throws Exception {
+        return ((Number)new JSONTokener(this.response().getResponseContent()).nextValue()).doubleValue();
+    }
+    
+    @Benchmark
+    public double parseDouble() {
+        return Double.parseDouble(this.response().getResponseContent());
+    }
+    
+    @Benchmark
+    public double tagValue() throws Exception {
+        return TagValue.fromResponse(this.response()).asDouble();
+    }
+}
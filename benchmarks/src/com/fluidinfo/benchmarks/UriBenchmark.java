@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.benchmarks;
+
+import java.net.URLEncoder;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.http.PathTemplate;
+import com.fluidinfo.transport.HttpTransport;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StringUtil;
+
+/**
+ * Compares building request paths and URIs the old way (URIJoin with a regex, then a
+ * Vector, StringUtil.join and URLEncoder for the query string) with PathTemplate and
+ * UriBuilder. Run with -prof gc to see the allocation per call (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UriBenchmark {
+    
+    private final static PathTemplate TAG_PATH = PathTemplate.compile("{root}/{id}/{tag}");
+    
+    private FluidRequest request;
+    
+    private String id = "5ef5d5e4-5a0c-4b5a-9e1c-1a4f3c1e8e0a";
+    
+    private String tag = "ntoll/books/rating";
+    
+    @Setup
+    public void setUp() {
+        Hashtable<String, String> args = new Hashtable<String, String>();
+        args.put("query", "has ntoll/books/rating and ntoll/books/rating > 5");
+        args.put("showAbout", "True");
+        this.request = new FluidRequest("http://fluiddb.fluidinfo.com", "ntoll", "secret", Method.GET, "/objects", "", args, null);
+    }
+    
+    @Benchmark
+    public String legacyPath() {
+        String[] path = {"/objects", this.id, this.tag};
+        return StringUtil.join(path, "/").replaceAll("/[/]*", "/");
+    }
+    
+    @Benchmark
+    public String templatePath() {
+        return TAG_PATH.expand("/objects", this.id, this.tag);
+    }
+    
+    @Benchmark
+    public String legacyURI() throws Exception {
+        StringBuffer uri = new StringBuffer();
+        uri.append(this.request.getUrl());
+        uri.append(this.request.getPath());
+        Hashtable<String, String> args = this.request.getArgs();
+        if(args.size() > 0) {
+            uri.append("?");
+            Vector<String> argList = new Vector<String>();
+            Enumeration<String> e = args.keys();
+            while(e.hasMoreElements()) {
+                String k = e.nextElement();
+                argList.add(k + "=" + URLEncoder.encode(args.get(k), "UTF-8"));
+            }
+            uri.append(StringUtil.join(argList, "&"));
+        }
+        return uri.toString();
+    }
+    
+    @Benchmark
+    public String builderURI() throws Exception {
+        return HttpTransport.buildURI(this.request);
+    }
+}
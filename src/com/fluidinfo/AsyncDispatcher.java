@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs FluidDB operations in the background and hands back CompletableFutures
+ * <p>
+ * At most maxInFlight operations run at once; up to maxQueued more wait in a bounded
+ * queue. Once the queue is full, submitting blocks the caller until there is room
+ * (back-pressure) so that a producer can't run away from FluidDB.
+ * <p>
+ * This class is thread-safe.
+ */
+public class AsyncDispatcher {
+    
+    /**
+     * The default number of operations that run at the same time
+     */
+    public final static int DEFAULT_MAX_IN_FLIGHT = 64;
+    
+    /**
+     * The default number of operations that may wait to be run
+     */
+    public final static int DEFAULT_MAX_QUEUED = 10000;
+    
+    private final ThreadPoolExecutor executor;
+    
+    private final AtomicInteger inFlight = new AtomicInteger();
+    
+    private final AtomicLong completed = new AtomicLong();
+    
+    /**
+     * Constructor using the default limits
+     */
+    public AsyncDispatcher() {
+        this(DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_QUEUED);
+    }
+    
+    /**
+     * Constructor
+     * @param maxInFlight the number of operations that run at the same time
+     * @param maxQueued the number of operations that may wait to be run before 
+     *        submitting blocks
+     */
+    public AsyncDispatcher(int maxInFlight, int maxQueued) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60, TimeUnit.SECONDS, 
+                new ArrayBlockingQueue<Runnable>(maxQueued), 
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "JFluidDB-async-"+threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, 
+                new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if(executor.isShutdown()) {
+                            throw new RejectedExecutionException("The dispatcher has been shut down");
+                        }
+                        // the queue is full so make the caller wait for room
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting to queue a FluidDB call", e);
+                        }
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Runs the task in the background (blocking if the queue is full)
+     * @param task the operation to run
+     * @return a future that completes with the task's result, or exceptionally with
+     *         whatever the task threw
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            this.executor.execute(new Runnable() {
+                public void run() {
+                    if(future.isDone()) {
+                        // cancelled while it was queued
+                        return;
+                    }
+                    inFlight.incrementAndGet();
+                    T result = null;
+                    Throwable failure = null;
+                    try {
+                        result = task.call();
+                    } catch (Throwable t) {
+                        failure = t;
+                    } finally {
+                        // update the counters before anyone waiting on the future wakes up
+                        inFlight.decrementAndGet();
+                        completed.incrementAndGet();
+                    }
+                    if(failure != null) {
+                        future.completeExceptionally(failure);
+                    } else {
+                        future.complete(result);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    
+    /**
+     * @return the number of operations currently running
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+    
+    /**
+     * @return the number of operations waiting to be run
+     */
+    public int getQueued() {
+        return this.executor.getQueue().size();
+    }
+    
+    /**
+     * @return the number of operations that have finished (successfully or not)
+     */
+    public long getCompleted() {
+        return this.completed.get();
+    }
+    
+    /**
+     * Stops accepting new operations (those already submitted are still run)
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+}
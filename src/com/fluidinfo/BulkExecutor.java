@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fluidinfo.utils.ExecutionMode;
+
+/**
+ * Fans a batch of FluidDB operations out over several threads and waits for them all
+ * <p>
+ * In VIRTUAL mode every operation gets its own virtual thread, so tens of thousands of
+ * operations can be outstanding without exhausting platform threads (the number of 
+ * actual HTTP requests is capped by FluidConnector.setMaxConcurrentRequests). Virtual
+ * threads need Java 21; on older JVMs a bounded pool of platform threads is used instead.
+ * <p>
+ * This class is thread-safe.
+ */
+public class BulkExecutor {
+    
+    /**
+     * The number of platform threads used when virtual threads aren't in use
+     */
+    public final static int DEFAULT_PLATFORM_THREADS = 32;
+    
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor (looked up reflectively so that we still
+     * run on JVMs without virtual threads)
+     */
+    private final static java.lang.reflect.Method VIRTUAL_EXECUTOR_FACTORY = findVirtualExecutorFactory();
+    
+    private volatile ExecutionMode mode = ExecutionMode.PLATFORM;
+    
+    private ExecutorService platformPool = null;
+    
+    private final int platformThreads;
+    
+    /**
+     * Constructor using the default number of platform threads
+     */
+    public BulkExecutor() {
+        this(DEFAULT_PLATFORM_THREADS);
+    }
+    
+    /**
+     * Constructor
+     * @param platformThreads the number of platform threads used when virtual threads 
+     *        aren't in use
+     */
+    public BulkExecutor(int platformThreads) {
+        this.platformThreads = platformThreads;
+    }
+    
+    /**
+     * @return true if this JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_EXECUTOR_FACTORY != null;
+    }
+    
+    /**
+     * @param mode VIRTUAL to run each operation on its own virtual thread (if supported)
+     *        or PLATFORM to use a bounded pool of platform threads
+     */
+    public void setMode(ExecutionMode mode) {
+        this.mode = mode;
+    }
+    
+    /**
+     * @return the requested execution mode
+     */
+    public ExecutionMode getMode() {
+        return this.mode;
+    }
+    
+    /**
+     * Runs all the tasks concurrently and waits for them to finish
+     * @param tasks the operations to run
+     * @return the results in the same order as the tasks
+     * @throws FluidException if any of the tasks failed (with the first failure as the cause)
+     * @throws IOException if any of the tasks failed with an IOException
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws FluidException, IOException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if(tasks.isEmpty()) {
+            return results;
+        }
+        ExecutorService executor = this.getExecutor();
+        boolean virtual = executor != this.platformPool;
+        try {
+            List<Future<T>> futures = executor.invokeAll(tasks);
+            for(Future<T> f : futures) {
+                results.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FluidException("Interrupted while waiting for FluidDB", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof FluidException) {
+                throw (FluidException)cause;
+            } else if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new FluidException(cause);
+        } finally {
+            if(virtual) {
+                executor.shutdown();
+            }
+        }
+        return results;
+    }
+    
+    /**
+     * Stops the platform threads (if any were started)
+     */
+    public synchronized void shutdown() {
+        if(this.platformPool != null) {
+            this.platformPool.shutdown();
+            this.platformPool = null;
+        }
+    }
+    
+    /**
+     * @return a fresh virtual thread per task executor or the shared platform pool
+     */
+    private ExecutorService getExecutor() {
+        if(this.mode == ExecutionMode.VIRTUAL && VIRTUAL_EXECUTOR_FACTORY != null) {
+            try {
+                return (ExecutorService)VIRTUAL_EXECUTOR_FACTORY.invoke(null);
+            } catch (Exception e) {
+                // fall through to the platform threads
+            }
+        }
+        return this.getPlatformPool();
+    }
+    
+    private synchronized ExecutorService getPlatformPool() {
+        if(this.platformPool == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            this.platformPool = Executors.newFixedThreadPool(this.platformThreads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "JFluidDB-bulk-"+threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return this.platformPool;
+    }
+    
+    private static java.lang.reflect.Method findVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time by which an operation against FluidDB has to be finished, however many
+ * calls it takes.
+ * <p>
+ * Run the operation with call() and every call it makes to FluidDB (on this thread, or
+ * submitted to the FluidConnector's asynchronous or bulk executors) only gets the time 
+ * that's left as its connect and read timeout. Once the deadline has passed no more calls
+ * are started and the operation fails with a DeadlineExceededException. For example:
+ * <pre>
+ * Namespace books = Deadline.after(2, TimeUnit.SECONDS).call(new Callable&lt;Namespace&gt;() {
+ *     public Namespace call() throws Exception {
+ *         return fdb.getLoggedInUser().RootNamespace().getNamespace("books");
+ *     }
+ * });
+ * </pre>
+ * Deadlines nest: an operation run inside another only gets the earlier of the two.
+ */
+public final class Deadline {
+    
+    private final static ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+    
+    /**
+     * When the deadline passes (in System.nanoTime() terms)
+     */
+    private final long expiresAt;
+    
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+    
+    /**
+     * @param timeout how long from now the deadline is
+     * @param unit the unit of the timeout
+     * @return the deadline
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime()+unit.toNanos(timeout));
+    }
+    
+    /**
+     * @return the deadline the current thread is working to (null if there isn't one)
+     */
+    public static Deadline current() {
+        return current.get();
+    }
+    
+    /**
+     * @param unit the unit to return it in
+     * @return the time left before the deadline (0 once it has passed)
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(Math.max(0, this.expiresAt-System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * @return true once the deadline has passed
+     */
+    public boolean isExpired() {
+        return this.expiresAt-System.nanoTime() <= 0;
+    }
+    
+    /**
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public void check() throws DeadlineExceededException {
+        if(this.isExpired()) {
+            throw new DeadlineExceededException("Deadline exceeded");
+        }
+    }
+    
+    /**
+     * @param other another deadline (or null)
+     * @return whichever of the two deadlines comes first
+     */
+    public Deadline earlier(Deadline other) {
+        if(other == null || this.expiresAt-other.expiresAt <= 0) {
+            return this;
+        }
+        return other;
+    }
+    
+    /**
+     * Runs an operation against FluidDB with this deadline (or the current one, if that's
+     * earlier)
+     * @param task the operation
+     * @return its result
+     * @throws DeadlineExceededException if the deadline has already passed
+     * @throws Exception whatever the operation throws
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        Deadline previous = current.get();
+        this.earlier(previous).check();
+        current.set(this.earlier(previous));
+        try {
+            return task.call();
+        } finally {
+            if(previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+    
+    /**
+     * @param task an operation to run on another thread
+     * @return the operation, run with the current deadline (or task itself if there's no
+     *         current deadline)
+     */
+    public static <T> Callable<T> propagate(final Callable<T> task) {
+        final Deadline deadline = current.get();
+        if(deadline == null) {
+            return task;
+        }
+        return new Callable<T>() {
+            public T call() throws Exception {
+                return deadline.call(task);
+            }
+        };
+    }
+    
+    @Override
+    public String toString() {
+        return "Deadline in "+this.remaining(TimeUnit.MILLISECONDS)+"ms";
+    }
+}
@@ -22,15 +22,39 @@
  */
 package com.fluidinfo;
 
-import java.net.*;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Hashtable;
-import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
 
-import com.fluidinfo.utils.Base64;
+import com.fluidinfo.cache.HttpCache;
+import com.fluidinfo.http.ConnectionPool;
+import com.fluidinfo.http.PoolStats;
+import com.fluidinfo.http.TransferStats;
+import com.fluidinfo.metrics.CallEvents;
+import com.fluidinfo.metrics.FluidCallEvent;
+import com.fluidinfo.metrics.LatencyMetrics;
+import com.fluidinfo.resilience.CircuitBreaker;
+import com.fluidinfo.resilience.CircuitBreakerRegistry;
+import com.fluidinfo.resilience.ConcurrencyLimiter;
+import com.fluidinfo.resilience.HedgingPolicy;
+import com.fluidinfo.resilience.RateLimiter;
+import com.fluidinfo.resilience.RetryPolicy;
+import com.fluidinfo.transport.MultiplexedTransport;
+import com.fluidinfo.transport.PooledTransport;
+import com.fluidinfo.transport.SingleFlight;
+import com.fluidinfo.transport.ValidatorCache;
+import com.fluidinfo.utils.ExecutionMode;
 import com.fluidinfo.utils.Method;
-import com.fluidinfo.utils.StringUtil;
+import com.fluidinfo.utils.TransportMode;
 
 /**
  * A base class defining the call methods for all the other FluidDB classes
@@ -55,7 +79,7 @@ public class FluidConnector {
     */
     public final static String SandboxURL = "http://sandbox.fluidinfo.com";  
     
-    private String url = URL;
+    private volatile String url = URL;
     
     /**
     * Setter for the URL to use for connecting to FluidDB
@@ -76,7 +100,7 @@ public class FluidConnector {
     /**
     * The FluidDB username
     */
-    private String username = "";
+    private volatile String username = "";
     
     /**
     * @param username the username to set
@@ -95,7 +119,7 @@ public class FluidConnector {
     /**
     * The FluidDB password
     */
-    private String password = "";
+    private volatile String password = "";
     
     /**
     * @param password the password to set
@@ -111,6 +135,582 @@ public class FluidConnector {
         return password;
     }
     
+    /**
+    * Bytes sent and received, on the wire and uncompressed
+    */
+    private final TransferStats transferStats = new TransferStats();
+    
+    /**
+    * Time to first byte and total time of calls, by method and family of endpoints
+    */
+    private final LatencyMetrics latencyMetrics = new LatencyMetrics();
+    
+    /**
+    * Sends requests over a pool of keep-alive connections (TransportMode.POOLED)
+    */
+    private final PooledTransport pooledTransport = new PooledTransport(new ConnectionPool(), TIMEOUT, transferStats, latencyMetrics);
+    
+    /**
+    * Sends requests over HTTP/2 (TransportMode.HTTP2)
+    */
+    private final MultiplexedTransport multiplexedTransport = new MultiplexedTransport(TIMEOUT, transferStats, latencyMetrics);
+    
+    /**
+    * Getter for the pool of keep-alive connections used to talk to FluidDB (use it to
+    * configure the maximum connections per host, idle timeout etc)
+    * @return the pool of connections used to talk to FluidDB
+    */
+    public ConnectionPool getConnectionPool() {
+        return pooledTransport.getConnectionPool();
+    }
+    
+    /**
+    * Setter for the pool of keep-alive connections used to talk to FluidDB. Useful for
+    * sharing a single pool between several connectors.
+    * @param connectionPool the pool of connections to use
+    */
+    public void setConnectionPool(ConnectionPool connectionPool) {
+        pooledTransport.setConnectionPool(connectionPool);
+    }
+    
+    /**
+    * @return a snapshot of the connection pool's statistics (leased, idle, pending, 
+    * created and evicted connections)
+    */
+    public PoolStats getPoolStats() {
+        return pooledTransport.getConnectionPool().getStats();
+    }
+    
+    /**
+    * Setter for whether FluidDB is asked (via Accept-Encoding) to gzip or deflate its 
+    * responses. Compressed responses are decoded transparently. On by default.
+    * @param responseCompression true to ask for compressed responses
+    */
+    public void setResponseCompression(boolean responseCompression) {
+        pooledTransport.setResponseCompression(responseCompression);
+        multiplexedTransport.setResponseCompression(responseCompression);
+    }
+    
+    /**
+    * Getter for whether FluidDB is asked to compress its responses
+    * @return true if compressed responses are asked for
+    */
+    public boolean getResponseCompression() {
+        return pooledTransport.getResponseCompression();
+    }
+    
+    /**
+    * Setter for the size above which request bodies are gzipped before being sent. Off 
+    * by default since the server has to support compressed request bodies.
+    * @param threshold the smallest body (in bytes) to compress, or -1 to never compress
+    */
+    public void setRequestCompressionThreshold(int threshold) {
+        pooledTransport.setRequestCompressionThreshold(threshold);
+        multiplexedTransport.setRequestCompressionThreshold(threshold);
+    }
+    
+    /**
+    * Getter for the size above which request bodies are gzipped before being sent
+    * @return the smallest body (in bytes) that is compressed, or -1 if none are
+    */
+    public int getRequestCompressionThreshold() {
+        return pooledTransport.getRequestCompressionThreshold();
+    }
+    
+    /**
+    * @return running totals of the bytes sent and received, on the wire and uncompressed
+    */
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+    
+    /**
+    * Getter for the latency histograms of calls made over the built-in transports (calls 
+    * through a custom transport set with setTransport aren't recorded). Scrape them with 
+    * LatencyHistogram.snapshotAndReset() to get p50 / p99 / p999 for each interval.
+    * @return the latency histograms by method and family of endpoints
+    */
+    public LatencyMetrics getLatencyMetrics() {
+        return latencyMetrics;
+    }
+    
+    /**
+    * Caps the number of HTTP requests outstanding at once (null means no limit)
+    */
+    private volatile Semaphore requestLimit = null;
+    
+    private volatile int maxConcurrentRequests = 0;
+    
+    /**
+    * The number of HTTP requests currently outstanding
+    */
+    private final AtomicInteger outstandingRequests = new AtomicInteger();
+    
+    /**
+    * Setter for the connector-wide cap on the number of HTTP requests outstanding at 
+    * once. Calls over the limit wait for a request to finish.
+    * @param max the maximum number of outstanding requests (0 means no limit)
+    */
+    public void setMaxConcurrentRequests(int max) {
+        this.requestLimit = max > 0 ? new Semaphore(max, true) : null;
+        this.maxConcurrentRequests = max;
+    }
+    
+    /**
+    * Getter for the connector-wide cap on the number of HTTP requests outstanding at once
+    * @return the maximum number of outstanding requests (0 means no limit)
+    */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+    
+    /**
+    * @return the number of HTTP requests currently outstanding
+    */
+    public int getOutstandingRequests() {
+        return outstandingRequests.get();
+    }
+    
+    /**
+    * Runs bulk (fan-out) operations
+    */
+    private final BulkExecutor bulkExecutor = new BulkExecutor();
+    
+    /**
+    * Setter for the kind of threads bulk operations (such as FluidDB.getTagValues or 
+    * Namespace.walk) are fanned out over
+    * @param mode VIRTUAL for one virtual thread per call (Java 21+) or PLATFORM for a 
+    *        bounded pool of ordinary threads
+    */
+    public void setExecutionMode(ExecutionMode mode) {
+        bulkExecutor.setMode(mode);
+    }
+    
+    /**
+    * Getter for the kind of threads bulk operations are fanned out over
+    * @return the execution mode
+    */
+    public ExecutionMode getExecutionMode() {
+        return bulkExecutor.getMode();
+    }
+    
+    /**
+    * Runs a batch of operations against FluidDB concurrently and waits for them all. Use
+    * setMaxConcurrentRequests to cap how many HTTP requests they make at once.
+    * @param tasks The operations to run
+    * @return The results in the same order as the tasks
+    * @throws FluidException If any of the operations failed
+    * @throws IOException If any of the operations failed with an IOException
+    */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws FluidException, IOException {
+        if (Deadline.current() != null){
+            // the operations run on other threads, so take the deadline with them
+            List<Callable<T>> bounded = new ArrayList<Callable<T>>(tasks.size());
+            for (Callable<T> task : tasks){
+                bounded.add(Deadline.propagate(task));
+            }
+            return bulkExecutor.invokeAll(bounded);
+        }
+        return bulkExecutor.invokeAll(tasks);
+    }
+    
+    /**
+    * How requests are sent to FluidDB
+    */
+    private volatile TransportMode transportMode = TransportMode.POOLED;
+    
+    /**
+    * A transport that overrides the transport mode (null means use the transport mode)
+    */
+    private volatile FluidTransport transport = null;
+    
+    /**
+    * Setter for the way requests are sent to FluidDB
+    * @param transportMode POOLED (HTTP/1.1 keep-alive connections) or HTTP2 (many 
+    *        concurrent requests multiplexed over one connection)
+    */
+    public void setTransportMode(TransportMode transportMode) {
+        this.transportMode = transportMode;
+    }
+    
+    /**
+    * Getter for the way requests are sent to FluidDB
+    * @return the transport mode in use
+    */
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+    
+    /**
+    * Setter for the transport every call to FluidDB goes through, replacing the one 
+    * picked by the transport mode. Use it to record calls, answer them from memory or 
+    * send them some other way without changing any of the FOM classes.
+    * @param transport the transport to use (null to go back to the transport mode)
+    */
+    public void setTransport(FluidTransport transport) {
+        this.transport = transport;
+    }
+    
+    /**
+    * Getter for the transport every call to FluidDB goes through
+    * @return the transport set with setTransport or, if there isn't one, the transport
+    *         for the current transport mode
+    */
+    public FluidTransport getTransport() {
+        FluidTransport transport = this.transport;
+        if (transport != null){
+            return transport;
+        }
+        return this.transportMode == TransportMode.HTTP2 ? multiplexedTransport : pooledTransport;
+    }
+    
+    /**
+    * Decides which failed calls are tried again (null means none are)
+    */
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
+    
+    /**
+    * Setter for the policy that decides which failed calls are tried again, and when. By
+    * default GET, HEAD, PUT and DELETE calls that time out or get a 5xx are retried.
+    * @param retryPolicy the policy to use (null to never retry)
+    */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+    
+    /**
+    * Getter for the policy that decides which failed calls are tried again (use it to
+    * tune the backoff or check how many retries have been made)
+    * @return the retry policy (null if calls are never retried)
+    */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+    
+    /**
+    * Trips when an endpoint fails too often (null means calls are never cut off)
+    */
+    private volatile CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry();
+    
+    /**
+    * Setter for the circuit breakers that stop calls to a FluidDB endpoint that is failing
+    * or too slow. While a breaker is open calls fail straight away with a 
+    * CircuitOpenException.
+    * @param circuitBreakers the breakers to use (null to never cut calls off)
+    */
+    public void setCircuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+    
+    /**
+    * Getter for the circuit breakers (use it to tune the thresholds or check the state 
+    * of each endpoint)
+    * @return the circuit breakers (null if calls are never cut off)
+    */
+    public CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+    
+    /**
+    * Limits the rate of calls per method and path prefix (null means no limit)
+    */
+    private volatile RateLimiter rateLimiter = null;
+    
+    /**
+    * Setter for the client-side rate limiter, useful for keeping under FluidDB's 
+    * throttling when several workers share an account. Calls wait for a permit (up to
+    * the limiter's timeout) or fail with a RateLimitedException.
+    * @param rateLimiter the rate limiter to use (null for no limit)
+    */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+    
+    /**
+    * Getter for the client-side rate limiter
+    * @return the rate limiter (null if calls aren't limited)
+    */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+    
+    /**
+    * Adapts the number of calls in flight to how FluidDB is coping (null means no limit)
+    */
+    private volatile ConcurrencyLimiter concurrencyLimiter = null;
+    
+    /**
+    * Setter for the adaptive concurrency limiter, which raises or lowers the number of 
+    * calls allowed in flight at once from their round-trip times and errors. Calls over 
+    * the limit are queued and then shed with a ConcurrencyLimitException.
+    * @param concurrencyLimiter the limiter to use (e.g. new ConcurrencyLimiter(new 
+    *        AimdLimit())), or null for no adaptive limit
+    */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+    
+    /**
+    * Getter for the adaptive concurrency limiter (use it to check the current limit, 
+    * calls in flight and rejections)
+    * @return the limiter (null if there's no adaptive limit)
+    */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+    
+    /**
+    * Hedges slow GET and HEAD calls (null means calls aren't hedged)
+    */
+    private volatile HedgingPolicy hedgingPolicy = null;
+    
+    /**
+    * Setter for the hedging policy. When set, a GET or HEAD that hasn't been answered 
+    * after a percentile of recent latencies is sent again and the first answer wins.
+    * @param hedgingPolicy the policy to use (null to never hedge, which is the default)
+    */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+    
+    /**
+    * Getter for the hedging policy (use it to tune the delay or see how often hedges win)
+    * @return the hedging policy (null if calls aren't hedged)
+    */
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+    
+    /**
+    * Coalesces identical GET and HEAD calls in flight (null means they aren't coalesced)
+    */
+    private volatile SingleFlight singleFlight = new SingleFlight();
+    
+    /**
+    * Setter for the coalescing of identical calls. While a GET or HEAD is in flight, 
+    * identical calls (same path, arguments and credentials) wait for its response rather 
+    * than sending their own. On by default.
+    * @param singleFlight the coalescer to use (null to send every call)
+    */
+    public void setSingleFlight(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+    
+    /**
+    * Getter for the coalescing of identical calls (use it to see how many requests were
+    * saved)
+    * @return the coalescer (null if every call is sent)
+    */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+    
+    /**
+    * The interceptors, in the order they run (only ever replaced, never modified)
+    */
+    private volatile Interceptor[] interceptors = new Interceptor[0];
+    
+    /**
+    * The first link of the interceptor chain (null if there are no interceptors)
+    */
+    private volatile FluidTransport intercepted = null;
+    
+    /**
+    * Adds an interceptor to the end of the chain every call goes through (see 
+    * Interceptor). The chain is built here rather than on each call, so calls never 
+    * allocate anything for it.
+    * @param interceptor the interceptor to add
+    */
+    public synchronized void addInterceptor(Interceptor interceptor) {
+        if (interceptor == null){
+            throw new NullPointerException("interceptor");
+        }
+        Interceptor[] updated = Arrays.copyOf(this.interceptors, this.interceptors.length+1);
+        updated[updated.length-1] = interceptor;
+        this.setInterceptors(updated);
+    }
+    
+    /**
+    * Removes an interceptor from the chain
+    * @param interceptor the interceptor to remove
+    * @return true if it was in the chain
+    */
+    public synchronized boolean removeInterceptor(Interceptor interceptor) {
+        List<Interceptor> updated = new ArrayList<Interceptor>(Arrays.asList(this.interceptors));
+        if (!updated.remove(interceptor)){
+            return false;
+        }
+        this.setInterceptors(updated.toArray(new Interceptor[updated.size()]));
+        return true;
+    }
+    
+    /**
+    * Getter for the interceptors every call goes through
+    * @return the interceptors, in the order they run
+    */
+    public List<Interceptor> getInterceptors() {
+        return Collections.unmodifiableList(Arrays.asList(this.interceptors.clone()));
+    }
+    
+    /**
+    * Replaces the interceptors and links them up (the last one hands on to the coalescer)
+    */
+    private void setInterceptors(Interceptor[] updated) {
+        FluidTransport chain = null;
+        if (updated.length > 0){
+            chain = this.coalescer;
+            for (int i = updated.length-1; i >= 0; i--){
+                final Interceptor interceptor = updated[i];
+                final FluidTransport next = chain;
+                chain = new FluidTransport() {
+                    public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+                        return interceptor.intercept(request, next);
+                    }
+                };
+            }
+        }
+        this.interceptors = updated;
+        this.intercepted = chain;
+    }
+    
+    /**
+    * Revalidates repeated GETs rather than downloading them again (null means it doesn't)
+    */
+    private volatile ValidatorCache validatorCache = new ValidatorCache();
+    
+    /**
+    * Setter for the validator cache. A GET for something already fetched is sent with 
+    * If-None-Match / If-Modified-Since and a 304 is answered with the earlier response. 
+    * On by default.
+    * <p>
+    * The cache keeps the responses it remembers in memory: by default up to 2 MB of 
+    * bodies (none over 256 KB) in at most 256 entries, plus whatever has been decoded 
+    * from them. Use ValidatorCache.setMaxSize to change that, or set null to keep 
+    * nothing.
+    * @param validatorCache the cache to use (null to always download in full)
+    */
+    public void setValidatorCache(ValidatorCache validatorCache) {
+        this.validatorCache = validatorCache;
+    }
+    
+    /**
+    * Getter for the validator cache (use it to see how many downloads were saved)
+    * @return the cache (null if GETs aren't revalidated)
+    */
+    public ValidatorCache getValidatorCache() {
+        return validatorCache;
+    }
+    
+    /**
+    * Answers GETs from a (persistent) HTTP cache when it can (null means there's no cache)
+    */
+    private volatile HttpCache httpCache = null;
+    
+    /**
+    * Setter for the HTTP cache. Fresh responses (according to their Cache-Control and
+    * Expires headers) are served from it without contacting FluidDB and stale ones are
+    * revalidated.
+    * @param httpCache the cache to use (null for none, which is the default)
+    */
+    public void setHttpCache(HttpCache httpCache) {
+        this.httpCache = httpCache;
+    }
+    
+    /**
+    * Getter for the HTTP cache (use it to see the hit rate or clear it)
+    * @return the cache (null if there isn't one)
+    */
+    public HttpCache getHttpCache() {
+        return httpCache;
+    }
+    
+    /**
+    * Runs the asynchronous calls (only created when first needed)
+    */
+    private AsyncDispatcher dispatcher = null;
+    
+    /**
+    * Getter for the dispatcher that runs asynchronous calls (use it to check how many
+    * calls are in flight or queued)
+    * @return the dispatcher that runs asynchronous calls
+    */
+    public synchronized AsyncDispatcher getAsyncDispatcher() {
+        if (this.dispatcher == null){
+            this.dispatcher = new AsyncDispatcher();
+        }
+        return this.dispatcher;
+    }
+    
+    /**
+    * Setter for the dispatcher that runs asynchronous calls. Useful for changing the 
+    * in-flight and queue limits or for sharing a dispatcher between connectors.
+    * @param dispatcher the dispatcher to use
+    */
+    public synchronized void setAsyncDispatcher(AsyncDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+    
+    /**
+    * Runs an operation against FluidDB in the background. If the dispatcher's queue is
+    * full this blocks until there is room.
+    * @param task The operation to run
+    * @return A future that completes with the result of the operation
+    */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        return this.getAsyncDispatcher().submit(Deadline.propagate(task));
+    }
+    
+    /**
+    * Makes an asynchronous call to FluidDB
+    * @param method The type of HTTP method to use 
+    * @param path The path to call
+    * @return A future that completes with the response
+    */
+    public CompletableFuture<FluidResponse> callAsync(Method method, String path) {
+        return this.callAsync(method, path, "");
+    }
+    
+    /**
+    * Makes an asynchronous call to FluidDB
+    * @param method The type of HTTP method to use 
+    * @param path The path to call
+    * @param body An optional body to send with the request
+    * @return A future that completes with the response
+    */
+    public CompletableFuture<FluidResponse> callAsync(Method method, String path, String body) {
+        return this.callAsync(method, path, body, new Hashtable<String, String>());
+    }
+    
+    /**
+    * Makes an asynchronous call to FluidDB
+    * @param method The type of HTTP method to use 
+    * @param path The path to call
+    * @param body An optional body to send with the request
+    * @param args A dictionary of arguments to pass with the request
+    * @return A future that completes with the response
+    */
+    public CompletableFuture<FluidResponse> callAsync(Method method, String path, String body, Hashtable<String, String> args) {
+        return this.callAsync(method, path, body, args, "application/json; charset=utf-8");
+    }
+    
+    /**
+    * Makes an asynchronous call to FluidDB
+    * @param method The type of HTTP method to use 
+    * @param path The path to call
+    * @param body An optional body to send with the request
+    * @param args A dictionary of arguments to pass with the request
+    * @param content_type The value for the Content-Type header
+    * @return A future that completes with the response (or exceptionally with a 
+    *         FluidException or IOException)
+    */
+    public CompletableFuture<FluidResponse> callAsync(final Method method, final String path, final String body, final Hashtable<String, String> args, final String content_type) {
+        return this.submit(new Callable<FluidResponse>() {
+            public FluidResponse call() throws Exception {
+                return Call(method, path, body, args, content_type);
+            }
+        });
+    }
+    
     /**
     * Makes a call to FluidDB
     * @param method The type of HTTP method to use 
@@ -164,112 +764,336 @@ public class FluidConnector {
      * @throws IOException Will get thrown if we can't extract the errorStream from the connection
      */
     public FluidResponse Call(Method method, String path, String body, Hashtable<String, String> args, String content_type) throws FluidException, IOException {   
-        // Build the URI we'll be calling
-        StringBuffer uri = new StringBuffer();
-        uri.append( this.url );
-        uri.append( path);
+        // Take a snapshot of the settings in case another thread changes them
+        FluidRequest request = new FluidRequest(this.url, this.username, this.password, method, path, body, args, content_type);
+        return this.call(request);
+    }
+    
+    /**
+     * Makes a call to FluidDB with a body that's already been encoded (e.g. by a 
+     * JsonWriter), so it's sent as it is
+     * @param method The type of HTTP method to use 
+     * @param path The path to call
+     * @param body The UTF-8 encoded body to send with the request (which must not be 
+     *        modified afterwards)
+     * @param args A dictionary of arguments to pass with the request
+     * @param content_type The value for the Content-Type header
+     * @return A string version of the result
+     * @throws FluidException If an error occurs, such as no such resource or malformed
+     *         arguments
+     * @throws IOException Will get thrown if we can't extract the errorStream from the connection
+     */
+    public FluidResponse Call(Method method, String path, byte[] body, Hashtable<String, String> args, String content_type) throws FluidException, IOException {
+        FluidRequest request = new FluidRequest(this.url, this.username, this.password, method, path, null, args, content_type);
+        return this.call(request.withBody(body));
+    }
+    
+    private FluidResponse call(FluidRequest request) throws FluidException, IOException {
+        Deadline deadline = Deadline.current();
+        if (deadline != null){
+            deadline.check();
+            request = request.withDeadline(deadline);
+        }
+        // Shows up in Java Flight Recorder recordings (null otherwise)
+        FluidCallEvent event = CallEvents.startCall(request);
+        FluidResponse response = null;
+        Throwable error = null;
+        try{
+            FluidTransport first = this.intercepted;
+            if (first == null){
+                response = this.coalescer.execute(request);
+            } else {
+                response = first.execute(request);
+            }
+            return response;
+        } catch (Throwable e){
+            error = e;
+            throw e;
+        } finally{
+            if (event != null){
+                event.finish(response, error);
+            }
+        }
+    }
+    
+    /**
+     * Makes a call to FluidDB and hands back the response as soon as its headers arrive,
+     * so a large body (e.g. the results of a broad search) can be read as it comes in 
+     * rather than held in memory. The caller must close the response; closing it before
+     * the end of the body drops the connection.
+     * <p>
+     * Streamed calls keep to the deadline, the rate limit, the circuit breaker and the cap
+     * on outstanding requests (an open stream counts as outstanding until it's closed) 
+     * but, since the body can't be replayed, aren't coalesced, cached, retried, hedged or
+     * intercepted. Nor do they count towards the adaptive concurrency limit, as the time
+     * taken to read the body is up to the caller. If the transport can't stream (see 
+     * StreamingTransport) the response is read in full first.
+     * @param method The type of HTTP method to use 
+     * @param path The path to call
+     * @param args A dictionary of arguments to pass with the request
+     * @return The response (4xx and 5xx responses are returned, not thrown)
+     * @throws FluidException If an error occurs, such as malformed arguments
+     * @throws IOException 
+     */
+    public StreamingResponse openStream(Method method, String path, Hashtable<String, String> args) throws FluidException, IOException {
+        FluidRequest request = new FluidRequest(this.url, this.username, this.password, method, path, "", args, "application/json; charset=utf-8");
+        Deadline deadline = Deadline.current();
+        if (deadline != null){
+            deadline.check();
+            request = request.withDeadline(deadline);
+        }
+        FluidTransport transport = this.getTransport();
+        CircuitBreakerRegistry circuitBreakers = this.circuitBreakers;
+        RateLimiter rateLimiter = this.rateLimiter;
+        final Semaphore limit = this.requestLimit;
         
-        if (args.size() > 0){
+        // Fail fast if FluidDB is known to be in trouble
+        CircuitBreaker breaker = null;
+        if (circuitBreakers != null){
+            breaker = circuitBreakers.get(request.getUrl());
+            breaker.acquire();
+        }
+        boolean recorded = false;
+        boolean holding = false;
+        try{
+            // Keep to the client-side rate limit
+            if (rateLimiter != null){
+                rateLimiter.permit(method, path, deadline);
+            }
+            // Wait our turn if too many requests are outstanding (until the stream's closed)
+            if (limit != null){
+                this.waitForRequestLimit(limit, request);
+            }
+            this.outstandingRequests.incrementAndGet();
+            holding = true;
+            
+            long start = System.nanoTime();
+            StreamingResponse stream;
             try{
-                uri.append("?");
-                Vector<String> argList = new Vector<String>();
-                Enumeration<String> e = args.keys();
-                while( e.hasMoreElements()){
-                    String k = e.nextElement();
-                    argList.add( k + "=" + URLEncoder.encode(args.get(k), "UTF-8") );
+                if (transport instanceof StreamingTransport){
+                    stream = ((StreamingTransport)transport).open(request);
+                } else {
+                    FluidResponse response = transport.execute(request);
+                    stream = new StreamingResponse(response, response.getResponseStream());
+                }
+            } catch (IOException e){
+                if (breaker != null){
+                    recorded = true;
+                    breaker.record(System.nanoTime() - start, true);
                 }
-                uri.append( StringUtil.join(argList, "&") );
-            } catch (Exception e){
-                throw new FluidException(e);
+                throw e;
+            }
+            // The breaker judges the call on how long the headers took to arrive
+            if (breaker != null){
+                recorded = true;
+                breaker.record(System.nanoTime() - start, CircuitBreaker.isFailure(stream.getResponseCode()));
+            }
+            holding = false;
+            final AtomicBoolean closed = new AtomicBoolean();
+            return new StreamingResponse(stream.getResponse(), stream.getBody()){
+                public void close() throws IOException {
+                    try{
+                        super.close();
+                    } finally {
+                        if (closed.compareAndSet(false, true)){
+                            finished(limit);
+                        }
+                    }
+                }
+            };
+        } finally{
+            // Hand back anything we took without getting an answer from FluidDB
+            if (breaker != null && !recorded){
+                breaker.ignore();
+            }
+            if (holding){
+                this.finished(limit);
             }
         }
+    }
+    
+    /**
+    * Makes a call, or waits for an identical one that's already in flight
+    */
+    private final FluidTransport coalescer = new FluidTransport() {
+        public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            SingleFlight singleFlight = FluidConnector.this.singleFlight;
+            if (singleFlight == null){
+                return revalidator.execute(request);
+            }
+            return singleFlight.execute(request, revalidator);
+        }
+    };
+    
+    /**
+    * Makes a call, conditional on what's in the validator cache (identical calls in flight
+    * share this)
+    */
+    private final FluidTransport revalidator = new FluidTransport() {
+        public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            ValidatorCache validatorCache = FluidConnector.this.validatorCache;
+            if (validatorCache == null){
+                return cacher.execute(request);
+            }
+            return validatorCache.execute(request, cacher);
+        }
+    };
+    
+    /**
+    * Makes a call, answering it from the HTTP cache if possible
+    */
+    private final FluidTransport cacher = new FluidTransport() {
+        public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            HttpCache httpCache = FluidConnector.this.httpCache;
+            if (httpCache == null){
+                return retrier.execute(request);
+            }
+            return httpCache.execute(request, retrier);
+        }
+    };
+    
+    /**
+    * Makes a call, retrying it if need be
+    */
+    private final FluidTransport retrier = new FluidTransport() {
+        public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            RetryPolicy retryPolicy = FluidConnector.this.retryPolicy;
+            if (retryPolicy == null){
+                return hedger.execute(request);
+            }
+            return retryPolicy.execute(request, hedger);
+        }
+    };
+    
+    /**
+    * Makes each attempt at a call, hedging it if need be (retries come back through here)
+    */
+    private final FluidTransport hedger = new FluidTransport() {
+        public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            CallEvents.attempted();
+            HedgingPolicy hedgingPolicy = FluidConnector.this.hedgingPolicy;
+            if (hedgingPolicy == null){
+                return send(request);
+            }
+            return hedgingPolicy.execute(request, sender);
+        }
+    };
+    
+    /**
+    * Sends each request to FluidDB (hedges come through here too)
+    */
+    private final FluidTransport sender = new FluidTransport() {
+        public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            return send(request);
+        }
+    };
+    
+    /**
+     * Sends a single attempt at a call with the current transport, once there's room
+     * under the cap on outstanding requests
+     * @param request The call to make
+     * @return The response
+     * @throws FluidException If an error occurs, such as malformed arguments
+     * @throws IOException 
+     */
+    private FluidResponse send(FluidRequest request) throws FluidException, IOException {
+        FluidTransport transport = this.getTransport();
+        CircuitBreakerRegistry circuitBreakers = this.circuitBreakers;
+        RateLimiter rateLimiter = this.rateLimiter;
+        ConcurrencyLimiter concurrencyLimiter = this.concurrencyLimiter;
+        Semaphore limit = this.requestLimit;
+        Deadline deadline = request.getDeadline();
+        if (deadline != null){
+            deadline.check();
+        }
         
-        // Declare some vars we'll use in a moment...
-        BufferedReader    reader      = null;
-        OutputStream      writer      = null;
-        HttpURLConnection connection  = null;
-        StringBuffer      sb          = new StringBuffer();
-        String            line        = "";
-        FluidResponse 	  response	  = null;
-        
-        // Lets build the HTTP request and attempt to get a response
+        // Fail fast if FluidDB is known to be in trouble
+        CircuitBreaker breaker = null;
+        if (circuitBreakers != null){
+            breaker = circuitBreakers.get(request.getUrl());
+            breaker.acquire();
+        }
+        boolean sent = false;
+        boolean admitted = false;
+        long started = 0;
         try{
-            // Basic setup of the connection to FluidDB
-            connection = (HttpURLConnection)new URL( uri.toString() ).openConnection();
-            connection.setRequestMethod(method.toString().toUpperCase() );
-            if ( method == Method.POST || method == Method.PUT )
-                connection.setDoInput(true);
-            connection.setDoOutput(true);
-            connection.setReadTimeout(TIMEOUT);
-            connection.setRequestProperty("Accept", "*/*");
-            connection.setRequestProperty("user-agent", "JFluidDB");
-            // Authorization header (if required)
-            if(!(this.password == "" & this.username == "")){
-                String userpass = this.username+":"+password;
-                connection.setRequestProperty("Authorization", "Basic "+Base64.encodeBytes(userpass.getBytes()));
+            // Keep to the client-side rate limit
+            if (rateLimiter != null){
+                rateLimiter.permit(request.getMethod(), request.getPath(), deadline);
             }
-            // Content type and body for POST/PUT requests
-            if ( body == "" || body == null){
-                connection.setRequestProperty("content-type", "text/plain; charset=utf-8");
-            } else {
-                byte[] data = body.getBytes("UTF-8");
-                connection.setRequestProperty("content-type", content_type);
-                connection.setRequestProperty("content-length", new Integer(data.length).toString() );
-                writer = connection.getOutputStream();
-                writer.write(data);
-                writer.close();
+            // Wait for room under the adaptive limit
+            if (concurrencyLimiter != null){
+                concurrencyLimiter.acquire(deadline);
+                admitted = true;
             }
-            
-            // Read the entire response
-            reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            while ((line = reader.readLine()) != null){
-                sb.append(line);
+            // Wait our turn if too many requests are outstanding
+            if (limit != null){
+                this.waitForRequestLimit(limit, request);
             }
-            reader.close();
-            response = this.BuildResponse(connection, sb.toString());		 
-        } catch (FileNotFoundException fnfe){
-            // Build a 404 response
-            response = this.BuildResponse(connection, connection.getURL().toString());
-        } catch ( IOException e) {
-            // Build a 401 (usually)
-            response = this.BuildResponse(connection, connection.getURL().toString());
-        } catch ( Exception e ) {
-            // catch all of the other exceptions so that we can provide more 
-            // fine-grained error handling for the response object otherwise barf with
-            // a FluidException
-            if(connection.getHeaderFields().containsKey("X-FluidDB-Error-Class")) {
-                response =  this.BuildResponse(connection, "");
-            } else {
-                throw new FluidException(e);
+            this.outstandingRequests.incrementAndGet();
+            
+            // Lets send the request and attempt to get a response
+            try{
+                sent = true;
+                // The adaptive limit goes by the round trip alone
+                started = System.nanoTime();
+                FluidResponse response = breaker == null ? transport.execute(request) : breaker.proceed(request, transport);
+                if (admitted){
+                    admitted = false;
+                    concurrencyLimiter.release(started, ConcurrencyLimiter.isDropped(response.getResponseCode()));
+                }
+                return response;
+            } catch (IOException e){
+                if (admitted){
+                    admitted = false;
+                    concurrencyLimiter.release(started, true);
+                }
+                throw e;
+            } finally {
+                this.finished(limit);
             }
         } finally {
-            // Tidy up after ourselves ;-)
-            connection.disconnect();
-            reader = null;
-            writer = null;
-            connection = null;
+            // Hand back anything we took without getting an answer from FluidDB
+            if (!sent && breaker != null){
+                breaker.ignore();
+            }
+            if (admitted){
+                concurrencyLimiter.ignore();
+            }
         }
-        // et voila!
-        return response;
     }
-
+    
     /**
-     * Utility method to build new FluidDBResponse instances given a connection and some content
-     * 
-     * @param connection The connection made to FluidDB
-     * @param content The payload of the response
-     * @return a new FluidDBResponse instance
-     * @throws IOException
+     * Waits for room under the cap on outstanding requests (until the request's deadline,
+     * if it has one)
+     * @param limit the cap
+     * @param request the call waiting to be made
+     * @throws DeadlineExceededException If the deadline passes first
+     * @throws InterruptedIOException If the thread is interrupted while waiting
      */
-    private FluidResponse BuildResponse(HttpURLConnection connection, String content) throws IOException {
-        // Grab some useful information
-        int responseCode = connection.getResponseCode();
-        String responseMessage = connection.getResponseMessage();
-        String responseEncoding = connection.getHeaderField("Content-Type");
-        String responseError = connection.getHeaderField("X-FluidDB-Error-Class");
-        String requestID = connection.getHeaderField("X-FluidDB-Request-Id");
-        // Build the FluidResponse object
-        return new FluidResponse(responseCode, responseMessage, responseEncoding, content, responseError, requestID);
+    private void waitForRequestLimit(Semaphore limit, FluidRequest request) throws DeadlineExceededException, InterruptedIOException {
+        Deadline deadline = request.getDeadline();
+        try{
+            if (deadline == null){
+                limit.acquire();
+            } else if (!limit.tryAcquire(deadline.remaining(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)){
+                throw new DeadlineExceededException("Deadline exceeded waiting to call FluidDB: "+request);
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to call FluidDB");
+        }
+    }
+    
+    /**
+     * Marks an outstanding request as finished, making room for another under the cap
+     * @param limit the cap the request waited for (or null if there wasn't one)
+     */
+    private void finished(Semaphore limit) {
+        this.outstandingRequests.decrementAndGet();
+        if (limit != null){
+            limit.release();
+        }
     }
     
     /**
@@ -22,17 +22,24 @@
 package com.fluidinfo;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import com.fluidinfo.fom.*;
 import com.fluidinfo.fom.Object;
+import com.fluidinfo.http.ConnectionPool;
+import com.fluidinfo.json.Json;
+import com.fluidinfo.json.JsonWriter;
+import com.fluidinfo.resilience.RetryPolicy;
+import com.fluidinfo.utils.ExecutionMode;
 import com.fluidinfo.utils.Method;
-import com.fluidinfo.utils.StringUtil;
+import com.fluidinfo.utils.TransportMode;
 
 /**
  * Represents an instance of FluidDB
@@ -60,6 +67,15 @@ public class FluidDB {
 		return this.url;
 	}
 
+	/**
+	 * Returns the pool of keep-alive connections used to talk to FluidDB (use it to 
+	 * configure the maximum connections per host or to read the pool statistics)
+	 * @return the pool of connections used to talk to FluidDB
+	 */
+	public ConnectionPool getConnectionPool(){
+		return this.fdb.getConnectionPool();
+	}
+
 	/**
 	 * Default constructor. 
 	 * 
@@ -80,6 +96,70 @@ public class FluidDB {
 		this.fdb.setUrl(this.url);
 	}
 	
+	/**
+	 * Constructor
+	 * @param URL The location of the FluidDB to connect to
+	 * @param mode How requests are sent to FluidDB (e.g. TransportMode.HTTP2 to multiplex
+	 *        concurrent calls over a single connection)
+	 */
+	public FluidDB(String URL, TransportMode mode){
+		this(URL);
+		this.fdb.setTransportMode(mode);
+	}
+	
+	/**
+	 * Sets how requests are sent to FluidDB
+	 * @param mode POOLED (HTTP/1.1 keep-alive connections) or HTTP2 (many concurrent 
+	 *        requests multiplexed over one connection)
+	 */
+	public void setTransportMode(TransportMode mode){
+		this.fdb.setTransportMode(mode);
+	}
+	
+	/**
+	 * Returns how requests are sent to FluidDB
+	 * @return the transport mode in use
+	 */
+	public TransportMode getTransportMode(){
+		return this.fdb.getTransportMode();
+	}
+	
+	/**
+	 * Sets the kind of threads bulk operations (getObjects, getTagValues, Namespace.walk)
+	 * are fanned out over
+	 * @param mode VIRTUAL for one virtual thread per call (Java 21+) or PLATFORM for a
+	 *        bounded pool of ordinary threads
+	 */
+	public void setExecutionMode(ExecutionMode mode){
+		this.fdb.setExecutionMode(mode);
+	}
+	
+	/**
+	 * Caps the number of HTTP requests outstanding at once across everything using this
+	 * instance
+	 * @param max the maximum number of outstanding requests (0 means no limit)
+	 */
+	public void setMaxConcurrentRequests(int max){
+		this.fdb.setMaxConcurrentRequests(max);
+	}
+	
+	/**
+	 * Sets the transport every call to FluidDB goes through (e.g. an InMemoryTransport
+	 * to work offline)
+	 * @param transport the transport to use (null to go back to the transport mode)
+	 */
+	public void setTransport(FluidTransport transport){
+		this.fdb.setTransport(transport);
+	}
+	
+	/**
+	 * Sets the policy that decides which failed calls to FluidDB are tried again
+	 * @param retryPolicy the policy to use (null to never retry)
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy){
+		this.fdb.setRetryPolicy(retryPolicy);
+	}
+	
 	/**
 	 * Sets the credentials for connecting to the FluidDB
 	 * 
@@ -115,6 +195,19 @@ public class FluidDB {
 		return childNamespace;
 	}
 	
+	/**
+	 * Asynchronously returns the specified namespace
+	 * @param path that uniquely identifies the namespace
+	 * @return a future that completes with the specified namespace
+	 */
+	public CompletableFuture<Namespace> getNamespaceAsync(final String path){
+		return this.fdb.submit(new Callable<Namespace>() {
+			public Namespace call() throws Exception {
+				return getNamespace(path);
+			}
+		});
+	}
+	
 	/**
 	 * Returns the specified tag
 	 * @param path that uniquely identifies the tag
@@ -168,16 +261,32 @@ public class FluidDB {
 	 * @throws IOException
 	 */
 	public Object createObject(String about) throws FOMException, JSONException, FluidException, IOException {
-        JSONObject jsonPayload = new JSONObject();
-        jsonPayload.put("about", about);
-        FluidResponse response = this.fdb.Call(Method.POST, "/objects", jsonPayload.toString());
-        JSONTokener jsonResultTokener = new JSONTokener(response.getResponseContent());
-        JSONObject jsonResult = new JSONObject(jsonResultTokener);
-        String newId = jsonResult.getString("id");
+        byte[] jsonPayload = JsonWriter.get().beginObject()
+            .name("about").value(about)
+            .endObject().toByteArray();
+        FluidResponse response = this.fdb.Call(Method.POST, "/objects", jsonPayload, new Hashtable<String, String>(), "application/json; charset=utf-8");
+        Map<String, java.lang.Object> jsonResult = response.getJson();
+        if(jsonResult == null) {
+            throw new JSONException("No content in the response to creating an object");
+        }
+        String newId = Json.getString(jsonResult, "id");
         Object newObject = new Object(this.fdb, newId, newId);
         return newObject;
     }
 	
+	/**
+	 * Asynchronously returns the specified tag
+	 * @param path that uniquely identifies the tag
+	 * @return a future that completes with the specified tag
+	 */
+	public CompletableFuture<Tag> getTagAsync(final String path){
+		return this.fdb.submit(new Callable<Tag>() {
+			public Tag call() throws Exception {
+				return getTag(path);
+			}
+		});
+	}
+	
 	/**
 	 * Gets an object with the provided id
 	 * @param id the id of the object to return
@@ -193,6 +302,90 @@ public class FluidDB {
         return o;
 	}
 	
+	/**
+	 * Asynchronously gets an object with the provided id
+	 * @param id the id of the object to return
+	 * @return a future that completes with the object with the referenced id
+	 */
+	public CompletableFuture<Object> getObjectAsync(final String id){
+		return this.fdb.submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				return getObject(id);
+			}
+		});
+	}
+	
+	/**
+	 * Gets all the objects with the provided ids, fetching them concurrently (see 
+	 * setExecutionMode and setMaxConcurrentRequests)
+	 * @param ids the ids of the objects to return
+	 * @return the objects in the same order as the ids
+	 * @throws FOMException
+	 * @throws FluidException
+	 * @throws IOException
+	 */
+	public Object[] getObjects(String[] ids) throws FOMException, FluidException, IOException {
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(ids.length);
+		for(int i=0; i<ids.length; i++) {
+			final Object o = new Object(this.fdb, ids[i], ids[i]);
+			tasks.add(new Callable<Object>() {
+				public Object call() throws Exception {
+					o.getItem();
+					return o;
+				}
+			});
+		}
+		return this.fdb.invokeAll(tasks).toArray(new Object[ids.length]);
+	}
+	
+	/**
+	 * Gets the value of a tag on each of the referenced objects, fetching them concurrently
+	 * (see setExecutionMode and setMaxConcurrentRequests). Handy for reading a tag across
+	 * the results of searchObjects.
+	 * @param ids the ids of the objects whose tag values we want
+	 * @param tag the tag whose values we're interested in
+	 * @return the tag values expressed as FluidResponses in the same order as the ids
+	 * @throws FOMException
+	 * @throws FluidException
+	 * @throws IOException
+	 */
+	public FluidResponse[] getTagValues(String[] ids, final Tag tag) throws FOMException, FluidException, IOException {
+		List<Callable<FluidResponse>> tasks = new ArrayList<Callable<FluidResponse>>(ids.length);
+		for(int i=0; i<ids.length; i++) {
+			final Object o = new Object(this.fdb, ids[i], ids[i]);
+			tasks.add(new Callable<FluidResponse>() {
+				public FluidResponse call() throws Exception {
+					return o.getTagValue(tag);
+				}
+			});
+		}
+		return this.fdb.invokeAll(tasks).toArray(new FluidResponse[ids.length]);
+	}
+	
+	/**
+	 * Gets the value of a tag on each of the referenced objects, fetching them concurrently
+	 * like getTagValues but handing back values that can be read as numbers, strings and 
+	 * so on without any further parsing.
+	 * @param ids the ids of the objects whose tag values we want
+	 * @param tag the tag whose values we're interested in
+	 * @return the tag values in the same order as the ids
+	 * @throws FOMException
+	 * @throws FluidException
+	 * @throws IOException
+	 */
+	public TagValue[] getValues(String[] ids, final Tag tag) throws FOMException, FluidException, IOException {
+		List<Callable<TagValue>> tasks = new ArrayList<Callable<TagValue>>(ids.length);
+		for(int i=0; i<ids.length; i++) {
+			final Object o = new Object(this.fdb, ids[i], ids[i]);
+			tasks.add(new Callable<TagValue>() {
+				public TagValue call() throws Exception {
+					return o.getValue(tag);
+				}
+			});
+		}
+		return this.fdb.invokeAll(tasks).toArray(new TagValue[ids.length]);
+	}
+	
 	/**
 	 * Given a query, will return a list of object ids that match. From the FluidDB docs:
 	 * <p>
@@ -236,12 +429,51 @@ public class FluidDB {
 	    args.put("query", query);
 	    FluidResponse r = this.fdb.Call(Method.GET, "/objects", "", args);
 	    if(r.getResponseCode()==200) {
-            JSONArray ids = StringUtil.getJsonObjectFromString(r.getResponseContent()).getJSONArray("ids");
-            return StringUtil.getStringArrayFromJSONArray(ids);
+            List<String> ids = r.getIds();
+            return ids.toArray(new String[ids.size()]);
 	    } else {
 	        // Lets generate a helpful exception...
 	        String message = this.fdb.BuildExceptionMessageFromResponse(r);
             throw new FluidException(message);
 	    }
 	}
+	
+	/**
+	 * Searches for objects (see searchObjects for the query language), reading the ids
+	 * as they arrive rather than all at once. Use it for queries that may match a very
+	 * large number of objects: memory use stays the same however many there are.
+	 * <p>
+	 * The results must be read to the end or closed. Closing them early stops the
+	 * download and drops the connection.
+	 * 
+	 * @param query The query
+	 * @return The ids of the matching objects
+	 * @throws IOException 
+	 * @throws FluidException If FluidDB doesn't accept the query
+	 */
+	public SearchResults streamObjects(String query) throws FluidException, IOException {
+	    Hashtable<String, String> args = new Hashtable<String, String>();
+	    args.put("query", query);
+	    StreamingResponse r = this.fdb.openStream(Method.GET, "/objects", args);
+	    if(r.getResponseCode()==200) {
+	        return new SearchResults(r);
+	    } else {
+	        r.close();
+	        String message = this.fdb.BuildExceptionMessageFromResponse(r.getResponse());
+	        throw new FluidException(message);
+	    }
+	}
+	
+	/**
+	 * Asynchronous version of searchObjects
+	 * @param query The query
+	 * @return A future that completes with an array of the matching object ids
+	 */
+	public CompletableFuture<String[]> searchObjectsAsync(final String query) {
+	    return this.fdb.submit(new Callable<String[]>() {
+	        public String[] call() throws Exception {
+	            return searchObjects(query);
+	        }
+	    });
+	}
 }
\ No newline at end of file
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fluidinfo.http.Headers;
+import com.fluidinfo.utils.Method;
+
+/**
+ * A description of a single call to FluidDB - everything a FluidTransport needs to
+ * send it
+ */
+public class FluidRequest {
+    
+    private String url;
+    private String username;
+    private String password;
+    private Method method;
+    private String path;
+    private String body;
+    private volatile byte[] bodyBytes;
+    private Hashtable<String, String> args;
+    private String contentType;
+    private Map<String, String> headers;
+    private Deadline deadline = null;
+    
+    /**
+     * Constructor
+     * @param url The URL of the FluidDB instance (e.g. FluidConnector.URL)
+     * @param username The username to authenticate with ("" for anonymous calls)
+     * @param password The password to authenticate with ("" for anonymous calls)
+     * @param method The type of HTTP method to use
+     * @param path The path to call
+     * @param body The body to send with the request ("" or null for none)
+     * @param args A dictionary of arguments to pass with the request
+     * @param contentType The value for the Content-Type header
+     */
+    public FluidRequest(String url, String username, String password, Method method, String path, String body, Hashtable<String, String> args, String contentType) {
+        this(url, username, password, method, path, body, args, contentType, null);
+    }
+    
+    /**
+     * Constructor
+     * @param url The URL of the FluidDB instance (e.g. FluidConnector.URL)
+     * @param username The username to authenticate with ("" for anonymous calls)
+     * @param password The password to authenticate with ("" for anonymous calls)
+     * @param method The type of HTTP method to use
+     * @param path The path to call
+     * @param body The body to send with the request ("" or null for none)
+     * @param args A dictionary of arguments to pass with the request
+     * @param contentType The value for the Content-Type header
+     * @param headers Any extra headers to send (or null)
+     * @throws IllegalArgumentException if a header name isn't a valid HTTP token or a 
+     *         value has a CR, LF or other control character in it
+     */
+    public FluidRequest(String url, String username, String password, Method method, String path, String body, Hashtable<String, String> args, String contentType, Map<String, String> headers) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.method = method;
+        this.path = path;
+        this.body = body;
+        this.args = args;
+        this.contentType = contentType;
+        if(headers == null || headers.isEmpty()) {
+            this.headers = Collections.emptyMap();
+        } else {
+            Headers.check(headers);
+            this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(headers));
+        }
+    }
+    
+    /**
+     * @return the URL of the FluidDB instance
+     */
+    public String getUrl() {
+        return this.url;
+    }
+    
+    /**
+     * @return the username to authenticate with ("" for anonymous calls)
+     */
+    public String getUsername() {
+        return this.username;
+    }
+    
+    /**
+     * @return the password to authenticate with ("" for anonymous calls)
+     */
+    public String getPassword() {
+        return this.password;
+    }
+    
+    /**
+     * @return the type of HTTP method to use
+     */
+    public Method getMethod() {
+        return this.method;
+    }
+    
+    /**
+     * @return the path to call
+     */
+    public String getPath() {
+        return this.path;
+    }
+    
+    /**
+     * @return the body to send with the request ("" or null for none)
+     */
+    public String getBody() {
+        if(this.body == null && this.bodyBytes != null) {
+            return new String(this.bodyBytes, StandardCharsets.UTF_8);
+        }
+        return this.body;
+    }
+    
+    /**
+     * The body as it's sent - encoded as UTF-8 the first time it's asked for, unless the
+     * request was made with the bytes to begin with. The array must not be modified.
+     * @return the body to send with the request, or null if there isn't one
+     */
+    public byte[] getBodyBytes() {
+        byte[] bytes = this.bodyBytes;
+        if(bytes == null && this.hasBody()) {
+            bytes = this.body.getBytes(StandardCharsets.UTF_8);
+            this.bodyBytes = bytes;
+        }
+        return bytes;
+    }
+    
+    /**
+     * @return true if there is a body to send
+     */
+    public boolean hasBody() {
+        if(this.body == null && this.bodyBytes != null) {
+            return this.bodyBytes.length > 0;
+        }
+        return this.body != null && this.body.length() > 0;
+    }
+    
+    /**
+     * @return the arguments to pass with the request
+     */
+    public Hashtable<String, String> getArgs() {
+        return this.args;
+    }
+    
+    /**
+     * @return the value for the Content-Type header
+     */
+    public String getContentType() {
+        return this.contentType;
+    }
+    
+    /**
+     * @return any extra headers to send (on top of the ones every call has)
+     */
+    public Map<String, String> getHeaders() {
+        return this.headers;
+    }
+    
+    /**
+     * Requests are never changed once made, so this returns a copy
+     * @param name The name of the header
+     * @param value Its value
+     * @return a copy of this request that also sends the header
+     * @throws IllegalArgumentException if the name isn't a valid HTTP token or the value
+     *         has a CR, LF or other control character in it
+     */
+    public FluidRequest withHeader(String name, String value) {
+        Map<String, String> headers = new LinkedHashMap<String, String>(this.headers);
+        headers.put(name, value);
+        FluidRequest request = new FluidRequest(this.url, this.username, this.password, this.method, this.path, this.body, this.args, this.contentType, headers);
+        request.bodyBytes = this.bodyBytes;
+        request.deadline = this.deadline;
+        return request;
+    }
+    
+    /**
+     * @return the deadline the call has to be finished by (null if there isn't one)
+     */
+    public Deadline getDeadline() {
+        return this.deadline;
+    }
+    
+    /**
+     * Requests are never changed once made, so this returns a copy
+     * @param deadline The deadline the call has to be finished by (or null)
+     * @return a copy of this request with the deadline
+     */
+    public FluidRequest withDeadline(Deadline deadline) {
+        FluidRequest request = new FluidRequest(this.url, this.username, this.password, this.method, this.path, this.body, this.args, this.contentType, this.headers);
+        request.bodyBytes = this.bodyBytes;
+        request.deadline = deadline;
+        return request;
+    }
+    
+    /**
+     * Requests are never changed once made, so this returns a copy
+     * @param body The UTF-8 encoded body to send (e.g. from a JsonWriter), which must not
+     *        be modified afterwards
+     * @return a copy of this request that sends the body
+     */
+    public FluidRequest withBody(byte[] body) {
+        FluidRequest request = new FluidRequest(this.url, this.username, this.password, this.method, this.path, null, this.args, this.contentType, this.headers);
+        request.bodyBytes = body;
+        request.deadline = this.deadline;
+        return request;
+    }
+    
+    @Override
+    public String toString() {
+        return this.method.toString().toUpperCase()+" "+this.path+(this.args.isEmpty() ? "" : " "+this.args);
+    }
+}
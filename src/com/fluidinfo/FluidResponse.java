@@ -21,6 +21,20 @@
  */
 package com.fluidinfo;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONException;
+
+import com.fluidinfo.json.Json;
+
 /**
  * 
  * A simple class used to hold the raw results from a call to FluidDB
@@ -33,9 +47,20 @@ public class FluidResponse {
 	private int responseCode;
 	private String responseMessage;
 	private String responseContentType;
-	private String responseContent;
+	private volatile String responseContent;
+	private volatile byte[] responseBytes;
 	private String responseError;
 	private String responseRequestID;
+	private Map<String, String> responseHeaders;
+	
+	/**
+	 * The parsed content: a JSONObject, the JSONException parsing failed with or NO_JSON
+	 */
+	private volatile java.lang.Object json;
+	
+	private volatile List<String> ids;
+	
+	private final static java.lang.Object NO_JSON = new java.lang.Object();
 	
 	/**
 	 * Gets the HTTP response code returned from FluidDB (e.g. 200, 404)
@@ -67,10 +92,145 @@ public class FluidResponse {
 	/**
 	 * The raw content of the response from FluidDB (see the content-type to work out what it is)
 	 * 
+	 * The bytes are only decoded the first time this is called, using the charset named in
+	 * the content-type (or UTF-8 if there isn't one)
+	 * 
 	 * @return the raw content of the response from FluidDB
 	 */
 	public String getResponseContent(){
-		return this.responseContent;
+		String content = this.responseContent;
+		if(content == null && this.responseBytes != null){
+			content = new String(this.responseBytes, this.getResponseCharset());
+			this.responseContent = content;
+		}
+		return content;
+	}
+	
+	/**
+	 * The content of the response from FluidDB parsed as a JSON object (see JsonCodec
+	 * for how JSON values are represented). It's only parsed the first time this is 
+	 * called (by whichever thread gets here first), straight from the bytes if they're 
+	 * UTF-8, and the same map is handed to every caller after that.
+	 * <p>
+	 * Responses without a body (204 No Content, HEAD responses) are never parsed.
+	 * 
+	 * @return the content as a JSON object that's unmodifiable (along with every object
+	 *         and array in it), or null if there's no content
+	 * @throws JSONException if the content isn't a JSON object (every call throws again)
+	 */
+	public Map<String, java.lang.Object> getJson() throws JSONException{
+		java.lang.Object json = this.json;
+		if(json == null){
+			synchronized(this){
+				json = this.json;
+				if(json == null){
+					json = this.parseJson();
+					this.json = json;
+				}
+			}
+		}
+		if(json instanceof JSONException){
+			throw new JSONException(((JSONException)json).getMessage());
+		}
+		return json == NO_JSON ? null : Json.asObject(json);
+	}
+	
+	private java.lang.Object parseJson(){
+		if(this.responseCode == 204){
+			return NO_JSON;
+		}
+		byte[] bytes = this.responseBytes;
+		String content = this.responseContent;
+		if((bytes != null && bytes.length == 0) || (bytes == null && (content == null || content.length() == 0))){
+			return NO_JSON;
+		}
+		try{
+			java.lang.Object value;
+			if(bytes != null && this.getResponseCharset().equals(StandardCharsets.UTF_8)){
+				value = Json.getCodec().read(bytes, 0, bytes.length);
+			} else {
+				value = Json.getCodec().read(this.getResponseContent());
+			}
+			return Json.unmodifiable(Json.asObject(value));
+		} catch (JSONException e){
+			return e;
+		}
+	}
+	
+	/**
+	 * The object ids in a search result (the "ids" array of the JSON content), parsed at 
+	 * most once
+	 * 
+	 * @return the ids (an empty list if there's no content)
+	 * @throws JSONException if the content isn't JSON or has no "ids" array
+	 */
+	public List<String> getIds() throws JSONException{
+		List<String> ids = this.ids;
+		if(ids == null){
+			Map<String, java.lang.Object> json = this.getJson();
+			if(json == null){
+				ids = Collections.emptyList();
+			} else {
+				ids = Collections.unmodifiableList(Arrays.asList(Json.getStringArray(json, "ids")));
+			}
+			// any thread that gets here builds an equal list
+			this.ids = ids;
+		}
+		return ids;
+	}
+	
+	/**
+	 * The undecoded bytes of the response from FluidDB. The array is shared with this
+	 * response so it must not be modified.
+	 * 
+	 * @return the bytes of the response from FluidDB
+	 */
+	public byte[] getResponseBytes(){
+		byte[] bytes = this.responseBytes;
+		if(bytes == null && this.responseContent != null){
+			bytes = this.responseContent.getBytes(this.getResponseCharset());
+			this.responseBytes = bytes;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * A stream over the bytes of the response from FluidDB - handy for passing the content 
+	 * on without decoding it into a String first
+	 * 
+	 * @return a stream of the bytes of the response from FluidDB
+	 */
+	public InputStream getResponseStream(){
+		byte[] bytes = this.getResponseBytes();
+		return new ByteArrayInputStream(bytes == null ? new byte[0] : bytes);
+	}
+	
+	/**
+	 * The charset named in the content-type returned from FluidDB
+	 * 
+	 * @return the charset of the response (UTF-8 if none, or an unknown one, was given)
+	 */
+	public Charset getResponseCharset(){
+		if(this.responseContentType != null){
+			int i = this.responseContentType.toLowerCase().indexOf("charset=");
+			if(i != -1){
+				String name = this.responseContentType.substring(i+8);
+				int end = name.indexOf(';');
+				if(end != -1){
+					name = name.substring(0, end);
+				}
+				name = name.trim();
+				if(name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")){
+					name = name.substring(1, name.length()-1);
+				}
+				try{
+					return Charset.forName(name);
+				} catch (IllegalArgumentException e){
+					// fall through to the default
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
 	}
 	
 	/**
@@ -91,6 +251,28 @@ public class FluidResponse {
 		return this.responseRequestID;
 	}
 	
+	/**
+	 * Gets the value of one of the HTTP headers returned from FluidDB
+	 * 
+	 * @param name - the name of the header (e.g. ETag), in any case
+	 * @return the value of the header or null if FluidDB didn't send it
+	 */
+	public String getResponseHeader(String name){
+		return this.getResponseHeaders().get(name);
+	}
+	
+	/**
+	 * Gets all the HTTP headers returned from FluidDB (looked up case-insensitively)
+	 * 
+	 * @return the response headers (empty if they weren't kept)
+	 */
+	public Map<String, String> getResponseHeaders(){
+		if(this.responseHeaders == null){
+			return Collections.emptyMap();
+		}
+		return this.responseHeaders;
+	}
+	
 	/**
 	 * Constructor
 	 * 
@@ -114,11 +296,71 @@ public class FluidResponse {
 	 * @param RequestID
 	 */
 	public FluidResponse(int ResponseCode, String ResponseMessage, String ResponseContentType, String ResponseContent, String ResponseError, String RequestID) {
+		this(ResponseCode, ResponseMessage, ResponseContentType, ResponseContent, ResponseError, RequestID, null);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param ResponseCode - the HTTP response code returned from FluidDB (e.g. 200, 404)
+	 * @param ResponseMessage - the response message returned from FluidDB (e.g. OK, Not Found etc)
+	 * @param ResponseContentType - the content-type returned from FluidDB (usually "application/json")
+	 * @param ResponseContent - the raw content of the response from FluidDB
+	 * @param ResponseError - the error class returned by FluidDB
+	 * @param RequestID - the ID of the request
+	 * @param ResponseHeaders - the HTTP headers returned from FluidDB (or null)
+	 */
+	public FluidResponse(int ResponseCode, String ResponseMessage, String ResponseContentType, String ResponseContent, String ResponseError, String RequestID, Map<String, String> ResponseHeaders) {
 		this.responseCode=ResponseCode;
 		this.responseMessage=ResponseMessage;
 		this.responseContentType=ResponseContentType;
 		this.responseContent=ResponseContent;
 		this.responseError=ResponseError;
 		this.responseRequestID=RequestID;
+		this.responseHeaders=copyHeaders(ResponseHeaders);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param ResponseCode - the HTTP response code returned from FluidDB (e.g. 200, 404)
+	 * @param ResponseMessage - the response message returned from FluidDB (e.g. OK, Not Found etc)
+	 * @param ResponseContentType - the content-type returned from FluidDB (usually "application/json")
+	 * @param ResponseBytes - the raw (undecoded) content of the response from FluidDB
+	 * @param ResponseError - the error class returned by FluidDB
+	 * @param RequestID - the ID of the request
+	 */
+	public FluidResponse(int ResponseCode, String ResponseMessage, String ResponseContentType, byte[] ResponseBytes, String ResponseError, String RequestID) {
+		this(ResponseCode, ResponseMessage, ResponseContentType, ResponseBytes, ResponseError, RequestID, null);
+	}
+	
+	/**
+	 * Constructor
+	 * 
+	 * @param ResponseCode - the HTTP response code returned from FluidDB (e.g. 200, 404)
+	 * @param ResponseMessage - the response message returned from FluidDB (e.g. OK, Not Found etc)
+	 * @param ResponseContentType - the content-type returned from FluidDB (usually "application/json")
+	 * @param ResponseBytes - the raw (undecoded) content of the response from FluidDB
+	 * @param ResponseError - the error class returned by FluidDB
+	 * @param RequestID - the ID of the request
+	 * @param ResponseHeaders - the HTTP headers returned from FluidDB (or null)
+	 */
+	public FluidResponse(int ResponseCode, String ResponseMessage, String ResponseContentType, byte[] ResponseBytes, String ResponseError, String RequestID, Map<String, String> ResponseHeaders) {
+		this.responseCode=ResponseCode;
+		this.responseMessage=ResponseMessage;
+		this.responseContentType=ResponseContentType;
+		this.responseBytes=ResponseBytes;
+		this.responseError=ResponseError;
+		this.responseRequestID=RequestID;
+		this.responseHeaders=copyHeaders(ResponseHeaders);
+	}
+	
+	private static Map<String, String> copyHeaders(Map<String, String> headers){
+		if(headers == null || headers.isEmpty()){
+			return null;
+		}
+		Map<String, String> copy = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		copy.putAll(headers);
+		return Collections.unmodifiableMap(copy);
 	}
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.io.IOException;
+
+/**
+ * Sends calls to FluidDB. FluidConnector.Call hands every request to a transport, so 
+ * swapping the transport (see FluidConnector.setTransport) changes how all of the FOM 
+ * classes talk to FluidDB - over pooled HTTP/1.1 connections, over HTTP/2, through a 
+ * recorder or to canned responses in memory.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface FluidTransport {
+    
+    /**
+     * Sends a request to FluidDB and waits for the response
+     * @param request The call to make
+     * @return The response (4xx and 5xx responses are returned, not thrown)
+     * @throws FluidException If the request couldn't be made (e.g. malformed arguments)
+     * @throws IOException If there was a problem talking to FluidDB
+     */
+    FluidResponse execute(FluidRequest request) throws FluidException, IOException;
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.io.IOException;
+
+/**
+ * Hooks into every call made through a FluidConnector (see
+ * FluidConnector.addInterceptor). Interceptors run in the order they were added, each
+ * handing the request on to the next until the last hands it to the connector to send.
+ * An interceptor can:
+ * <ul>
+ * <li>look at or time the request and response (metrics, tracing, logging)</li>
+ * <li>pass on a different request (e.g. request.withHeader("Authorization", ...))</li>
+ * <li>return a different response</li>
+ * <li>answer the call itself without calling next at all (e.g. from its own cache)</li>
+ * </ul>
+ * For example:
+ * <pre>
+ * fdb.addInterceptor(new Interceptor() {
+ *     public FluidResponse intercept(FluidRequest request, FluidTransport next) throws FluidException, IOException {
+ *         return next.execute(request.withHeader("X-Trace-Id", traceId()));
+ *     }
+ * });
+ * </pre>
+ * Interceptors see each call once, before identical calls are coalesced and before any
+ * caching, retries or hedging. Headers they add count towards what makes two calls
+ * identical, so calls made under different identities never share a response.
+ * Implementations must be thread-safe.
+ */
+public interface Interceptor {
+    
+    /**
+     * Handles a call
+     * @param request The call being made
+     * @param next The rest of the chain (call it at most once per attempt)
+     * @return The response (4xx and 5xx responses are returned, not thrown)
+     * @throws FluidException If the request couldn't be made (e.g. malformed arguments)
+     * @throws IOException If there was a problem talking to FluidDB
+     */
+    FluidResponse intercept(FluidRequest request, FluidTransport next) throws FluidException, IOException;
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.fluidinfo.json.JsonReader;
+
+/**
+ * The ids of the objects matching a search (see FluidDB.streamObjects), read from the
+ * response one at a time as they arrive so that however many objects match only a few
+ * kilobytes are held in memory. For example:
+ * <pre>
+ * SearchResults results = fdb.streamObjects("has ntoll/rating");
+ * try {
+ *     while(results.hasNext()) {
+ *         String id = results.next();
+ *         ...
+ *     }
+ * } finally {
+ *     results.close();
+ * }
+ * </pre>
+ * The results must be closed unless they're read to the end. Closing them early stops
+ * the download and drops the connection.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class SearchResults implements Iterator<String>, Closeable {
+    
+    private final StreamingResponse response;
+    
+    private final JsonReader reader;
+    
+    private boolean started = false;
+    
+    private boolean finished = false;
+    
+    private String next = null;
+    
+    private long count = 0;
+    
+    /**
+     * Constructor
+     * @param response a search response, e.g. {"ids": ["1234", ...]}
+     */
+    public SearchResults(StreamingResponse response) {
+        this.response = response;
+        this.reader = new JsonReader(response.getBody());
+    }
+    
+    /**
+     * @return true if there's another id
+     * @throws UncheckedIOException if the results can't be read (they're closed first)
+     */
+    public boolean hasNext() {
+        if(this.next != null) {
+            return true;
+        }
+        if(this.finished) {
+            return false;
+        }
+        try {
+            if(!this.started) {
+                this.started = true;
+                this.reader.beginObject();
+                if(!this.seekIds()) {
+                    this.finish();
+                    return false;
+                }
+            }
+            if(this.reader.hasNext()) {
+                this.next = this.reader.nextString();
+                return true;
+            }
+            this.reader.endArray();
+            // there shouldn't be anything else, but just in case
+            this.seekIds();
+            this.finish();
+            return false;
+        } catch (IOException e) {
+            this.finished = true;
+            try {
+                this.response.close();
+            } catch (IOException ignored) {
+                // we're already failing
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * @return the next id
+     * @throws NoSuchElementException if there are no more
+     */
+    public String next() {
+        if(!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String id = this.next;
+        this.next = null;
+        this.count++;
+        return id;
+    }
+    
+    /**
+     * @return the number of ids returned so far
+     */
+    public long getCount() {
+        return this.count;
+    }
+    
+    /**
+     * @return the ids as a sequential stream (closing the stream closes the results)
+     */
+    public Stream<String> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(new Runnable() {
+                public void run() {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+    }
+    
+    /**
+     * Stops reading the results (dropping the connection if they weren't all read)
+     */
+    public void close() throws IOException {
+        this.finished = true;
+        this.next = null;
+        this.response.close();
+    }
+    
+    /**
+     * Skips members of the top-level object up to the ids array
+     * @return true if the reader is now inside the ids array, false if it's reached the
+     *         end of the object
+     */
+    private boolean seekIds() throws IOException {
+        while(this.reader.hasNext()) {
+            if(this.reader.nextName().equals("ids")) {
+                this.reader.beginArray();
+                return true;
+            }
+            this.reader.skipValue();
+        }
+        this.reader.endObject();
+        return false;
+    }
+    
+    /**
+     * Reads to the end of the body (so the connection can be reused) and closes it
+     */
+    private void finish() throws IOException {
+        this.finished = true;
+        InputStream body = this.response.getBody();
+        try {
+            if(this.reader.peek() != JsonReader.Token.END) {
+                throw new IOException("Malformed JSON: Expected the end of the document");
+            }
+            byte[] buffer = new byte[256];
+            while(body.read(buffer) != -1) {
+                // nothing else should be there
+            }
+        } finally {
+            this.response.close();
+        }
+    }
+}
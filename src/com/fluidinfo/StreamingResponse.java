@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A response from FluidDB whose body is read as it arrives rather than all at once (see
+ * FluidConnector.openStream). It must always be closed: reading the body to the end 
+ * lets the connection be reused, closing it early drops the connection.
+ */
+public class StreamingResponse implements Closeable {
+    
+    private final FluidResponse response;
+    
+    private final InputStream body;
+    
+    /**
+     * Constructor
+     * @param response the status and headers of the response (with no content, except for
+     *        4xx/5xx responses whose content is the URI that was called)
+     * @param body the (decompressed) body
+     */
+    public StreamingResponse(FluidResponse response, InputStream body) {
+        this.response = response;
+        this.body = body;
+    }
+    
+    /**
+     * @return the status and headers of the response
+     */
+    public FluidResponse getResponse() {
+        return this.response;
+    }
+    
+    /**
+     * @return the HTTP response code returned from FluidDB (e.g. 200, 404)
+     */
+    public int getResponseCode() {
+        return this.response.getResponseCode();
+    }
+    
+    /**
+     * @return the body, as it arrives
+     */
+    public InputStream getBody() {
+        return this.body;
+    }
+    
+    /**
+     * Closes the body (dropping the connection if it hasn't all been read)
+     */
+    public void close() throws IOException {
+        this.body.close();
+    }
+}
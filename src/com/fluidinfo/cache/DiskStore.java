@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size-bounded store of byte arrays on disk that survives restarts. Each entry is kept 
+ * in its own file (written to a temporary file first and then moved into place, so a 
+ * crash never leaves half an entry behind) and the least recently used entries are 
+ * deleted once the total size goes over the limit.
+ * <p>
+ * Entries belong to a group (e.g. the URI they were fetched from) so related ones can be
+ * removed together. The recency of each entry is kept in its file's modification time, so
+ * the LRU order is picked up again when the store is reopened. Entries that can't be read
+ * are treated as missing and deleted. This class is thread-safe.
+ */
+public class DiskStore {
+    
+    private final static int MAGIC = 0x4a464443;
+    
+    private final static String SUFFIX = ".entry";
+    
+    private final File directory;
+    
+    private final long maxSize;
+    
+    /**
+     * What's on disk, least recently used first (guarded by itself)
+     */
+    private final LinkedHashMap<String, Meta> index = new LinkedHashMap<String, Meta>(256, 0.75f, true);
+    
+    private long size = 0;
+    
+    private long evicted = 0;
+    
+    /**
+     * What we need to know about an entry without reading it
+     */
+    private final static class Meta {
+        final String group;
+        final long length;
+        
+        Meta(String group, long length) {
+            this.group = group;
+            this.length = length;
+        }
+    }
+    
+    /**
+     * Constructor - opens (or creates) a store, picking up any entries already there
+     * @param directory where to keep the entries
+     * @param maxSize the most bytes to keep on disk
+     * @throws IOException if the directory can't be created
+     */
+    public DiskStore(File directory, long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create "+directory);
+        }
+        this.load();
+    }
+    
+    private void load() {
+        File[] files = this.directory.listFiles();
+        if(files == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<File>();
+        for(File file : files) {
+            String name = file.getName();
+            if(name.endsWith(SUFFIX)) {
+                entries.add(file);
+            } else if(name.endsWith(".tmp")) {
+                // left over from a write that never finished
+                file.delete();
+            }
+        }
+        File[] sorted = entries.toArray(new File[entries.size()]);
+        final long[] modified = new long[sorted.length];
+        for(int i = 0; i < sorted.length; i++) {
+            modified[i] = sorted[i].lastModified();
+        }
+        Integer[] order = new Integer[sorted.length];
+        for(int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(modified[a], modified[b]);
+            }
+        });
+        synchronized(this.index) {
+            for(Integer i : order) {
+                File file = sorted[i];
+                String group = readGroup(file);
+                if(group == null) {
+                    file.delete();
+                    continue;
+                }
+                String name = file.getName();
+                String key = name.substring(0, name.length()-SUFFIX.length());
+                this.index.put(key, new Meta(group, file.length()));
+                this.size += file.length();
+            }
+            this.evict();
+        }
+    }
+    
+    private static String readGroup(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 512));
+            if(in.readInt() != MAGIC) {
+                return null;
+            }
+            return in.readUTF();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+    
+    /**
+     * @param key the key of an entry (letters, digits, - and _ only)
+     * @return its data or null if there's no such entry
+     */
+    public byte[] get(String key) {
+        synchronized(this.index) {
+            if(this.index.get(key) == null) {
+                return null;
+            }
+        }
+        File file = this.file(key);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if(in.readInt() != MAGIC) {
+                throw new IOException("Not a cache entry: "+file);
+            }
+            in.readUTF();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            // evicted while we were reading it, or damaged
+            this.remove(key);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+    
+    /**
+     * Adds or replaces an entry, then evicts the least recently used entries if the store
+     * is too big
+     * @param key the key of the entry (letters, digits, - and _ only)
+     * @param group the group the entry belongs to
+     * @param data its data
+     * @throws IOException if it can't be written
+     */
+    public void put(String key, String group, byte[] data) throws IOException {
+        File temp = Files.createTempFile(this.directory.toPath(), key+"-", ".tmp").toFile();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeUTF(group);
+            out.writeInt(data.length);
+            out.write(data);
+            out.close();
+            out = null;
+            synchronized(this.index) {
+                File file = this.file(key);
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                Meta old = this.index.put(key, new Meta(group, file.length()));
+                if(old != null) {
+                    this.size -= old.length;
+                }
+                this.size += file.length();
+                this.evict();
+            }
+        } finally {
+            close(out);
+            temp.delete();
+        }
+    }
+    
+    /**
+     * @param key the key of an entry
+     * @return true if there was such an entry
+     */
+    public boolean remove(String key) {
+        synchronized(this.index) {
+            Meta meta = this.index.remove(key);
+            if(meta == null) {
+                return false;
+            }
+            this.size -= meta.length;
+            this.file(key).delete();
+            return true;
+        }
+    }
+    
+    /**
+     * Removes every entry in a group
+     * @param group the group
+     * @return the number of entries removed
+     */
+    public int removeGroup(String group) {
+        int removed = 0;
+        synchronized(this.index) {
+            Iterator<Map.Entry<String, Meta>> i = this.index.entrySet().iterator();
+            while(i.hasNext()) {
+                Map.Entry<String, Meta> entry = i.next();
+                if(entry.getValue().group.equals(group)) {
+                    i.remove();
+                    this.size -= entry.getValue().length;
+                    this.file(entry.getKey()).delete();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * Removes every entry
+     */
+    public void clear() {
+        synchronized(this.index) {
+            for(String key : this.index.keySet()) {
+                this.file(key).delete();
+            }
+            this.index.clear();
+            this.size = 0;
+        }
+    }
+    
+    /**
+     * Deletes least recently used entries until the store fits (call holding the index)
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Meta>> i = this.index.entrySet().iterator();
+        while(this.size > this.maxSize && i.hasNext()) {
+            Map.Entry<String, Meta> entry = i.next();
+            i.remove();
+            this.size -= entry.getValue().length;
+            this.file(entry.getKey()).delete();
+            this.evicted++;
+        }
+    }
+    
+    private File file(String key) {
+        return new File(this.directory, key+SUFFIX);
+    }
+    
+    private static void close(Closeable c) {
+        if(c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // nothing to be done
+            }
+        }
+    }
+    
+    /**
+     * @return the directory the entries are kept in
+     */
+    public File getDirectory() {
+        return this.directory;
+    }
+    
+    /**
+     * @return the most bytes kept on disk
+     */
+    public long getMaxSize() {
+        return this.maxSize;
+    }
+    
+    /**
+     * @return the number of bytes on disk
+     */
+    public long getSize() {
+        synchronized(this.index) {
+            return this.size;
+        }
+    }
+    
+    /**
+     * @return the number of entries
+     */
+    public int getCount() {
+        synchronized(this.index) {
+            return this.index.size();
+        }
+    }
+    
+    /**
+     * @return the number of entries deleted to make room since the store was opened
+     */
+    public long getEvicted() {
+        synchronized(this.index) {
+            return this.evicted;
+        }
+    }
+}
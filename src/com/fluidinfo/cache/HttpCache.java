@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.transport.RequestKey;
+import com.fluidinfo.utils.Method;
+
+/**
+ * A private HTTP cache (following RFC 7234) for GETs, kept in a DiskStore so it's still
+ * warm after a restart.
+ * <p>
+ * A 200 response is stored unless it's marked no-store or varies on everything (Vary: *).
+ * It's served without contacting FluidDB for as long as it's fresh: for max-age seconds
+ * from Cache-Control, or else until Expires, allowing for the Age and Date headers. 
+ * No-cache responses (and Pragma: no-cache) are always revalidated. A response without
+ * explicit freshness is only fresh for getDefaultMaxAge() seconds, which is 0 unless set
+ * (no heuristic freshness is used).
+ * <p>
+ * A stale response is revalidated with If-None-Match / If-Modified-Since. A 304 updates
+ * the stored headers and the stored body is served. A successful POST, PUT or DELETE 
+ * removes what's stored for its path (with any arguments or credentials).
+ * <p>
+ * Entries are keyed on a RequestKey (a SHA-256 hash of the URL, path, arguments,
+ * credentials and extra headers such as an Authorization header an Interceptor adds), so
+ * no credentials are written to disk. Failing to read or write the cache never fails a call.
+ * This class is thread-safe.
+ */
+public class HttpCache {
+    
+    private final DiskStore store;
+    
+    private volatile long defaultMaxAge = 0;
+    
+    private final AtomicLong requests = new AtomicLong();
+    
+    private final AtomicLong hits = new AtomicLong();
+    
+    private final AtomicLong revalidated = new AtomicLong();
+    
+    private final AtomicLong invalidated = new AtomicLong();
+    
+    /**
+     * Constructor
+     * @param directory where to keep the cache
+     * @param maxSize the most bytes to keep on disk
+     * @throws IOException if the directory can't be created
+     */
+    public HttpCache(File directory, long maxSize) throws IOException {
+        this(new DiskStore(directory, maxSize));
+    }
+    
+    /**
+     * Constructor
+     * @param store where to keep the cache
+     */
+    public HttpCache(DiskStore store) {
+        this.store = store;
+    }
+    
+    /**
+     * A response as it's kept in the store
+     */
+    private final static class Stored {
+        int code;
+        String message;
+        String contentType;
+        String error;
+        String requestID;
+        long requestTime;
+        long responseTime;
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        byte[] body;
+        
+        /**
+         * @param defaultMaxAge how long (in seconds) it's fresh if the headers don't say
+         * @return how long (in milliseconds) the response is fresh for
+         */
+        long freshnessLifetime(long defaultMaxAge) {
+            String cacheControl = this.headers.get("Cache-Control");
+            if(directive(cacheControl, "no-cache") != null || 
+                    (cacheControl == null && directive(this.headers.get("Pragma"), "no-cache") != null)) {
+                return 0;
+            }
+            String maxAge = directive(cacheControl, "max-age");
+            if(maxAge != null) {
+                return seconds(maxAge)*1000;
+            }
+            String expires = this.headers.get("Expires");
+            if(expires != null) {
+                long time = parseDate(expires);
+                long date = parseDate(this.headers.get("Date"));
+                return time == -1 ? 0 : Math.max(0, time-(date == -1 ? this.responseTime : date));
+            }
+            return defaultMaxAge*1000;
+        }
+        
+        /**
+         * @param now the current time (in milliseconds)
+         * @return how old the response is (in milliseconds)
+         */
+        long currentAge(long now) {
+            long date = parseDate(this.headers.get("Date"));
+            long apparentAge = date == -1 ? 0 : Math.max(0, this.responseTime-date);
+            String age = this.headers.get("Age");
+            long correctedAge = (age == null ? 0 : seconds(age)*1000)+(this.responseTime-this.requestTime);
+            return Math.max(apparentAge, correctedAge)+(now-this.responseTime);
+        }
+        
+        FluidResponse toResponse(long now) {
+            Map<String, String> headers = new TreeMap<String, String>(this.headers);
+            headers.put("Age", Long.toString(Math.max(0, this.currentAge(now)/1000)));
+            return new FluidResponse(this.code, this.message, this.contentType, this.body, this.error, this.requestID, headers);
+        }
+        
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.body.length+512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(this.code);
+            writeString(out, this.message);
+            writeString(out, this.contentType);
+            writeString(out, this.error);
+            writeString(out, this.requestID);
+            out.writeLong(this.requestTime);
+            out.writeLong(this.responseTime);
+            out.writeInt(this.headers.size());
+            for(Map.Entry<String, String> header : this.headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+            out.writeInt(this.body.length);
+            out.write(this.body);
+            out.close();
+            return bytes.toByteArray();
+        }
+        
+        static Stored fromBytes(byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            Stored stored = new Stored();
+            stored.code = in.readInt();
+            stored.message = readString(in);
+            stored.contentType = readString(in);
+            stored.error = readString(in);
+            stored.requestID = readString(in);
+            stored.requestTime = in.readLong();
+            stored.responseTime = in.readLong();
+            int headers = in.readInt();
+            for(int i = 0; i < headers; i++) {
+                stored.headers.put(in.readUTF(), in.readUTF());
+            }
+            stored.body = new byte[in.readInt()];
+            in.readFully(stored.body);
+            return stored;
+        }
+    }
+    
+    /**
+     * Answers a request from the cache if it can, otherwise sends it (conditionally if
+     * there's a stale response to revalidate) and stores the response
+     * @param request The call to make
+     * @param transport The transport to send it with
+     * @return The response
+     * @throws FluidException If the request couldn't be made
+     * @throws IOException If there was a problem talking to FluidDB
+     */
+    public FluidResponse execute(FluidRequest request, FluidTransport transport) throws FluidException, IOException {
+        Method method = request.getMethod();
+        if(method != Method.GET) {
+            FluidResponse response = transport.execute(request);
+            if(method != Method.HEAD && response.getResponseCode() < 400) {
+                this.invalidated.addAndGet(this.store.removeGroup(request.getUrl()+request.getPath()));
+            }
+            return response;
+        }
+        this.requests.incrementAndGet();
+        String requestCacheControl = request.getHeaders().get("Cache-Control");
+        if(directive(requestCacheControl, "no-store") != null) {
+            return transport.execute(request);
+        }
+        String key = RequestKey.of(request);
+        Stored stored = this.load(key);
+        if(stored != null && directive(requestCacheControl, "no-cache") == null) {
+            long now = System.currentTimeMillis();
+            if(stored.freshnessLifetime(this.defaultMaxAge) > stored.currentAge(now)) {
+                this.hits.incrementAndGet();
+                return stored.toResponse(now);
+            }
+        }
+        FluidRequest sent = request;
+        if(stored != null) {
+            String etag = stored.headers.get("ETag");
+            String lastModified = stored.headers.get("Last-Modified");
+            if(etag != null) {
+                sent = sent.withHeader("If-None-Match", etag);
+            }
+            if(lastModified != null) {
+                sent = sent.withHeader("If-Modified-Since", lastModified);
+            }
+        }
+        long requestTime = System.currentTimeMillis();
+        FluidResponse response = transport.execute(sent);
+        long responseTime = System.currentTimeMillis();
+        if(response.getResponseCode() == 304 && stored != null) {
+            this.revalidated.incrementAndGet();
+            for(Map.Entry<String, String> header : response.getResponseHeaders().entrySet()) {
+                // the 304 has no body so its length doesn't describe the stored one
+                if(!header.getKey().equalsIgnoreCase("Content-Length")) {
+                    stored.headers.put(header.getKey(), header.getValue());
+                }
+            }
+            stored.requestTime = requestTime;
+            stored.responseTime = responseTime;
+            this.save(key, request, stored);
+            return stored.toResponse(responseTime);
+        }
+        if(isStorable(response)) {
+            Stored fresh = new Stored();
+            fresh.code = response.getResponseCode();
+            fresh.message = response.getResponseMessage();
+            fresh.contentType = response.getResponseContentType();
+            fresh.error = response.getResponseError();
+            fresh.requestID = response.getErrorRequestID();
+            fresh.requestTime = requestTime;
+            fresh.responseTime = responseTime;
+            fresh.headers.putAll(response.getResponseHeaders());
+            fresh.body = response.getResponseBytes();
+            // only worth keeping if it can be served or revalidated later
+            if(fresh.freshnessLifetime(this.defaultMaxAge) > 0 || fresh.headers.containsKey("ETag") || fresh.headers.containsKey("Last-Modified")) {
+                this.save(key, request, fresh);
+                return response;
+            }
+        }
+        if(stored != null) {
+            this.store.remove(key);
+        }
+        return response;
+    }
+    
+    private Stored load(String key) {
+        byte[] data = this.store.get(key);
+        if(data == null) {
+            return null;
+        }
+        try {
+            return Stored.fromBytes(data);
+        } catch (IOException e) {
+            this.store.remove(key);
+            return null;
+        }
+    }
+    
+    private void save(String key, FluidRequest request, Stored stored) {
+        try {
+            this.store.put(key, request.getUrl()+request.getPath(), stored.toBytes());
+        } catch (IOException e) {
+            // the cache is only an optimisation
+            this.store.remove(key);
+        }
+    }
+    
+    private static boolean isStorable(FluidResponse response) {
+        if(response.getResponseCode() != 200 || response.getResponseBytes() == null) {
+            return false;
+        }
+        String vary = response.getResponseHeader("Vary");
+        return directive(response.getResponseHeader("Cache-Control"), "no-store") == null && 
+            (vary == null || !vary.trim().equals("*"));
+    }
+    
+    /**
+     * @param header a Cache-Control (or Pragma) header
+     * @param name the name of a directive (e.g. max-age)
+     * @return the directive's value ("" if it hasn't one) or null if it isn't there
+     */
+    static String directive(String header, String name) {
+        if(header == null) {
+            return null;
+        }
+        for(String part : header.split(",")) {
+            part = part.trim();
+            int equals = part.indexOf('=');
+            String directive = equals == -1 ? part : part.substring(0, equals).trim();
+            if(directive.equalsIgnoreCase(name)) {
+                if(equals == -1) {
+                    return "";
+                }
+                String value = part.substring(equals+1).trim();
+                if(value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length()-1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @param value a number of seconds (delta-seconds)
+     * @return the number, or 0 if it isn't one
+     */
+    private static long seconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    /**
+     * @param value an HTTP date (e.g. Sun, 06 Nov 1994 08:49:37 GMT)
+     * @return the time in milliseconds or -1 if it isn't a valid date
+     */
+    static long parseDate(String value) {
+        if(value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+    
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if(s != null) {
+            out.writeUTF(s);
+        }
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    /**
+     * Removes everything from the cache
+     */
+    public void clear() {
+        this.store.clear();
+    }
+    
+    /**
+     * @return where the cache is kept
+     */
+    public DiskStore getStore() {
+        return this.store;
+    }
+    
+    /**
+     * @param defaultMaxAge how long (in seconds) a response without Cache-Control or
+     *        Expires headers may be served without revalidating it (0, the default, 
+     *        means always revalidate)
+     */
+    public void setDefaultMaxAge(long defaultMaxAge) {
+        this.defaultMaxAge = defaultMaxAge;
+    }
+    
+    /**
+     * @return how long (in seconds) a response without Cache-Control or Expires headers 
+     *         may be served without revalidating it
+     */
+    public long getDefaultMaxAge() {
+        return this.defaultMaxAge;
+    }
+    
+    /**
+     * @return the number of GETs made through the cache
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+    
+    /**
+     * @return the number of GETs answered from the cache without contacting FluidDB
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+    
+    /**
+     * @return the number of GETs answered from the cache after a 304 Not Modified
+     */
+    public long getRevalidated() {
+        return this.revalidated.get();
+    }
+    
+    /**
+     * @return the number of entries removed because of a POST, PUT or DELETE
+     */
+    public long getInvalidated() {
+        return this.invalidated.get();
+    }
+    
+    @Override
+    public String toString() {
+        return "requests="+this.requests.get()+" hits="+this.hits.get()+" revalidated="+this.revalidated.get()+
+            " invalidated="+this.invalidated.get()+" entries="+this.store.getCount()+" bytes="+this.store.getSize();
+    }
+}
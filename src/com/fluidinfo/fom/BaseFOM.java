@@ -23,11 +23,19 @@ package com.fluidinfo.fom;
 
 import java.io.IOException;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.fluidinfo.*;
+import com.fluidinfo.http.PathTemplate;
+import com.fluidinfo.json.Json;
+import com.fluidinfo.json.JsonWriter;
+import com.fluidinfo.metrics.CallEvents;
+import com.fluidinfo.metrics.FomCallEvent;
 import com.fluidinfo.utils.*;
 
 /**
@@ -41,6 +49,16 @@ import com.fluidinfo.utils.*;
  */
 public abstract class BaseFOM implements FOMInterface {
 	
+	/**
+	 * The path to an instance in FluidDB (its root path followed by its own path)
+	 */
+	protected final static PathTemplate ITEM_PATH = PathTemplate.compile("{root}/{path}");
+	
+	/**
+	 * The path to the permissions on a namespace or tag
+	 */
+	protected final static PathTemplate PERMISSION_PATH = PathTemplate.compile("/permissions/{root}/{path}");
+	
 	/**
 	 * The connection to FluidDB
 	 */
@@ -85,8 +103,7 @@ public abstract class BaseFOM implements FOMInterface {
 	 * @return the instance's path in FluidDB
 	 */
 	public String getPath(){
-		String[] paths = {this.rootPath, this.path};
-		return StringUtil.URIJoin(paths);
+		return ITEM_PATH.expand(this.rootPath, this.path);
 	}
 	
 	/**
@@ -108,6 +125,19 @@ public abstract class BaseFOM implements FOMInterface {
 		}
 	}
 	
+	/**
+	 * Asynchronously populates this instance from FluidDB (see getItem)
+	 * @return a future that completes once the instance has been populated
+	 */
+	public CompletableFuture<Void> getItemAsync() {
+		return this.fdb.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				getItem();
+				return null;
+			}
+		});
+	}
+	
 	/**
 	 * Used to call to the FluidDB instance
 	 * @param m the HTTP method for the call
@@ -133,15 +163,21 @@ public abstract class BaseFOM implements FOMInterface {
 	 * @throws IOException
 	 */
 	protected FluidResponse Call(final Method m, int expectedReturnCode, final String body, final Hashtable<String, String> args) throws FluidException, IOException{
-		String callPath;
-		if(this.path=="" || this.path==null)
-		{
-			callPath = this.rootPath;
-		} else {
-			String[] fluidPath = {this.rootPath, this.path};
-			callPath = StringUtil.URIJoin(fluidPath);
-		}
-		return this.Call(m, expectedReturnCode, body, args, callPath);
+		return this.Call(m, expectedReturnCode, body, args, this.getItemPath());
+	}
+	
+	/**
+	 * Used to call to the FluidDB instance with a json body that's already been encoded
+	 * (by a JsonWriter)
+	 * @param m the HTTP method for the call
+	 * @param expectedReturnCode the expected return code for a successful call
+	 * @param body the UTF-8 encoded json body
+	 * @return the result from FluidDB
+	 * @throws FluidException
+	 * @throws IOException
+	 */
+	protected FluidResponse Call(final Method m, int expectedReturnCode, final byte[] body) throws FluidException, IOException {
+		return this.Call(m, expectedReturnCode, body, new Hashtable<String, String>(), this.getItemPath(), "application/json; charset=utf-8");
 	}
 	
 	/**
@@ -186,12 +222,57 @@ public abstract class BaseFOM implements FOMInterface {
 	 * @throws IOException
 	 */
 	protected FluidResponse Call(final Method m, int expectedReturnCode, final String body, final Hashtable<String, String> args, String callPath, String content_type) throws FluidException, IOException{
-		FluidResponse response = this.fdb.Call(m, callPath, body, args, content_type);
-		if(response.getResponseCode()==expectedReturnCode){
-			return response;
+		return this.send(m, expectedReturnCode, body, null, args, callPath, content_type);
+	}
+	
+	/**
+	 * Used to call to the FluidDB instance with a body that's already been encoded
+	 * @param m the HTTP method for the call
+	 * @param expectedReturnCode the expected return code for a successful call
+	 * @param body the UTF-8 encoded body (e.g. from a JsonWriter)
+	 * @param args an argument dictionary to append to the end of the call URL
+	 * @param callPath the URI to call in FluidDB
+	 * @param content_type the Content-Type header to be sent
+	 * @return the result from FluidDB
+	 * @throws FluidException
+	 * @throws IOException
+	 */
+	protected FluidResponse Call(final Method m, int expectedReturnCode, final byte[] body, final Hashtable<String, String> args, String callPath, String content_type) throws FluidException, IOException{
+		return this.send(m, expectedReturnCode, null, body, args, callPath, content_type);
+	}
+	
+	private String getItemPath() {
+		if(this.path=="" || this.path==null)
+		{
+			return this.rootPath;
 		} else {
-		    String message = this.fdb.BuildExceptionMessageFromResponse(response);
-			throw new FluidException(message);
+			return ITEM_PATH.expand(this.rootPath, this.path);
+		}
+	}
+	
+	private FluidResponse send(Method m, int expectedReturnCode, String body, byte[] bytes, Hashtable<String, String> args, String callPath, String content_type) throws FluidException, IOException{
+		// Shows up in Java Flight Recorder recordings (null otherwise)
+		FomCallEvent event = CallEvents.startFomCall(this.getClass(), m, callPath, expectedReturnCode);
+		try {
+			FluidResponse response;
+			if(bytes == null) {
+				response = this.fdb.Call(m, callPath, body, args, content_type);
+			} else {
+				response = this.fdb.Call(m, callPath, bytes, args, content_type);
+			}
+			if(event != null) {
+				event.setStatusCode(response.getResponseCode());
+			}
+			if(response.getResponseCode()==expectedReturnCode){
+				return response;
+			} else {
+			    String message = this.fdb.BuildExceptionMessageFromResponse(response);
+				throw new FluidException(message);
+			}
+		} finally {
+			if(event != null) {
+				event.finish();
+			}
 		}
 	}
 	
@@ -215,9 +296,9 @@ public abstract class BaseFOM implements FOMInterface {
 	    FluidResponse response = this.fdb.Call(Method.GET, path, "", args);
 	    if(response.getResponseCode()==200) {
 	        // we have the permissions returned in a JSON object
-	        JSONObject jsonResult = this.getJsonObject(response);
-	        String policy = jsonResult.getString("policy");
-	        String[] exceptions = StringUtil.getStringArrayFromJSONArray(jsonResult.getJSONArray("exceptions"));
+	        Map<String, java.lang.Object> jsonResult = this.getJsonMap(response);
+	        String policy = Json.getString(jsonResult, "policy");
+	        String[] exceptions = Json.getStringArray(jsonResult, "exceptions");
 	        Policy p;
 	        if (policy.equals("open")) {
 	            p = Policy.OPEN;
@@ -250,10 +331,11 @@ public abstract class BaseFOM implements FOMInterface {
 	    if(action==null || action.length()>0) {
 	        args.put("action", action);
 	    }
-        JSONObject jsonPayload = new JSONObject();
-        jsonPayload.put("exceptions", permission.GetExceptions());
-        jsonPayload.put("policy", permission.GetPolicy().toString().toLowerCase());
-        FluidResponse response = this.fdb.Call(Method.PUT, path, jsonPayload.toString(), args);
+        byte[] jsonPayload = JsonWriter.get().beginObject()
+            .name("exceptions").value(permission.GetExceptions())
+            .name("policy").value(permission.GetPolicy().toString().toLowerCase())
+            .endObject().toByteArray();
+        FluidResponse response = this.fdb.Call(Method.PUT, path, jsonPayload, args, "application/json; charset=utf-8");
         if(response.getResponseCode()!=204) {
          // something barfed so raise an informative exception
             String message = this.fdb.BuildExceptionMessageFromResponse(response);
@@ -267,11 +349,30 @@ public abstract class BaseFOM implements FOMInterface {
 	 * @return an appropriate representation of the FluidResponse object as a JSONObject
 	 * @throws FOMException If the content type of the response is NOT "application/json"
 	 * @throws JSONException If there was a problem processing the json content of the response
+	 * @deprecated This copies the parsed response each time it's called. Use 
+	 *             FluidResponse.getJson(), which is parsed once and shared, instead.
 	 */
+	@Deprecated
 	protected JSONObject getJsonObject(FluidResponse response) throws FOMException, JSONException {
+		return Json.toJSONObject(this.getJsonMap(response));
+	}
+	
+	/**
+	 * Given a FluidResponse object will return its content as a JSON object (the 
+	 * response's own, parsed at most once)
+	 * @param response The FluidResponse object to process
+	 * @return the content of the FluidResponse object as a JSON object
+	 * @throws FOMException If the content type of the response is NOT "application/json"
+	 * @throws JSONException If there was a problem processing the json content of the response
+	 */
+	Map<String, java.lang.Object> getJsonMap(FluidResponse response) throws FOMException, JSONException {
 		String contentType = response.getResponseContentType();
 		if(contentType.equals("application/json")){
-			return StringUtil.getJsonObjectFromString(response.getResponseContent());
+			Map<String, java.lang.Object> json = response.getJson();
+			if(json == null) {
+				throw new FOMException("Unable to convert response to json because it has no content");
+			}
+			return json;
 		} else {
 			throw new FOMException("Unable to convert response to json because the content type is "+contentType);
 		}
@@ -22,14 +22,20 @@
 package com.fluidinfo.fom;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import com.fluidinfo.FluidConnector;
 import com.fluidinfo.FluidException;
 import com.fluidinfo.FluidResponse;
+import com.fluidinfo.json.Json;
+import com.fluidinfo.json.JsonWriter;
 import com.fluidinfo.utils.Method;
 import com.fluidinfo.utils.StringUtil;
 
@@ -93,11 +99,11 @@ public class Namespace extends BaseFOM {
 		args.put("returnNamespaces", "True");
 		args.put("returnTags", "True");
 		FluidResponse response = this.Call(Method.GET, 200, "", args);
-		JSONObject jsonResult = this.getJsonObject(response);
-		this.id = jsonResult.getString("id");
-		this.description = jsonResult.getString("description");
-		this.namespaces = StringUtil.getStringArrayFromJSONArray(jsonResult.getJSONArray("namespaceNames"));
-		this.tags = StringUtil.getStringArrayFromJSONArray(jsonResult.getJSONArray("tagNames"));
+		Map<String, java.lang.Object> jsonResult = this.getJsonMap(response);
+		this.id = Json.getString(jsonResult, "id");
+		this.description = Json.getString(jsonResult, "description");
+		this.namespaces = Json.getStringArray(jsonResult, "namespaceNames");
+		this.tags = Json.getStringArray(jsonResult, "tagNames");
 	}
 	
 	/**
@@ -133,9 +139,10 @@ public class Namespace extends BaseFOM {
 	 * @throws FluidException 
 	 */
 	public void setDescription(String description) throws JSONException, FluidException, IOException{
-		JSONObject jsonPayload = new JSONObject();
-		jsonPayload.put("description", description);
-		this.Call(Method.PUT, 204, jsonPayload.toString());
+		byte[] jsonPayload = JsonWriter.get().beginObject()
+			.name("description").value(description)
+			.endObject().toByteArray();
+		this.Call(Method.PUT, 204, jsonPayload);
 		this.description=description;
 	}
 	
@@ -158,12 +165,13 @@ public class Namespace extends BaseFOM {
 	        throw new FOMException("Invalid name (incorrect characters or too long)"); // TODO: Localize this exception
 	    }
 	    // good to go
-	    JSONObject jsonPayload = new JSONObject();
-		jsonPayload.put("description", description);
-		jsonPayload.put("name", name);
-		FluidResponse response = this.Call(Method.POST, 201, jsonPayload.toString());
-		JSONObject jsonResult = StringUtil.getJsonObjectFromString(response.getResponseContent());
-		String newId = jsonResult.getString("id");
+	    byte[] jsonPayload = JsonWriter.get().beginObject()
+			.name("description").value(description)
+			.name("name").value(name)
+			.endObject().toByteArray();
+		FluidResponse response = this.Call(Method.POST, 201, jsonPayload);
+		Map<String, java.lang.Object> jsonResult = response.getJson();
+		String newId = Json.getString(jsonResult, "id");
 		Namespace newNamespace = new Namespace(this.fdb, newId, newPath);
 		newNamespace.description = description;
 		return newNamespace;
@@ -198,15 +206,16 @@ public class Namespace extends BaseFOM {
             throw new FOMException("Invalid name (incorrect characters or too long)"); // TODO: Localize this exception
         }
         // good to go
-	    JSONObject jsonPayload = new JSONObject();
-		jsonPayload.put("description", description);
-		jsonPayload.put("indexed", indexed);
-		jsonPayload.put("name", name);
+	    byte[] jsonPayload = JsonWriter.get().beginObject()
+			.name("description").value(description)
+			.name("indexed").value(indexed)
+			.name("name").value(name)
+			.endObject().toByteArray();
 		String[] tagPath = {"/tags", this.path};
 		String tagPathURI = StringUtil.URIJoin(tagPath);
-		FluidResponse response = this.Call(Method.POST, 201, jsonPayload.toString(), new Hashtable<String, String>(), tagPathURI);
-		JSONObject jsonResult = StringUtil.getJsonObjectFromString(response.getResponseContent());
-		String newId = jsonResult.getString("id");
+		FluidResponse response = this.Call(Method.POST, 201, jsonPayload, new Hashtable<String, String>(), tagPathURI, "application/json; charset=utf-8");
+		Map<String, java.lang.Object> jsonResult = response.getJson();
+		String newId = Json.getString(jsonResult, "id");
 		Tag newTag = new Tag(this.fdb, newId, indexed, description, newPath);
 		return newTag;
 	}
@@ -284,6 +293,51 @@ public class Namespace extends BaseFOM {
 		return childNamespace;
 	}
 	
+	/**
+	 * Asynchronously gets a named namespace from underneath this namespace 
+	 * @param name The name of the namespace to retrieve
+	 * @return A future that completes with the retrieved namespace
+	 */
+	public CompletableFuture<Namespace> getNamespaceAsync(final String name) {
+		return this.fdb.submit(new Callable<Namespace>() {
+			public Namespace call() throws Exception {
+				return getNamespace(name);
+			}
+		});
+	}
+	
+	/**
+	 * Walks the tree of namespaces underneath (and including) this one. Each level of 
+	 * the tree is fetched concurrently (see FluidConnector.setExecutionMode and 
+	 * setMaxConcurrentRequests).
+	 * @return this namespace followed by all the namespaces underneath it, level by level
+	 * @throws FluidException
+	 * @throws IOException
+	 * @throws FOMException
+	 * @throws JSONException
+	 */
+	public List<Namespace> walk() throws FluidException, IOException, FOMException, JSONException {
+		List<Namespace> result = new ArrayList<Namespace>();
+		List<Namespace> level = new ArrayList<Namespace>();
+		level.add(this);
+		result.add(this);
+		while(!level.isEmpty()) {
+			List<Callable<Namespace>> tasks = new ArrayList<Callable<Namespace>>();
+			for(final Namespace parent : level) {
+				for(final String name : parent.getNamespaceNames()) {
+					tasks.add(new Callable<Namespace>() {
+						public Namespace call() throws Exception {
+							return parent.getNamespace(name);
+						}
+					});
+				}
+			}
+			level = this.fdb.invokeAll(tasks);
+			result.addAll(level);
+		}
+		return result;
+	}
+	
 	/**
 	 * Gets the permissions associated with the referenced action for this namespace
 	 * 
@@ -295,8 +349,7 @@ public class Namespace extends BaseFOM {
 	 * @throws JSONException
 	 */
 	public Permission getPermission(Actions action) throws FluidException, IOException, FOMException, JSONException {
-	    String[] path = {"/permissions", this.rootPath, this.path};
-	    return this.GetPermission(StringUtil.URIJoin(path), action.toString().toLowerCase());
+	    return this.GetPermission(PERMISSION_PATH.expand(this.rootPath, this.path), action.toString().toLowerCase());
 	}
 	
 	/**
@@ -309,7 +362,6 @@ public class Namespace extends BaseFOM {
 	 * @throws IOException
 	 */
 	public void setPermission(Actions action, Permission permission) throws JSONException, FluidException, IOException {
-	    String[] path = {"/permissions", this.rootPath, this.path};
-	    this.SetPermission(StringUtil.URIJoin(path), action.toString().toLowerCase(), permission);
+	    this.SetPermission(PERMISSION_PATH.expand(this.rootPath, this.path), action.toString().toLowerCase(), permission);
 	}
 }
\ No newline at end of file
@@ -23,15 +23,19 @@ package com.fluidinfo.fom;
 
 import java.io.IOException;
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import com.fluidinfo.FluidConnector;
 import com.fluidinfo.FluidException;
 import com.fluidinfo.FluidResponse;
+import com.fluidinfo.http.PathTemplate;
 import com.fluidinfo.utils.Method;
-import com.fluidinfo.utils.StringUtil;
+import com.fluidinfo.json.Json;
+import com.fluidinfo.json.JsonWriter;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * See: {@link http://doc.fluidinfo.com/fluidDB/objects.html}
@@ -47,6 +51,11 @@ import org.json.JSONObject;
  */
 public class Object extends BaseFOM{
 
+    /**
+     * The path to a tag (value) on an object
+     */
+    private final static PathTemplate TAG_PATH = PathTemplate.compile("{root}/{id}/{tag}");
+    
     private String about = null;
     
     private String[] tagPaths = null;
@@ -73,10 +82,10 @@ public class Object extends BaseFOM{
         Hashtable<String, String> args = new Hashtable<String, String>();
         args.put("showAbout", "True");
         FluidResponse response = this.Call(Method.GET, 200, "", args);
-        JSONObject jsonResult = this.getJsonObject(response);
-        this.about = jsonResult.getString("about");
-        if(jsonResult.has("tagPaths")){
-            this.tagPaths = StringUtil.getStringArrayFromJSONArray(jsonResult.getJSONArray("tagPaths"));
+        Map<String, java.lang.Object> jsonResult = this.getJsonMap(response);
+        this.about = Json.getString(jsonResult, "about");
+        if(jsonResult.containsKey("tagPaths")){
+            this.tagPaths = Json.getStringArray(jsonResult, "tagPaths");
         } else {
             this.tagPaths = new String[0];
         }
@@ -137,8 +146,7 @@ public class Object extends BaseFOM{
      * @throws FluidException 
      */
     public boolean hasTag(String path) throws FluidException, IOException {
-        String[] pathToTag = {this.rootPath, this.path, path};
-        FluidResponse response = this.fdb.Call(Method.HEAD, StringUtil.URIJoin(pathToTag));
+        FluidResponse response = this.fdb.Call(Method.HEAD, TAG_PATH.expand(this.rootPath, this.path, path));
         return response.getResponseCode()==200;
     }
     
@@ -164,8 +172,7 @@ public class Object extends BaseFOM{
      * @throws FluidException 
      */
     public void deleteTag(String path) throws FOMException, FluidException, IOException {
-        String[] pathToTag = {this.rootPath, this.path, path};
-        FluidResponse response = this.fdb.Call(Method.DELETE, StringUtil.URIJoin(pathToTag));
+        FluidResponse response = this.fdb.Call(Method.DELETE, TAG_PATH.expand(this.rootPath, this.path, path));
         if(response.getResponseCode()==401){
             throw new FOMException("You don't have persmission to do that.");
         }
@@ -190,7 +197,7 @@ public class Object extends BaseFOM{
      * @throws IOException
      */
     public void tag(Tag tag) throws FluidException, IOException {
-        this.tagPrimitive(tag, "null");
+        this.tagPrimitive(tag, JsonWriter.get().nullValue().toByteArray());
     }
     
     /**
@@ -201,7 +208,7 @@ public class Object extends BaseFOM{
      * @throws IOException
      */
     public void tag(Tag tag, boolean value) throws FluidException, IOException {
-        this.tagPrimitive(tag, Boolean.toString(value));
+        this.tagPrimitive(tag, JsonWriter.get().value(value).toByteArray());
     }
     
     /**
@@ -213,7 +220,7 @@ public class Object extends BaseFOM{
      * @throws IOException
      */
     public void tag(Tag tag, int value) throws JSONException, FluidException, IOException {
-        this.tagPrimitive(tag, JSONObject.numberToString(value));
+        this.tagPrimitive(tag, JsonWriter.get().value(value).toByteArray());
     }
     
     /**
@@ -226,7 +233,7 @@ public class Object extends BaseFOM{
      * @throws IOException
      */
     public void tag(Tag tag, double value) throws JSONException, FluidException, IOException {
-        this.tagPrimitive(tag, JSONObject.doubleToString(value));
+        this.tagPrimitive(tag, JsonWriter.get().value(value).toByteArray());
     }
     
     /**
@@ -237,7 +244,7 @@ public class Object extends BaseFOM{
      * @throws IOException
      */
     public void tag(Tag tag, String value) throws FluidException, IOException {
-        this.tagPrimitive(tag, JSONObject.quote(value));
+        this.tagPrimitive(tag, JsonWriter.get().value(value).toByteArray());
     }
     
     /**
@@ -248,27 +255,96 @@ public class Object extends BaseFOM{
      * @throws IOException
      */
     public void tag(Tag tag, String[] values) throws FluidException, IOException {
-        StringBuffer jsonArray = new StringBuffer();
-        jsonArray.append("[ ");
-        for(int i=0; i<values.length; i++) {
-            jsonArray.append(JSONObject.quote(values[i]));
-            jsonArray.append(",");
-        }
-        jsonArray.deleteCharAt(jsonArray.length()-1);
-        jsonArray.append(" ]");
-        this.tagPrimitive(tag, jsonArray.toString());
+        this.tagPrimitive(tag, JsonWriter.get().value(values).toByteArray());
+    }
+    
+    /**
+     * Asynchronously tag this object with the passed Tag instance and the associated value "null"
+     * @param tag the tag to associate with this object
+     * @return a future that completes once the object has been tagged
+     */
+    public CompletableFuture<Void> tagAsync(Tag tag) {
+        return this.tagPrimitiveAsync(tag, JsonWriter.get().nullValue().toByteArray());
+    }
+    
+    /**
+     * Asynchronously tag this object with the passed Tag instance and the associated boolean value
+     * @param tag the tag to associate with this object
+     * @param value the boolean value of the tag on this object
+     * @return a future that completes once the object has been tagged
+     */
+    public CompletableFuture<Void> tagAsync(Tag tag, boolean value) {
+        return this.tagPrimitiveAsync(tag, JsonWriter.get().value(value).toByteArray());
+    }
+    
+    /**
+     * Asynchronously tag this object with the passed Tag instance and the associated integer value
+     * @param tag the tag to associate with this object
+     * @param value the integer value of the tag on this object
+     * @return a future that completes once the object has been tagged
+     * @throws JSONException
+     */
+    public CompletableFuture<Void> tagAsync(Tag tag, int value) throws JSONException {
+        return this.tagPrimitiveAsync(tag, JsonWriter.get().value(value).toByteArray());
+    }
+    
+    /**
+     * Asynchronously tag this object with the passed Tag instance and the associated double 
+     * (floating point) value
+     * @param tag the tag to associate with this object
+     * @param value the floating point value of the tag on this object
+     * @return a future that completes once the object has been tagged
+     * @throws JSONException
+     */
+    public CompletableFuture<Void> tagAsync(Tag tag, double value) throws JSONException {
+        return this.tagPrimitiveAsync(tag, JsonWriter.get().value(value).toByteArray());
+    }
+    
+    /**
+     * Asynchronously tag this object with the passed Tag instance and the associated string value
+     * @param tag the tag to associate with this object
+     * @param value the string value of the tag on this object
+     * @return a future that completes once the object has been tagged
+     */
+    public CompletableFuture<Void> tagAsync(Tag tag, String value) {
+        return this.tagPrimitiveAsync(tag, JsonWriter.get().value(value).toByteArray());
+    }
+    
+    /**
+     * Asynchronously tag this object with the passed Tag instance and the associated string 
+     * array value
+     * @param tag the tag to associate with this object
+     * @param values the string array value of the tag on this object
+     * @return a future that completes once the object has been tagged
+     */
+    public CompletableFuture<Void> tagAsync(Tag tag, String[] values) {
+        return this.tagPrimitiveAsync(tag, JsonWriter.get().value(values).toByteArray());
+    }
+    
+    /**
+     * Asynchronously tags this object with the passed tag and primitive jsonValue
+     * @param tag the tag to associate with this object
+     * @param jsonValue the value of the tag on this object as UTF-8 encoded json
+     * @return a future that completes once the object has been tagged
+     */
+    private CompletableFuture<Void> tagPrimitiveAsync(final Tag tag, final byte[] jsonValue) {
+        return this.fdb.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                tagPrimitive(tag, jsonValue);
+                return null;
+            }
+        });
     }
     
     /**
      * Tags this object with the passed tag and primitive jsonValue
      * @param tag the tag to associate with this object
-     * @param jsonValue the value of the tag on this object expressed in json
+     * @param jsonValue the value of the tag on this object as UTF-8 encoded json
      * @throws FluidException
      * @throws IOException
      */
-    private void tagPrimitive(Tag tag, String jsonValue) throws FluidException, IOException {
-        String[] tagPath = {this.getPath(), tag.path};
-        this.Call(Method.PUT, 204, jsonValue, StringUtil.URIJoin(tagPath), "application/vnd.fluiddb.value+json");
+    private void tagPrimitive(Tag tag, byte[] jsonValue) throws FluidException, IOException {
+        this.Call(Method.PUT, 204, jsonValue, new Hashtable<String, String>(), TAG_PATH.expand(this.rootPath, this.path, tag.path), "application/vnd.fluiddb.value+json");
     }
     
     /**
@@ -279,7 +355,43 @@ public class Object extends BaseFOM{
      * @throws IOException
      */
     public FluidResponse getTagValue(Tag tag) throws FluidException, IOException {
-        String[] tagPath = {this.getPath(), tag.path};
-        return this.Call(Method.GET, 200, "", new Hashtable<String, String>(), StringUtil.URIJoin(tagPath));
+        return this.Call(Method.GET, 200, "", new Hashtable<String, String>(), TAG_PATH.expand(this.rootPath, this.path, tag.path));
+    }
+    
+    /**
+     * Asynchronously gets the value of the passed tag
+     * @param tag the tag whose value we're interested in
+     * @return a future that completes with the tag's value expressed as a FluidResponse
+     */
+    public CompletableFuture<FluidResponse> getTagValueAsync(final Tag tag) {
+        return this.fdb.submit(new Callable<FluidResponse>() {
+            public FluidResponse call() throws Exception {
+                return getTagValue(tag);
+            }
+        });
+    }
+    
+    /**
+     * Returns the value of the passed tag, ready to be read as a number, string and so on
+     * @param tag the tag whose value we're interested in
+     * @return the tag's value
+     * @throws FluidException
+     * @throws IOException
+     */
+    public TagValue getValue(Tag tag) throws FluidException, IOException {
+        return TagValue.fromResponse(this.getTagValue(tag));
+    }
+    
+    /**
+     * Asynchronously gets the value of the passed tag
+     * @param tag the tag whose value we're interested in
+     * @return a future that completes with the tag's value
+     */
+    public CompletableFuture<TagValue> getValueAsync(final Tag tag) {
+        return this.fdb.submit(new Callable<TagValue>() {
+            public TagValue call() throws Exception {
+                return getValue(tag);
+            }
+        });
     }
 }
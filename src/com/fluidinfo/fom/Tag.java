@@ -23,15 +23,17 @@ package com.fluidinfo.fom;
 
 import java.io.IOException;
 import java.util.Hashtable;
+import java.util.Map;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import com.fluidinfo.FluidConnector;
 import com.fluidinfo.FluidException;
 import com.fluidinfo.FluidResponse;
+import com.fluidinfo.http.PathTemplate;
+import com.fluidinfo.json.Json;
+import com.fluidinfo.json.JsonWriter;
 import com.fluidinfo.utils.Method;
-import com.fluidinfo.utils.StringUtil;
 
 /**
  * See: {@link http://doc.fluidinfo.com/fluidDB/tags.html}
@@ -46,6 +48,11 @@ import com.fluidinfo.utils.StringUtil;
  */
 public class Tag extends BaseFOM {
 	
+	/**
+	 * The path to the permissions on the values of a tag
+	 */
+	private final static PathTemplate TAG_VALUE_PERMISSION_PATH = PathTemplate.compile("/permissions/tag-values/{path}");
+	
 	/**
 	 * The name of this tag
 	 */
@@ -124,10 +131,10 @@ public class Tag extends BaseFOM {
 		Hashtable<String, String> args = new Hashtable<String, String>();
 		args.put("returnDescription", "True");
 		FluidResponse response = this.Call(Method.GET, 200, "", args);
-		JSONObject jsonResult = this.getJsonObject(response);
-		this.id = jsonResult.getString("id");
-		this.description = jsonResult.getString("description");
-		this.indexed = jsonResult.getBoolean("indexed");
+		Map<String, java.lang.Object> jsonResult = this.getJsonMap(response);
+		this.id = Json.getString(jsonResult, "id");
+		this.description = Json.getString(jsonResult, "description");
+		this.indexed = Json.getBoolean(jsonResult, "indexed");
 	}
 	
 	/**
@@ -162,9 +169,10 @@ public class Tag extends BaseFOM {
 	 * @throws FluidException 
 	 */
 	public void setDescription(String description) throws JSONException, FluidException, IOException{
-		JSONObject jsonPayload = new JSONObject();
-		jsonPayload.put("description", description);
-		this.Call(Method.PUT, 204, jsonPayload.toString());
+		byte[] jsonPayload = JsonWriter.get().beginObject()
+			.name("description").value(description)
+			.endObject().toByteArray();
+		this.Call(Method.PUT, 204, jsonPayload);
 		this.description=description;
 	}
 	
@@ -196,8 +204,7 @@ public class Tag extends BaseFOM {
 	 * @throws JSONException
 	 */
 	public Permission getTagPermission(TagActions action) throws FluidException, IOException, FOMException, JSONException {
-	    String[] path = {"/permissions", this.rootPath, this.path};
-        return this.GetPermission(StringUtil.URIJoin(path), action.toString().toLowerCase());
+        return this.GetPermission(PERMISSION_PATH.expand(this.rootPath, this.path), action.toString().toLowerCase());
 	}
 	
 	/**
@@ -211,8 +218,7 @@ public class Tag extends BaseFOM {
      * @throws JSONException
      */
 	public Permission getTagValuePermission(TagValueActions action) throws FluidException, IOException, FOMException, JSONException {
-	    String[] path = {"/permissions", "tag-values", this.path};
-        return this.GetPermission(StringUtil.URIJoin(path), action.toString().toLowerCase());
+        return this.GetPermission(TAG_VALUE_PERMISSION_PATH.expand(this.path), action.toString().toLowerCase());
 	}
 	
 	/**
@@ -225,8 +231,7 @@ public class Tag extends BaseFOM {
      * @throws IOException
      */
 	public void setTagPermission(TagActions action, Permission permission) throws JSONException, FluidException, IOException {
-	    String[] path = {"/permissions", this.rootPath, this.path};
-        this.SetPermission(StringUtil.URIJoin(path), action.toString().toLowerCase(), permission);
+        this.SetPermission(PERMISSION_PATH.expand(this.rootPath, this.path), action.toString().toLowerCase(), permission);
 	}
 	
 	/**
@@ -239,7 +244,6 @@ public class Tag extends BaseFOM {
      * @throws IOException
      */
 	public void setTagValuePermission(TagValueActions action, Permission permission) throws JSONException, FluidException, IOException {
-	    String[] path = {"/permissions", "tag-values", this.path};
-        this.SetPermission(StringUtil.URIJoin(path), action.toString().toLowerCase(), permission);
+        this.SetPermission(TAG_VALUE_PERMISSION_PATH.expand(this.path), action.toString().toLowerCase(), permission);
 	}
 }
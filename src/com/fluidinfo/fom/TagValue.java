@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.fom;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONException;
+
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.json.Json;
+
+/**
+ * The value of a tag on an object. FluidDB holds two sorts of value:
+ * <ul>
+ * <li>primitive values (null, true/false, numbers, strings and sets of strings) sent as 
+ * JSON with the application/vnd.fluiddb.value+json content type</li>
+ * <li>opaque values (images, documents and so on) sent with whatever content type they 
+ * were stored with</li>
+ * </ul>
+ * The accessors work straight off the bytes of the response, so numbers and booleans 
+ * come back as primitives without a String, a Double or a JSONObject being made for 
+ * each value.
+ */
+public class TagValue {
+    
+    /**
+     * The content type FluidDB uses for primitive values
+     */
+    public final static String PRIMITIVE_CONTENT_TYPE = "application/vnd.fluiddb.value+json";
+    
+    /**
+     * Powers of ten that doubles hold exactly (see asDouble)
+     */
+    private final static double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    /**
+     * Mantissas below this are exact in a double (it's less than 2^53)
+     */
+    private final static long MAX_EXACT_MANTISSA = 1000000000000000L;
+    
+    private String contentType;
+    private byte[] bytes;
+    private boolean primitive;
+    
+    /**
+     * Where the value starts and ends in the bytes (without any surrounding whitespace)
+     */
+    private int start;
+    private int end;
+    
+    /**
+     * Constructor
+     * @param contentType the content type the value was sent with
+     * @param bytes the value (shared with this TagValue, so it must not be modified)
+     */
+    public TagValue(String contentType, byte[] bytes) {
+        this.contentType = contentType;
+        this.bytes = bytes == null ? new byte[0] : bytes;
+        this.primitive = contentType != null && contentType.toLowerCase().startsWith(PRIMITIVE_CONTENT_TYPE);
+        int start = 0;
+        int end = this.bytes.length;
+        if(this.primitive) {
+            while(start < end && isWhitespace(this.bytes[start])) {
+                start++;
+            }
+            while(end > start && isWhitespace(this.bytes[end-1])) {
+                end--;
+            }
+        }
+        this.start = start;
+        this.end = end;
+    }
+    
+    /**
+     * @param response the response to a GET of a tag's value
+     * @return the value held in the response
+     */
+    public static TagValue fromResponse(FluidResponse response) {
+        return new TagValue(response.getResponseContentType(), response.getResponseBytes());
+    }
+    
+    /**
+     * @return the content type the value was sent with
+     */
+    public String getContentType() {
+        return this.contentType;
+    }
+    
+    /**
+     * @return true if this is a primitive (JSON) value, false if it's opaque
+     */
+    public boolean isPrimitive() {
+        return this.primitive;
+    }
+    
+    /**
+     * @return true if this is the primitive value null
+     */
+    public boolean isNull() {
+        return this.primitive && this.is("null");
+    }
+    
+    /**
+     * @return the value as a whole number
+     * @throws FOMException if the value isn't a number, or has a fractional part
+     */
+    public long asLong() throws FOMException {
+        this.checkPrimitive("a number");
+        byte[] bytes = this.bytes;
+        int i = this.start;
+        boolean negative = i < this.end && bytes[i] == '-';
+        if(negative) {
+            i++;
+        }
+        int digitsStart = i;
+        long value = 0;
+        while(i < this.end && bytes[i] >= '0' && bytes[i] <= '9' && i-digitsStart < 18) {
+            value = value*10+(bytes[i]-'0');
+            i++;
+        }
+        if(i == this.end && i > digitsStart && (bytes[digitsStart] != '0' || i == digitsStart+1)) {
+            return negative ? -value : value;
+        }
+        // too long for the fast path, or not written as a whole number (e.g. 5.0 or 1e3)
+        this.checkNumber();
+        try {
+            return Long.parseLong(this.literal());
+        } catch (NumberFormatException e) {
+            // not a plain whole number (or too big for a long)
+        }
+        double d = this.asDouble();
+        if(d != Math.rint(d) || d < Long.MIN_VALUE || d >= 0x1p63) {
+            throw new FOMException("The value of the tag is not a whole number: "+this.literal());
+        }
+        return (long)d;
+    }
+    
+    /**
+     * @return the value as a number
+     * @throws FOMException if the value isn't a number
+     */
+    public double asDouble() throws FOMException {
+        this.checkPrimitive("a number");
+        byte[] bytes = this.bytes;
+        int i = this.start;
+        boolean negative = i < this.end && bytes[i] == '-';
+        if(negative) {
+            i++;
+        }
+        // the usual case (e.g. 42 or 3.25) is worked out exactly without a String: when 
+        // the mantissa and the power of ten are both held exactly by doubles, dividing 
+        // one by the other gives the correctly rounded result, just as parseDouble does
+        long mantissa = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        int digits = 0;
+        for(; i < this.end; i++) {
+            byte b = bytes[i];
+            if(b >= '0' && b <= '9') {
+                mantissa = mantissa*10+(b-'0');
+                digits++;
+                if(point) {
+                    fractionDigits++;
+                }
+                if(mantissa >= MAX_EXACT_MANTISSA) {
+                    break;
+                }
+            } else if(b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if(i == this.end && digits > 0 && fractionDigits < POWERS_OF_TEN.length && this.isNumber()) {
+            double d = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -d : d;
+        }
+        this.checkNumber();
+        return Double.parseDouble(this.literal());
+    }
+    
+    /**
+     * @return the value as a boolean
+     * @throws FOMException if the value isn't true or false
+     */
+    public boolean asBoolean() throws FOMException {
+        this.checkPrimitive("a boolean");
+        if(this.is("true")) {
+            return true;
+        } else if(this.is("false")) {
+            return false;
+        }
+        throw new FOMException("The value of the tag is not a boolean: "+this.literal());
+    }
+    
+    /**
+     * @return the value as a string (or null if it's the primitive value null)
+     * @throws FOMException if the value isn't a string or null
+     */
+    public String asString() throws FOMException {
+        this.checkPrimitive("a string");
+        if(this.is("null")) {
+            return null;
+        }
+        java.lang.Object value = this.read();
+        if(!(value instanceof String)) {
+            throw new FOMException("The value of the tag is not a string: "+this.literal());
+        }
+        return (String)value;
+    }
+    
+    /**
+     * @return the value as an (unmodifiable) set of strings in the order FluidDB sent them,
+     *         or null if it's the primitive value null
+     * @throws FOMException if the value isn't a set of strings or null
+     */
+    public Set<String> asStringSet() throws FOMException {
+        this.checkPrimitive("a set of strings");
+        if(this.is("null")) {
+            return null;
+        }
+        java.lang.Object value = this.read();
+        if(!(value instanceof List<?>)) {
+            throw new FOMException("The value of the tag is not a set of strings: "+this.literal());
+        }
+        List<?> list = (List<?>)value;
+        Set<String> set = new LinkedHashSet<String>(list.size()*2);
+        for(java.lang.Object element : list) {
+            if(!(element instanceof String)) {
+                throw new FOMException("The value of the tag is not a set of strings: "+this.literal());
+            }
+            set.add((String)element);
+        }
+        return Collections.unmodifiableSet(set);
+    }
+    
+    /**
+     * The bytes of the value just as FluidDB sent them - the content of an opaque value, or
+     * the JSON of a primitive one. The array is shared with this TagValue so it must not be
+     * modified.
+     * @return the bytes of the value
+     */
+    public byte[] asBytes() {
+        return this.bytes;
+    }
+    
+    @Override
+    public String toString() {
+        if(this.primitive) {
+            return new String(this.bytes, this.start, this.end-this.start, StandardCharsets.UTF_8);
+        }
+        return this.contentType+" ("+this.bytes.length+" bytes)";
+    }
+    
+    private void checkPrimitive(String what) throws FOMException {
+        if(!this.primitive) {
+            throw new FOMException("The value of the tag is opaque ("+this.contentType+"), not "+what);
+        }
+    }
+    
+    private void checkNumber() throws FOMException {
+        if(!this.isNumber()) {
+            throw new FOMException("The value of the tag is not a number: "+this.literal());
+        }
+    }
+    
+    /**
+     * @return true if the value is a valid JSON number (which parseDouble is laxer about)
+     */
+    private boolean isNumber() {
+        byte[] bytes = this.bytes;
+        int i = this.start;
+        if(i < this.end && bytes[i] == '-') {
+            i++;
+        }
+        int digits = this.skipDigits(i);
+        if(digits == i || (bytes[i] == '0' && digits > i+1)) {
+            return false;
+        }
+        i = digits;
+        if(i < this.end && bytes[i] == '.') {
+            digits = this.skipDigits(i+1);
+            if(digits == i+1) {
+                return false;
+            }
+            i = digits;
+        }
+        if(i < this.end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            if(i < this.end && (bytes[i] == '+' || bytes[i] == '-')) {
+                i++;
+            }
+            digits = this.skipDigits(i);
+            if(digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        return i == this.end;
+    }
+    
+    private int skipDigits(int i) {
+        while(i < this.end && this.bytes[i] >= '0' && this.bytes[i] <= '9') {
+            i++;
+        }
+        return i;
+    }
+    
+    /**
+     * @return true if the value is exactly the given (ASCII) literal
+     */
+    private boolean is(String literal) {
+        int length = literal.length();
+        if(this.end-this.start != length) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(this.bytes[this.start+i] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private java.lang.Object read() throws FOMException {
+        try {
+            return Json.getCodec().read(this.bytes, this.start, this.end-this.start);
+        } catch (JSONException e) {
+            throw new FOMException("The value of the tag is not valid JSON", e);
+        }
+    }
+    
+    private String literal() {
+        return new String(this.bytes, this.start, this.end-this.start, StandardCharsets.UTF_8);
+    }
+    
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -22,15 +22,16 @@
 package com.fluidinfo.fom;
 
 import java.io.IOException;
+import java.util.Map;
 
 import com.fluidinfo.FluidConnector;
 import com.fluidinfo.FluidException;
 import com.fluidinfo.FluidResponse;
+import com.fluidinfo.http.PathTemplate;
+import com.fluidinfo.json.Json;
 import com.fluidinfo.utils.Method;
-import com.fluidinfo.utils.StringUtil;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * See: {@link http://doc.fluidinfo.com/fluidDB/users.html}
@@ -46,6 +47,11 @@ import org.json.JSONObject;
  */
 public class User extends BaseFOM{
 	
+	/**
+	 * The path to one of a user's policies
+	 */
+	private final static PathTemplate POLICY_PATH = PathTemplate.compile("/policies/{username}/{category}/{action}");
+	
 	private String name;
 	private String username;
 
@@ -69,9 +75,9 @@ public class User extends BaseFOM{
 	public void getItem() throws FluidException, IOException, FOMException,
 			JSONException {
 		FluidResponse response = this.Call(Method.GET, 200, "");
-		JSONObject jsonResult = this.getJsonObject(response);
-		this.id = jsonResult.getString("id");
-		this.name = jsonResult.getString("name");
+		Map<String, java.lang.Object> jsonResult = this.getJsonMap(response);
+		this.id = Json.getString(jsonResult, "id");
+		this.name = Json.getString(jsonResult, "name");
 	}
 	
 	/**
@@ -119,8 +125,7 @@ public class User extends BaseFOM{
 	 * @throws JSONException
 	 */
 	public Permission getNamespacePolicy(Namespace.Actions action) throws FluidException, IOException, FOMException, JSONException {
-	    String[] path = {"/policies", this.username, "namespaces", action.toString().toLowerCase()};
-        return this.GetPermission(StringUtil.URIJoin(path), "");
+        return this.GetPermission(POLICY_PATH.expand(this.username, "namespaces", action.toString().toLowerCase()), "");
 	}
 	
 	/**
@@ -134,8 +139,7 @@ public class User extends BaseFOM{
      * @throws JSONException
      */
 	public Permission getTagPolicy(Tag.TagActions action) throws FluidException, IOException, FOMException, JSONException {
-	    String[] path = {"/policies", this.username, "tags", action.toString().toLowerCase()};
-        return this.GetPermission(StringUtil.URIJoin(path), "");
+        return this.GetPermission(POLICY_PATH.expand(this.username, "tags", action.toString().toLowerCase()), "");
 	}
 	
 	/**
@@ -149,8 +153,7 @@ public class User extends BaseFOM{
      * @throws JSONException
      */
 	public Permission getTagValuePolicy(Tag.TagValueActions action) throws FluidException, IOException, FOMException, JSONException {
-	    String[] path = {"/policies", this.username, "tag-values", action.toString().toLowerCase()};
-        return this.GetPermission(StringUtil.URIJoin(path), "");
+        return this.GetPermission(POLICY_PATH.expand(this.username, "tag-values", action.toString().toLowerCase()), "");
 	}
 	
 	/**
@@ -163,8 +166,7 @@ public class User extends BaseFOM{
 	 * @throws IOException
 	 */
 	public void setNamespacePolicy(Namespace.Actions action, Permission permission) throws JSONException, FluidException, IOException {
-	    String[] path = {"/policies", this.username, "namespaces", action.toString().toLowerCase()};
-        this.SetPermission(StringUtil.URIJoin(path), "", permission);
+        this.SetPermission(POLICY_PATH.expand(this.username, "namespaces", action.toString().toLowerCase()), "", permission);
 	}
 	
 	/**
@@ -177,8 +179,7 @@ public class User extends BaseFOM{
      * @throws IOException
      */
 	public void setTagPolicy(Tag.TagActions action, Permission permission) throws JSONException, FluidException, IOException {
-	    String[] path = {"/policies", this.username, "tags", action.toString().toLowerCase()};
-        this.SetPermission(StringUtil.URIJoin(path), "", permission);
+        this.SetPermission(POLICY_PATH.expand(this.username, "tags", action.toString().toLowerCase()), "", permission);
 	}
 	
 	/**
@@ -191,7 +192,6 @@ public class User extends BaseFOM{
      * @throws IOException
      */
 	public void setTagValuePolicy(Tag.TagValueActions action, Permission permission) throws JSONException, FluidException, IOException {
-	    String[] path = {"/policies", this.username, "tag-values", action.toString().toLowerCase()};
-        this.SetPermission(StringUtil.URIJoin(path), "", permission);
+        this.SetPermission(POLICY_PATH.expand(this.username, "tag-values", action.toString().toLowerCase()), "", permission);
 	}
 }
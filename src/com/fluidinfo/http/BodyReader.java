@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a response body into a byte array, copying it as few times as possible
+ */
+public final class BodyReader {
+    
+    private BodyReader() {
+    }
+    
+    /**
+     * Reads the whole stream. If the length is known the bytes are read straight into an
+     * array of the right size; otherwise they're read into pooled buffers and copied out
+     * once at the end.
+     * @param in the stream to read
+     * @param contentLength the number of bytes expected, or -1 if unknown
+     * @return the bytes read
+     * @throws IOException
+     */
+    public static byte[] readFully(InputStream in, long contentLength) throws IOException {
+        if(contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+            byte[] body = new byte[(int)contentLength];
+            int offset = 0;
+            while(offset < body.length) {
+                int n = in.read(body, offset, body.length - offset);
+                if(n == -1) {
+                    throw new EOFException("Expected "+contentLength+" bytes but only got "+offset);
+                }
+                offset += n;
+            }
+            return body;
+        }
+        List<byte[]> chunks = new ArrayList<byte[]>();
+        byte[] current = BufferPool.acquire();
+        int used = 0;
+        int total = 0;
+        try {
+            int n;
+            while(true) {
+                if(used == current.length) {
+                    chunks.add(current);
+                    current = BufferPool.acquire();
+                    used = 0;
+                }
+                n = in.read(current, used, current.length - used);
+                if(n == -1) {
+                    break;
+                }
+                used += n;
+                total += n;
+            }
+            byte[] body = new byte[total];
+            int offset = 0;
+            for(byte[] chunk : chunks) {
+                System.arraycopy(chunk, 0, body, offset, chunk.length);
+                offset += chunk.length;
+            }
+            System.arraycopy(current, 0, body, offset, used);
+            return body;
+        } finally {
+            for(byte[] chunk : chunks) {
+                BufferPool.release(chunk);
+            }
+            BufferPool.release(current);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A shared pool of fixed size byte arrays used as scratch space when reading response 
+ * bodies, so that busy clients don't churn through short-lived buffers.
+ * <p>
+ * The pool is shared between threads rather than being thread-local so that it still
+ * works when every call runs on its own (virtual) thread.
+ */
+public final class BufferPool {
+    
+    /**
+     * The size of every buffer handed out by the pool
+     */
+    public final static int BUFFER_SIZE = 16*1024;
+    
+    /**
+     * The most buffers the pool will hold on to
+     */
+    private final static int MAX_POOLED = 256;
+    
+    private final static ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+    
+    private final static AtomicInteger pooled = new AtomicInteger();
+    
+    private BufferPool() {
+    }
+    
+    /**
+     * @return a buffer of BUFFER_SIZE bytes (with undefined contents)
+     */
+    public static byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        if(buffer == null) {
+            return new byte[BUFFER_SIZE];
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+    
+    /**
+     * Hands a buffer back to the pool. The caller must not use it again.
+     * @param buffer a buffer obtained from acquire
+     */
+    public static void release(byte[] buffer) {
+        if(buffer.length == BUFFER_SIZE && pooled.incrementAndGet() <= MAX_POOLED) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A pool of persistent (keep-alive) HTTP connections to FluidDB
+ * <p>
+ * Connections are grouped by route (scheme, host and port). At most
+ * {@link #getMaxConnectionsPerHost()} connections are leased for any one route at a time;
+ * further callers wait until a connection is released. Connections that sit idle for
+ * longer than {@link #getIdleTimeout()} are closed, and connections that have been idle
+ * for longer than {@link #getValidateAfterInactivity()} are health checked before being
+ * handed out again.
+ * <p>
+ * This class is thread-safe. Callers waiting for a connection park on a lock rather than
+ * a monitor, so virtual threads waiting on the pool don't pin their carrier threads.
+ */
+public class ConnectionPool {
+
+    /**
+     * The default maximum number of connections per host
+     */
+    public final static int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+
+    /**
+     * The default time (in milliseconds) an unused connection is kept open
+     */
+    public final static long DEFAULT_IDLE_TIMEOUT = 30*1000;
+
+    /**
+     * The default time (in milliseconds) after which an idle connection is checked
+     * before it is reused
+     */
+    public final static long DEFAULT_VALIDATE_AFTER_INACTIVITY = 2*1000;
+
+    /**
+     * The default time (in milliseconds) to wait for a free connection
+     */
+    public final static long DEFAULT_LEASE_TIMEOUT = 10*1000;
+
+    private volatile int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private volatile long validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+
+    private volatile long leaseTimeout = DEFAULT_LEASE_TIMEOUT;
+
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+
+    private final AtomicInteger leased = new AtomicInteger();
+    private final AtomicInteger idle = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    /**
+     * When the idle connections were last swept (in milliseconds)
+     */
+    private final AtomicLong lastEviction = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Book-keeping for all the connections to a single scheme://host:port
+     */
+    private static class Route {
+        final String key;
+        final String host;
+        final int port;
+        final boolean secure;
+        /**
+         * Guards available and leased
+         */
+        final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Signalled when a slot is freed
+         */
+        final Condition free = this.lock.newCondition();
+        final ArrayDeque<PooledConnection> available = new ArrayDeque<PooledConnection>();
+        int leased = 0;
+
+        Route(String key, String host, int port, boolean secure) {
+            this.key = key;
+            this.host = host;
+            this.port = port;
+            this.secure = secure;
+        }
+    }
+
+    /**
+     * @return the maximum number of connections that may be leased per host
+     */
+    public int getMaxConnectionsPerHost() {
+        return this.maxConnectionsPerHost;
+    }
+
+    /**
+     * @param max the maximum number of connections that may be leased per host
+     */
+    public void setMaxConnectionsPerHost(int max) {
+        if(max < 1) {
+            throw new IllegalArgumentException("The pool must allow at least one connection per host");
+        }
+        this.maxConnectionsPerHost = max;
+        for(Route r : this.routes.values()) {
+            r.lock.lock();
+            try {
+                r.free.signalAll();
+            } finally {
+                r.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the time (in milliseconds) an unused connection is kept open
+     */
+    public long getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * @param idleTimeout the time (in milliseconds) an unused connection is kept open
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return the time (in milliseconds) after which an idle connection is health checked
+     * before being reused
+     */
+    public long getValidateAfterInactivity() {
+        return this.validateAfterInactivity;
+    }
+
+    /**
+     * @param validateAfterInactivity the time (in milliseconds) after which an idle
+     *        connection is health checked before being reused
+     */
+    public void setValidateAfterInactivity(long validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    /**
+     * @return the time (in milliseconds) a caller waits for a free connection
+     */
+    public long getLeaseTimeout() {
+        return this.leaseTimeout;
+    }
+
+    /**
+     * @param leaseTimeout the time (in milliseconds) a caller waits for a free connection
+     */
+    public void setLeaseTimeout(long leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    /**
+     * @return a snapshot of the pool's current state
+     */
+    public PoolStats getStats() {
+        return new PoolStats(this.leased.get(), this.idle.get(), this.pending.get(), this.created.get(), this.evicted.get());
+    }
+
+    /**
+     * Leases a connection to the referenced host, reusing an idle connection if a healthy
+     * one is available
+     *
+     * @param host the host to connect to
+     * @param port the port to connect to
+     * @param secure true if the connection should use TLS
+     * @param connectTimeout the connect timeout in milliseconds for new connections
+     * @return a connection that must be handed back with {@link #release}
+     * @throws IOException if no connection becomes free in time or a new connection
+     *         cannot be opened
+     */
+    public PooledConnection lease(String host, int port, boolean secure, int connectTimeout) throws IOException {
+        return this.lease(host, port, secure, connectTimeout, this.leaseTimeout);
+    }
+
+    /**
+     * Leases a connection to the referenced host, reusing an idle connection if a healthy
+     * one is available, and waiting no longer than the given timeout for one to be free
+     *
+     * @param host the host to connect to
+     * @param port the port to connect to
+     * @param secure true if the connection should use TLS
+     * @param connectTimeout the connect timeout in milliseconds for new connections
+     * @param leaseTimeout the most time (in milliseconds) to wait for a free connection
+     *        (no more than the pool's own lease timeout is ever waited), e.g. the time 
+     *        left before a call's deadline
+     * @return a connection that must be handed back with {@link #release}
+     * @throws IOException if no connection becomes free in time or a new connection
+     *         cannot be opened
+     */
+    public PooledConnection lease(String host, int port, boolean secure, int connectTimeout, long leaseTimeout) throws IOException {
+        this.evictIdleIfDue();
+        Route route = this.getRoute(host, port, secure);
+        this.acquire(route, Math.min(leaseTimeout, this.leaseTimeout));
+        try {
+            PooledConnection connection = this.takeAvailable(route);
+            if(connection == null) {
+                connection = this.open(route, connectTimeout);
+                this.created.incrementAndGet();
+            }
+            return connection;
+        } catch (IOException e) {
+            this.releaseSlot(route);
+            throw e;
+        } catch (RuntimeException e) {
+            this.releaseSlot(route);
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a leased connection back to the pool
+     *
+     * @param connection the connection to hand back
+     * @param reusable true if the connection is in a clean state and may carry another
+     *        request, false if it should be closed
+     */
+    public void release(PooledConnection connection, boolean reusable) {
+        Route route = this.routes.get(connection.getRoute());
+        if(reusable && !connection.isClosed() && route != null) {
+            connection.touch();
+            connection.setReused(true);
+            route.lock.lock();
+            try {
+                route.available.addFirst(connection);
+                this.idle.incrementAndGet();
+            } finally {
+                route.lock.unlock();
+            }
+        } else {
+            connection.close();
+        }
+        if(route != null) {
+            this.releaseSlot(route);
+        }
+    }
+
+    /**
+     * Closes every connection that has been idle for longer than the idle timeout
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        this.lastEviction.set(now);
+        for(Route route : this.routes.values()) {
+            route.lock.lock();
+            try {
+                Iterator<PooledConnection> i = route.available.iterator();
+                while(i.hasNext()) {
+                    PooledConnection c = i.next();
+                    if(now - c.getLastUsed() > this.idleTimeout) {
+                        i.remove();
+                        this.idle.decrementAndGet();
+                        this.evicted.incrementAndGet();
+                        c.close();
+                    }
+                }
+            } finally {
+                route.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Closes all the idle connections in the pool. Leased connections are closed as they
+     * are released.
+     */
+    public void close() {
+        for(Route route : this.routes.values()) {
+            route.lock.lock();
+            try {
+                PooledConnection c;
+                while((c = route.available.pollFirst()) != null) {
+                    this.idle.decrementAndGet();
+                    c.close();
+                }
+            } finally {
+                route.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sweeps the idle connections at most once per second (so that we don't need a
+     * background thread)
+     */
+    private void evictIdleIfDue() {
+        long last = this.lastEviction.get();
+        long now = System.currentTimeMillis();
+        if(now - last > 1000 && this.lastEviction.compareAndSet(last, now)) {
+            this.evictIdle();
+        }
+    }
+
+    private Route getRoute(String host, int port, boolean secure) {
+        String key = (secure ? "https://" : "http://")+host+":"+port;
+        Route route = this.routes.get(key);
+        if(route == null) {
+            Route newRoute = new Route(key, host, port, secure);
+            route = this.routes.putIfAbsent(key, newRoute);
+            if(route == null) {
+                route = newRoute;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * Waits (for up to the timeout in milliseconds) for a free slot on the route
+     */
+    private void acquire(Route route, long timeout) throws IOException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+        route.lock.lock();
+        try {
+            if(route.leased >= this.maxConnectionsPerHost) {
+                this.pending.incrementAndGet();
+                try {
+                    while(route.leased >= this.maxConnectionsPerHost) {
+                        if(remaining <= 0) {
+                            throw new ConnectException("Timed out waiting for a free connection to "+route.host+":"+route.port);
+                        }
+                        remaining = route.free.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a free connection");
+                } finally {
+                    this.pending.decrementAndGet();
+                }
+            }
+            route.leased++;
+            this.leased.incrementAndGet();
+        } finally {
+            route.lock.unlock();
+        }
+    }
+
+    private void releaseSlot(Route route) {
+        route.lock.lock();
+        try {
+            route.leased--;
+            this.leased.decrementAndGet();
+            route.free.signal();
+        } finally {
+            route.lock.unlock();
+        }
+    }
+
+    /**
+     * Pops the most recently used idle connection that is neither expired nor stale
+     */
+    private PooledConnection takeAvailable(Route route) {
+        while(true) {
+            PooledConnection c;
+            route.lock.lock();
+            try {
+                c = route.available.pollFirst();
+                if(c == null) {
+                    return null;
+                }
+                this.idle.decrementAndGet();
+            } finally {
+                route.lock.unlock();
+            }
+            long inactive = System.currentTimeMillis() - c.getLastUsed();
+            if(inactive > this.idleTimeout || (inactive > this.validateAfterInactivity && c.isStale())) {
+                this.evicted.incrementAndGet();
+                c.close();
+                continue;
+            }
+            return c;
+        }
+    }
+
+    private PooledConnection open(Route route, int connectTimeout) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(route.host, route.port), connectTimeout);
+            if(route.secure) {
+                SSLSocketFactory factory = (SSLSocketFactory)SSLSocketFactory.getDefault();
+                SSLSocket ssl = (SSLSocket)factory.createSocket(socket, route.host, route.port, true);
+                SSLParameters params = ssl.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(params);
+                ssl.startHandshake();
+                socket = ssl;
+            }
+            return new PooledConnection(route.key, socket);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // we're already failing
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses request bodies and decompresses response bodies (the gzip and deflate
+ * content-codings of RFC 2616)
+ */
+public final class ContentCoding {
+
+    /**
+     * The value to send in the Accept-Encoding header
+     */
+    public final static String ACCEPT_ENCODING = "gzip, deflate";
+
+    private ContentCoding() {
+    }
+
+    /**
+     * @param contentEncoding the value of a Content-Encoding header (or null)
+     * @return true if the body needs decoding before it can be used
+     */
+    public static boolean isEncoded(String contentEncoding) {
+        return contentEncoding != null && contentEncoding.trim().length() > 0 && !contentEncoding.trim().equalsIgnoreCase("identity");
+    }
+
+    /**
+     * Wraps a response body so that reading it yields the decoded content. The stream
+     * returned <b>must</b> be closed, which frees the decoder's native memory and closes
+     * the body it reads from.
+     * @param in the body as it came off the wire
+     * @param contentEncoding the value of the Content-Encoding header (or null)
+     * @return a stream of the decoded body
+     * @throws IOException if the encoding isn't one we understand
+     */
+    public static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if(!isEncoded(contentEncoding)) {
+            return in;
+        }
+        String coding = contentEncoding.trim().toLowerCase();
+        if(coding.equals("gzip") || coding.equals("x-gzip")) {
+            return new GZIPInputStream(in, BufferPool.BUFFER_SIZE);
+        }
+        if(coding.equals("deflate")) {
+            // "deflate" should be zlib wrapped but some servers send a raw deflate stream,
+            // so take a peek at the header to decide which we've got
+            BufferedInputStream buffered = new BufferedInputStream(in, 2);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            return new InflaterInputStream(buffered, new Inflater(!zlib), BufferPool.BUFFER_SIZE) {
+                private boolean closed = false;
+
+                @Override
+                public void close() throws IOException {
+                    if(this.closed) {
+                        return;
+                    }
+                    this.closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        // InflaterInputStream only ends the Inflaters it makes itself
+                        this.inf.end();
+                    }
+                }
+            };
+        }
+        throw new IOException("Unsupported Content-Encoding: "+contentEncoding);
+    }
+
+    /**
+     * @param body the bytes to compress
+     * @return the bytes gzip encoded
+     */
+    public static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length/4 + 64);
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(out, BufferPool.BUFFER_SIZE);
+            gzip.write(body);
+            gzip.close();
+        } catch (IOException e) {
+            // can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * An InputStream that counts the bytes read through it
+     */
+    public static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        /**
+         * Constructor
+         * @param in the stream to count
+         */
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * @return the number of bytes read so far
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b != -1) {
+                this.count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if(n > 0) {
+                this.count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.count += skipped;
+            return skipped;
+        }
+
+        /**
+         * Reads (and throws away) anything left in the stream
+         * @throws IOException
+         */
+        public void drain() throws IOException {
+            byte[] buffer = BufferPool.acquire();
+            try {
+                while(this.read(buffer, 0, buffer.length) != -1) {
+                    // discard
+                }
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
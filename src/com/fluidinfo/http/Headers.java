@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.util.Map;
+
+/**
+ * Checks request headers before they go on the wire, so that a name or value with a 
+ * CR or LF in it can't smuggle extra headers (or a whole extra request) in
+ */
+public final class Headers {
+    
+    /**
+     * The separators of RFC 7230, which (like spaces and control characters) can't be 
+     * part of a header name
+     */
+    private final static String SEPARATORS = "\"(),/:;<=>?@[\\]{}";
+    
+    private Headers() {
+    }
+    
+    /**
+     * @param name a header name
+     * @param value its value
+     * @throws IllegalArgumentException if the name isn't an HTTP token, or the value 
+     *         has a control character (other than tab) in it
+     */
+    public static void check(String name, String value) {
+        if(name == null || name.length() == 0) {
+            throw new IllegalArgumentException("Header names can't be empty");
+        }
+        for(int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if(c <= ' ' || c >= 0x7f || SEPARATORS.indexOf(c) != -1) {
+                throw new IllegalArgumentException("Invalid character in header name: "+name);
+            }
+        }
+        if(value == null) {
+            throw new IllegalArgumentException("Header "+name+" has no value");
+        }
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if((c < ' ' && c != '\t') || c == 0x7f) {
+                throw new IllegalArgumentException("Invalid character in the value of header "+name);
+            }
+        }
+    }
+    
+    /**
+     * @param headers request headers
+     * @throws IllegalArgumentException if any of them fails {@link #check}
+     */
+    public static void check(Map<String, String> headers) {
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            check(header.getKey(), header.getValue());
+        }
+    }
+}
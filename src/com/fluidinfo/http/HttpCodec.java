@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads and writes HTTP/1.1 messages on a pooled connection
+ */
+final class HttpCodec {
+
+    /**
+     * The longest status or header line we're prepared to read
+     */
+    private final static int MAX_LINE_LENGTH = 64*1024;
+
+    private HttpCodec() {
+    }
+
+    /**
+     * Writes an HTTP/1.1 request (and its body, if any) to the connection
+     * @param out the stream to write to
+     * @param method the HTTP method (e.g. GET)
+     * @param target the path and query string
+     * @param host the value of the Host header
+     * @param headers the other request headers (already checked with Headers.check)
+     * @param body the request body (or null)
+     * @throws IOException
+     */
+    static void writeRequest(OutputStream out, String method, String target, String host, Map<String, String> headers, byte[] body) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(host).append("\r\n");
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if(body != null) {
+            sb.append("Content-Length: ").append(body.length).append("\r\n");
+        } else if(method.equals("POST") || method.equals("PUT")) {
+            sb.append("Content-Length: 0\r\n");
+        }
+        sb.append("\r\n");
+        out.write(sb.toString().getBytes("ISO-8859-1"));
+        if(body != null) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the status line and headers of a response and wires up a stream for its body
+     * @param pool the pool that owns the connection
+     * @param connection the connection to read from
+     * @param method the HTTP method of the request (HEAD responses never have a body)
+     * @return the response
+     * @throws IOException
+     */
+    static RawResponse readResponse(ConnectionPool pool, PooledConnection connection, String method) throws IOException {
+        InputStream in = connection.getInputStream();
+        String statusLine;
+        int statusCode;
+        Map<String, String> headers;
+        do {
+            // skip any interim (1xx) responses
+            statusLine = readLine(in);
+            statusCode = parseStatusCode(statusLine);
+            headers = readHeaders(in);
+        } while(statusCode >= 100 && statusCode < 200);
+        String statusMessage = parseStatusMessage(statusLine);
+
+        boolean keepAlive = !statusLine.startsWith("HTTP/1.0");
+        String connectionHeader = headers.get("Connection");
+        if(connectionHeader != null) {
+            keepAlive = !connectionHeader.equalsIgnoreCase("close") && (keepAlive || connectionHeader.equalsIgnoreCase("keep-alive"));
+        }
+
+        ResponseBodyStream body;
+        String transferEncoding = headers.get("Transfer-Encoding");
+        String contentLength = headers.get("Content-Length");
+        if(method.equals("HEAD") || statusCode == 204 || statusCode == 304) {
+            body = new ResponseBodyStream(pool, connection, ResponseBodyStream.FIXED, 0, keepAlive);
+        } else if(transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            body = new ResponseBodyStream(pool, connection, ResponseBodyStream.CHUNKED, 0, keepAlive);
+        } else if(contentLength != null) {
+            long length;
+            try {
+                length = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid Content-Length: "+contentLength);
+            }
+            body = new ResponseBodyStream(pool, connection, ResponseBodyStream.FIXED, length, keepAlive);
+        } else {
+            body = new ResponseBodyStream(pool, connection, ResponseBodyStream.UNTIL_CLOSE, 0, false);
+        }
+        return new RawResponse(statusCode, statusMessage, headers, body);
+    }
+
+    /**
+     * Reads a single CRLF (or LF) terminated line
+     * @param in the stream to read from
+     * @return the line without its terminator
+     * @throws IOException if the stream ends before the line does
+     */
+    static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int c;
+        while((c = in.read()) != '\n') {
+            if(c == -1) {
+                throw new EOFException("Connection closed by FluidDB");
+            }
+            if(sb.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Response line too long");
+            }
+            sb.append((char)c);
+        }
+        int length = sb.length();
+        if(length > 0 && sb.charAt(length-1) == '\r') {
+            sb.setLength(length-1);
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while((line = readLine(in)).length() > 0) {
+            int colon = line.indexOf(':');
+            if(colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon+1).trim();
+            String existing = headers.get(name);
+            headers.put(name, existing == null ? value : existing+", "+value);
+        }
+        return headers;
+    }
+
+    private static int parseStatusCode(String statusLine) throws IOException {
+        // e.g. HTTP/1.1 200 OK
+        int start = statusLine.indexOf(' ');
+        if(!statusLine.startsWith("HTTP/") || start == -1 || statusLine.length() < start+4) {
+            throw new IOException("Invalid HTTP status line: "+statusLine);
+        }
+        try {
+            return Integer.parseInt(statusLine.substring(start+1, start+4));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid HTTP status line: "+statusLine);
+        }
+    }
+
+    private static String parseStatusMessage(String statusLine) {
+        int start = statusLine.indexOf(' ');
+        return statusLine.length() > start+5 ? statusLine.substring(start+5) : "";
+    }
+}
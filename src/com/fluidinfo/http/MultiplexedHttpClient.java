@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An HTTP client built on java.net.http.HttpClient that prefers HTTP/2, so that many
+ * concurrent calls to FluidDB share (are multiplexed over) a single connection. Servers
+ * that don't speak HTTP/2 are transparently talked to with HTTP/1.1.
+ * <p>
+ * This class is thread-safe.
+ */
+public class MultiplexedHttpClient {
+
+    /**
+     * The reason phrases for the status codes FluidDB uses (HTTP/2 doesn't send them)
+     */
+    private final static Map<Integer, String> REASONS = new TreeMap<Integer, String>();
+    static {
+        REASONS.put(200, "OK");
+        REASONS.put(201, "Created");
+        REASONS.put(204, "No Content");
+        REASONS.put(304, "Not Modified");
+        REASONS.put(400, "Bad Request");
+        REASONS.put(401, "Unauthorized");
+        REASONS.put(403, "Forbidden");
+        REASONS.put(404, "Not Found");
+        REASONS.put(405, "Method Not Allowed");
+        REASONS.put(406, "Not Acceptable");
+        REASONS.put(409, "Conflict");
+        REASONS.put(412, "Precondition Failed");
+        REASONS.put(413, "Request Entity Too Large");
+        REASONS.put(415, "Unsupported Media Type");
+        REASONS.put(500, "Internal Server Error");
+        REASONS.put(502, "Bad Gateway");
+        REASONS.put(503, "Service Unavailable");
+        REASONS.put(504, "Gateway Timeout");
+    }
+
+    private HttpClient client;
+
+    /**
+     * Constructor
+     * @param connectTimeout the connect timeout in milliseconds
+     */
+    public MultiplexedHttpClient(int connectTimeout) {
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(Duration.ofMillis(connectTimeout))
+            .build();
+    }
+
+    /**
+     * Sends a request and waits for the response's status line and headers. The caller
+     * <b>must</b> close the response body.
+     * <p>
+     * The read timeout bounds the whole wait for the headers (connecting included, so a
+     * call's deadline can cut short the client's connect timeout) and then each read of the
+     * body: a server that stalls part way through a body fails the read rather than
+     * hanging it.
+     *
+     * @param method the HTTP method (e.g. GET)
+     * @param url the full URL to call
+     * @param headers the request headers (Host and Content-Length are added automatically)
+     * @param body the request body (or null)
+     * @param readTimeout how long to wait (in milliseconds) for the response headers, and
+     * for each part of the body
+     * @return the response
+     * @throws IOException
+     */
+    public RawResponse execute(String method, URL url, Map<String, String> headers, byte[] body, int readTimeout) throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL: "+url, e);
+        }
+        builder.timeout(Duration.ofMillis(readTimeout));
+        for(Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        if(body == null) {
+            builder.method(method, HttpRequest.BodyPublishers.noBody());
+        } else {
+            builder.method(method, HttpRequest.BodyPublishers.ofByteArray(body));
+        }
+        CompletableFuture<HttpResponse<Flow.Publisher<List<ByteBuffer>>>> sent =
+            this.client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofPublisher());
+        HttpResponse<Flow.Publisher<List<ByteBuffer>>> response;
+        try {
+            response = sent.get(readTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            sent.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for FluidDB");
+        } catch (TimeoutException e) {
+            sent.cancel(true);
+            throw new HttpTimeoutException("Timed out waiting for FluidDB");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new IOException(cause);
+        }
+        TimedBodyStream stream = new TimedBodyStream(readTimeout);
+        response.body().subscribe(stream);
+        Map<String, String> responseHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for(Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            StringBuilder value = new StringBuilder();
+            for(String v : header.getValue()) {
+                if(value.length() > 0) {
+                    value.append(", ");
+                }
+                value.append(v);
+            }
+            responseHeaders.put(header.getKey(), value.toString());
+        }
+        String reason = REASONS.get(response.statusCode());
+        return new RawResponse(response.statusCode(), reason == null ? "" : reason, responseHeaders, stream);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A request path with named placeholders (e.g. /permissions/tags/{tag}) that is parsed
+ * once, up front, so that expanding it for each call is a single pass over the values
+ * with no intermediate arrays, regular expressions or joins.
+ * <p>
+ * Expansion follows the same rules as StringUtil.URIJoin: runs of / are collapsed into one
+ * (so values may themselves be paths such as /objects or ntoll/books/rating). Characters
+ * that can't appear in a path are percent-encoded as UTF-8; the encoded form of such
+ * values is cached since the same names turn up again and again. Values that are already
+ * percent-encoded are left alone.
+ */
+public final class PathTemplate {
+    
+    /**
+     * The most encoded values kept in the cache before it's emptied and started again
+     */
+    private final static int MAX_CACHED = 4096;
+    
+    private final static ConcurrentHashMap<String, String> encoded = new ConcurrentHashMap<String, String>();
+    
+    private final static char[] HEX = "0123456789ABCDEF".toCharArray();
+    
+    private final String template;
+    
+    /**
+     * The literal text before, between and after the placeholders (one more than there
+     * are placeholders)
+     */
+    private final String[] literals;
+    
+    private final String[] names;
+    
+    private final int literalLength;
+    
+    private PathTemplate(String template, String[] literals, String[] names) {
+        this.template = template;
+        this.literals = literals;
+        this.names = names;
+        int length = 0;
+        for(int i = 0; i < literals.length; i++) {
+            length += literals[i].length();
+        }
+        this.literalLength = length;
+    }
+    
+    /**
+     * Parses a template
+     * @param template the path with {name} placeholders for the parts that vary
+     * @return the compiled template
+     * @throws IllegalArgumentException if a placeholder isn't closed or is empty
+     */
+    public static PathTemplate compile(String template) {
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        int start = 0;
+        int open;
+        while((open = template.indexOf('{', start)) != -1) {
+            int close = template.indexOf('}', open);
+            if(close == -1 || close == open+1) {
+                throw new IllegalArgumentException("Invalid placeholder in path template: "+template);
+            }
+            literals.add(template.substring(start, open));
+            names.add(template.substring(open+1, close));
+            start = close+1;
+        }
+        literals.add(template.substring(start));
+        return new PathTemplate(template, literals.toArray(new String[literals.size()]), names.toArray(new String[names.size()]));
+    }
+    
+    /**
+     * @return the number of placeholders in the template
+     */
+    public int getVariableCount() {
+        return this.names.length;
+    }
+    
+    /**
+     * @param index the position of a placeholder
+     * @return its name
+     */
+    public String getVariableName(int index) {
+        return this.names[index];
+    }
+    
+    /**
+     * Fills in the placeholders
+     * @param values a value for each placeholder, in order
+     * @return the path
+     * @throws IllegalArgumentException if the number of values is wrong
+     */
+    public String expand(String... values) {
+        StringBuilder sb = new StringBuilder(this.estimateLength(values));
+        this.appendTo(sb, values);
+        return sb.toString();
+    }
+    
+    /**
+     * Fills in the placeholders, appending the result to sb. Runs of / are only collapsed
+     * within the expanded path, not where it joins whatever is already in sb.
+     * @param sb where to write the path
+     * @param values a value for each placeholder, in order
+     * @throws IllegalArgumentException if the number of values is wrong
+     */
+    public void appendTo(StringBuilder sb, String... values) {
+        if(values.length != this.names.length) {
+            throw new IllegalArgumentException("Expected "+this.names.length+" values for "+this.template+" but got "+values.length);
+        }
+        int start = sb.length();
+        appendCollapsed(sb, start, this.literals[0]);
+        for(int i = 0; i < values.length; i++) {
+            appendCollapsed(sb, start, encode(values[i]));
+            appendCollapsed(sb, start, this.literals[i+1]);
+        }
+    }
+    
+    /**
+     * @param values the values the template will be expanded with
+     * @return roughly how long the expanded path will be
+     */
+    int estimateLength(String... values) {
+        int length = this.literalLength;
+        for(int i = 0; i < values.length; i++) {
+            length += values[i] == null ? 4 : values[i].length();
+        }
+        return length+16;
+    }
+    
+    /**
+     * Percent-encodes the characters in a path value that aren't allowed in a URL path
+     * (/ and % are kept as they are)
+     * @param value the value
+     * @return the value itself if nothing needed encoding, otherwise its encoded form
+     */
+    public static String encode(String value) {
+        if(value == null) {
+            return "null";
+        }
+        int length = value.length();
+        int i = 0;
+        while(i < length && isPathChar(value.charAt(i))) {
+            i++;
+        }
+        if(i == length) {
+            return value;
+        }
+        String result = encoded.get(value);
+        if(result == null) {
+            StringBuilder sb = new StringBuilder(length+16);
+            sb.append(value, 0, i);
+            while(i < length) {
+                char c = value.charAt(i);
+                if(isPathChar(c)) {
+                    sb.append(c);
+                    i++;
+                } else {
+                    int codePoint = value.codePointAt(i);
+                    appendEncoded(sb, codePoint);
+                    i += Character.charCount(codePoint);
+                }
+            }
+            result = sb.toString();
+            if(encoded.size() >= MAX_CACHED) {
+                encoded.clear();
+            }
+            encoded.put(value, result);
+        }
+        return result;
+    }
+    
+    /**
+     * Appends a code point as percent-encoded UTF-8 (unpaired surrogates become ?)
+     * @param sb where to write it
+     * @param codePoint the code point
+     */
+    static void appendEncoded(StringBuilder sb, int codePoint) {
+        if(codePoint < 0x80) {
+            appendByte(sb, codePoint);
+        } else if(codePoint < 0x800) {
+            appendByte(sb, 0xC0 | (codePoint >> 6));
+            appendByte(sb, 0x80 | (codePoint & 0x3F));
+        } else if(codePoint >= 0xD800 && codePoint <= 0xDFFF) {
+            appendByte(sb, '?');
+        } else if(codePoint < 0x10000) {
+            appendByte(sb, 0xE0 | (codePoint >> 12));
+            appendByte(sb, 0x80 | ((codePoint >> 6) & 0x3F));
+            appendByte(sb, 0x80 | (codePoint & 0x3F));
+        } else {
+            appendByte(sb, 0xF0 | (codePoint >> 18));
+            appendByte(sb, 0x80 | ((codePoint >> 12) & 0x3F));
+            appendByte(sb, 0x80 | ((codePoint >> 6) & 0x3F));
+            appendByte(sb, 0x80 | (codePoint & 0x3F));
+        }
+    }
+    
+    private static void appendByte(StringBuilder sb, int b) {
+        sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+    
+    /**
+     * @param c a character
+     * @return true if it may appear unencoded in a URL path (RFC 3986 pchar, / or %)
+     */
+    private static boolean isPathChar(char c) {
+        if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+            return true;
+        }
+        switch(c) {
+            case '/': case '%': case '-': case '.': case '_': case '~': case ':': case '@':
+            case '!': case '$': case '&': case '\'': case '(': case ')': case '*': case '+':
+            case ',': case ';': case '=':
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Appends s to sb, dropping any / that would follow another / written since start
+     */
+    private static void appendCollapsed(StringBuilder sb, int start, String s) {
+        int length = s.length();
+        int from = 0;
+        int slash;
+        while((slash = s.indexOf('/', from)) != -1) {
+            sb.append(s, from, slash);
+            if(sb.length() == start || sb.charAt(sb.length()-1) != '/') {
+                sb.append('/');
+            }
+            from = slash+1;
+        }
+        sb.append(s, from, length);
+    }
+    
+    @Override
+    public String toString() {
+        return this.template;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+/**
+ * A point-in-time snapshot of the state of a ConnectionPool
+ */
+public class PoolStats {
+
+    private int leased;
+    private int idle;
+    private int pending;
+    private long created;
+    private long evicted;
+
+    /**
+     * Constructor
+     * @param leased the number of connections currently handed out
+     * @param idle the number of keep-alive connections waiting to be reused
+     * @param pending the number of callers waiting for a connection
+     * @param created the total number of connections opened by the pool
+     * @param evicted the total number of connections closed because they were idle for
+     *        too long or failed a health check
+     */
+    public PoolStats(int leased, int idle, int pending, long created, long evicted) {
+        this.leased = leased;
+        this.idle = idle;
+        this.pending = pending;
+        this.created = created;
+        this.evicted = evicted;
+    }
+
+    /**
+     * @return the number of connections currently handed out
+     */
+    public int getLeased() {
+        return this.leased;
+    }
+
+    /**
+     * @return the number of keep-alive connections waiting to be reused
+     */
+    public int getIdle() {
+        return this.idle;
+    }
+
+    /**
+     * @return the number of callers waiting for a connection
+     */
+    public int getPending() {
+        return this.pending;
+    }
+
+    /**
+     * @return the total number of connections opened by the pool
+     */
+    public long getCreated() {
+        return this.created;
+    }
+
+    /**
+     * @return the total number of connections closed for being idle too long or stale
+     */
+    public long getEvicted() {
+        return this.evicted;
+    }
+
+    @Override
+    public String toString() {
+        return "leased="+this.leased+" idle="+this.idle+" pending="+this.pending+
+            " created="+this.created+" evicted="+this.evicted;
+    }
+}
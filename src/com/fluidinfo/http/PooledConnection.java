@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/**
+ * A single keep-alive socket to a FluidDB host that is owned by a ConnectionPool
+ * <p>
+ * Instances are handed out by {@link ConnectionPool#lease} and must always be handed
+ * back with {@link ConnectionPool#release}.
+ */
+public class PooledConnection {
+
+    /**
+     * The pool route (scheme://host:port) this connection belongs to
+     */
+    private final String route;
+
+    private final Socket socket;
+
+    private final InputStream in;
+
+    private final OutputStream out;
+
+    /**
+     * When this connection was last handed back to the pool (in milliseconds)
+     */
+    private volatile long lastUsed;
+
+    /**
+     * Indicates if this connection has already carried at least one request
+     */
+    private volatile boolean reused = false;
+
+    /**
+     * Constructor
+     * @param route the pool route this connection belongs to
+     * @param socket an already connected socket
+     * @throws IOException if the socket's streams cannot be obtained
+     */
+    PooledConnection(String route, Socket socket) throws IOException {
+        this.route = route;
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the pool route (scheme://host:port) this connection belongs to
+     */
+    public String getRoute() {
+        return this.route;
+    }
+
+    /**
+     * @return the buffered stream from which responses are read
+     */
+    public InputStream getInputStream() {
+        return this.in;
+    }
+
+    /**
+     * @return the buffered stream to which requests are written
+     */
+    public OutputStream getOutputStream() {
+        return this.out;
+    }
+
+    /**
+     * @return true if this connection came out of the pool's idle list rather than being
+     * freshly opened
+     */
+    public boolean isReused() {
+        return this.reused;
+    }
+
+    void setReused(boolean reused) {
+        this.reused = reused;
+    }
+
+    /**
+     * @return the time (in milliseconds) the connection was last handed back to the pool
+     */
+    public long getLastUsed() {
+        return this.lastUsed;
+    }
+
+    void touch() {
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Sets the read timeout for the next exchange on this connection
+     * @param timeout the timeout in milliseconds (0 means wait forever)
+     * @throws SocketException
+     */
+    public void setReadTimeout(int timeout) throws SocketException {
+        this.socket.setSoTimeout(timeout);
+    }
+
+    /**
+     * @return true if the underlying socket has been closed
+     */
+    public boolean isClosed() {
+        return this.socket.isClosed();
+    }
+
+    /**
+     * Health check used before an idle connection is reused. A connection is stale if the
+     * server has closed its end (a read returns EOF) or if unsolicited bytes are waiting
+     * to be read.
+     *
+     * @return true if the connection should not be reused
+     */
+    boolean isStale() {
+        if(this.socket.isClosed() || this.socket.isInputShutdown() || this.socket.isOutputShutdown()) {
+            return true;
+        }
+        int original = 0;
+        try {
+            if(this.in.available() > 0) {
+                return true;
+            }
+            original = this.socket.getSoTimeout();
+            this.socket.setSoTimeout(1);
+            // Anything other than a timeout means the connection is unusable
+            this.in.read();
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        } finally {
+            try {
+                this.socket.setSoTimeout(original);
+            } catch (SocketException e) {
+                // the next read will fail and discard the connection
+            }
+        }
+    }
+
+    /**
+     * Closes the underlying socket, ignoring any errors
+     */
+    void close() {
+        try {
+            this.socket.close();
+        } catch (IOException e) {
+            // nothing useful we can do about this
+        }
+    }
+}
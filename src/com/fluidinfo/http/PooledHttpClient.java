@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * A minimal HTTP/1.1 client that sends requests over connections leased from a
+ * ConnectionPool
+ */
+public class PooledHttpClient {
+
+    private ConnectionPool pool;
+
+    /**
+     * Constructor
+     * @param pool the pool to lease connections from
+     */
+    public PooledHttpClient(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the pool connections are leased from
+     */
+    public ConnectionPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Sends a request and reads the response's status line and headers. The caller
+     * <b>must</b> close the response body.
+     * <p>
+     * If a reused keep-alive connection turns out to have been closed by the server the
+     * request is sent once more on a fresh connection (except for POSTs, which are not
+     * safe to repeat).
+     *
+     * @param method the HTTP method (e.g. GET)
+     * @param url the full URL to call
+     * @param headers the request headers (Host and Content-Length are added automatically)
+     * @param body the request body (or null)
+     * @param connectTimeout the connect timeout in milliseconds (which also bounds the wait
+     *        for a free connection from the pool)
+     * @param readTimeout the read timeout in milliseconds
+     * @return the response
+     * @throws IOException
+     * @throws IllegalArgumentException if a header would let something else be smuggled
+     *         into the request (see {@link Headers#check})
+     */
+    public RawResponse execute(String method, URL url, Map<String, String> headers, byte[] body, int connectTimeout, int readTimeout) throws IOException {
+        // before leasing, since HttpCodec writes the headers as they are
+        Headers.check(headers);
+        boolean secure = url.getProtocol().equalsIgnoreCase("https");
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        String host = url.getPort() == -1 ? url.getHost() : url.getHost()+":"+url.getPort();
+        String target = url.getFile().length() == 0 ? "/" : url.getFile();
+        while(true) {
+            PooledConnection connection = this.pool.lease(url.getHost(), port, secure, connectTimeout, connectTimeout);
+            try {
+                connection.setReadTimeout(readTimeout);
+                HttpCodec.writeRequest(connection.getOutputStream(), method, target, host, headers, body);
+                return HttpCodec.readResponse(this.pool, connection, method);
+            } catch (IOException e) {
+                this.pool.release(connection, false);
+                if(connection.isReused() && !method.equals("POST") && !(e instanceof SocketTimeoutException)) {
+                    // a stale keep-alive connection, try again with another one
+                    continue;
+                }
+                throw e;
+            }
+        }
+    }
+}
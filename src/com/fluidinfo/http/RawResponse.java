@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * The status line, headers and (unread) body of an HTTP response
+ * <p>
+ * The body stream must always be closed. Reading it to the end hands the underlying
+ * connection back to the pool for reuse; closing it early discards the connection.
+ */
+public class RawResponse {
+
+    private int statusCode;
+    private String statusMessage;
+    private Map<String, String> headers;
+    private InputStream body;
+
+    /**
+     * Constructor
+     * @param statusCode the HTTP status code (e.g. 200, 404)
+     * @param statusMessage the HTTP reason phrase (e.g. OK, Not Found)
+     * @param headers the response headers (looked up case-insensitively)
+     * @param body the response body
+     */
+    public RawResponse(int statusCode, String statusMessage, Map<String, String> headers, InputStream body) {
+        this.statusCode = statusCode;
+        this.statusMessage = statusMessage;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * @return the HTTP status code (e.g. 200, 404)
+     */
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    /**
+     * @return the HTTP reason phrase (e.g. OK, Not Found)
+     */
+    public String getStatusMessage() {
+        return this.statusMessage;
+    }
+
+    /**
+     * @return all the response headers (looked up case-insensitively)
+     */
+    public Map<String, String> getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * @param name the (case-insensitive) name of the header
+     * @return the value of the header or null if it wasn't sent
+     */
+    public String getHeader(String name) {
+        return this.headers.get(name);
+    }
+
+    /**
+     * @return the response body
+     */
+    public InputStream getBody() {
+        return this.body;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads exactly one response body (fixed length, chunked or read-until-close) off a
+ * pooled connection and hands the connection back to the pool when done
+ */
+class ResponseBodyStream extends InputStream {
+
+    /**
+     * The body is delimited by a Content-Length header
+     */
+    final static int FIXED = 0;
+
+    /**
+     * The body uses Transfer-Encoding: chunked
+     */
+    final static int CHUNKED = 1;
+
+    /**
+     * The body ends when the server closes the connection
+     */
+    final static int UNTIL_CLOSE = 2;
+
+    private final ConnectionPool pool;
+    private final PooledConnection connection;
+    private final InputStream in;
+    private final int mode;
+    private final boolean keepAlive;
+
+    /**
+     * Bytes left in the body (FIXED) or in the current chunk (CHUNKED)
+     */
+    private long remaining;
+
+    private boolean finished = false;
+    private boolean released = false;
+
+    /**
+     * Constructor
+     * @param pool the pool the connection belongs to
+     * @param connection the connection the body is read from
+     * @param mode one of FIXED, CHUNKED or UNTIL_CLOSE
+     * @param length the Content-Length (only used in FIXED mode)
+     * @param keepAlive true if the connection may be reused once the body has been read
+     * @throws IOException
+     */
+    ResponseBodyStream(ConnectionPool pool, PooledConnection connection, int mode, long length, boolean keepAlive) throws IOException {
+        this.pool = pool;
+        this.connection = connection;
+        this.in = connection.getInputStream();
+        this.mode = mode;
+        this.keepAlive = keepAlive && mode != UNTIL_CLOSE;
+        this.remaining = mode == FIXED ? length : 0;
+        if(mode == FIXED && length == 0) {
+            this.finish();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = this.read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        try {
+            return this.readBody(b, off, len);
+        } catch (IOException e) {
+            this.abort();
+            throw e;
+        }
+    }
+
+    private int readBody(byte[] b, int off, int len) throws IOException {
+        if(this.finished || this.released) {
+            return -1;
+        }
+        if(len == 0) {
+            return 0;
+        }
+        if(this.mode == CHUNKED && this.remaining == 0) {
+            this.remaining = this.readChunkSize();
+            if(this.remaining == 0) {
+                // the last chunk, skip any trailers
+                while(HttpCodec.readLine(this.in).length() > 0) {
+                    // ignore
+                }
+                this.finish();
+                return -1;
+            }
+        }
+        int toRead = this.mode == UNTIL_CLOSE ? len : (int)Math.min(len, this.remaining);
+        int n = this.in.read(b, off, toRead);
+        if(n == -1) {
+            if(this.mode == UNTIL_CLOSE) {
+                this.finish();
+                return -1;
+            }
+            throw new EOFException("Connection closed before the end of the response body");
+        }
+        if(this.mode != UNTIL_CLOSE) {
+            this.remaining -= n;
+            if(this.mode == CHUNKED && this.remaining == 0) {
+                // consume the CRLF that follows every chunk
+                HttpCodec.readLine(this.in);
+            }
+            if(this.mode == FIXED && this.remaining == 0) {
+                this.finish();
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if(this.finished || this.released) {
+            return 0;
+        }
+        int available = this.in.available();
+        return this.mode == UNTIL_CLOSE ? available : (int)Math.min(available, this.remaining);
+    }
+
+    /**
+     * Closing the stream before the body has been read to the end discards the connection
+     * (we can't know how much is still in flight)
+     */
+    @Override
+    public void close() throws IOException {
+        if(!this.finished) {
+            this.abort();
+        }
+    }
+
+    private long readChunkSize() throws IOException {
+        String line = HttpCodec.readLine(this.in);
+        int semicolon = line.indexOf(';');
+        if(semicolon >= 0) {
+            line = line.substring(0, semicolon);
+        }
+        try {
+            return Long.parseLong(line.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid chunk size: "+line);
+        }
+    }
+
+    private void finish() {
+        this.finished = true;
+        if(!this.released) {
+            this.released = true;
+            this.pool.release(this.connection, this.keepAlive);
+        }
+    }
+
+    private void abort() {
+        this.finished = true;
+        if(!this.released) {
+            this.released = true;
+            this.pool.release(this.connection, false);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads an HTTP/2 response body as it arrives, giving up if the server sends nothing
+ * for longer than the read timeout (java.net.http's own ofInputStream() waits forever
+ * on a server that stalls mid-body)
+ */
+class TimedBodyStream extends InputStream implements Flow.Subscriber<List<ByteBuffer>> {
+
+    /**
+     * Queued once the body is complete
+     */
+    private final static List<ByteBuffer> END = Collections.emptyList();
+
+    /**
+     * Lists of buffers, END, or the Throwable the body failed with
+     */
+    private final BlockingQueue<Object> arrived = new LinkedBlockingQueue<Object>();
+    private final long readTimeout;
+    private volatile Flow.Subscription subscription;
+
+    private Iterator<ByteBuffer> buffers = Collections.<ByteBuffer>emptyList().iterator();
+    private ByteBuffer current;
+    private boolean finished = false;
+    private boolean closed = false;
+
+    /**
+     * Constructor
+     * @param readTimeout how long (in milliseconds) a read may wait for more of the body
+     */
+    TimedBodyStream(long readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+        this.arrived.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        this.arrived.add(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        this.arrived.add(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = this.read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(this.closed) {
+            throw new IOException("Stream closed");
+        }
+        if(len == 0) {
+            return 0;
+        }
+        while(this.current == null || !this.current.hasRemaining()) {
+            if(this.buffers.hasNext()) {
+                this.current = this.buffers.next();
+                continue;
+            }
+            if(this.finished) {
+                return -1;
+            }
+            this.next();
+        }
+        int n = Math.min(len, this.current.remaining());
+        this.current.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.current == null || this.closed ? 0 : this.current.remaining();
+    }
+
+    /**
+     * Waits (for at most the read timeout) for the next part of the body
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    private void next() throws IOException {
+        Object item;
+        try {
+            item = this.arrived.poll(this.readTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the response");
+        }
+        if(item == null) {
+            throw new SocketTimeoutException("Read timed out");
+        }
+        if(item == END) {
+            this.finished = true;
+        } else if(item instanceof Throwable) {
+            this.finished = true;
+            Throwable cause = (Throwable)item;
+            throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+        } else {
+            this.buffers = ((List<ByteBuffer>)item).iterator();
+            this.subscription.request(1);
+        }
+    }
+
+    /**
+     * Stops receiving the body (resetting the stream if it hasn't all arrived)
+     */
+    @Override
+    public void close() {
+        if(this.closed) {
+            return;
+        }
+        this.closed = true;
+        Flow.Subscription subscription = this.subscription;
+        if(!this.finished && subscription != null) {
+            subscription.cancel();
+        }
+        this.arrived.clear();
+        this.current = null;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of the bytes sent to and received from FluidDB, both as they went over
+ * the wire and before compression / after decompression, so the bandwidth saved by
+ * compression can be measured
+ * <p>
+ * This class is thread-safe.
+ */
+public class TransferStats {
+
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong requestWireBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong responseWireBytes = new AtomicLong();
+
+    /**
+     * Records a request body being sent
+     * @param wire the number of bytes that went over the wire
+     * @param uncompressed the size of the body before it was compressed
+     */
+    public void recordRequest(long wire, long uncompressed) {
+        this.requestWireBytes.addAndGet(wire);
+        this.requestBytes.addAndGet(uncompressed);
+    }
+
+    /**
+     * Records a response body being received
+     * @param wire the number of bytes that came over the wire
+     * @param decoded the size of the body once it was decompressed
+     */
+    public void recordResponse(long wire, long decoded) {
+        this.responseWireBytes.addAndGet(wire);
+        this.responseBytes.addAndGet(decoded);
+    }
+
+    /**
+     * @return the total size of the request bodies sent, before compression
+     */
+    public long getRequestBytes() {
+        return this.requestBytes.get();
+    }
+
+    /**
+     * @return the total number of request body bytes that went over the wire
+     */
+    public long getRequestWireBytes() {
+        return this.requestWireBytes.get();
+    }
+
+    /**
+     * @return the total size of the response bodies received, after decompression
+     */
+    public long getResponseBytes() {
+        return this.responseBytes.get();
+    }
+
+    /**
+     * @return the total number of response body bytes that came over the wire
+     */
+    public long getResponseWireBytes() {
+        return this.responseWireBytes.get();
+    }
+
+    /**
+     * Sets all the totals back to zero
+     */
+    public void reset() {
+        this.requestBytes.set(0);
+        this.requestWireBytes.set(0);
+        this.responseBytes.set(0);
+        this.responseWireBytes.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "sent="+this.getRequestWireBytes()+"/"+this.getRequestBytes()+
+            " received="+this.getResponseWireBytes()+"/"+this.getResponseBytes();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import java.util.Map;
+
+/**
+ * Builds a request URI (base URL, path and query string) straight into one buffer,
+ * without the intermediate lists, joins and per-argument strings that gluing the pieces
+ * together with URLEncoder and StringUtil.join needs.
+ * <p>
+ * Query string names and values are encoded exactly as URLEncoder (with UTF-8) would
+ * encode them. A builder can be reset and reused but isn't thread-safe.
+ */
+public final class UriBuilder {
+    
+    private final StringBuilder sb;
+    
+    private boolean hasQuery = false;
+    
+    /**
+     * Constructor
+     */
+    public UriBuilder() {
+        this(128);
+    }
+    
+    /**
+     * Constructor
+     * @param capacity the expected length of the URI
+     */
+    public UriBuilder(int capacity) {
+        this.sb = new StringBuilder(capacity);
+    }
+    
+    /**
+     * Empties the builder so it can be used for another URI
+     * @return this builder
+     */
+    public UriBuilder reset() {
+        this.sb.setLength(0);
+        this.hasQuery = false;
+        return this;
+    }
+    
+    /**
+     * Appends text as it is (e.g. the base URL or a path that's already been built)
+     * @param s the text
+     * @return this builder
+     */
+    public UriBuilder append(String s) {
+        this.sb.append(s);
+        return this;
+    }
+    
+    /**
+     * Appends an expanded path template
+     * @param template the template
+     * @param values a value for each of its placeholders
+     * @return this builder
+     */
+    public UriBuilder appendPath(PathTemplate template, String... values) {
+        template.appendTo(this.sb, values);
+        return this;
+    }
+    
+    /**
+     * Appends a query string argument (starting the query string if need be)
+     * @param name the argument's name
+     * @param value its (unencoded) value
+     * @return this builder
+     */
+    public UriBuilder appendParameter(String name, String value) {
+        this.sb.append(this.hasQuery ? '&' : '?');
+        this.hasQuery = true;
+        formEncode(this.sb, name);
+        this.sb.append('=');
+        formEncode(this.sb, value);
+        return this;
+    }
+    
+    /**
+     * Appends all of the arguments to the query string
+     * @param args the (unencoded) names and values
+     * @return this builder
+     */
+    public UriBuilder appendQuery(Map<String, String> args) {
+        if(!args.isEmpty()) {
+            for(Map.Entry<String, String> arg : args.entrySet()) {
+                this.appendParameter(arg.getKey(), arg.getValue());
+            }
+        }
+        return this;
+    }
+    
+    /**
+     * @return the length of the URI so far
+     */
+    public int length() {
+        return this.sb.length();
+    }
+    
+    /**
+     * @return the URI
+     */
+    @Override
+    public String toString() {
+        return this.sb.toString();
+    }
+    
+    /**
+     * Appends s encoded as application/x-www-form-urlencoded UTF-8 (the same as
+     * URLEncoder.encode(s, "UTF-8"))
+     * @param sb where to write it
+     * @param s the text to encode
+     */
+    static void formEncode(StringBuilder sb, String s) {
+        int length = s.length();
+        for(int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                    c == '.' || c == '-' || c == '*' || c == '_') {
+                sb.append(c);
+            } else if(c == ' ') {
+                sb.append('+');
+            } else {
+                int codePoint = s.codePointAt(i);
+                PathTemplate.appendEncoded(sb, codePoint);
+                i += Character.charCount(codePoint)-1;
+            }
+        }
+    }
+}
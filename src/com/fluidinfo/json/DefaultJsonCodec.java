@@ -0,0 +1,558 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+
+/**
+ * The default JsonCodec. It parses straight from the bytes of a response, without 
+ * decoding them into a String first, and builds no intermediate tokens: ASCII strings 
+ * (which is nearly all of them - ids, paths and names) are copied straight out of the
+ * bytes and numbers are parsed in place.
+ * <p>
+ * Numbers are written the way org.json writes them (whole doubles lose their .0), so 
+ * requests are byte for byte the same as before.
+ * <p>
+ * This class is thread-safe.
+ */
+public class DefaultJsonCodec implements JsonCodec {
+    
+    /**
+     * How deeply arrays and objects may be nested (to protect the stack)
+     */
+    public final static int MAX_DEPTH = 512;
+    
+    /**
+     * What malformed UTF-8 is decoded as
+     */
+    private final static char REPLACEMENT_CHARACTER = '\ufffd';
+    
+    public Object read(byte[] json, int offset, int length) throws JSONException {
+        Parser parser = new Parser(json, offset, offset+length);
+        Object value = parser.readValue(0);
+        parser.skipWhitespace();
+        if(parser.pos != parser.end) {
+            throw parser.error("Expected the end of the document");
+        }
+        return value;
+    }
+    
+    public Object read(String json) throws JSONException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return this.read(bytes, 0, bytes.length);
+    }
+    
+    public String write(Object value) throws JSONException {
+        StringBuilder sb = new StringBuilder(64);
+        this.write(value, sb);
+        return sb.toString();
+    }
+    
+    public void write(Object value, StringBuilder out) throws JSONException {
+        this.write(value, out, 0);
+    }
+    
+    private void write(Object value, StringBuilder out, int depth) throws JSONException {
+        if(depth > MAX_DEPTH) {
+            throw new JSONException("Too deeply nested (or circular) to write as JSON");
+        }
+        if(value == null) {
+            out.append("null");
+        } else if(value instanceof String) {
+            quote((String)value, out);
+        } else if(value instanceof Boolean) {
+            out.append(((Boolean)value).booleanValue());
+        } else if(value instanceof Number) {
+            writeNumber((Number)value, out);
+        } else if(value instanceof Map<?, ?>) {
+            out.append('{');
+            boolean first = true;
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                if(!first) {
+                    out.append(',');
+                }
+                first = false;
+                quote(String.valueOf(entry.getKey()), out);
+                out.append(':');
+                this.write(entry.getValue(), out, depth+1);
+            }
+            out.append('}');
+        } else if(value instanceof Collection<?>) {
+            out.append('[');
+            boolean first = true;
+            for(Object element : (Collection<?>)value) {
+                if(!first) {
+                    out.append(',');
+                }
+                first = false;
+                this.write(element, out, depth+1);
+            }
+            out.append(']');
+        } else if(value instanceof Object[]) {
+            Object[] array = (Object[])value;
+            out.append('[');
+            for(int i = 0; i < array.length; i++) {
+                if(i > 0) {
+                    out.append(',');
+                }
+                this.write(array[i], out, depth+1);
+            }
+            out.append(']');
+        } else if(value instanceof Character) {
+            quote(value.toString(), out);
+        } else {
+            throw new JSONException("Can't write a "+value.getClass().getName()+" as JSON");
+        }
+    }
+    
+    /**
+     * Writes a number the way org.json does
+     * @param number the number
+     * @param out where to write it
+     * @throws JSONException if it's infinite or not a number
+     */
+    static void writeNumber(Number number, StringBuilder out) throws JSONException {
+        if(number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+            out.append(number.longValue());
+            return;
+        }
+        if(number instanceof Double || number instanceof Float) {
+            double d = number.doubleValue();
+            if(Double.isInfinite(d) || Double.isNaN(d)) {
+                throw new JSONException("JSON does not allow non-finite numbers");
+            }
+        }
+        String s = number.toString();
+        int start = out.length();
+        out.append(s);
+        if(s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+            // drop trailing zeros (and the point if nothing's left after it)
+            int length = out.length();
+            while(out.charAt(length-1) == '0') {
+                length--;
+            }
+            if(out.charAt(length-1) == '.') {
+                length--;
+            }
+            out.setLength(Math.max(length, start+1));
+        }
+    }
+    
+    /**
+     * Writes a string as a quoted JSON string
+     * @param s the string
+     * @param out where to write it
+     */
+    static void quote(String s, StringBuilder out) {
+        out.append('"');
+        int length = s.length();
+        int start = 0;
+        for(int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if(c >= ' ' && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            // copy the run of plain characters in one go
+            out.append(s, start, i);
+            start = i+1;
+            switch(c) {
+            case '"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            case '\b':
+                out.append("\\b");
+                break;
+            case '\f':
+                out.append("\\f");
+                break;
+            default:
+                out.append("\\u");
+                String hex = Integer.toHexString(c);
+                for(int pad = hex.length(); pad < 4; pad++) {
+                    out.append('0');
+                }
+                out.append(hex);
+            }
+        }
+        out.append(s, start, length);
+        out.append('"');
+    }
+    
+    /**
+     * Parses a single document (not thread-safe, so one is made for each)
+     */
+    private static final class Parser {
+        
+        final byte[] buf;
+        
+        int pos;
+        
+        final int end;
+        
+        private StringBuilder sb = null;
+        
+        Parser(byte[] buf, int pos, int end) {
+            this.buf = buf;
+            this.pos = pos;
+            this.end = end;
+        }
+        
+        JSONException error(String message) {
+            return new JSONException(message+" at "+this.pos);
+        }
+        
+        void skipWhitespace() {
+            while(this.pos < this.end) {
+                byte b = this.buf[this.pos];
+                if(b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                    return;
+                }
+                this.pos++;
+            }
+        }
+        
+        Object readValue(int depth) throws JSONException {
+            this.skipWhitespace();
+            if(this.pos >= this.end) {
+                throw this.error("Unexpected end of document");
+            }
+            byte b = this.buf[this.pos];
+            switch(b) {
+            case '{':
+                return this.readObject(depth);
+            case '[':
+                return this.readArray(depth);
+            case '"':
+                this.pos++;
+                return this.readString();
+            case 't':
+                this.expectLiteral("true");
+                return Boolean.TRUE;
+            case 'f':
+                this.expectLiteral("false");
+                return Boolean.FALSE;
+            case 'n':
+                this.expectLiteral("null");
+                return null;
+            default:
+                if(b == '-' || (b >= '0' && b <= '9')) {
+                    return this.readNumber();
+                }
+                throw this.error("Unexpected character '"+(char)(b & 0xff)+"'");
+            }
+        }
+        
+        private Map<String, Object> readObject(int depth) throws JSONException {
+            if(depth >= MAX_DEPTH) {
+                throw this.error("Too deeply nested");
+            }
+            this.pos++;
+            Map<String, Object> object = new LinkedHashMap<String, Object>();
+            this.skipWhitespace();
+            if(this.pos < this.end && this.buf[this.pos] == '}') {
+                this.pos++;
+                return object;
+            }
+            while(true) {
+                this.skipWhitespace();
+                if(this.pos >= this.end || this.buf[this.pos] != '"') {
+                    throw this.error("Expected a name");
+                }
+                this.pos++;
+                String name = this.readString();
+                this.skipWhitespace();
+                if(this.pos >= this.end || this.buf[this.pos] != ':') {
+                    throw this.error("Expected :");
+                }
+                this.pos++;
+                object.put(name, this.readValue(depth+1));
+                this.skipWhitespace();
+                if(this.pos < this.end) {
+                    byte b = this.buf[this.pos++];
+                    if(b == '}') {
+                        return object;
+                    } else if(b == ',') {
+                        continue;
+                    }
+                }
+                throw this.error("Expected , or }");
+            }
+        }
+        
+        private List<Object> readArray(int depth) throws JSONException {
+            if(depth >= MAX_DEPTH) {
+                throw this.error("Too deeply nested");
+            }
+            this.pos++;
+            List<Object> array = new ArrayList<Object>();
+            this.skipWhitespace();
+            if(this.pos < this.end && this.buf[this.pos] == ']') {
+                this.pos++;
+                return array;
+            }
+            while(true) {
+                array.add(this.readValue(depth+1));
+                this.skipWhitespace();
+                if(this.pos < this.end) {
+                    byte b = this.buf[this.pos++];
+                    if(b == ']') {
+                        return array;
+                    } else if(b == ',') {
+                        continue;
+                    }
+                }
+                throw this.error("Expected , or ]");
+            }
+        }
+        
+        private void expectLiteral(String literal) throws JSONException {
+            int length = literal.length();
+            if(this.pos+length > this.end) {
+                throw this.error("Expected "+literal);
+            }
+            for(int i = 0; i < length; i++) {
+                if(this.buf[this.pos+i] != literal.charAt(i)) {
+                    throw this.error("Expected "+literal);
+                }
+            }
+            this.pos += length;
+        }
+        
+        /**
+         * Reads the rest of a string (the opening quote has been read)
+         */
+        private String readString() throws JSONException {
+            byte[] buf = this.buf;
+            int start = this.pos;
+            int i = start;
+            // the fast path: plain ASCII with no escapes
+            while(i < this.end) {
+                byte b = buf[i];
+                if(b == '"') {
+                    this.pos = i+1;
+                    return new String(buf, start, i-start, StandardCharsets.ISO_8859_1);
+                }
+                if(b == '\\' || b < 0) {
+                    break;
+                }
+                i++;
+            }
+            StringBuilder sb = this.sb;
+            if(sb == null) {
+                sb = new StringBuilder(Math.max(16, i-start+16));
+                this.sb = sb;
+            }
+            sb.setLength(0);
+            for(int j = start; j < i; j++) {
+                sb.append((char)buf[j]);
+            }
+            while(i < this.end) {
+                int b = buf[i++];
+                if(b == '"') {
+                    this.pos = i;
+                    return sb.toString();
+                } else if(b == '\\') {
+                    this.pos = i;
+                    this.readEscape(sb);
+                    i = this.pos;
+                } else if(b >= 0) {
+                    sb.append((char)b);
+                } else {
+                    this.pos = i-1;
+                    this.readUtf8(sb);
+                    i = this.pos;
+                }
+            }
+            this.pos = i;
+            throw this.error("Unterminated string");
+        }
+        
+        private void readEscape(StringBuilder sb) throws JSONException {
+            if(this.pos >= this.end) {
+                throw this.error("Unterminated string");
+            }
+            byte c = this.buf[this.pos++];
+            switch(c) {
+            case 'u':
+                if(this.pos+4 > this.end) {
+                    throw this.error("Invalid \\u escape");
+                }
+                int value = 0;
+                for(int i = 0; i < 4; i++) {
+                    int digit = Character.digit(this.buf[this.pos++], 16);
+                    if(digit == -1) {
+                        throw this.error("Invalid \\u escape");
+                    }
+                    value = (value << 4)+digit;
+                }
+                sb.append((char)value);
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case '"':
+            case '\\':
+            case '/':
+                sb.append((char)c);
+                break;
+            default:
+                throw this.error("Invalid escape");
+            }
+        }
+        
+        /**
+         * Decodes a multi-byte UTF-8 sequence (malformed ones become U+FFFD)
+         */
+        private void readUtf8(StringBuilder sb) {
+            byte[] buf = this.buf;
+            int b = buf[this.pos++] & 0xff;
+            int count;
+            int codePoint;
+            if(b >= 0xf0 && b < 0xf8) {
+                count = 3;
+                codePoint = b & 0x07;
+            } else if(b >= 0xe0) {
+                count = b < 0xf0 ? 2 : -1;
+                codePoint = b & 0x0f;
+            } else if(b >= 0xc2) {
+                count = 1;
+                codePoint = b & 0x1f;
+            } else {
+                count = -1;
+                codePoint = 0;
+            }
+            if(count == -1 || this.pos+count > this.end) {
+                sb.append(REPLACEMENT_CHARACTER);
+                return;
+            }
+            for(int i = 0; i < count; i++) {
+                int next = buf[this.pos] & 0xff;
+                if((next & 0xc0) != 0x80) {
+                    sb.append(REPLACEMENT_CHARACTER);
+                    return;
+                }
+                codePoint = (codePoint << 6) | (next & 0x3f);
+                this.pos++;
+            }
+            if(codePoint > 0x10ffff || (count == 2 && codePoint < 0x800) || (count == 3 && codePoint < 0x10000)
+                || (codePoint >= 0xd800 && codePoint <= 0xdfff)) {
+                sb.append(REPLACEMENT_CHARACTER);
+            } else {
+                sb.appendCodePoint(codePoint);
+            }
+        }
+        
+        private Object readNumber() throws JSONException {
+            byte[] buf = this.buf;
+            int start = this.pos;
+            int i = start;
+            boolean negative = buf[i] == '-';
+            if(negative) {
+                i++;
+            }
+            long value = 0;
+            int digits = 0;
+            while(i < this.end && buf[i] >= '0' && buf[i] <= '9') {
+                value = value*10+(buf[i]-'0');
+                digits++;
+                i++;
+            }
+            if(digits == 0 || (digits > 1 && buf[i-digits] == '0')) {
+                throw this.error("Invalid number");
+            }
+            boolean whole = true;
+            if(i < this.end && buf[i] == '.') {
+                whole = false;
+                i = this.skipDigits(i+1);
+            }
+            if(i < this.end && (buf[i] == 'e' || buf[i] == 'E')) {
+                whole = false;
+                i++;
+                if(i < this.end && (buf[i] == '+' || buf[i] == '-')) {
+                    i++;
+                }
+                i = this.skipDigits(i);
+            }
+            this.pos = i;
+            if(whole && digits <= 18) {
+                // can't have overflowed
+                return Long.valueOf(negative ? -value : value);
+            }
+            String literal = new String(buf, start, i-start, StandardCharsets.ISO_8859_1);
+            try {
+                if(whole) {
+                    return Long.valueOf(literal);
+                }
+            } catch (NumberFormatException e) {
+                // too big for a long
+            }
+            try {
+                return Double.valueOf(literal);
+            } catch (NumberFormatException e) {
+                throw this.error("Invalid number "+literal);
+            }
+        }
+        
+        private int skipDigits(int i) throws JSONException {
+            int start = i;
+            while(i < this.end && this.buf[i] >= '0' && this.buf[i] <= '9') {
+                i++;
+            }
+            if(i == start) {
+                this.pos = i;
+                throw this.error("Invalid number");
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.json;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The JsonCodec used throughout the library, and helpers for picking values out of the
+ * JSON objects FluidDB sends back
+ */
+public final class Json {
+    
+    private static volatile JsonCodec codec = new DefaultJsonCodec();
+    
+    private Json() {
+    }
+    
+    /**
+     * @return the codec used to read and write JSON
+     */
+    public static JsonCodec getCodec() {
+        return codec;
+    }
+    
+    /**
+     * Plugs in a different codec (for every FluidConnector in the JVM)
+     * @param jsonCodec the codec to use to read and write JSON
+     */
+    public static void setCodec(JsonCodec jsonCodec) {
+        if(jsonCodec == null) {
+            throw new NullPointerException("jsonCodec");
+        }
+        codec = jsonCodec;
+    }
+    
+    /**
+     * Parses a JSON document with the codec
+     * @param json the document
+     * @return the value
+     * @throws JSONException if the document isn't valid JSON
+     */
+    public static Object read(String json) throws JSONException {
+        return codec.read(json);
+    }
+    
+    /**
+     * Writes a value as JSON with the codec
+     * @param value the value
+     * @return the JSON
+     * @throws JSONException if the value can't be written as JSON
+     */
+    public static String write(Object value) throws JSONException {
+        return codec.write(value);
+    }
+    
+    /**
+     * Quotes a string as JSON (this can't fail, so it doesn't go through the codec)
+     * @param s the string (null is quoted as an empty string, like org.json does)
+     * @return the quoted string
+     */
+    public static String quote(String s) {
+        if(s == null) {
+            return "\"\"";
+        }
+        StringBuilder out = new StringBuilder(s.length()+2);
+        DefaultJsonCodec.quote(s, out);
+        return out.toString();
+    }
+    
+    /**
+     * @param object a JSON object
+     * @return a copy of it as an org.json JSONObject (nested objects and arrays become 
+     *         JSONObjects and JSONArrays), for code written against org.json
+     * @throws JSONException if it can't be copied
+     */
+    public static JSONObject toJSONObject(Map<String, ?> object) throws JSONException {
+        return (JSONObject)OrgJsonCodec.toOrgJson(object);
+    }
+    
+    /**
+     * Makes a freshly parsed value read-only all the way down: every object and array in
+     * it is wrapped (in place, so the codec's maps and lists must be modifiable, as they 
+     * are from DefaultJsonCodec and OrgJsonCodec) with Collections.unmodifiableMap or
+     * unmodifiableList
+     * @param value a parsed JSON value
+     * @return the read-only value
+     */
+    @SuppressWarnings("unchecked")
+    public static Object unmodifiable(Object value) {
+        if(value instanceof Map<?, ?>) {
+            Map<String, Object> object = (Map<String, Object>)value;
+            for(Map.Entry<String, Object> member : object.entrySet()) {
+                Object v = member.getValue();
+                if(v instanceof Map<?, ?> || v instanceof List<?>) {
+                    member.setValue(unmodifiable(v));
+                }
+            }
+            return Collections.unmodifiableMap(object);
+        }
+        if(value instanceof List<?>) {
+            ListIterator<Object> i = ((List<Object>)value).listIterator();
+            while(i.hasNext()) {
+                Object v = i.next();
+                if(v instanceof Map<?, ?> || v instanceof List<?>) {
+                    i.set(unmodifiable(v));
+                }
+            }
+            return Collections.unmodifiableList((List<Object>)value);
+        }
+        return value;
+    }
+    
+    /**
+     * @param value a parsed JSON value
+     * @return the value as an object
+     * @throws JSONException if it isn't an object
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> asObject(Object value) throws JSONException {
+        if(!(value instanceof Map<?, ?>)) {
+            throw new JSONException("Expected a JSON object but was "+describe(value));
+        }
+        return (Map<String, Object>)value;
+    }
+    
+    /**
+     * @param object a JSON object
+     * @param name the name of a member
+     * @return the member's value as a string (like org.json's getString, any value but
+     *         null is turned into one)
+     * @throws JSONException if there's no such member or it's null
+     */
+    public static String getString(Map<String, ?> object, String name) throws JSONException {
+        Object value = object.get(name);
+        if(value == null) {
+            throw new JSONException("JSON object has no \""+name+"\"");
+        }
+        return value.toString();
+    }
+    
+    /**
+     * @param object a JSON object
+     * @param name the name of a member
+     * @return the member's value as a boolean
+     * @throws JSONException if there's no such member or it isn't true or false
+     */
+    public static boolean getBoolean(Map<String, ?> object, String name) throws JSONException {
+        Object value = object.get(name);
+        if(value instanceof Boolean) {
+            return ((Boolean)value).booleanValue();
+        } else if("true".equals(value)) {
+            return true;
+        } else if("false".equals(value)) {
+            return false;
+        }
+        throw new JSONException("JSON object's \""+name+"\" is not a boolean");
+    }
+    
+    /**
+     * @param object a JSON object
+     * @param name the name of a member
+     * @return the member's value as an array of strings
+     * @throws JSONException if there's no such member or it isn't an array
+     */
+    public static String[] getStringArray(Map<String, ?> object, String name) throws JSONException {
+        Object value = object.get(name);
+        if(!(value instanceof List<?>)) {
+            throw new JSONException("JSON object's \""+name+"\" is not an array");
+        }
+        List<?> list = (List<?>)value;
+        String[] result = new String[list.size()];
+        for(int i = 0; i < result.length; i++) {
+            Object element = list.get(i);
+            if(element == null) {
+                throw new JSONException("JSON object's \""+name+"\" has a null in it");
+            }
+            result[i] = element.toString();
+        }
+        return result;
+    }
+    
+    private static String describe(Object value) {
+        return value == null ? "null" : value instanceof List<?> ? "an array" : value.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.json;
+
+import org.json.JSONException;
+
+/**
+ * Reads and writes the JSON sent to and from FluidDB. The library only ever uses the 
+ * codec set with Json.setCodec (DefaultJsonCodec unless another is plugged in), so a 
+ * different parser can be swapped in without touching the FOM classes.
+ * <p>
+ * JSON values are represented by plain Java objects:
+ * <ul>
+ * <li>objects by a Map&lt;String, Object&gt; (in document order)</li>
+ * <li>arrays by a List&lt;Object&gt;</li>
+ * <li>strings by String, true and false by Boolean</li>
+ * <li>numbers by Long if they're whole and fit, otherwise by Double</li>
+ * <li>null by null</li>
+ * </ul>
+ * When writing, any Map, Collection, Object[] or Number can be given too.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface JsonCodec {
+    
+    /**
+     * Parses a UTF-8 encoded JSON document
+     * @param json the bytes holding the document
+     * @param offset where the document starts
+     * @param length the length of the document
+     * @return the value
+     * @throws JSONException if the document isn't valid JSON
+     */
+    Object read(byte[] json, int offset, int length) throws JSONException;
+    
+    /**
+     * Parses a JSON document
+     * @param json the document
+     * @return the value
+     * @throws JSONException if the document isn't valid JSON
+     */
+    Object read(String json) throws JSONException;
+    
+    /**
+     * Writes a value as JSON
+     * @param value the value
+     * @param out where to write it
+     * @throws JSONException if the value (or something in it) can't be written as JSON
+     */
+    void write(Object value, StringBuilder out) throws JSONException;
+    
+    /**
+     * Writes a value as JSON
+     * @param value the value
+     * @return the JSON
+     * @throws JSONException if the value (or something in it) can't be written as JSON
+     */
+    String write(Object value) throws JSONException;
+}
@@ -0,0 +1,512 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a JSON document one token at a time as it arrives, so arbitrarily large 
+ * documents (e.g. the results of a search matching millions of objects) can be walked
+ * in a fixed amount of memory. Values that aren't wanted are skipped without being
+ * built. For example:
+ * <pre>
+ * reader.beginObject();
+ * while(reader.hasNext()) {
+ *     if(reader.nextName().equals("ids")) {
+ *         reader.beginArray();
+ *         while(reader.hasNext()) {
+ *             String id = reader.nextString();
+ *         }
+ *         reader.endArray();
+ *     } else {
+ *         reader.skipValue();
+ *     }
+ * }
+ * reader.endObject();
+ * </pre>
+ * This class is not thread-safe.
+ */
+public class JsonReader implements Closeable {
+    
+    /**
+     * The kinds of token in a JSON document
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END
+    }
+    
+    // where we are in the document
+    private final static int EMPTY_ARRAY = 1;
+    private final static int NONEMPTY_ARRAY = 2;
+    private final static int EMPTY_OBJECT = 3;
+    private final static int DANGLING_NAME = 4;
+    private final static int NONEMPTY_OBJECT = 5;
+    private final static int EMPTY_DOCUMENT = 6;
+    private final static int NONEMPTY_DOCUMENT = 7;
+    
+    private final Reader in;
+    
+    private final char[] buffer = new char[8192];
+    
+    private int pos = 0;
+    
+    private int limit = 0;
+    
+    private int[] stack = new int[32];
+    
+    private int depth = 0;
+    
+    /**
+     * The next token, if it has been peeked at (the punctuation before it has been 
+     * read, as has the opening quote of a name or string)
+     */
+    private Token peeked = null;
+    
+    private final StringBuilder sb = new StringBuilder();
+    
+    /**
+     * Constructor
+     * @param in the UTF-8 encoded document
+     */
+    public JsonReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Constructor
+     * @param in the document
+     */
+    public JsonReader(Reader in) {
+        this.in = in;
+        this.stack[this.depth++] = EMPTY_DOCUMENT;
+    }
+    
+    /**
+     * @return the kind of the next token (without reading it)
+     * @throws IOException if the document can't be read or isn't valid JSON
+     */
+    public Token peek() throws IOException {
+        if(this.peeked == null) {
+            this.peeked = this.doPeek();
+        }
+        return this.peeked;
+    }
+    
+    /**
+     * @return true if the current array or object has another element
+     * @throws IOException if the document can't be read or isn't valid JSON
+     */
+    public boolean hasNext() throws IOException {
+        Token token = this.peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END;
+    }
+    
+    /**
+     * Reads the start of an object
+     * @throws IOException if the next token isn't the start of an object
+     */
+    public void beginObject() throws IOException {
+        this.expect(Token.BEGIN_OBJECT);
+        this.push(EMPTY_OBJECT);
+    }
+    
+    /**
+     * Reads the end of an object
+     * @throws IOException if the next token isn't the end of an object
+     */
+    public void endObject() throws IOException {
+        this.expect(Token.END_OBJECT);
+        this.depth--;
+    }
+    
+    /**
+     * Reads the start of an array
+     * @throws IOException if the next token isn't the start of an array
+     */
+    public void beginArray() throws IOException {
+        this.expect(Token.BEGIN_ARRAY);
+        this.push(EMPTY_ARRAY);
+    }
+    
+    /**
+     * Reads the end of an array
+     * @throws IOException if the next token isn't the end of an array
+     */
+    public void endArray() throws IOException {
+        this.expect(Token.END_ARRAY);
+        this.depth--;
+    }
+    
+    /**
+     * @return the name of the next member of the current object
+     * @throws IOException if the next token isn't a name
+     */
+    public String nextName() throws IOException {
+        this.expect(Token.NAME);
+        return this.readString(true);
+    }
+    
+    /**
+     * @return the next string (or number, as it was written)
+     * @throws IOException if the next token isn't a string or number
+     */
+    public String nextString() throws IOException {
+        Token token = this.peek();
+        if(token == Token.NUMBER) {
+            this.peeked = null;
+            return this.readLiteral();
+        }
+        this.expect(Token.STRING);
+        return this.readString(true);
+    }
+    
+    /**
+     * @return the next boolean
+     * @throws IOException if the next token isn't true or false
+     */
+    public boolean nextBoolean() throws IOException {
+        this.expect(Token.BOOLEAN);
+        String literal = this.readLiteral();
+        if(literal.equals("true")) {
+            return true;
+        } else if(literal.equals("false")) {
+            return false;
+        }
+        throw this.syntaxError("Expected true or false but was "+literal);
+    }
+    
+    /**
+     * Reads a null
+     * @throws IOException if the next token isn't null
+     */
+    public void nextNull() throws IOException {
+        this.expect(Token.NULL);
+        String literal = this.readLiteral();
+        if(!literal.equals("null")) {
+            throw this.syntaxError("Expected null but was "+literal);
+        }
+    }
+    
+    /**
+     * @return the next number
+     * @throws IOException if the next token isn't a number
+     */
+    public double nextDouble() throws IOException {
+        this.expect(Token.NUMBER);
+        String literal = this.readLiteral();
+        try {
+            return Double.parseDouble(literal);
+        } catch (NumberFormatException e) {
+            throw this.syntaxError("Invalid number "+literal);
+        }
+    }
+    
+    /**
+     * @return the next number
+     * @throws IOException if the next token isn't a number or won't fit in a long
+     */
+    public long nextLong() throws IOException {
+        this.expect(Token.NUMBER);
+        String literal = this.readLiteral();
+        try {
+            return Long.parseLong(literal);
+        } catch (NumberFormatException e) {
+            throw this.syntaxError("Invalid long "+literal);
+        }
+    }
+    
+    /**
+     * Skips the next value (however deeply nested) without building it
+     * @throws IOException if the document can't be read or isn't valid JSON
+     */
+    public void skipValue() throws IOException {
+        int count = 0;
+        do {
+            Token token = this.peek();
+            switch(token) {
+            case BEGIN_OBJECT:
+                this.beginObject();
+                count++;
+                break;
+            case BEGIN_ARRAY:
+                this.beginArray();
+                count++;
+                break;
+            case END_OBJECT:
+                this.endObject();
+                count--;
+                break;
+            case END_ARRAY:
+                this.endArray();
+                count--;
+                break;
+            case NAME:
+            case STRING:
+                this.peeked = null;
+                this.readString(false);
+                break;
+            case END:
+                throw this.syntaxError("Unexpected end of document");
+            default:
+                this.peeked = null;
+                this.readLiteral();
+            }
+        } while(count > 0);
+    }
+    
+    /**
+     * Closes the underlying stream
+     */
+    public void close() throws IOException {
+        this.peeked = null;
+        this.in.close();
+    }
+    
+    private void expect(Token token) throws IOException {
+        Token actual = this.peek();
+        if(actual != token) {
+            throw this.syntaxError("Expected "+token+" but was "+actual);
+        }
+        this.peeked = null;
+    }
+    
+    private void push(int context) {
+        if(this.depth == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, this.depth*2);
+        }
+        this.stack[this.depth++] = context;
+    }
+    
+    private Token doPeek() throws IOException {
+        int context = this.stack[this.depth-1];
+        int c;
+        switch(context) {
+        case EMPTY_ARRAY:
+            this.stack[this.depth-1] = NONEMPTY_ARRAY;
+            c = this.nextNonWhitespace();
+            if(c == ']') {
+                return Token.END_ARRAY;
+            } else if(c != -1) {
+                this.pos--;
+            }
+            break;
+        case NONEMPTY_ARRAY:
+            c = this.nextNonWhitespace();
+            if(c == ']') {
+                return Token.END_ARRAY;
+            } else if(c != ',') {
+                throw this.syntaxError("Expected , or ]");
+            }
+            break;
+        case EMPTY_OBJECT:
+        case NONEMPTY_OBJECT:
+            c = this.nextNonWhitespace();
+            if(c == '}') {
+                return Token.END_OBJECT;
+            }
+            if(context == NONEMPTY_OBJECT) {
+                if(c != ',') {
+                    throw this.syntaxError("Expected , or }");
+                }
+                c = this.nextNonWhitespace();
+            }
+            if(c != '"') {
+                throw this.syntaxError("Expected a name");
+            }
+            this.stack[this.depth-1] = DANGLING_NAME;
+            return Token.NAME;
+        case DANGLING_NAME:
+            if(this.nextNonWhitespace() != ':') {
+                throw this.syntaxError("Expected :");
+            }
+            this.stack[this.depth-1] = NONEMPTY_OBJECT;
+            break;
+        case EMPTY_DOCUMENT:
+            this.stack[this.depth-1] = NONEMPTY_DOCUMENT;
+            break;
+        default:
+            if(this.nextNonWhitespace() == -1) {
+                return Token.END;
+            }
+            throw this.syntaxError("Expected the end of the document");
+        }
+        // a value
+        c = this.nextNonWhitespace();
+        switch(c) {
+        case '{':
+            return Token.BEGIN_OBJECT;
+        case '[':
+            return Token.BEGIN_ARRAY;
+        case '"':
+            return Token.STRING;
+        case 't':
+        case 'f':
+            this.pos--;
+            return Token.BOOLEAN;
+        case 'n':
+            this.pos--;
+            return Token.NULL;
+        case -1:
+            throw this.syntaxError("Unexpected end of document");
+        default:
+            if(c == '-' || (c >= '0' && c <= '9')) {
+                this.pos--;
+                return Token.NUMBER;
+            }
+            throw this.syntaxError("Unexpected character "+(char)c);
+        }
+    }
+    
+    /**
+     * @return the next character, or -1 at the end of the document
+     */
+    private int read() throws IOException {
+        if(this.pos == this.limit) {
+            int n = this.in.read(this.buffer, 0, this.buffer.length);
+            if(n <= 0) {
+                return -1;
+            }
+            this.pos = 0;
+            this.limit = n;
+        }
+        return this.buffer[this.pos++];
+    }
+    
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = this.read();
+        } while(c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+    
+    /**
+     * Reads the rest of a string (the opening quote has been read)
+     * @param keep false to skip it
+     * @return the string (or null if it was skipped)
+     */
+    private String readString(boolean keep) throws IOException {
+        StringBuilder sb = this.sb;
+        sb.setLength(0);
+        while(true) {
+            // copy runs of plain characters straight out of the buffer
+            int start = this.pos;
+            while(this.pos < this.limit) {
+                char c = this.buffer[this.pos];
+                if(c == '"' || c == '\\') {
+                    break;
+                }
+                this.pos++;
+            }
+            if(keep) {
+                sb.append(this.buffer, start, this.pos-start);
+            }
+            int c = this.read();
+            if(c == '"') {
+                return keep ? sb.toString() : null;
+            } else if(c == '\\') {
+                char escaped = this.readEscape();
+                if(keep) {
+                    sb.append(escaped);
+                }
+            } else if(c == -1) {
+                throw this.syntaxError("Unterminated string");
+            } else {
+                // the buffer was refilled
+                this.pos--;
+            }
+        }
+    }
+    
+    private char readEscape() throws IOException {
+        int c = this.read();
+        switch(c) {
+        case 'u':
+            int value = 0;
+            for(int i = 0; i < 4; i++) {
+                int digit = Character.digit(this.read(), 16);
+                if(digit == -1) {
+                    throw this.syntaxError("Invalid \\u escape");
+                }
+                value = (value << 4)+digit;
+            }
+            return (char)value;
+        case 't':
+            return '\t';
+        case 'b':
+            return '\b';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 'f':
+            return '\f';
+        case '"':
+        case '\\':
+        case '/':
+            return (char)c;
+        default:
+            throw this.syntaxError("Invalid escape");
+        }
+    }
+    
+    /**
+     * @return the next number, true, false or null as it was written
+     */
+    private String readLiteral() throws IOException {
+        StringBuilder sb = this.sb;
+        sb.setLength(0);
+        while(true) {
+            int c = this.read();
+            if(c == -1) {
+                return sb.toString();
+            }
+            switch(c) {
+            case ',':
+            case ':':
+            case ']':
+            case '}':
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\n':
+                this.pos--;
+                return sb.toString();
+            default:
+                if(sb.length() >= 1024) {
+                    throw this.syntaxError("Literal too long");
+                }
+                sb.append((char)c);
+            }
+        }
+    }
+    
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: "+message);
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.json.JSONException;
+
+/**
+ * Writes JSON straight out as UTF-8 bytes, for the bodies of requests to FluidDB. 
+ * Nothing is turned into a String along the way, and each thread reuses the same 
+ * writer (and buffer) from one request to the next, so the only thing allocated is the 
+ * body handed to the request:
+ * <pre>
+ * byte[] body = JsonWriter.get().beginObject()
+ *     .name("description").value(description)
+ *     .name("indexed").value(indexed)
+ *     .endObject().toByteArray();
+ * </pre>
+ * Commas and colons are put in automatically. The writer doesn't check that objects and
+ * arrays are balanced or that names and values alternate - it's meant for the small, 
+ * fixed payloads the FOM classes send.
+ * <p>
+ * A writer must only be used by the thread that got it, and only for one document at a 
+ * time (so get the bytes out before anything else on the thread can call get).
+ */
+public final class JsonWriter {
+    
+    /**
+     * The size of a new writer's buffer
+     */
+    private final static int INITIAL_SIZE = 256;
+    
+    /**
+     * Buffers that have grown bigger than this (for an unusually big body) are dropped 
+     * rather than kept around for the life of the thread
+     */
+    private final static int MAX_RETAINED_SIZE = 64*1024;
+    
+    private final static byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+    
+    private final static ThreadLocal<JsonWriter> writers = new ThreadLocal<JsonWriter>() {
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter();
+        }
+    };
+    
+    private byte[] buf = new byte[INITIAL_SIZE];
+    
+    private int count = 0;
+    
+    /**
+     * Whether the last thing written was a value (so a comma is needed before the next)
+     */
+    private boolean comma = false;
+    
+    /**
+     * @return this thread's writer, emptied and ready for a new document
+     */
+    public static JsonWriter get() {
+        JsonWriter writer = writers.get();
+        writer.reset();
+        return writer;
+    }
+    
+    /**
+     * Makes a writer of its own (most callers want the thread's one from get)
+     */
+    public JsonWriter() {
+    }
+    
+    /**
+     * Empties the writer so it can be used for a new document
+     */
+    public void reset() {
+        if(this.buf.length > MAX_RETAINED_SIZE) {
+            this.buf = new byte[INITIAL_SIZE];
+        }
+        this.count = 0;
+        this.comma = false;
+    }
+    
+    public JsonWriter beginObject() {
+        this.separate();
+        this.append((byte)'{');
+        this.comma = false;
+        return this;
+    }
+    
+    public JsonWriter endObject() {
+        this.append((byte)'}');
+        this.comma = true;
+        return this;
+    }
+    
+    public JsonWriter beginArray() {
+        this.separate();
+        this.append((byte)'[');
+        this.comma = false;
+        return this;
+    }
+    
+    public JsonWriter endArray() {
+        this.append((byte)']');
+        this.comma = true;
+        return this;
+    }
+    
+    /**
+     * Writes the name of an object's member (the next thing written is its value)
+     * @param name the name
+     * @return this writer
+     */
+    public JsonWriter name(String name) {
+        this.separate();
+        this.quote(name);
+        this.append((byte)':');
+        this.comma = false;
+        return this;
+    }
+    
+    /**
+     * @param value a string (or null)
+     * @return this writer
+     */
+    public JsonWriter value(String value) {
+        this.separate();
+        if(value == null) {
+            this.appendAscii("null");
+        } else {
+            this.quote(value);
+        }
+        this.comma = true;
+        return this;
+    }
+    
+    /**
+     * @param values an array of strings (or null)
+     * @return this writer
+     */
+    public JsonWriter value(String[] values) {
+        if(values == null) {
+            return this.nullValue();
+        }
+        this.beginArray();
+        for(int i = 0; i < values.length; i++) {
+            this.value(values[i]);
+        }
+        return this.endArray();
+    }
+    
+    public JsonWriter value(boolean value) {
+        this.separate();
+        this.appendAscii(value ? "true" : "false");
+        this.comma = true;
+        return this;
+    }
+    
+    public JsonWriter value(long value) {
+        this.separate();
+        this.appendLong(value);
+        this.comma = true;
+        return this;
+    }
+    
+    /**
+     * Writes a number the way org.json does, so whole numbers have no decimal point
+     * @param value the number
+     * @return this writer
+     * @throws JSONException if the number is infinite or NaN (which JSON can't hold)
+     */
+    public JsonWriter value(double value) throws JSONException {
+        if(Double.isInfinite(value) || Double.isNaN(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers");
+        }
+        this.separate();
+        if(value == (long)value && Math.abs(value) < 1e15 && !(value == 0 && 1/value < 0)) {
+            this.appendLong((long)value);
+        } else {
+            String s = Double.toString(value);
+            int length = s.length();
+            if(s.indexOf('E') < 0) {
+                // drop trailing zeros, as DefaultJsonCodec does
+                while(s.charAt(length-1) == '0') {
+                    length--;
+                }
+                if(s.charAt(length-1) == '.') {
+                    length--;
+                }
+            }
+            this.ensureCapacity(length);
+            for(int i = 0; i < length; i++) {
+                this.buf[this.count++] = (byte)s.charAt(i);
+            }
+        }
+        this.comma = true;
+        return this;
+    }
+    
+    public JsonWriter nullValue() {
+        this.separate();
+        this.appendAscii("null");
+        this.comma = true;
+        return this;
+    }
+    
+    /**
+     * @return the number of bytes written so far
+     */
+    public int size() {
+        return this.count;
+    }
+    
+    /**
+     * @return a copy of the bytes written so far (the writer's buffer is reused)
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buf, this.count);
+    }
+    
+    /**
+     * @return what's been written so far, as a String (handy when debugging)
+     */
+    @Override
+    public String toString() {
+        return new String(this.buf, 0, this.count, StandardCharsets.UTF_8);
+    }
+    
+    private void separate() {
+        if(this.comma) {
+            this.append((byte)',');
+        }
+    }
+    
+    private void quote(String s) {
+        int length = s.length();
+        // at worst a char takes 6 bytes (as a \\u escape)
+        this.ensureCapacity(length*6+2);
+        byte[] buf = this.buf;
+        int count = this.count;
+        buf[count++] = '"';
+        for(int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if(c < 0x80) {
+                if(c >= ' ' && c != '"' && c != '\\') {
+                    buf[count++] = (byte)c;
+                    continue;
+                }
+                buf[count++] = '\\';
+                switch(c) {
+                case '"':
+                    buf[count++] = '"';
+                    break;
+                case '\\':
+                    buf[count++] = '\\';
+                    break;
+                case '\n':
+                    buf[count++] = 'n';
+                    break;
+                case '\r':
+                    buf[count++] = 'r';
+                    break;
+                case '\t':
+                    buf[count++] = 't';
+                    break;
+                case '\b':
+                    buf[count++] = 'b';
+                    break;
+                case '\f':
+                    buf[count++] = 'f';
+                    break;
+                default:
+                    count = escape(c, buf, count);
+                }
+            } else if(c < 0x800) {
+                buf[count++] = (byte)(0xc0 | (c >> 6));
+                buf[count++] = (byte)(0x80 | (c & 0x3f));
+            } else if(c == '\u2028' || c == '\u2029') {
+                // valid JSON, but not valid JavaScript, so escaped like DefaultJsonCodec does
+                buf[count++] = '\\';
+                count = escape(c, buf, count);
+            } else if(Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(s.charAt(i+1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buf[count++] = (byte)(0xf0 | (codePoint >> 18));
+                buf[count++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+                buf[count++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+                buf[count++] = (byte)(0x80 | (codePoint & 0x3f));
+            } else {
+                if(Character.isSurrogate(c)) {
+                    // a lone surrogate can't be encoded, so it's replaced (as String.getBytes does)
+                    c = '\ufffd';
+                }
+                buf[count++] = (byte)(0xe0 | (c >> 12));
+                buf[count++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                buf[count++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        buf[count++] = '"';
+        this.count = count;
+    }
+    
+    /**
+     * Writes the "u" and four hex digits of a \\u escape
+     */
+    private static int escape(char c, byte[] buf, int count) {
+        buf[count++] = 'u';
+        buf[count++] = HEX[(c >> 12) & 0xf];
+        buf[count++] = HEX[(c >> 8) & 0xf];
+        buf[count++] = HEX[(c >> 4) & 0xf];
+        buf[count++] = HEX[c & 0xf];
+        return count;
+    }
+    
+    private void appendLong(long value) {
+        if(value == Long.MIN_VALUE) {
+            // can't be negated
+            this.appendAscii("-9223372036854775808");
+            return;
+        }
+        this.ensureCapacity(20);
+        if(value < 0) {
+            this.buf[this.count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for(long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = this.count+digits;
+        for(int i = end-1; i >= this.count; i--) {
+            this.buf[i] = (byte)('0'+(value % 10));
+            value /= 10;
+        }
+        this.count = end;
+    }
+    
+    private void appendAscii(String s) {
+        int length = s.length();
+        this.ensureCapacity(length);
+        for(int i = 0; i < length; i++) {
+            this.buf[this.count++] = (byte)s.charAt(i);
+        }
+    }
+    
+    private void append(byte b) {
+        this.ensureCapacity(1);
+        this.buf[this.count++] = b;
+    }
+    
+    private void ensureCapacity(int extra) {
+        if(this.count+extra > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length*2, this.count+extra));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * A JsonCodec that goes through org.json (JSONTokener, JSONObject and JSONArray), as the
+ * library used to. Plug it in with Json.setCodec(new OrgJsonCodec()) to get the old 
+ * behaviour back.
+ * <p>
+ * This class is thread-safe.
+ */
+public class OrgJsonCodec implements JsonCodec {
+    
+    public Object read(byte[] json, int offset, int length) throws JSONException {
+        return this.read(new String(json, offset, length, StandardCharsets.UTF_8));
+    }
+    
+    public Object read(String json) throws JSONException {
+        JSONTokener tokener = new JSONTokener(json);
+        Object value = tokener.nextValue();
+        if(tokener.nextClean() != 0) {
+            throw new JSONException("Expected the end of the document");
+        }
+        return fromOrgJson(value);
+    }
+    
+    public void write(Object value, StringBuilder out) throws JSONException {
+        out.append(this.write(value));
+    }
+    
+    public String write(Object value) throws JSONException {
+        if(value instanceof Map<?, ?> || value instanceof Collection<?> || value instanceof Object[]) {
+            return toOrgJson(value).toString();
+        }
+        if(value instanceof Number) {
+            return JSONObject.numberToString((Number)value);
+        }
+        if(value == null || value instanceof Boolean) {
+            return String.valueOf(value);
+        }
+        if(value instanceof String || value instanceof Character) {
+            return JSONObject.quote(value.toString());
+        }
+        throw new JSONException("Can't write a "+value.getClass().getName()+" as JSON");
+    }
+    
+    /**
+     * @param value a value parsed by org.json
+     * @return the same value as Maps, Lists, Strings, Longs, Doubles, Booleans and nulls
+     * @throws JSONException
+     */
+    static Object fromOrgJson(Object value) throws JSONException {
+        if(value instanceof JSONObject) {
+            JSONObject object = (JSONObject)value;
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            Iterator<?> keys = object.keys();
+            while(keys.hasNext()) {
+                String key = (String)keys.next();
+                map.put(key, fromOrgJson(object.get(key)));
+            }
+            return map;
+        } else if(value instanceof JSONArray) {
+            JSONArray array = (JSONArray)value;
+            List<Object> list = new ArrayList<Object>(array.length());
+            for(int i = 0; i < array.length(); i++) {
+                list.add(fromOrgJson(array.get(i)));
+            }
+            return list;
+        } else if(value == null || value == JSONObject.NULL) {
+            return null;
+        } else if(value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return Long.valueOf(((Number)value).longValue());
+        }
+        return value;
+    }
+    
+    /**
+     * @param value a Map, Collection, array or primitive
+     * @return the same value as JSONObjects and JSONArrays
+     * @throws JSONException
+     */
+    static Object toOrgJson(Object value) throws JSONException {
+        if(value instanceof Map<?, ?>) {
+            JSONObject object = new JSONObject();
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                object.put(String.valueOf(entry.getKey()), toOrgJson(entry.getValue()));
+            }
+            return object;
+        } else if(value instanceof Collection<?>) {
+            JSONArray array = new JSONArray();
+            for(Object element : (Collection<?>)value) {
+                array.put(toOrgJson(element));
+            }
+            return array;
+        } else if(value instanceof Object[]) {
+            JSONArray array = new JSONArray();
+            for(Object element : (Object[])value) {
+                array.put(toOrgJson(element));
+            }
+            return array;
+        } else if(value == null) {
+            return JSONObject.NULL;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import jdk.jfr.FlightRecorder;
+
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Starts the Java Flight Recorder events for calls to FluidDB. 
+ * <p>
+ * Initialising an event class initialises the flight recorder with it, which takes a few 
+ * hundred milliseconds, so FluidCallEvent and FomCallEvent are left alone until something
+ * (a -XX:StartFlightRecording option, jcmd or a Recording) has started the recorder. 
+ * Until then each method here is a single static check that returns null.
+ */
+public final class CallEvents {
+    
+    private CallEvents() {
+    }
+    
+    /**
+     * Starts timing a call (see FluidCallEvent.start)
+     * @param request the call
+     * @return the event, to be finished once the call is done (or null if it isn't being
+     *         recorded)
+     */
+    public static FluidCallEvent startCall(FluidRequest request) {
+        if(!FlightRecorder.isInitialized()) {
+            return null;
+        }
+        return FluidCallEvent.start(request);
+    }
+    
+    /**
+     * Counts an attempt at the call in progress on this thread (see FluidCallEvent.attempted)
+     */
+    public static void attempted() {
+        if(FlightRecorder.isInitialized()) {
+            FluidCallEvent.attempted();
+        }
+    }
+    
+    /**
+     * Starts timing a FOM call (see FomCallEvent.start)
+     * @param fomClass the FOM class making the call
+     * @param method the HTTP method
+     * @param path the path being called
+     * @param expectedStatusCode the status code expected back
+     * @return the event, to be finished once the call is done (or null if it isn't being
+     *         recorded)
+     */
+    public static FomCallEvent startFomCall(Class<?> fomClass, Method method, String path, int expectedStatusCode) {
+        if(!FlightRecorder.isInitialized()) {
+            return null;
+        }
+        return FomCallEvent.start(fomClass, method, path, expectedStatusCode);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+
+/**
+ * A Java Flight Recorder event for each call made through FluidConnector.Call, so time
+ * spent waiting on FluidDB shows up in a recording alongside GC, CPU and lock events.
+ * <p>
+ * Events are only created, timed and committed while a recording has them enabled; 
+ * otherwise start() returns null. FluidConnector starts them through CallEvents, which 
+ * doesn't touch this class (or the flight recorder) until a recording has been started.
+ * Enable them with e.g.
+ * <pre>
+ * java -XX:StartFlightRecording:filename=app.jfr,settings=profile ...
+ * </pre>
+ * (both JFluidDB events are enabled by default in any recording).
+ */
+@Name("com.fluidinfo.Call")
+@Label("FluidDB Call")
+@Category({"JFluidDB"})
+@Description("A call to FluidDB, including any retries")
+@StackTrace(false)
+public class FluidCallEvent extends jdk.jfr.Event {
+    
+    /**
+     * The call event in progress on each thread (only set while recording)
+     */
+    private final static ThreadLocal<FluidCallEvent> current = new ThreadLocal<FluidCallEvent>();
+    
+    /**
+     * The type of this event, looked up once the flight recorder is running
+     */
+    private static volatile EventType type;
+    
+    @Label("Method")
+    String method;
+    
+    @Label("Path")
+    String path;
+    
+    @Label("Path Template")
+    @Description("The family of endpoints the path belongs to, e.g. /objects/*/tag")
+    String pathTemplate;
+    
+    @Label("Status Code")
+    @Description("The HTTP status code of the response (0 if the call failed)")
+    int statusCode;
+    
+    @Label("Request Id")
+    @Description("The X-FluidDB-Request-Id of the response")
+    String requestId;
+    
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+    
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+    
+    @Label("Retries")
+    @Description("The number of times the call was retried")
+    int retries;
+    
+    @Label("Operation")
+    @Description("The FOM operation that made the call (if any), e.g. Tag.getItem")
+    String operation;
+    
+    @Label("Error")
+    @Description("The class of the exception the call failed with (if it did)")
+    String error;
+    
+    private transient int attempts;
+    
+    private transient FluidCallEvent previous;
+    
+    private transient boolean started;
+    
+    /**
+     * Starts timing a call (if the event is being recorded)
+     * @param request the call
+     * @return the event, to be finished once the call is done (or null if it isn't being
+     *         recorded)
+     */
+    public static FluidCallEvent start(FluidRequest request) {
+        if(!recording()) {
+            return null;
+        }
+        FluidCallEvent event = new FluidCallEvent();
+        event.method = request.getMethod().toString();
+        event.path = request.getPath();
+        event.pathTemplate = LatencyMetrics.family(request.getPath());
+        event.bytesOut = request.hasBody() ? request.getBodyBytes().length : 0;
+        event.operation = FomCallEvent.currentOperation();
+        event.previous = current.get();
+        event.started = true;
+        current.set(event);
+        event.begin();
+        return event;
+    }
+    
+    /**
+     * @return true if a recording has this event enabled. Until something starts the flight
+     *         recorder this is a single static check, so calls don't pay the hundreds of 
+     *         milliseconds it takes to initialise it.
+     */
+    private static boolean recording() {
+        if(!FlightRecorder.isInitialized()) {
+            return false;
+        }
+        EventType type = FluidCallEvent.type;
+        if(type == null) {
+            type = EventType.getEventType(FluidCallEvent.class);
+            FluidCallEvent.type = type;
+        }
+        return type.isEnabled();
+    }
+    
+    /**
+     * Counts an attempt at the call in progress on this thread (if it's being recorded)
+     */
+    public static void attempted() {
+        FluidCallEvent event = current.get();
+        if(event != null) {
+            event.attempts++;
+        }
+    }
+    
+    /**
+     * Stops timing the call and commits the event (if it's being recorded)
+     * @param response the response (or null if the call failed)
+     * @param error the exception the call failed with (or null if it didn't)
+     */
+    public void finish(FluidResponse response, Throwable error) {
+        if(!this.started) {
+            return;
+        }
+        this.started = false;
+        this.end();
+        current.set(this.previous);
+        this.previous = null;
+        // calls answered by another caller's identical request, or from a cache, make no 
+        // attempts of their own
+        this.retries = Math.max(0, this.attempts-1);
+        if(response != null) {
+            this.statusCode = response.getResponseCode();
+            this.requestId = response.getErrorRequestID();
+            byte[] content = response.getResponseBytes();
+            this.bytesIn = content == null ? 0 : content.length;
+        }
+        if(error != null) {
+            this.error = error.getClass().getName();
+        }
+        if(this.shouldCommit()) {
+            this.commit();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import java.util.Iterator;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import com.fluidinfo.utils.Method;
+
+/**
+ * A Java Flight Recorder event for each call a FOM class (Namespace, Tag, Object or User)
+ * makes to FluidDB. The FluidCallEvent for the underlying HTTP call records the same
+ * operation so the two can be matched up.
+ * <p>
+ * Usage (start() returns null unless the event is enabled in a running recording):
+ * <pre>
+ * FomCallEvent event = CallEvents.startFomCall(getClass(), method, path, 200);
+ * try {
+ *     ...
+ *     if(event != null) {
+ *         event.setStatusCode(response.getResponseCode());
+ *     }
+ * } finally {
+ *     if(event != null) {
+ *         event.finish();
+ *     }
+ * }
+ * </pre>
+ */
+@Name("com.fluidinfo.FomCall")
+@Label("FOM Call")
+@Category({"JFluidDB"})
+@Description("A call to FluidDB made by a FOM operation")
+@StackTrace(false)
+public class FomCallEvent extends jdk.jfr.Event {
+    
+    /**
+     * The FOM event in progress on each thread (only set while recording)
+     */
+    private final static ThreadLocal<FomCallEvent> current = new ThreadLocal<FomCallEvent>();
+    
+    /**
+     * The type of this event, looked up once the flight recorder is running
+     */
+    private static volatile EventType type;
+    
+    private final static StackWalker walker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    
+    @Label("Operation")
+    @Description("The FOM class and method, e.g. Tag.getItem")
+    String operation;
+    
+    @Label("Method")
+    String method;
+    
+    @Label("Path")
+    String path;
+    
+    @Label("Path Template")
+    String pathTemplate;
+    
+    @Label("Expected Status Code")
+    int expectedStatusCode;
+    
+    @Label("Status Code")
+    @Description("The HTTP status code of the response (0 if the call failed)")
+    int statusCode;
+    
+    private transient FomCallEvent previous;
+    
+    private transient boolean started;
+    
+    /**
+     * Starts timing a FOM call (if the event is being recorded)
+     * @param fomClass the FOM class making the call (callers are searched for the first 
+     *        frame in it, or a superclass, that isn't a Call method)
+     * @param method the HTTP method
+     * @param path the path being called
+     * @param expectedStatusCode the status code expected back
+     * @return the event, to be finished once the call is done (or null if it isn't being
+     *         recorded)
+     */
+    public static FomCallEvent start(Class<?> fomClass, Method method, String path, int expectedStatusCode) {
+        if(!recording()) {
+            return null;
+        }
+        FomCallEvent event = new FomCallEvent();
+        event.operation = operation(fomClass);
+        event.method = method.toString();
+        event.path = path;
+        event.pathTemplate = LatencyMetrics.family(path);
+        event.expectedStatusCode = expectedStatusCode;
+        event.previous = current.get();
+        event.started = true;
+        current.set(event);
+        event.begin();
+        return event;
+    }
+    
+    /**
+     * @return true if a recording has this event enabled. Until something starts the flight
+     *         recorder this is a single static check, so calls don't pay the hundreds of 
+     *         milliseconds it takes to initialise it.
+     */
+    private static boolean recording() {
+        if(!FlightRecorder.isInitialized()) {
+            return false;
+        }
+        EventType type = FomCallEvent.type;
+        if(type == null) {
+            type = EventType.getEventType(FomCallEvent.class);
+            FomCallEvent.type = type;
+        }
+        return type.isEnabled();
+    }
+    
+    /**
+     * @param statusCode the HTTP status code of the response
+     */
+    public void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+    
+    /**
+     * Stops timing the call and commits the event (if it's being recorded)
+     */
+    public void finish() {
+        if(this.started) {
+            this.started = false;
+            current.set(this.previous);
+            this.previous = null;
+            this.commit();
+        }
+    }
+    
+    /**
+     * @return the FOM operation (e.g. Tag.getItem) that's calling FluidDB on this thread,
+     *         or null if there isn't one or nothing is being recorded
+     */
+    public static String currentOperation() {
+        FomCallEvent event = current.get();
+        return event == null ? null : event.operation;
+    }
+    
+    /**
+     * Walks the stack for the FOM method that's making the call
+     * @param fomClass the FOM class making the call
+     * @return e.g. Tag.getItem
+     */
+    private static String operation(final Class<?> fomClass) {
+        return walker.walk(new Function<Stream<StackWalker.StackFrame>, String>() {
+            public String apply(Stream<StackWalker.StackFrame> frames) {
+                Iterator<StackWalker.StackFrame> i = frames.iterator();
+                while(i.hasNext()) {
+                    StackWalker.StackFrame frame = i.next();
+                    Class<?> declaring = frame.getDeclaringClass();
+                    String name = frame.getMethodName();
+                    if(declaring != java.lang.Object.class && declaring.isAssignableFrom(fomClass) && !name.equals("Call") && !name.equals("send") && !name.startsWith("lambda$")) {
+                        return fomClass.getSimpleName()+"."+name;
+                    }
+                }
+                return fomClass.getSimpleName();
+            }
+        });
+    }
+}
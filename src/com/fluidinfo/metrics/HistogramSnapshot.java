@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+/**
+ * The counts in a LatencyHistogram at a point in time (values are in microseconds)
+ */
+public class HistogramSnapshot {
+    
+    private final long[] counts;
+    
+    private final long totalCount;
+    
+    /**
+     * Constructor
+     * @param counts the count for each bucket
+     */
+    HistogramSnapshot(long[] counts) {
+        this.counts = counts;
+        long total = 0;
+        for(int i = 0; i < counts.length; i++) {
+            total += counts[i];
+        }
+        this.totalCount = total;
+    }
+    
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return this.totalCount;
+    }
+    
+    /**
+     * @param percentile a percentile (e.g. 99.9)
+     * @return the value (in microseconds) that percentile of the recorded values are at or
+     *         below, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if(this.totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100)/100*this.totalCount));
+        long seen = 0;
+        for(int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if(seen >= target) {
+                return LatencyHistogram.highestValue(i);
+            }
+        }
+        return this.getMax();
+    }
+    
+    /**
+     * @return the smallest value recorded (in microseconds), or 0 if nothing was
+     */
+    public long getMin() {
+        for(int i = 0; i < this.counts.length; i++) {
+            if(this.counts[i] != 0) {
+                return LatencyHistogram.lowestValue(i);
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * @return the largest value recorded (in microseconds), or 0 if nothing was
+     */
+    public long getMax() {
+        for(int i = this.counts.length-1; i >= 0; i--) {
+            if(this.counts[i] != 0) {
+                return LatencyHistogram.highestValue(i);
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * @return the mean of the values recorded (in microseconds), or 0 if nothing was
+     */
+    public double getMean() {
+        if(this.totalCount == 0) {
+            return 0;
+        }
+        double total = 0;
+        for(int i = 0; i < this.counts.length; i++) {
+            if(this.counts[i] != 0) {
+                // the middle of the bucket
+                total += this.counts[i]*((LatencyHistogram.lowestValue(i)+LatencyHistogram.highestValue(i))/2.0);
+            }
+        }
+        return total/this.totalCount;
+    }
+    
+    /**
+     * @return p50 / p99 / p999 / max (in microseconds)
+     */
+    @Override
+    public String toString() {
+        return "count="+this.totalCount+" p50="+this.getValueAtPercentile(50)+"us p99="+this.getValueAtPercentile(99)+
+            "us p999="+this.getValueAtPercentile(99.9)+"us max="+this.getMax()+"us";
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in the style of HdrHistogram: values (in microseconds) are
+ * counted in buckets whose width doubles every 128 buckets, so any value up to 2^32us 
+ * (over an hour) is recorded to within 1% of its true value in a fixed amount of memory.
+ * Larger values are counted in the top bucket.
+ * <p>
+ * Recording is a single atomic increment and never blocks. snapshot() copies the counts
+ * and snapshotAndReset() atomically swaps each one for zero as it copies it, so an 
+ * exporter can take interval snapshots while calls are being recorded without locking 
+ * them out or losing any samples (each sample lands in exactly one interval).
+ */
+public class LatencyHistogram {
+    
+    /**
+     * log2 of the number of buckets in the first (linear) run
+     */
+    final static int SUB_BUCKET_BITS = 8;
+    
+    final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    
+    final static int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    
+    /**
+     * The largest value that can be told apart from the others is 2^MAX_BITS-1
+     */
+    final static int MAX_BITS = 32;
+    
+    final static int BUCKETS = index((1L << MAX_BITS)-1)+1;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    
+    /**
+     * Records a latency
+     * @param nanos the latency in nanoseconds
+     */
+    public void recordNanos(long nanos) {
+        this.record(nanos/1000);
+    }
+    
+    /**
+     * Records a latency
+     * @param micros the latency in microseconds
+     */
+    public void record(long micros) {
+        this.counts.incrementAndGet(index(micros));
+    }
+    
+    /**
+     * @return a copy of the counts so far
+     */
+    public HistogramSnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.counts.get(i);
+        }
+        return new HistogramSnapshot(copy);
+    }
+    
+    /**
+     * @return the counts recorded since the last reset, which are set back to zero
+     */
+    public HistogramSnapshot snapshotAndReset() {
+        long[] copy = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            if(this.counts.get(i) != 0) {
+                copy[i] = this.counts.getAndSet(i, 0);
+            }
+        }
+        return new HistogramSnapshot(copy);
+    }
+    
+    /**
+     * Sets every count back to zero
+     */
+    public void reset() {
+        this.snapshotAndReset();
+    }
+    
+    /**
+     * @param value a value in microseconds
+     * @return the bucket it's counted in
+     */
+    static int index(long value) {
+        if(value < SUB_BUCKET_COUNT) {
+            return value < 0 ? 0 : (int)value;
+        }
+        if(value >= (1L << MAX_BITS)) {
+            value = (1L << MAX_BITS)-1;
+        }
+        // the bucket width is 2^shift from here on up to the next power of two
+        int shift = 63-Long.numberOfLeadingZeros(value)-(SUB_BUCKET_BITS-1);
+        return shift*SUB_BUCKET_HALF+(int)(value >>> shift);
+    }
+    
+    /**
+     * @param index a bucket
+     * @return the smallest value counted in it
+     */
+    static long lowestValue(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index/SUB_BUCKET_HALF-1;
+        return (long)(index-shift*SUB_BUCKET_HALF) << shift;
+    }
+    
+    /**
+     * @param index a bucket
+     * @return the largest value counted in it
+     */
+    static long highestValue(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index/SUB_BUCKET_HALF-1;
+        return lowestValue(index)+(1L << shift)-1;
+    }
+}
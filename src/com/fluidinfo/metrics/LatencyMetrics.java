@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fluidinfo.utils.Method;
+
+/**
+ * Latency histograms for calls to FluidDB, kept separately for each HTTP method and 
+ * family of endpoints (/objects/*, /objects/&#42;/tag, /namespaces/*, /tags/*, 
+ * /permissions/*, /policies/*, /users/* and so on). Each pair of method and family has 
+ * one histogram for the time to the first byte of the response and one for the total 
+ * time including reading the body.
+ * <p>
+ * This class is thread-safe. Recording never takes a lock (once the histograms for a 
+ * method and family exist) so snapshots can be scraped as often as needed.
+ */
+public class LatencyMetrics {
+    
+    public final static String OBJECTS = "/objects/*";
+    public final static String OBJECT_TAGS = "/objects/*/tag";
+    public final static String NAMESPACES = "/namespaces/*";
+    public final static String TAGS = "/tags/*";
+    public final static String PERMISSIONS = "/permissions/*";
+    public final static String POLICIES = "/policies/*";
+    public final static String USERS = "/users/*";
+    public final static String ROOT = "/";
+    
+    /**
+     * The histograms for a single method and family
+     */
+    private static class Endpoint {
+        final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+        final LatencyHistogram totalTime = new LatencyHistogram();
+    }
+    
+    private final Map<Method, ConcurrentMap<String, Endpoint>> endpoints;
+    
+    /**
+     * Constructor
+     */
+    public LatencyMetrics() {
+        Map<Method, ConcurrentMap<String, Endpoint>> map = new EnumMap<Method, ConcurrentMap<String, Endpoint>>(Method.class);
+        for(Method method : Method.values()) {
+            map.put(method, new ConcurrentHashMap<String, Endpoint>());
+        }
+        // never changed after this so safe to read from any thread
+        this.endpoints = map;
+    }
+    
+    /**
+     * Records a completed call
+     * @param method the HTTP method
+     * @param path the path that was called (e.g. /objects/1234/fluiddb/about)
+     * @param timeToFirstByteNanos the time from sending the request to getting the 
+     *        status line and headers of the response, in nanoseconds
+     * @param totalNanos the time from sending the request to having read the whole 
+     *        response, in nanoseconds
+     */
+    public void record(Method method, String path, long timeToFirstByteNanos, long totalNanos) {
+        Endpoint endpoint = this.getEndpoint(method, family(path));
+        endpoint.timeToFirstByte.recordNanos(timeToFirstByteNanos);
+        endpoint.totalTime.recordNanos(totalNanos);
+    }
+    
+    private Endpoint getEndpoint(Method method, String family) {
+        ConcurrentMap<String, Endpoint> families = this.endpoints.get(method);
+        Endpoint endpoint = families.get(family);
+        if(endpoint == null) {
+            Endpoint created = new Endpoint();
+            endpoint = families.putIfAbsent(family, created);
+            if(endpoint == null) {
+                endpoint = created;
+            }
+        }
+        return endpoint;
+    }
+    
+    /**
+     * @param method the HTTP method
+     * @param family the family of endpoints (e.g. LatencyMetrics.TAGS)
+     * @return the histogram of times to the first byte of the response, or null if no 
+     *         such call has been recorded
+     */
+    public LatencyHistogram getTimeToFirstByte(Method method, String family) {
+        Endpoint endpoint = this.endpoints.get(method).get(family);
+        return endpoint == null ? null : endpoint.timeToFirstByte;
+    }
+    
+    /**
+     * @param method the HTTP method
+     * @param family the family of endpoints (e.g. LatencyMetrics.TAGS)
+     * @return the histogram of total times (including reading the body), or null if no
+     *         such call has been recorded
+     */
+    public LatencyHistogram getTotalTime(Method method, String family) {
+        Endpoint endpoint = this.endpoints.get(method).get(family);
+        return endpoint == null ? null : endpoint.totalTime;
+    }
+    
+    /**
+     * @param method the HTTP method
+     * @return the families of endpoints that calls with the method have been recorded for
+     */
+    public List<String> getFamilies(Method method) {
+        List<String> families = new ArrayList<String>(this.endpoints.get(method).keySet());
+        Collections.sort(families);
+        return families;
+    }
+    
+    /**
+     * Sets every histogram back to zero (an exporter scraping intervals should use 
+     * LatencyHistogram.snapshotAndReset() instead so no samples are lost)
+     */
+    public void reset() {
+        for(ConcurrentMap<String, Endpoint> families : this.endpoints.values()) {
+            for(Endpoint endpoint : families.values()) {
+                endpoint.timeToFirstByte.reset();
+                endpoint.totalTime.reset();
+            }
+        }
+    }
+    
+    /**
+     * Works out which family of endpoints a path belongs to
+     * @param path the path that was called (e.g. /objects/1234/fluiddb/about)
+     * @return the family (e.g. /objects/&#42;/tag)
+     */
+    public static String family(String path) {
+        if(path == null) {
+            return ROOT;
+        }
+        int length = path.length();
+        int start = 0;
+        while(start < length && path.charAt(start) == '/') {
+            start++;
+        }
+        if(start == length) {
+            return ROOT;
+        }
+        int end = path.indexOf('/', start);
+        if(end == -1) {
+            end = length;
+        }
+        String segment = path.substring(start, end);
+        if(segment.equals("objects")) {
+            // /objects/id is the object itself, anything after the id is a tag path
+            int id = end;
+            while(id < length && path.charAt(id) == '/') {
+                id++;
+            }
+            int tag = id < length ? path.indexOf('/', id) : -1;
+            if(tag != -1) {
+                while(tag < length && path.charAt(tag) == '/') {
+                    tag++;
+                }
+            }
+            return tag != -1 && tag < length ? OBJECT_TAGS : OBJECTS;
+        } else if(segment.equals("namespaces")) {
+            return NAMESPACES;
+        } else if(segment.equals("tags")) {
+            return TAGS;
+        } else if(segment.equals("permissions")) {
+            return PERMISSIONS;
+        } else if(segment.equals("policies")) {
+            return POLICIES;
+        } else if(segment.equals("users")) {
+            return USERS;
+        }
+        return "/"+segment+"/*";
+    }
+    
+    /**
+     * @return the total time percentiles for each method and family
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for(Method method : Method.values()) {
+            for(String family : this.getFamilies(method)) {
+                if(sb.length() > 0) {
+                    sb.append('\n');
+                }
+                sb.append(method).append(' ').append(family).append(": ").append(this.getTotalTime(method, family).snapshot());
+            }
+        }
+        return sb.toString();
+    }
+}
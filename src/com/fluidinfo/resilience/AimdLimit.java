@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+/**
+ * Additive increase, multiplicative decrease: the limit goes up by one after every
+ * successful call made while the limit was being put to use, and is cut by a fixed
+ * ratio whenever a call is dropped or takes longer than the timeout
+ */
+public class AimdLimit implements LimitAlgorithm {
+    
+    private double backoffRatio;
+    
+    private long timeout;
+    
+    /**
+     * Constructor - backs off to 90% of the limit on a drop, and treats calls taking over
+     * five seconds as drops
+     */
+    public AimdLimit() {
+        this(0.9, 5000);
+    }
+    
+    /**
+     * Constructor
+     * @param backoffRatio what the limit is multiplied by when a call is dropped (0.5 to 1)
+     * @param timeout calls taking longer than this (in milliseconds) count as dropped
+     */
+    public AimdLimit(double backoffRatio, long timeout) {
+        if(backoffRatio < 0.5 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("The backoff ratio must be between 0.5 and 1");
+        }
+        this.backoffRatio = backoffRatio;
+        this.timeout = timeout;
+    }
+    
+    public double update(double limit, long rtt, int inFlight, boolean dropped) {
+        if(dropped || rtt/1000000 > this.timeout) {
+            return limit * this.backoffRatio;
+        }
+        if(inFlight * 2 >= limit) {
+            // only grow if the limit is actually being used
+            return limit + 1;
+        }
+        return limit;
+    }
+}
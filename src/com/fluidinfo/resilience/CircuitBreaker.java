@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+
+/**
+ * Stops calling a FluidDB endpoint that is failing or too slow, so that callers fail
+ * fast (with a CircuitOpenException) instead of piling up behind read timeouts
+ * <p>
+ * The breaker watches the calls made over a rolling time window. Once enough calls have
+ * been made, if too many of them failed (an IOException or a 5xx response) or were slow
+ * it <b>opens</b> and rejects every call. After a while it goes <b>half-open</b> and lets
+ * a few probe calls through: if they all succeed it <b>closes</b> again, otherwise it
+ * re-opens.
+ * <p>
+ * This class is thread-safe.
+ */
+public class CircuitBreaker {
+    
+    /**
+     * The states a circuit breaker can be in
+     */
+    public enum State {
+        /**
+         * Calls are let through (the normal state)
+         */
+        CLOSED,
+        /**
+         * Calls are rejected
+         */
+        OPEN,
+        /**
+         * A few probe calls are let through to see if the endpoint has recovered
+         */
+        HALF_OPEN
+    }
+    
+    /**
+     * The thresholds and timings of a circuit breaker (one set of settings can be shared
+     * by many breakers)
+     */
+    public static class Settings {
+        
+        private volatile int failureRateThreshold = 50;
+        private volatile int slowCallRateThreshold = 80;
+        private volatile long slowCallDuration = 5000;
+        private volatile int minimumCalls = 20;
+        private volatile long window = 10000;
+        private volatile long openDuration = 10000;
+        private volatile int halfOpenCalls = 3;
+        
+        /**
+         * @param percent the percentage of failed calls at which the breaker opens 
+         *        (default 50)
+         */
+        public void setFailureRateThreshold(int percent) {
+            this.failureRateThreshold = percent;
+        }
+        
+        /**
+         * @return the percentage of failed calls at which the breaker opens
+         */
+        public int getFailureRateThreshold() {
+            return this.failureRateThreshold;
+        }
+        
+        /**
+         * @param percent the percentage of slow calls at which the breaker opens 
+         *        (default 80)
+         */
+        public void setSlowCallRateThreshold(int percent) {
+            this.slowCallRateThreshold = percent;
+        }
+        
+        /**
+         * @return the percentage of slow calls at which the breaker opens
+         */
+        public int getSlowCallRateThreshold() {
+            return this.slowCallRateThreshold;
+        }
+        
+        /**
+         * @param millis how long a call must take to count as slow (default 5000)
+         */
+        public void setSlowCallDuration(long millis) {
+            this.slowCallDuration = millis;
+        }
+        
+        /**
+         * @return how long (in milliseconds) a call must take to count as slow
+         */
+        public long getSlowCallDuration() {
+            return this.slowCallDuration;
+        }
+        
+        /**
+         * @param calls the number of calls in the window before the rates are worked out
+         *        (default 20)
+         */
+        public void setMinimumCalls(int calls) {
+            this.minimumCalls = calls;
+        }
+        
+        /**
+         * @return the number of calls in the window before the rates are worked out
+         */
+        public int getMinimumCalls() {
+            return this.minimumCalls;
+        }
+        
+        /**
+         * @param millis the length of the rolling window the rates are worked out over
+         *        (default 10000)
+         */
+        public void setWindow(long millis) {
+            this.window = millis;
+        }
+        
+        /**
+         * @return the length (in milliseconds) of the rolling window
+         */
+        public long getWindow() {
+            return this.window;
+        }
+        
+        /**
+         * @param millis how long the breaker stays open before letting probe calls 
+         *        through (default 10000)
+         */
+        public void setOpenDuration(long millis) {
+            this.openDuration = millis;
+        }
+        
+        /**
+         * @return how long (in milliseconds) the breaker stays open
+         */
+        public long getOpenDuration() {
+            return this.openDuration;
+        }
+        
+        /**
+         * @param calls the number of probe calls let through while half-open, all of 
+         *        which must succeed for the breaker to close (default 3)
+         */
+        public void setHalfOpenCalls(int calls) {
+            this.halfOpenCalls = calls;
+        }
+        
+        /**
+         * @return the number of probe calls let through while half-open
+         */
+        public int getHalfOpenCalls() {
+            return this.halfOpenCalls;
+        }
+    }
+    
+    /**
+     * The rolling window is split into this many buckets
+     */
+    private final static int BUCKETS = 10;
+    
+    private final String endpoint;
+    
+    private final Settings settings;
+    
+    private State state = State.CLOSED;
+    
+    private long openedAt;
+    
+    private int probesLeft;
+    
+    private int probeSuccesses;
+    
+    private final long[] bucketEpoch = new long[BUCKETS];
+    private final int[] bucketCalls = new int[BUCKETS];
+    private final int[] bucketFailures = new int[BUCKETS];
+    private final int[] bucketSlow = new int[BUCKETS];
+    
+    private final long[] transitions = new long[State.values().length];
+    
+    private long rejected = 0;
+    
+    /**
+     * Constructor
+     * @param endpoint the name of the endpoint (e.g. the FluidDB URL) the breaker protects
+     */
+    public CircuitBreaker(String endpoint) {
+        this(endpoint, new Settings());
+    }
+    
+    /**
+     * Constructor
+     * @param endpoint the name of the endpoint (e.g. the FluidDB URL) the breaker protects
+     * @param settings the thresholds and timings to use
+     */
+    public CircuitBreaker(String endpoint, Settings settings) {
+        this.endpoint = endpoint;
+        this.settings = settings;
+        Arrays.fill(this.bucketEpoch, -1);
+    }
+    
+    /**
+     * @return the name of the endpoint the breaker protects
+     */
+    public String getEndpoint() {
+        return this.endpoint;
+    }
+    
+    /**
+     * @return the thresholds and timings in use
+     */
+    public Settings getSettings() {
+        return this.settings;
+    }
+    
+    /**
+     * Sends a request unless the breaker is open
+     * @param request The call to make
+     * @param transport The transport to send it with
+     * @return The response
+     * @throws CircuitOpenException If the breaker is open
+     * @throws FluidException If the request couldn't be made
+     * @throws IOException If there was a problem talking to FluidDB
+     */
+    public FluidResponse execute(FluidRequest request, FluidTransport transport) throws FluidException, IOException {
+        this.acquire();
+        return this.proceed(request, transport);
+    }
+    
+    /**
+     * Sends a request once acquire has given permission, and records how it went
+     * @param request The call to make
+     * @param transport The transport to send it with
+     * @return The response
+     * @throws FluidException If the request couldn't be made
+     * @throws IOException If there was a problem talking to FluidDB
+     */
+    public FluidResponse proceed(FluidRequest request, FluidTransport transport) throws FluidException, IOException {
+        long start = System.nanoTime();
+        boolean recorded = false;
+        try {
+            FluidResponse response;
+            try {
+                response = transport.execute(request);
+            } catch (IOException e) {
+                recorded = true;
+                this.record(System.nanoTime() - start, true);
+                throw e;
+            }
+            recorded = true;
+            this.record(System.nanoTime() - start, isFailure(response.getResponseCode()));
+            return response;
+        } finally {
+            if(!recorded) {
+                // the request never got as far as FluidDB (e.g. bad arguments) so it says
+                // nothing about the endpoint's health
+                this.ignore();
+            }
+        }
+    }
+    
+    /**
+     * @param code an HTTP status code
+     * @return true if the status means the endpoint is in trouble
+     */
+    public static boolean isFailure(int code) {
+        return code == 500 || code == 502 || code == 503 || code == 504;
+    }
+    
+    /**
+     * Asks permission to make a call
+     * @throws CircuitOpenException if the breaker is open (or half-open with all its probe
+     *         calls in flight)
+     */
+    public void acquire() throws CircuitOpenException {
+        long retryAfter;
+        synchronized(this) {
+            if(this.state == State.OPEN) {
+                long openFor = (System.nanoTime() - this.openedAt)/1000000;
+                if(openFor >= this.settings.getOpenDuration()) {
+                    this.transition(State.HALF_OPEN);
+                    this.probesLeft = Math.max(1, this.settings.getHalfOpenCalls());
+                    this.probeSuccesses = 0;
+                }
+            }
+            if(this.state == State.CLOSED) {
+                return;
+            }
+            if(this.state == State.HALF_OPEN && this.probesLeft > 0) {
+                this.probesLeft--;
+                return;
+            }
+            this.rejected++;
+            retryAfter = this.state == State.OPEN ? this.settings.getOpenDuration() - (System.nanoTime() - this.openedAt)/1000000 : 0;
+        }
+        throw new CircuitOpenException(this.endpoint, Math.max(0, retryAfter));
+    }
+    
+    /**
+     * Records the outcome of a call made after acquire
+     * @param elapsed how long the call took in nanoseconds
+     * @param failed true if the call failed
+     */
+    public synchronized void record(long elapsed, boolean failed) {
+        boolean slow = elapsed/1000000 >= this.settings.getSlowCallDuration();
+        if(this.state == State.HALF_OPEN) {
+            if(failed || slow) {
+                this.open();
+            } else if(++this.probeSuccesses >= Math.max(1, this.settings.getHalfOpenCalls())) {
+                this.close();
+            }
+            return;
+        }
+        if(this.state == State.OPEN) {
+            // a call that started before the breaker opened
+            return;
+        }
+        long bucketLength = Math.max(1, this.settings.getWindow()/BUCKETS);
+        long epoch = System.nanoTime()/1000000/bucketLength;
+        int i = (int)(epoch % BUCKETS);
+        if(this.bucketEpoch[i] != epoch) {
+            this.bucketEpoch[i] = epoch;
+            this.bucketCalls[i] = 0;
+            this.bucketFailures[i] = 0;
+            this.bucketSlow[i] = 0;
+        }
+        this.bucketCalls[i]++;
+        if(failed) {
+            this.bucketFailures[i]++;
+        }
+        if(slow) {
+            this.bucketSlow[i]++;
+        }
+        int calls = 0;
+        int failures = 0;
+        int slowCalls = 0;
+        for(int b = 0; b < BUCKETS; b++) {
+            if(this.bucketEpoch[b] > epoch - BUCKETS) {
+                calls += this.bucketCalls[b];
+                failures += this.bucketFailures[b];
+                slowCalls += this.bucketSlow[b];
+            }
+        }
+        if(calls >= this.settings.getMinimumCalls() && 
+                (failures*100 >= this.settings.getFailureRateThreshold()*calls || slowCalls*100 >= this.settings.getSlowCallRateThreshold()*calls)) {
+            this.open();
+        }
+    }
+    
+    /**
+     * Hands back the permission given by acquire without recording an outcome
+     */
+    public synchronized void ignore() {
+        if(this.state == State.HALF_OPEN) {
+            this.probesLeft++;
+        }
+    }
+    
+    private void open() {
+        this.openedAt = System.nanoTime();
+        this.transition(State.OPEN);
+    }
+    
+    private void close() {
+        Arrays.fill(this.bucketEpoch, -1);
+        this.transition(State.CLOSED);
+    }
+    
+    private void transition(State to) {
+        this.state = to;
+        this.transitions[to.ordinal()]++;
+    }
+    
+    /**
+     * @return the state the breaker is in
+     */
+    public synchronized State getState() {
+        return this.state;
+    }
+    
+    /**
+     * @param to a state
+     * @return the number of times the breaker has moved into that state
+     */
+    public synchronized long getTransitions(State to) {
+        return this.transitions[to.ordinal()];
+    }
+    
+    /**
+     * @return the number of calls rejected because the breaker was open
+     */
+    public synchronized long getRejected() {
+        return this.rejected;
+    }
+    
+    /**
+     * Forces the breaker closed and forgets the calls made so far
+     */
+    public synchronized void reset() {
+        if(this.state != State.CLOSED) {
+            this.close();
+        } else {
+            Arrays.fill(this.bucketEpoch, -1);
+        }
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return this.endpoint+" "+this.state+" opened="+this.transitions[State.OPEN.ordinal()]+" rejected="+this.rejected;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+
+/**
+ * Keeps a CircuitBreaker for each FluidDB endpoint (URL) called, all sharing the same
+ * settings
+ * <p>
+ * This class is thread-safe.
+ */
+public class CircuitBreakerRegistry {
+    
+    private final CircuitBreaker.Settings settings = new CircuitBreaker.Settings();
+    
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+    
+    /**
+     * @return the thresholds and timings used by every breaker (changes take effect 
+     *         straight away)
+     */
+    public CircuitBreaker.Settings getSettings() {
+        return this.settings;
+    }
+    
+    /**
+     * @param endpoint the endpoint (e.g. the FluidDB URL)
+     * @return the breaker for the endpoint (created if need be)
+     */
+    public CircuitBreaker get(String endpoint) {
+        CircuitBreaker breaker = this.breakers.get(endpoint);
+        if(breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(endpoint, this.settings);
+            breaker = this.breakers.putIfAbsent(endpoint, created);
+            if(breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+    
+    /**
+     * Sends a request through the breaker for its endpoint
+     * @param request The call to make
+     * @param transport The transport to send it with
+     * @return The response
+     * @throws CircuitOpenException If the breaker is open
+     * @throws FluidException If the request couldn't be made
+     * @throws IOException If there was a problem talking to FluidDB
+     */
+    public FluidResponse execute(FluidRequest request, FluidTransport transport) throws FluidException, IOException {
+        return this.get(request.getUrl()).execute(request, transport);
+    }
+    
+    /**
+     * @return the state of the breaker for each endpoint called so far
+     */
+    public Map<String, CircuitBreaker.State> getStates() {
+        Map<String, CircuitBreaker.State> states = new TreeMap<String, CircuitBreaker.State>();
+        for(CircuitBreaker breaker : this.breakers.values()) {
+            states.put(breaker.getEndpoint(), breaker.getState());
+        }
+        return states;
+    }
+    
+    /**
+     * @return the breakers for every endpoint called so far
+     */
+    public Map<String, CircuitBreaker> getBreakers() {
+        return new TreeMap<String, CircuitBreaker>(this.breakers);
+    }
+}
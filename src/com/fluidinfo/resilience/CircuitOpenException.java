@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import com.fluidinfo.FluidException;
+
+/**
+ * Thrown instead of calling FluidDB while the circuit breaker for its endpoint is open
+ */
+public class CircuitOpenException extends FluidException {
+
+    private static final long serialVersionUID = -2750340918725043366L;
+    
+    private String endpoint;
+    
+    private long retryAfter;
+
+    /**
+     * Constructor
+     * @param endpoint the endpoint whose circuit is open
+     * @param retryAfter roughly how long (in milliseconds) until calls will be let through
+     */
+    public CircuitOpenException(String endpoint, long retryAfter) {
+        super("The circuit breaker for "+endpoint+" is open, not calling FluidDB for another "+retryAfter+"ms");
+        this.endpoint = endpoint;
+        this.retryAfter = retryAfter;
+    }
+    
+    /**
+     * @return the endpoint whose circuit is open
+     */
+    public String getEndpoint() {
+        return this.endpoint;
+    }
+    
+    /**
+     * @return roughly how long (in milliseconds) until calls will be let through
+     */
+    public long getRetryAfter() {
+        return this.retryAfter;
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.fluidinfo.Deadline;
+import com.fluidinfo.DeadlineExceededException;
+
+/**
+ * Caps the number of calls to FluidDB in flight at once, with a cap that adapts to how
+ * FluidDB is coping: the LimitAlgorithm raises it while calls are quick and succeed and
+ * lowers it when they slow down or fail. Calls over the limit wait in a queue for up to
+ * the queue timeout and are then shed with a ConcurrencyLimitException.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ConcurrencyLimiter {
+    
+    /**
+     * The default starting limit
+     */
+    public final static int DEFAULT_INITIAL_LIMIT = 20;
+    
+    /**
+     * The default lowest the limit can go
+     */
+    public final static int DEFAULT_MIN_LIMIT = 1;
+    
+    /**
+     * The default highest the limit can go
+     */
+    public final static int DEFAULT_MAX_LIMIT = 200;
+    
+    /**
+     * The default time (in milliseconds) a call waits for room before being shed
+     */
+    public final static long DEFAULT_QUEUE_TIMEOUT = 1000;
+    
+    private final LimitAlgorithm algorithm;
+    
+    /**
+     * Guards the limit and the counts below (a lock rather than a monitor so that virtual
+     * threads waiting for room don't pin their carrier threads)
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    /**
+     * Signalled when a call finishes (or the limit goes up)
+     */
+    private final Condition room = this.lock.newCondition();
+    
+    private double limit;
+    
+    private volatile int minLimit = DEFAULT_MIN_LIMIT;
+    
+    private volatile int maxLimit = DEFAULT_MAX_LIMIT;
+    
+    private volatile long queueTimeout = DEFAULT_QUEUE_TIMEOUT;
+    
+    private int inFlight = 0;
+    
+    private int queued = 0;
+    
+    private long rejected = 0;
+    
+    /**
+     * Constructor - starts at DEFAULT_INITIAL_LIMIT
+     * @param algorithm works out the limit (e.g. AimdLimit or GradientLimit)
+     */
+    public ConcurrencyLimiter(LimitAlgorithm algorithm) {
+        this(algorithm, DEFAULT_INITIAL_LIMIT);
+    }
+    
+    /**
+     * Constructor
+     * @param algorithm works out the limit (e.g. AimdLimit or GradientLimit)
+     * @param initialLimit the limit to start at
+     */
+    public ConcurrencyLimiter(LimitAlgorithm algorithm, int initialLimit) {
+        this.algorithm = algorithm;
+        this.limit = initialLimit;
+    }
+    
+    /**
+     * @param minLimit the lowest the limit can go
+     */
+    public void setMinLimit(int minLimit) {
+        this.minLimit = minLimit;
+    }
+    
+    /**
+     * @return the lowest the limit can go
+     */
+    public int getMinLimit() {
+        return this.minLimit;
+    }
+    
+    /**
+     * @param maxLimit the highest the limit can go
+     */
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+    
+    /**
+     * @return the highest the limit can go
+     */
+    public int getMaxLimit() {
+        return this.maxLimit;
+    }
+    
+    /**
+     * @param queueTimeout how long (in milliseconds) a call over the limit waits for room
+     *        before being shed (0 sheds straight away, -1 waits as long as it takes)
+     */
+    public void setQueueTimeout(long queueTimeout) {
+        this.queueTimeout = queueTimeout;
+    }
+    
+    /**
+     * @return how long (in milliseconds) a call over the limit waits for room
+     */
+    public long getQueueTimeout() {
+        return this.queueTimeout;
+    }
+    
+    /**
+     * Waits for room under the limit
+     * @return the time (System.nanoTime) the call was let through, to pass to release
+     * @throws ConcurrencyLimitException if there was no room in time
+     * @throws InterruptedIOException if the caller was interrupted while waiting
+     */
+    public long acquire() throws ConcurrencyLimitException, InterruptedIOException {
+        try {
+            return this.acquire(null);
+        } catch (DeadlineExceededException e) {
+            // there's no deadline to exceed
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Waits for room under the limit, for no longer than the queue timeout or the time
+     * left before the deadline (whichever is sooner)
+     * @param deadline the deadline the call has to keep to (or null if there isn't one)
+     * @return the time (System.nanoTime) the call was let through
+     * @throws ConcurrencyLimitException if there was no room within the queue timeout
+     * @throws DeadlineExceededException if the deadline passed while waiting for room
+     * @throws InterruptedIOException if the caller was interrupted while waiting
+     */
+    public long acquire(Deadline deadline) throws ConcurrencyLimitException, DeadlineExceededException, InterruptedIOException {
+        long timeout = this.queueTimeout;
+        this.lock.lock();
+        try {
+            if(this.inFlight >= (int)this.limit) {
+                if(timeout == 0) {
+                    this.rejected++;
+                    throw new ConcurrencyLimitException("Too many calls to FluidDB in flight (the limit is "+(int)this.limit+")");
+                }
+                long shedAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+                this.queued++;
+                try {
+                    while(this.inFlight >= (int)this.limit) {
+                        long wait = timeout < 0 ? Long.MAX_VALUE : shedAt - System.nanoTime();
+                        if(wait <= 0) {
+                            this.rejected++;
+                            throw new ConcurrencyLimitException("Timed out waiting for room to call FluidDB (the limit is "+(int)this.limit+")");
+                        }
+                        if(deadline != null) {
+                            long left = deadline.remaining(TimeUnit.NANOSECONDS);
+                            if(left <= 0) {
+                                throw new DeadlineExceededException("Deadline exceeded waiting for room to call FluidDB (the limit is "+(int)this.limit+")");
+                            }
+                            wait = Math.min(wait, left);
+                        }
+                        if(wait == Long.MAX_VALUE) {
+                            this.room.await();
+                        } else {
+                            this.room.awaitNanos(wait);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to call FluidDB");
+                } finally {
+                    this.queued--;
+                }
+            }
+            this.inFlight++;
+        } finally {
+            this.lock.unlock();
+        }
+        return System.nanoTime();
+    }
+    
+    /**
+     * Records how a call let through by acquire went, and adjusts the limit
+     * @param start when the call was sent (System.nanoTime), so the round trip it measures
+     *        doesn't include any other waiting done after acquire
+     * @param dropped true if the call failed in a way that suggests FluidDB is overloaded
+     */
+    public void release(long start, boolean dropped) {
+        long rtt = System.nanoTime() - start;
+        this.lock.lock();
+        try {
+            double updated = this.algorithm.update(this.limit, rtt, this.inFlight, dropped);
+            this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, updated));
+            this.inFlight--;
+            this.room.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * Gives back the room taken by acquire without recording anything (e.g. the call 
+     * never got as far as FluidDB)
+     */
+    public void ignore() {
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            this.room.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * @param code an HTTP status code
+     * @return true if the status suggests FluidDB is overloaded
+     */
+    public static boolean isDropped(int code) {
+        return code == 429 || code == 503 || code == 504;
+    }
+    
+    /**
+     * @return the current limit on calls in flight
+     */
+    public int getLimit() {
+        this.lock.lock();
+        try {
+            return (int)this.limit;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * @return the number of calls in flight
+     */
+    public int getInFlight() {
+        this.lock.lock();
+        try {
+            return this.inFlight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * @return the number of calls waiting for room
+     */
+    public int getQueued() {
+        this.lock.lock();
+        try {
+            return this.queued;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    /**
+     * @return the number of calls shed because there was no room
+     */
+    public long getRejected() {
+        this.lock.lock();
+        try {
+            return this.rejected;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        this.lock.lock();
+        try {
+            return "limit="+(int)this.limit+" inFlight="+this.inFlight+" queued="+this.queued+" rejected="+this.rejected;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
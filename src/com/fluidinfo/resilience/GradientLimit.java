@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+/**
+ * Adjusts the limit by the ratio of the long-term to the short-term round-trip time:
+ * when calls slow down (FluidDB is queueing them) the gradient drops below one and the
+ * limit shrinks; when they're as quick as usual the limit grows by a small allowance
+ * for queueing. Based on the "gradient" limit used by Netflix's concurrency-limits.
+ */
+public class GradientLimit implements LimitAlgorithm {
+    
+    private double smoothing;
+    
+    private double shortRtt = 0;
+    
+    private double longRtt = 0;
+    
+    private double shortWeight;
+    
+    private double longWeight;
+    
+    /**
+     * Constructor - with a short-term window of about 10 calls and a long-term one of 
+     * about 600
+     */
+    public GradientLimit() {
+        this(10, 600, 0.2);
+    }
+    
+    /**
+     * Constructor
+     * @param shortWindow roughly how many calls the short-term round-trip time averages
+     * @param longWindow roughly how many calls the long-term round-trip time averages
+     * @param smoothing how far (0 to 1) the limit moves toward the new estimate each call
+     */
+    public GradientLimit(int shortWindow, int longWindow, double smoothing) {
+        this.shortWeight = 2.0 / (shortWindow + 1);
+        this.longWeight = 2.0 / (longWindow + 1);
+        this.smoothing = smoothing;
+    }
+    
+    public double update(double limit, long rtt, int inFlight, boolean dropped) {
+        if(this.longRtt == 0) {
+            this.shortRtt = rtt;
+            this.longRtt = rtt;
+        } else {
+            this.shortRtt += (rtt - this.shortRtt) * this.shortWeight;
+            this.longRtt += (rtt - this.longRtt) * this.longWeight;
+        }
+        if(this.longRtt / this.shortRtt > 2) {
+            // things have sped up a lot, don't let the old average hold the limit back
+            this.longRtt = this.shortRtt * 2;
+        }
+        if(!dropped && inFlight * 2 < limit) {
+            // the limit isn't being used so we've learnt nothing about it
+            return limit;
+        }
+        double estimate;
+        if(dropped) {
+            estimate = limit * 0.5;
+        } else {
+            double gradient = Math.max(0.5, Math.min(1.0, this.longRtt / this.shortRtt));
+            estimate = limit * gradient + Math.sqrt(limit);
+        }
+        return limit * (1 - this.smoothing) + estimate * this.smoothing;
+    }
+    
+    /**
+     * @return the short-term average round-trip time in nanoseconds
+     */
+    public double getShortRtt() {
+        return this.shortRtt;
+    }
+    
+    /**
+     * @return the long-term average round-trip time in nanoseconds
+     */
+    public double getLongRtt() {
+        return this.longRtt;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Cuts tail latency by "hedging" slow GET and HEAD calls: if a call hasn't been answered
+ * after a delay (by default the 95th percentile of recent calls) an identical call is
+ * sent, the first answer wins and the other call is cancelled
+ * <p>
+ * Hedges are limited by a RetryBudget (by default 5% of calls) so a slow FluidDB isn't
+ * hit with twice the traffic. Cancelling interrupts the losing call's thread, which 
+ * aborts it on the HTTP/2 transport; on the pooled transport the losing call finishes 
+ * in the background and its connection goes back to the pool.
+ * <p>
+ * Attempts run on a bounded pool of threads; when every one of them is busy a call is
+ * made on the caller's own thread and isn't hedged.
+ * <p>
+ * This class is thread-safe.
+ */
+public class HedgingPolicy {
+    
+    /**
+     * The default percentile of recent latencies to wait before hedging
+     */
+    public final static double DEFAULT_PERCENTILE = 95;
+    
+    /**
+     * The default delay (in milliseconds) until enough calls have been seen to work out
+     * the percentile
+     */
+    public final static long DEFAULT_INITIAL_DELAY = 500;
+    
+    /**
+     * The default shortest delay (in milliseconds) before hedging
+     */
+    public final static long DEFAULT_MIN_DELAY = 5;
+    
+    /**
+     * The default most threads used to make calls and their hedges
+     */
+    public final static int DEFAULT_MAX_THREADS = 64;
+    
+    /**
+     * The number of recent latencies the percentile is worked out from
+     */
+    private final static int SAMPLES = 1024;
+    
+    /**
+     * The percentile is worked out again after this many calls
+     */
+    private final static int RECALCULATE_EVERY = 64;
+    
+    private volatile double percentile = DEFAULT_PERCENTILE;
+    
+    private volatile long minDelay = DEFAULT_MIN_DELAY;
+    
+    private volatile long delay = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INITIAL_DELAY);
+    
+    private volatile RetryBudget budget = new RetryBudget(5, 10);
+    
+    private final AtomicLongArray latencies = new AtomicLongArray(SAMPLES);
+    
+    private final AtomicLong samples = new AtomicLong();
+    
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+    private final AtomicLong unhedged = new AtomicLong();
+    
+    private final ThreadPoolExecutor executor;
+    
+    /**
+     * Constructor
+     */
+    public HedgingPolicy() {
+        this(DEFAULT_MAX_THREADS);
+    }
+    
+    /**
+     * Constructor
+     * @param maxThreads the most threads used to make calls and their hedges (a hedged 
+     *        call uses two)
+     */
+    public HedgingPolicy(int maxThreads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, 
+                new SynchronousQueue<Runnable>(), 
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "JFluidDB-hedge-"+threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+    
+    /**
+     * @param percentile the percentile (e.g. 95) of recent latencies to wait before 
+     *        sending a hedge
+     */
+    public void setPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+    
+    /**
+     * @return the percentile of recent latencies waited before sending a hedge
+     */
+    public double getPercentile() {
+        return this.percentile;
+    }
+    
+    /**
+     * @param minDelay the shortest time (in milliseconds) to wait before sending a hedge
+     */
+    public void setMinDelay(long minDelay) {
+        this.minDelay = minDelay;
+    }
+    
+    /**
+     * @return the shortest time (in milliseconds) waited before sending a hedge
+     */
+    public long getMinDelay() {
+        return this.minDelay;
+    }
+    
+    /**
+     * @return how long (in milliseconds) a call is currently given before it's hedged
+     */
+    public long getDelay() {
+        return Math.max(this.minDelay, TimeUnit.NANOSECONDS.toMillis(this.delay));
+    }
+    
+    /**
+     * @param budget limits hedges to a percentage of calls
+     */
+    public void setBudget(RetryBudget budget) {
+        this.budget = budget;
+    }
+    
+    /**
+     * @return the budget that limits hedges to a percentage of calls
+     */
+    public RetryBudget getBudget() {
+        return this.budget;
+    }
+    
+    /**
+     * Sends a request, hedging it if it's a GET or HEAD that takes too long
+     * @param request The call to make
+     * @param transport The transport to send it (and any hedge) with
+     * @return The first response to come back
+     * @throws FluidException If the request couldn't be made
+     * @throws IOException If every attempt failed
+     */
+    public FluidResponse execute(final FluidRequest request, final FluidTransport transport) throws FluidException, IOException {
+        if(request.getMethod() != Method.GET && request.getMethod() != Method.HEAD) {
+            return transport.execute(request);
+        }
+        RetryBudget budget = this.budget;
+        budget.deposit();
+        this.requests.incrementAndGet();
+        ExecutorCompletionService<FluidResponse> attempts = new ExecutorCompletionService<FluidResponse>(this.executor);
+        Future<FluidResponse> primary;
+        try {
+            primary = attempts.submit(new Callable<FluidResponse>() {
+                public FluidResponse call() throws Exception {
+                    return timed(request, transport);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // every thread is busy (or we've been shut down) so don't hedge this one
+            this.unhedged.incrementAndGet();
+            return this.timed(request, transport);
+        }
+        Future<FluidResponse> hedge = null;
+        try {
+            Future<FluidResponse> done = attempts.poll(this.getDelay(), TimeUnit.MILLISECONDS);
+            if(done == null) {
+                if(budget.tryWithdraw()) {
+                    try {
+                        hedge = attempts.submit(new Callable<FluidResponse>() {
+                            public FluidResponse call() throws Exception {
+                                return transport.execute(request);
+                            }
+                        });
+                        this.hedges.incrementAndGet();
+                    } catch (RejectedExecutionException e) {
+                        this.unhedged.incrementAndGet();
+                    }
+                } else {
+                    this.budgetExhausted.incrementAndGet();
+                }
+                done = attempts.take();
+            }
+            try {
+                FluidResponse response = done.get();
+                if(done == hedge) {
+                    this.hedgeWins.incrementAndGet();
+                }
+                return response;
+            } catch (ExecutionException e) {
+                if(hedge == null) {
+                    throw e;
+                }
+                // one attempt failed, see if the other does any better
+                Future<FluidResponse> other = attempts.take();
+                FluidResponse response = other.get();
+                if(other == hedge) {
+                    this.hedgeWins.incrementAndGet();
+                }
+                return response;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for FluidDB");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof FluidException) {
+                throw (FluidException)cause;
+            } else if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new FluidException(cause);
+        } finally {
+            primary.cancel(true);
+            if(hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+    
+    /**
+     * Makes a call and records how long it took
+     * @param request The call to make
+     * @param transport The transport to send it with
+     * @return The response
+     * @throws FluidException If the request couldn't be made
+     * @throws IOException If the call failed
+     */
+    private FluidResponse timed(FluidRequest request, FluidTransport transport) throws FluidException, IOException {
+        long start = System.nanoTime();
+        try {
+            return transport.execute(request);
+        } finally {
+            this.record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Records the latency of a call and every so often works out the percentile again
+     * @param latency how long the call took in nanoseconds
+     */
+    private void record(long latency) {
+        long n = this.samples.getAndIncrement();
+        this.latencies.set((int)(n % SAMPLES), latency);
+        if((n+1) % RECALCULATE_EVERY == 0) {
+            int count = (int)Math.min(n+1, SAMPLES);
+            long[] sorted = new long[count];
+            for(int i = 0; i < count; i++) {
+                sorted[i] = this.latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            int index = (int)Math.ceil(this.percentile / 100 * count) - 1;
+            this.delay = sorted[Math.max(0, Math.min(count-1, index))];
+        }
+    }
+    
+    /**
+     * Stops the threads used to send hedges
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+    
+    /**
+     * @return the number of GET and HEAD calls made through this policy
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+    
+    /**
+     * @return the number of hedges sent
+     */
+    public long getHedges() {
+        return this.hedges.get();
+    }
+    
+    /**
+     * @return the number of hedges that were answered before the call they hedged
+     */
+    public long getHedgeWins() {
+        return this.hedgeWins.get();
+    }
+    
+    /**
+     * @return the number of hedges not sent because the budget had run out
+     */
+    public long getBudgetExhausted() {
+        return this.budgetExhausted.get();
+    }
+    
+    /**
+     * @return the number of calls (or hedges) made without hedging because every thread
+     *         was busy
+     */
+    public long getUnhedged() {
+        return this.unhedged.get();
+    }
+    
+    @Override
+    public String toString() {
+        return "requests="+this.getRequests()+" hedges="+this.getHedges()+" hedgeWins="+this.getHedgeWins()+
+            " budgetExhausted="+this.getBudgetExhausted()+" unhedged="+this.getUnhedged()+" delay="+this.getDelay()+"ms";
+    }
+}
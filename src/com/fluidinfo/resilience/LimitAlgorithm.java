@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+/**
+ * Works out a new concurrency limit from how the last call went (see ConcurrencyLimiter).
+ * Implementations needn't be thread-safe: the limiter calls them one at a time.
+ */
+public interface LimitAlgorithm {
+    
+    /**
+     * @param limit the current limit
+     * @param rtt how long the call took in nanoseconds
+     * @param inFlight the number of calls in flight when the call finished
+     * @param dropped true if the call failed in a way that suggests FluidDB is overloaded
+     *        (a timeout, a 429 or a 5xx)
+     * @return the new limit (the limiter keeps it between its minimum and maximum)
+     */
+    double update(double limit, long rtt, int inFlight, boolean dropped);
+}
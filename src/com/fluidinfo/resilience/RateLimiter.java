@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fluidinfo.Deadline;
+import com.fluidinfo.DeadlineExceededException;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Limits the rate of calls to FluidDB with token buckets, configured per Method and 
+ * per path prefix (e.g. "/objects", "/values", "/namespaces", "/permissions")
+ * <p>
+ * A call is limited by the most specific matching rule only: the one with the longest
+ * matching path prefix, with a rule for the call's method beating one for any method.
+ * Calls that match no rule aren't limited.
+ * <p>
+ * Looking up the rule and taking a permit never lock, so the limiter can sit in front of
+ * hundreds of threads. Rules are copied on write, so adding them should be done up front.
+ */
+public class RateLimiter {
+    
+    /**
+     * A path prefix and method with its own bucket
+     */
+    private static class Rule {
+        Method method;
+        String prefix;
+        TokenBucket bucket;
+    }
+    
+    /**
+     * Sorted most specific first
+     */
+    private volatile Rule[] rules = new Rule[0];
+    
+    private volatile long timeout = -1;
+    
+    private final AtomicLong throttled = new AtomicLong();
+    
+    private final AtomicLong rejected = new AtomicLong();
+    
+    /**
+     * Limits calls to a path prefix
+     * @param method the method to limit (null for any method)
+     * @param prefix the path prefix to limit (e.g. "/objects", or "" for every path)
+     * @param permitsPerSecond the steady rate calls are allowed at
+     * @param burst the most calls that can be made at once
+     */
+    public synchronized void setLimit(Method method, String prefix, double permitsPerSecond, int burst) {
+        Rule rule = new Rule();
+        rule.method = method;
+        rule.prefix = prefix;
+        rule.bucket = new TokenBucket(permitsPerSecond, burst);
+        List<Rule> rules = this.without(method, prefix);
+        rules.add(rule);
+        Rule[] sorted = rules.toArray(new Rule[rules.size()]);
+        Arrays.sort(sorted, new Comparator<Rule>() {
+            public int compare(Rule a, Rule b) {
+                if(a.prefix.length() != b.prefix.length()) {
+                    return b.prefix.length() - a.prefix.length();
+                }
+                return (a.method == null ? 1 : 0) - (b.method == null ? 1 : 0);
+            }
+        });
+        this.rules = sorted;
+    }
+    
+    /**
+     * Removes a limit
+     * @param method the method of the limit (null for any method)
+     * @param prefix the path prefix of the limit
+     */
+    public synchronized void removeLimit(Method method, String prefix) {
+        List<Rule> rules = this.without(method, prefix);
+        this.rules = rules.toArray(new Rule[rules.size()]);
+    }
+    
+    private List<Rule> without(Method method, String prefix) {
+        List<Rule> rules = new ArrayList<Rule>(Arrays.asList(this.rules));
+        for(int i = 0; i < rules.size(); i++) {
+            if(rules.get(i).method == method && rules.get(i).prefix.equals(prefix)) {
+                rules.remove(i);
+                break;
+            }
+        }
+        return rules;
+    }
+    
+    /**
+     * Sets how long FluidConnector waits for a permit before giving up with a 
+     * RateLimitedException
+     * @param timeout the longest to wait in milliseconds (0 never waits, -1 waits as long
+     *        as it takes, which is the default)
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+    
+    /**
+     * @return the longest FluidConnector waits for a permit in milliseconds (0 never 
+     *         waits, -1 waits as long as it takes)
+     */
+    public long getTimeout() {
+        return this.timeout;
+    }
+    
+    /**
+     * @param method the method of a call
+     * @param path the path of a call
+     * @return the bucket that limits the call (null if it isn't limited)
+     */
+    public TokenBucket getBucket(Method method, String path) {
+        Rule[] rules = this.rules;
+        for(int i = 0; i < rules.length; i++) {
+            Rule rule = rules[i];
+            if((rule.method == null || rule.method == method) && path.startsWith(rule.prefix)) {
+                return rule.bucket;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Takes a permit for a call if one is free right now
+     * @param method the method of the call
+     * @param path the path of the call
+     * @return true if the call may go ahead
+     */
+    public boolean tryAcquire(Method method, String path) {
+        TokenBucket bucket = this.getBucket(method, path);
+        if(bucket == null || bucket.tryAcquire()) {
+            return true;
+        }
+        this.rejected.incrementAndGet();
+        return false;
+    }
+    
+    /**
+     * Takes a permit for a call, waiting up to the given time for one
+     * @param method the method of the call
+     * @param path the path of the call
+     * @param timeout the longest to wait
+     * @param unit the unit of the timeout
+     * @return true if the call may go ahead
+     * @throws InterruptedException
+     */
+    public boolean tryAcquire(Method method, String path, long timeout, TimeUnit unit) throws InterruptedException {
+        TokenBucket bucket = this.getBucket(method, path);
+        if(bucket == null) {
+            return true;
+        }
+        long wait = bucket.reserve(unit.toNanos(timeout));
+        if(wait < 0) {
+            this.rejected.incrementAndGet();
+            return false;
+        }
+        this.pause(wait);
+        return true;
+    }
+    
+    /**
+     * Takes a permit for a call, waiting as long as it takes for one
+     * @param method the method of the call
+     * @param path the path of the call
+     * @throws InterruptedException
+     */
+    public void acquire(Method method, String path) throws InterruptedException {
+        TokenBucket bucket = this.getBucket(method, path);
+        if(bucket != null) {
+            this.pause(bucket.reserve(Long.MAX_VALUE));
+        }
+    }
+    
+    /**
+     * Takes a permit for a call as FluidConnector does, waiting no longer than the 
+     * timeout
+     * @param method the method of the call
+     * @param path the path of the call
+     * @throws RateLimitedException if no permit was free in time
+     * @throws InterruptedIOException if the caller was interrupted while waiting
+     */
+    public void permit(Method method, String path) throws RateLimitedException, InterruptedIOException {
+        try {
+            this.permit(method, path, null);
+        } catch (DeadlineExceededException e) {
+            // can't happen without a deadline
+            throw new RateLimitedException(e.getMessage());
+        }
+    }
+    
+    /**
+     * Takes a permit for a call as FluidConnector does, waiting no longer than the 
+     * timeout or the call's deadline
+     * @param method the method of the call
+     * @param path the path of the call
+     * @param deadline the call's deadline (or null)
+     * @throws RateLimitedException if no permit was free in time
+     * @throws DeadlineExceededException if the deadline passed before a permit was free
+     * @throws InterruptedIOException if the caller was interrupted while waiting
+     */
+    public void permit(Method method, String path, Deadline deadline) throws RateLimitedException, DeadlineExceededException, InterruptedIOException {
+        long timeout = this.timeout;
+        boolean limitedByDeadline = false;
+        if(deadline != null) {
+            long remaining = deadline.remaining(TimeUnit.MILLISECONDS);
+            if(timeout < 0 || remaining < timeout) {
+                timeout = remaining;
+                limitedByDeadline = true;
+            }
+        }
+        boolean permitted;
+        try {
+            if(timeout < 0) {
+                this.acquire(method, path);
+                permitted = true;
+            } else {
+                permitted = this.tryAcquire(method, path, timeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+        }
+        if(!permitted) {
+            if(limitedByDeadline) {
+                throw new DeadlineExceededException("Deadline exceeded waiting for the rate limit for "+method.toString().toUpperCase()+" "+path);
+            }
+            throw new RateLimitedException("Rate limit reached for "+method.toString().toUpperCase()+" "+path);
+        }
+    }
+    
+    private void pause(long nanos) throws InterruptedException {
+        if(nanos > 0) {
+            this.throttled.incrementAndGet();
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+    
+    /**
+     * @return the number of calls that had to wait for a permit
+     */
+    public long getThrottled() {
+        return this.throttled.get();
+    }
+    
+    /**
+     * @return the number of calls turned away because no permit was free in time
+     */
+    public long getRejected() {
+        return this.rejected.get();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries to a percentage of the requests made, so that when FluidDB is in
+ * trouble the clients don't make things worse with a storm of retries
+ * <p>
+ * Every request deposits a fraction of a token and every retry withdraws a whole one.
+ * The balance is capped so a long quiet spell doesn't bank an unlimited number of
+ * retries, and starts full so retries work from the first request. This class is
+ * lock-free.
+ */
+public class RetryBudget {
+    
+    /**
+     * Tokens are held as thousandths so they can be kept in a long
+     */
+    private final static long SCALE = 1000;
+    
+    private final long deposit;
+    
+    private final long cap;
+    
+    private final AtomicLong balance;
+    
+    /**
+     * Constructor
+     * @param percent retries allowed as a percentage of requests (e.g. 10 for 10%)
+     * @param burst the most retries that can be made back to back
+     */
+    public RetryBudget(double percent, int burst) {
+        if(percent < 0 || burst < 0) {
+            throw new IllegalArgumentException("The retry budget can't be negative");
+        }
+        this.deposit = (long)(percent * SCALE / 100);
+        this.cap = burst * SCALE;
+        this.balance = new AtomicLong(this.cap);
+    }
+    
+    /**
+     * Records a request (not a retry) being made
+     */
+    public void deposit() {
+        long current;
+        long next;
+        do {
+            current = this.balance.get();
+            if(current >= this.cap) {
+                return;
+            }
+            next = Math.min(this.cap, current + this.deposit);
+        } while(!this.balance.compareAndSet(current, next));
+    }
+    
+    /**
+     * Takes a token for a retry, if there's one left
+     * @return true if the retry may go ahead
+     */
+    public boolean tryWithdraw() {
+        long current;
+        do {
+            current = this.balance.get();
+            if(current < SCALE) {
+                return false;
+            }
+        } while(!this.balance.compareAndSet(current, current - SCALE));
+        return true;
+    }
+    
+    /**
+     * @return the number of retries that could be made right now
+     */
+    public int getAvailable() {
+        return (int)(this.balance.get() / SCALE);
+    }
+}
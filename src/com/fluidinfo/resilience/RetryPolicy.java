@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.EnumSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fluidinfo.Deadline;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Decides whether, and when, a failed call to FluidDB is tried again
+ * <p>
+ * A call is retried if it fails with an IOException (e.g. a socket timeout) or FluidDB
+ * answers 429, 500, 502, 503 or 504 - but only if its method is safe to repeat. By
+ * default GET, HEAD, PUT and DELETE are; POST isn't unless setRetryable(Method.POST, true)
+ * is called. Between attempts the policy waits a random time of up to baseDelay * 2^n
+ * (capped at maxDelay), and retries are limited overall by a RetryBudget.
+ * <p>
+ * This class is thread-safe; one policy is normally shared by every call made by a
+ * FluidConnector.
+ */
+public class RetryPolicy {
+    
+    /**
+     * The default number of attempts (including the first) made at a call
+     */
+    public final static int DEFAULT_MAX_ATTEMPTS = 3;
+    
+    /**
+     * The default delay (in milliseconds) before the first retry
+     */
+    public final static long DEFAULT_BASE_DELAY = 100;
+    
+    /**
+     * The default cap (in milliseconds) on the delay between attempts
+     */
+    public final static long DEFAULT_MAX_DELAY = 2000;
+    
+    /**
+     * The default percentage of requests that may be retried
+     */
+    public final static double DEFAULT_BUDGET_PERCENT = 10;
+    
+    /**
+     * The default number of retries that may be made back to back
+     */
+    public final static int DEFAULT_BUDGET_BURST = 10;
+    
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    
+    private volatile long baseDelay = DEFAULT_BASE_DELAY;
+    
+    private volatile long maxDelay = DEFAULT_MAX_DELAY;
+    
+    private volatile EnumSet<Method> retryable = EnumSet.of(Method.GET, Method.HEAD, Method.PUT, Method.DELETE);
+    
+    private volatile RetryBudget budget = new RetryBudget(DEFAULT_BUDGET_PERCENT, DEFAULT_BUDGET_BURST);
+    
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+    
+    /**
+     * @param maxAttempts the number of attempts (including the first) made at a call
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+    
+    /**
+     * @return the number of attempts (including the first) made at a call
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+    
+    /**
+     * @param baseDelay the delay (in milliseconds) before the first retry, doubled for 
+     *        each one after
+     */
+    public void setBaseDelay(long baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+    
+    /**
+     * @return the delay (in milliseconds) before the first retry
+     */
+    public long getBaseDelay() {
+        return this.baseDelay;
+    }
+    
+    /**
+     * @param maxDelay the cap (in milliseconds) on the delay between attempts
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+    
+    /**
+     * @return the cap (in milliseconds) on the delay between attempts
+     */
+    public long getMaxDelay() {
+        return this.maxDelay;
+    }
+    
+    /**
+     * Sets whether calls with the given method may be retried
+     * @param method the HTTP method
+     * @param retryable true if calls with this method are safe to repeat
+     */
+    public synchronized void setRetryable(Method method, boolean retryable) {
+        EnumSet<Method> methods = EnumSet.copyOf(this.retryable);
+        if(retryable) {
+            methods.add(method);
+        } else {
+            methods.remove(method);
+        }
+        this.retryable = methods;
+    }
+    
+    /**
+     * @param method the HTTP method
+     * @return true if calls with this method may be retried
+     */
+    public boolean isRetryable(Method method) {
+        return this.retryable.contains(method);
+    }
+    
+    /**
+     * @param budget limits retries to a percentage of requests
+     */
+    public void setBudget(RetryBudget budget) {
+        this.budget = budget;
+    }
+    
+    /**
+     * @return the budget that limits retries to a percentage of requests
+     */
+    public RetryBudget getBudget() {
+        return this.budget;
+    }
+    
+    /**
+     * @param code an HTTP status code
+     * @return true if FluidDB answering with this status is worth another try
+     */
+    public boolean isRetryable(int code) {
+        return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+    
+    /**
+     * Sends a request, retrying it as the policy allows
+     * @param request The call to make
+     * @param transport The transport to send it with
+     * @return The response (the last one if every attempt failed with a 5xx)
+     * @throws FluidException If the request couldn't be made
+     * @throws IOException If the last attempt failed
+     */
+    public FluidResponse execute(FluidRequest request, FluidTransport transport) throws FluidException, IOException {
+        RetryBudget budget = this.budget;
+        boolean retryable = this.isRetryable(request.getMethod());
+        int maxAttempts = this.maxAttempts;
+        budget.deposit();
+        this.requests.incrementAndGet();
+        int attempt = 0;
+        while(true) {
+            attempt++;
+            this.attempts.incrementAndGet();
+            FluidResponse response = null;
+            IOException failure = null;
+            try {
+                response = transport.execute(request);
+            } catch (InterruptedIOException e) {
+                if(!(e instanceof SocketTimeoutException)) {
+                    // the caller was interrupted, that's not FluidDB's fault
+                    throw e;
+                }
+                failure = e;
+            } catch (IOException e) {
+                failure = e;
+            }
+            if(failure == null && !this.isRetryable(response.getResponseCode())) {
+                if(attempt > 1) {
+                    this.recovered.incrementAndGet();
+                }
+                return response;
+            }
+            if(!retryable) {
+                return this.giveUp(response, failure);
+            }
+            if(attempt >= maxAttempts) {
+                this.exhausted.incrementAndGet();
+                return this.giveUp(response, failure);
+            }
+            long delay = this.backoff(attempt);
+            Deadline deadline = request.getDeadline();
+            if(deadline != null && deadline.remaining(TimeUnit.MILLISECONDS) <= delay) {
+                // no time left for another attempt
+                return this.giveUp(response, failure);
+            }
+            if(!budget.tryWithdraw()) {
+                this.budgetExhausted.incrementAndGet();
+                return this.giveUp(response, failure);
+            }
+            this.retries.incrementAndGet();
+            this.sleep(delay);
+        }
+    }
+    
+    /**
+     * @param attempt the number of attempts made so far
+     * @return how long (in milliseconds) to wait before the next attempt
+     */
+    long backoff(int attempt) {
+        long ceiling = Math.min(this.maxDelay, this.baseDelay << Math.min(attempt-1, 30));
+        if(ceiling <= 0) {
+            return 0;
+        }
+        // "full jitter" so that clients that failed together don't retry together
+        return ThreadLocalRandom.current().nextLong(ceiling+1);
+    }
+    
+    private void sleep(long delay) throws InterruptedIOException {
+        if(delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry a call to FluidDB");
+        }
+    }
+    
+    private FluidResponse giveUp(FluidResponse response, IOException failure) throws IOException {
+        if(failure != null) {
+            throw failure;
+        }
+        return response;
+    }
+    
+    /**
+     * @return the number of calls made through this policy
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+    
+    /**
+     * @return the number of attempts made (first tries and retries)
+     */
+    public long getAttempts() {
+        return this.attempts.get();
+    }
+    
+    /**
+     * @return the number of retries made
+     */
+    public long getRetries() {
+        return this.retries.get();
+    }
+    
+    /**
+     * @return the number of calls that succeeded after being retried
+     */
+    public long getRecovered() {
+        return this.recovered.get();
+    }
+    
+    /**
+     * @return the number of calls that failed on every attempt
+     */
+    public long getExhausted() {
+        return this.exhausted.get();
+    }
+    
+    /**
+     * @return the number of retries not made because the retry budget had run out
+     */
+    public long getBudgetExhausted() {
+        return this.budgetExhausted.get();
+    }
+    
+    @Override
+    public String toString() {
+        return "requests="+this.getRequests()+" attempts="+this.getAttempts()+" retries="+this.getRetries()+
+            " recovered="+this.getRecovered()+" exhausted="+this.getExhausted()+" budgetExhausted="+this.getBudgetExhausted();
+    }
+}
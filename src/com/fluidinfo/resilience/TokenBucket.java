@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket: permits are added at a steady rate up to a maximum (the burst), and
+ * every call takes one
+ * <p>
+ * Rather than counting tokens the bucket remembers the time at which the next permit
+ * becomes free (the "generic cell rate algorithm"), so taking a permit is a single
+ * compare-and-set on one AtomicLong and the bucket never blocks other threads.
+ */
+public class TokenBucket {
+    
+    private final long interval;
+    
+    private final long tolerance;
+    
+    /**
+     * The (System.nanoTime) time at which the bucket will be completely full again
+     */
+    private final AtomicLong full;
+    
+    /**
+     * Constructor
+     * @param permitsPerSecond the steady rate permits are added at
+     * @param burst the most permits that can be taken at once
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if(permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("A token bucket needs a positive rate and burst");
+        }
+        this.interval = Math.max(1, (long)(1000000000L / permitsPerSecond));
+        this.tolerance = this.interval * (burst - 1);
+        this.full = new AtomicLong(System.nanoTime() - this.interval);
+    }
+    
+    /**
+     * Takes a permit if one is free right now
+     * @return true if a permit was taken
+     */
+    public boolean tryAcquire() {
+        return this.reserve(0) == 0;
+    }
+    
+    /**
+     * Takes a permit, waiting up to the given time for one to become free
+     * @param timeout the longest to wait
+     * @param unit the unit of the timeout
+     * @return true if a permit was taken, false if none would be free in time
+     * @throws InterruptedException
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long wait = this.reserve(unit.toNanos(timeout));
+        if(wait < 0) {
+            return false;
+        }
+        sleep(wait);
+        return true;
+    }
+    
+    /**
+     * Takes a permit, waiting as long as it takes for one to become free
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        sleep(this.reserve(Long.MAX_VALUE));
+    }
+    
+    /**
+     * Reserves the next free permit if it becomes free within the given time
+     * @param maxWait the longest (in nanoseconds) the caller is prepared to wait
+     * @return how long (in nanoseconds) until the reserved permit is free, or -1 if no
+     *         permit was reserved
+     */
+    long reserve(long maxWait) {
+        while(true) {
+            long now = System.nanoTime();
+            long current = this.full.get();
+            long next = Math.max(current, now) + this.interval;
+            long wait = next - now - this.interval - this.tolerance;
+            if(wait > maxWait) {
+                return -1;
+            }
+            if(this.full.compareAndSet(current, next)) {
+                return Math.max(0, wait);
+            }
+        }
+    }
+    
+    private static void sleep(long nanos) throws InterruptedException {
+        if(nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.fluidinfo.AsyncDispatcher;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+
+/**
+ * Runs requests on another transport via an AsyncDispatcher, so callers can fire off
+ * requests without waiting for them (executeAsync) and the number in flight is bounded by
+ * the dispatcher whichever thread they come from
+ */
+public class AsyncTransport implements FluidTransport {
+    
+    private FluidTransport delegate;
+    
+    private AsyncDispatcher dispatcher;
+    
+    /**
+     * Constructor
+     * @param delegate the transport that actually sends the requests
+     * @param dispatcher runs the requests
+     */
+    public AsyncTransport(FluidTransport delegate, AsyncDispatcher dispatcher) {
+        this.delegate = delegate;
+        this.dispatcher = dispatcher;
+    }
+    
+    /**
+     * @return the transport that actually sends the requests
+     */
+    public FluidTransport getDelegate() {
+        return this.delegate;
+    }
+    
+    /**
+     * @return the dispatcher that runs the requests
+     */
+    public AsyncDispatcher getDispatcher() {
+        return this.dispatcher;
+    }
+    
+    /**
+     * Sends a request in the background. If the dispatcher's queue is full this blocks 
+     * until there is room.
+     * @param request The call to make
+     * @return A future that completes with the response (or exceptionally with a 
+     *         FluidException or IOException)
+     */
+    public CompletableFuture<FluidResponse> executeAsync(final FluidRequest request) {
+        return this.dispatcher.submit(new Callable<FluidResponse>() {
+            public FluidResponse call() throws Exception {
+                return delegate.execute(request);
+            }
+        });
+    }
+    
+    public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+        try {
+            return this.executeAsync(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for FluidDB");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof FluidException) {
+                throw (FluidException)cause;
+            } else if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new FluidException(cause);
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fluidinfo.Deadline;
+import com.fluidinfo.DeadlineExceededException;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.StreamingResponse;
+import com.fluidinfo.StreamingTransport;
+import com.fluidinfo.http.BodyReader;
+import com.fluidinfo.http.ContentCoding;
+import com.fluidinfo.http.RawResponse;
+import com.fluidinfo.http.TransferStats;
+import com.fluidinfo.http.UriBuilder;
+import com.fluidinfo.metrics.LatencyMetrics;
+import com.fluidinfo.utils.Base64;
+import com.fluidinfo.utils.Method;
+
+/**
+ * The parts of talking HTTP to FluidDB that don't depend on how the bytes get there:
+ * building the URI and headers, compression and turning the raw response into a
+ * FluidResponse. Subclasses just send the request.
+ */
+public abstract class HttpTransport implements StreamingTransport {
+    
+    private int timeout;
+    
+    private TransferStats transferStats;
+    
+    private LatencyMetrics latencyMetrics;
+    
+    private volatile boolean responseCompression = true;
+    
+    private volatile int requestCompressionThreshold = -1;
+    
+    /**
+     * Constructor
+     * @param timeout the connect and read timeout in milliseconds
+     * @param transferStats where to count the bytes sent and received
+     */
+    protected HttpTransport(int timeout, TransferStats transferStats) {
+        this(timeout, transferStats, null);
+    }
+    
+    /**
+     * Constructor
+     * @param timeout the connect and read timeout in milliseconds
+     * @param transferStats where to count the bytes sent and received
+     * @param latencyMetrics where to record how long calls take (or null)
+     */
+    protected HttpTransport(int timeout, TransferStats transferStats, LatencyMetrics latencyMetrics) {
+        this.timeout = timeout;
+        this.transferStats = transferStats;
+        this.latencyMetrics = latencyMetrics;
+    }
+    
+    /**
+     * @return the connect and read timeout in milliseconds
+     */
+    public int getTimeout() {
+        return this.timeout;
+    }
+    
+    /**
+     * @return running totals of the bytes sent and received, on the wire and uncompressed
+     */
+    public TransferStats getTransferStats() {
+        return this.transferStats;
+    }
+    
+    /**
+     * @return the latency histograms calls are recorded in (or null if they aren't)
+     */
+    public LatencyMetrics getLatencyMetrics() {
+        return this.latencyMetrics;
+    }
+    
+    /**
+     * @param responseCompression true to ask FluidDB (via Accept-Encoding) to compress 
+     *        its responses
+     */
+    public void setResponseCompression(boolean responseCompression) {
+        this.responseCompression = responseCompression;
+    }
+    
+    /**
+     * @return true if FluidDB is asked to compress its responses
+     */
+    public boolean getResponseCompression() {
+        return this.responseCompression;
+    }
+    
+    /**
+     * @param threshold the smallest request body (in bytes) to gzip, or -1 to never 
+     *        compress request bodies
+     */
+    public void setRequestCompressionThreshold(int threshold) {
+        this.requestCompressionThreshold = threshold;
+    }
+    
+    /**
+     * @return the smallest request body (in bytes) that is gzipped, or -1 if none are
+     */
+    public int getRequestCompressionThreshold() {
+        return this.requestCompressionThreshold;
+    }
+    
+    /**
+     * Sends the request. The caller closes the response body.
+     * @param method the HTTP method (e.g. GET)
+     * @param url the full URL to call
+     * @param headers the request headers
+     * @param body the request body (or null)
+     * @param timeout the connect and read timeout in milliseconds
+     * @return the response
+     * @throws IOException
+     */
+    protected abstract RawResponse send(String method, URL url, Map<String, String> headers, byte[] body, int timeout) throws IOException;
+    
+    public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+        String uri = buildURI(request);
+        int timeout = this.timeoutFor(request);
+        Deadline deadline = request.getDeadline();
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        RawResponse raw = null;
+        try {
+            byte[] data = this.prepare(request, headers);
+            long start = System.nanoTime();
+            raw = this.send(request.getMethod().toString().toUpperCase(), new URL(uri), headers, data, timeout);
+            long firstByte = System.nanoTime();
+            return this.read(request, uri, raw, start, firstByte);
+        } catch (MalformedURLException e) {
+            throw new FluidException(e);
+        } catch (IOException e) {
+            if(outOfTime(deadline)) {
+                // timed out because the deadline left so little time
+                throw new DeadlineExceededException("Deadline exceeded waiting for FluidDB: "+request, e);
+            }
+            throw e;
+        } finally {
+            // closing the body hands the connection back to the pool (or discards it if
+            // we didn't get to the end of the response)
+            if(raw != null) {
+                raw.getBody().close();
+            }
+        }
+    }
+    
+    /**
+     * Sends a request and hands back the response as soon as its headers arrive, so the
+     * body can be read as it comes in. 4xx and 5xx responses are read in full (their 
+     * content is the URI that was called, as with execute).
+     * <p>
+     * The bytes received and the latency are recorded once the body is closed.
+     */
+    public StreamingResponse open(FluidRequest request) throws FluidException, IOException {
+        String uri = buildURI(request);
+        int timeout = this.timeoutFor(request);
+        Deadline deadline = request.getDeadline();
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        RawResponse raw = null;
+        boolean opened = false;
+        try {
+            byte[] data = this.prepare(request, headers);
+            final long start = System.nanoTime();
+            raw = this.send(request.getMethod().toString().toUpperCase(), new URL(uri), headers, data, timeout);
+            final long firstByte = System.nanoTime();
+            if(raw.getStatusCode() >= 400) {
+                return new StreamingResponse(this.read(request, uri, raw, start, firstByte), new ByteArrayInputStream(new byte[0]));
+            }
+            FluidResponse head = new FluidResponse(raw.getStatusCode(), raw.getStatusMessage(), raw.getHeader("Content-Type"), new byte[0],
+                raw.getHeader("X-FluidDB-Error-Class"), raw.getHeader("X-FluidDB-Request-Id"), raw.getHeaders());
+            String contentEncoding = raw.getHeader("Content-Encoding");
+            final ContentCoding.CountingInputStream wire = new ContentCoding.CountingInputStream(raw.getBody());
+            InputStream decoded = wire;
+            if(contentLength(raw, request.getMethod()) != 0 && ContentCoding.isEncoded(contentEncoding)) {
+                decoded = ContentCoding.decode(wire, contentEncoding);
+            }
+            final ContentCoding.CountingInputStream body = new ContentCoding.CountingInputStream(decoded);
+            final Method method = request.getMethod();
+            final String path = request.getPath();
+            InputStream stream = new FilterInputStream(body) {
+                private boolean closed = false;
+                
+                @Override
+                public void close() throws IOException {
+                    if(this.closed) {
+                        return;
+                    }
+                    this.closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        transferStats.recordResponse(wire.getCount(), body.getCount());
+                        if(latencyMetrics != null) {
+                            latencyMetrics.record(method, path, firstByte-start, System.nanoTime()-start);
+                        }
+                    }
+                }
+            };
+            opened = true;
+            return new StreamingResponse(head, stream);
+        } catch (MalformedURLException e) {
+            throw new FluidException(e);
+        } catch (IOException e) {
+            if(outOfTime(deadline)) {
+                throw new DeadlineExceededException("Deadline exceeded waiting for FluidDB: "+request, e);
+            }
+            throw e;
+        } finally {
+            if(raw != null && !opened) {
+                raw.getBody().close();
+            }
+        }
+    }
+    
+    /**
+     * @param request the request
+     * @return the connect and read timeout to use, as far as the call's deadline (if any) 
+     *         allows
+     * @throws DeadlineExceededException if the deadline has already passed
+     */
+    private int timeoutFor(FluidRequest request) throws DeadlineExceededException {
+        int timeout = this.timeout;
+        Deadline deadline = request.getDeadline();
+        if(deadline != null) {
+            long remaining = deadline.remaining(TimeUnit.MILLISECONDS);
+            if(remaining <= 0) {
+                throw new DeadlineExceededException("Deadline exceeded before calling FluidDB: "+request);
+            }
+            timeout = (int)Math.min(timeout, remaining);
+        }
+        return timeout;
+    }
+    
+    /**
+     * @param deadline the call's deadline (or null)
+     * @return true if the deadline has passed or has less than a millisecond (the finest
+     *         the socket and pool timeouts go) left
+     */
+    private static boolean outOfTime(Deadline deadline) {
+        return deadline != null && deadline.remaining(TimeUnit.MILLISECONDS) == 0;
+    }
+    
+    /**
+     * Works out the headers and body to send
+     * @param request the request
+     * @param headers the map to put the headers in
+     * @return the (possibly compressed) body, or null if there isn't one
+     * @throws IOException
+     */
+    private byte[] prepare(FluidRequest request, Map<String, String> headers) throws IOException {
+        int compressionThreshold = this.requestCompressionThreshold;
+        byte[] data = null;
+        // Basic setup of the request to FluidDB
+        headers.put("Accept", "*/*");
+        headers.put("User-Agent", "JFluidDB");
+        if(this.responseCompression) {
+            headers.put("Accept-Encoding", ContentCoding.ACCEPT_ENCODING);
+        }
+        // Authorization header (if required)
+        String username = request.getUsername();
+        String password = request.getPassword();
+        if(!(password == "" & username == "")) {
+            String userpass = username+":"+password;
+            headers.put("Authorization", "Basic "+Base64.encodeBytes(userpass.getBytes()));
+        }
+        // Content type and body for POST/PUT requests
+        if(!request.hasBody()) {
+            headers.put("Content-Type", "text/plain; charset=utf-8");
+        } else {
+            data = request.getBodyBytes();
+            headers.put("Content-Type", request.getContentType());
+            int uncompressed = data.length;
+            if(compressionThreshold >= 0 && uncompressed >= compressionThreshold) {
+                data = ContentCoding.gzip(data);
+                headers.put("Content-Encoding", "gzip");
+            }
+            this.transferStats.recordRequest(data.length, uncompressed);
+        }
+        headers.putAll(request.getHeaders());
+        return data;
+    }
+    
+    /**
+     * Reads the entire response (so the connection can be reused) as bytes - they're only
+     * decoded if and when the caller asks for a String
+     * @param request the request
+     * @param uri the URI that was called
+     * @param raw the response
+     * @param start when the request was sent (in System.nanoTime() terms)
+     * @param firstByte when the response headers arrived
+     * @return the response
+     * @throws IOException
+     */
+    private FluidResponse read(FluidRequest request, String uri, RawResponse raw, long start, long firstByte) throws IOException {
+        byte[] content;
+        String contentEncoding = raw.getHeader("Content-Encoding");
+        long length = contentLength(raw, request.getMethod());
+        ContentCoding.CountingInputStream wire = new ContentCoding.CountingInputStream(raw.getBody());
+        if(length != 0 && ContentCoding.isEncoded(contentEncoding)) {
+            // closing the decoder frees its Inflater, but mustn't close the body before 
+            // it's been drained
+            InputStream decoder = ContentCoding.decode(new FilterInputStream(wire) {
+                @Override
+                public void close() {
+                }
+            }, contentEncoding);
+            try {
+                content = BodyReader.readFully(decoder, -1);
+            } finally {
+                decoder.close();
+            }
+            // the decoder may stop short of the end of a chunked body
+            wire.drain();
+        } else {
+            content = BodyReader.readFully(wire, length);
+        }
+        this.transferStats.recordResponse(wire.getCount(), content.length);
+        if(this.latencyMetrics != null) {
+            this.latencyMetrics.record(request.getMethod(), request.getPath(), firstByte-start, System.nanoTime()-start);
+        }
+        if(raw.getStatusCode() >= 400) {
+            // Build a 4xx/5xx response (the content is the URI that was called)
+            return new FluidResponse(raw.getStatusCode(), raw.getStatusMessage(), raw.getHeader("Content-Type"), uri,
+                raw.getHeader("X-FluidDB-Error-Class"), raw.getHeader("X-FluidDB-Request-Id"), raw.getHeaders());
+        }
+        return new FluidResponse(raw.getStatusCode(), raw.getStatusMessage(), raw.getHeader("Content-Type"), content,
+            raw.getHeader("X-FluidDB-Error-Class"), raw.getHeader("X-FluidDB-Request-Id"), raw.getHeaders());
+    }
+    
+    /**
+     * Builds the URI for a request
+     * @param request the request
+     * @return the URL, path and (encoded) query string
+     * @throws FluidException if the arguments can't be encoded
+     */
+    public static String buildURI(FluidRequest request) throws FluidException {
+        String url = request.getUrl();
+        String path = request.getPath();
+        Hashtable<String, String> args = request.getArgs();
+        UriBuilder uri = new UriBuilder(url.length()+path.length()+(args.isEmpty() ? 0 : 64*args.size()));
+        return uri.append(url).append(path).appendQuery(args).toString();
+    }
+    
+    /**
+     * @param raw a raw HTTP response
+     * @param method the method of the request it answers (HEAD responses never have a body)
+     * @return the length of its body or -1 if that isn't known up front
+     */
+    private static long contentLength(RawResponse raw, Method method) {
+        if(method == Method.HEAD || raw.getStatusCode() == 204 || raw.getStatusCode() == 304) {
+            return 0;
+        }
+        String length = raw.getHeader("Content-Length");
+        if(length != null) {
+            try {
+                return Long.parseLong(length.trim());
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        return -1;
+    }
+}
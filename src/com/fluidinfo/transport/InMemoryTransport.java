@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Answers requests with canned responses without going near the network - for tests 
+ * and for benchmarking a recorded workload offline. Responses are looked up by method, 
+ * path and arguments, falling back to a response stubbed for the path whatever its 
+ * arguments; anything that hasn't been stubbed gets a 404 (NoSuchResource).
+ */
+public class InMemoryTransport implements FluidTransport {
+    
+    private Map<String, FluidResponse> responses = new ConcurrentHashMap<String, FluidResponse>();
+    
+    private AtomicLong requestCount = new AtomicLong();
+    
+    private volatile long latency = 0;
+    
+    /**
+     * Cans a response for a path, whatever arguments it's called with
+     * @param method The HTTP method
+     * @param path The path (without the query string)
+     * @param response The response to return
+     */
+    public void stub(Method method, String path, FluidResponse response) {
+        this.responses.put(key(method, path), response);
+    }
+    
+    /**
+     * Cans a response for a path called with exactly these arguments (in any order)
+     * @param method The HTTP method
+     * @param path The path (without the query string)
+     * @param args The arguments (an empty table for a call without any)
+     * @param response The response to return
+     */
+    public void stub(Method method, String path, Hashtable<String, String> args, FluidResponse response) {
+        this.responses.put(key(method, path, args), response);
+    }
+    
+    /**
+     * Cans a response
+     * @param method The HTTP method
+     * @param path The path (without the query string)
+     * @param code The status code to return
+     * @param contentType The Content-Type to return
+     * @param content The body to return
+     */
+    public void stub(Method method, String path, int code, String contentType, String content) {
+        this.stub(method, path, new FluidResponse(code, "", contentType, content));
+    }
+    
+    /**
+     * Cans every response in a recording for the path and arguments it was called with
+     * (later exchanges win if the same call was made more than once)
+     * @param exchanges The recording to play back
+     */
+    public void load(List<RecordingTransport.Exchange> exchanges) {
+        for(RecordingTransport.Exchange exchange : exchanges) {
+            FluidRequest request = exchange.getRequest();
+            this.stub(request.getMethod(), request.getPath(), request.getArgs(), exchange.getResponse());
+        }
+    }
+    
+    /**
+     * @param latency How long (in milliseconds) every request should take
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+    
+    /**
+     * @return the number of requests answered so far
+     */
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+    
+    public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+        long n = this.requestCount.incrementAndGet();
+        if(this.latency > 0) {
+            try {
+                Thread.sleep(this.latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for FluidDB");
+            }
+        }
+        FluidResponse response = this.responses.get(key(request.getMethod(), request.getPath(), request.getArgs()));
+        if(response == null) {
+            response = this.responses.get(key(request.getMethod(), request.getPath()));
+        }
+        if(response == null) {
+            // as FluidDB would, the content of an error is the URI that was called
+            return new FluidResponse(404, "Not Found", "text/html", HttpTransport.buildURI(request), "NoSuchResource", "in-memory-"+n);
+        }
+        return response;
+    }
+    
+    private static String key(Method method, String path) {
+        return method.toString()+" "+path;
+    }
+    
+    /**
+     * The '?' keeps these apart from the path-only keys, even when there are no arguments
+     */
+    private static String key(Method method, String path, Hashtable<String, String> args) {
+        StringBuilder key = new StringBuilder(key(method, path)).append('?');
+        RequestKey.appendArgs(key, args);
+        return key.toString();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+import com.fluidinfo.http.MultiplexedHttpClient;
+import com.fluidinfo.http.RawResponse;
+import com.fluidinfo.http.TransferStats;
+import com.fluidinfo.metrics.LatencyMetrics;
+
+/**
+ * Sends requests over HTTP/2, multiplexing concurrent calls over a single connection
+ */
+public class MultiplexedTransport extends HttpTransport {
+    
+    /**
+     * The HTTP/2 client (only created when first needed)
+     */
+    private MultiplexedHttpClient client = null;
+    
+    /**
+     * Constructor
+     * @param timeout the connect and read timeout in milliseconds
+     * @param transferStats where to count the bytes sent and received
+     */
+    public MultiplexedTransport(int timeout, TransferStats transferStats) {
+        this(timeout, transferStats, null);
+    }
+    
+    /**
+     * Constructor
+     * @param timeout the connect and read timeout in milliseconds
+     * @param transferStats where to count the bytes sent and received
+     * @param latencyMetrics where to record how long calls take (or null)
+     */
+    public MultiplexedTransport(int timeout, TransferStats transferStats, LatencyMetrics latencyMetrics) {
+        super(timeout, transferStats, latencyMetrics);
+    }
+    
+    /**
+     * Lazily creates the HTTP/2 client
+     * @return the HTTP/2 client
+     */
+    private synchronized MultiplexedHttpClient getClient() {
+        if(this.client == null) {
+            this.client = new MultiplexedHttpClient(this.getTimeout());
+        }
+        return this.client;
+    }
+    
+    @Override
+    protected RawResponse send(String method, URL url, Map<String, String> headers, byte[] body, int timeout) throws IOException {
+        return this.getClient().execute(method, url, headers, body, timeout);
+    }
+}
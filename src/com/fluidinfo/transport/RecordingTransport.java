@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+
+/**
+ * Passes requests on to another transport and keeps a copy of every request and 
+ * response. The recording can be played back offline with an InMemoryTransport.
+ */
+public class RecordingTransport implements FluidTransport {
+    
+    /**
+     * A request, the response it got and how long that took
+     */
+    public static class Exchange {
+        
+        private FluidRequest request;
+        private FluidResponse response;
+        private long elapsed;
+        
+        /**
+         * Constructor
+         * @param request the request that was sent
+         * @param response the response that came back
+         * @param elapsed how long the call took in nanoseconds
+         */
+        public Exchange(FluidRequest request, FluidResponse response, long elapsed) {
+            this.request = request;
+            this.response = response;
+            this.elapsed = elapsed;
+        }
+        
+        /**
+         * @return the request that was sent
+         */
+        public FluidRequest getRequest() {
+            return this.request;
+        }
+        
+        /**
+         * @return the response that came back
+         */
+        public FluidResponse getResponse() {
+            return this.response;
+        }
+        
+        /**
+         * @return how long the call took in nanoseconds
+         */
+        public long getElapsed() {
+            return this.elapsed;
+        }
+    }
+    
+    private FluidTransport delegate;
+    
+    private List<Exchange> exchanges = new ArrayList<Exchange>();
+    
+    /**
+     * Constructor
+     * @param delegate the transport that actually sends the requests
+     */
+    public RecordingTransport(FluidTransport delegate) {
+        this.delegate = delegate;
+    }
+    
+    public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+        long start = System.nanoTime();
+        FluidResponse response = this.delegate.execute(request);
+        Exchange exchange = new Exchange(request, response, System.nanoTime() - start);
+        synchronized(this.exchanges) {
+            this.exchanges.add(exchange);
+        }
+        return response;
+    }
+    
+    /**
+     * @return the requests and responses recorded so far (in the order they completed)
+     */
+    public List<Exchange> getExchanges() {
+        synchronized(this.exchanges) {
+            return new ArrayList<Exchange>(this.exchanges);
+        }
+    }
+    
+    /**
+     * Throws away everything recorded so far
+     */
+    public void clear() {
+        synchronized(this.exchanges) {
+            this.exchanges.clear();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fluidinfo.FluidRequest;
+
+/**
+ * The key that identifies a call for coalescing (SingleFlight) and caching (ValidatorCache
+ * and HttpCache): calls with the same key get the same response. It covers the method,
+ * URL, path, arguments (in any order), credentials and extra headers, such as an 
+ * Authorization header an Interceptor adds, but not the conditional headers the caches
+ * add themselves.
+ */
+public final class RequestKey {
+    
+    /**
+     * Cloned for each key: looking SHA-256 up is slow the first time (tens of milliseconds
+     * loading security providers), so it's done once when the class is loaded rather than
+     * on, and against the deadline of, the first call
+     */
+    private final static MessageDigest SHA_256;
+    
+    static {
+        try {
+            SHA_256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private RequestKey() {
+    }
+    
+    /**
+     * @param request a request
+     * @return a key that's the same for identical requests (a SHA-256 hash, so the 
+     *         credentials aren't kept in the clear, in memory or on disk)
+     */
+    public static String of(FluidRequest request) {
+        StringBuilder key = new StringBuilder(128);
+        key.append(request.getMethod()).append(' ').append(request.getUrl()).append(request.getPath());
+        appendArgs(key, request.getArgs());
+        key.append('\n').append(request.getUsername()).append('\n').append(request.getPassword());
+        appendHeaders(key, request.getHeaders());
+        MessageDigest sha256;
+        try {
+            sha256 = (MessageDigest)SHA_256.clone();
+        } catch (CloneNotSupportedException e) {
+            // the JDK's SHA-256 can be cloned
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = sha256.digest(key.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(digest.length*2);
+        for(byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+    
+    /**
+     * Adds the arguments, sorted since their order doesn't matter
+     * @param key the key being built
+     * @param args the arguments (or null)
+     */
+    static void appendArgs(StringBuilder key, Hashtable<String, String> args) {
+        if(args == null || args.isEmpty()) {
+            return;
+        }
+        for(Map.Entry<String, String> arg : new TreeMap<String, String>(args).entrySet()) {
+            key.append('\n').append(arg.getKey()).append('=').append(arg.getValue());
+        }
+    }
+    
+    /**
+     * Adds the extra headers, since calls made with different ones can get different 
+     * responses, leaving out the conditional headers the caches add themselves
+     * @param key the key being built
+     * @param headers the request's extra headers
+     */
+    private static void appendHeaders(StringBuilder key, Map<String, String> headers) {
+        if(headers.isEmpty()) {
+            return;
+        }
+        Map<String, String> sorted = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        sorted.putAll(headers);
+        for(Map.Entry<String, String> header : sorted.entrySet()) {
+            String name = header.getKey();
+            if(!name.equalsIgnoreCase("If-None-Match") && !name.equalsIgnoreCase("If-Modified-Since")) {
+                key.append('\n').append(name.toLowerCase()).append(": ").append(header.getValue());
+            }
+        }
+    }
+}
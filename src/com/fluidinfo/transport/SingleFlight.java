@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fluidinfo.Deadline;
+import com.fluidinfo.DeadlineExceededException;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Coalesces identical GET and HEAD calls made at the same time: the first one goes to
+ * FluidDB and the others wait for (and share) its response rather than sending their 
+ * own. Calls are identical if they have the same URL, method, path, arguments, 
+ * credentials and extra headers (such as an Authorization header an Interceptor adds).
+ * <p>
+ * Only calls already in flight are joined, so a coalesced response is never older than
+ * one the caller could have got by itself. A caller waits no longer than its own 
+ * deadline, and if the call it joined runs out of time first it makes its own. This 
+ * class is thread-safe.
+ */
+public class SingleFlight {
+    
+    private final ConcurrentHashMap<String, CompletableFuture<FluidResponse>> inFlight = new ConcurrentHashMap<String, CompletableFuture<FluidResponse>>();
+    
+    private final AtomicLong requests = new AtomicLong();
+    
+    private final AtomicLong saved = new AtomicLong();
+    
+    /**
+     * Sends a request, or waits for an identical one that's already in flight
+     * @param request The call to make
+     * @param transport The transport to send it with
+     * @return The response
+     * @throws FluidException If the request couldn't be made
+     * @throws IOException If there was a problem talking to FluidDB
+     */
+    public FluidResponse execute(FluidRequest request, FluidTransport transport) throws FluidException, IOException {
+        if(request.getMethod() != Method.GET && request.getMethod() != Method.HEAD) {
+            return transport.execute(request);
+        }
+        this.requests.incrementAndGet();
+        String key = RequestKey.of(request);
+        CompletableFuture<FluidResponse> mine = new CompletableFuture<FluidResponse>();
+        CompletableFuture<FluidResponse> leader = this.inFlight.putIfAbsent(key, mine);
+        if(leader != null) {
+            FluidResponse response = this.join(leader, request);
+            if(response != null) {
+                return response;
+            }
+            // the call we joined ran out of time but we haven't, so make our own
+            return transport.execute(request);
+        }
+        try {
+            FluidResponse response = transport.execute(request);
+            mine.complete(response);
+            return response;
+        } catch (FluidException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } catch (IOException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } catch (Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inFlight.remove(key, mine);
+        }
+    }
+    
+    /**
+     * Waits (until the request's deadline at most) for an identical call in flight
+     * @param leader the response to the identical call
+     * @param request the call we'd have made
+     * @return the shared response, or null if the identical call failed on a deadline 
+     *         that the request has yet to reach
+     * @throws DeadlineExceededException if the request's deadline passes first
+     * @throws FluidException If the identical call failed
+     * @throws IOException If the identical call failed
+     */
+    private FluidResponse join(CompletableFuture<FluidResponse> leader, FluidRequest request) throws FluidException, IOException {
+        Deadline deadline = request.getDeadline();
+        try {
+            FluidResponse response;
+            if(deadline == null) {
+                response = leader.get();
+            } else {
+                response = leader.get(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+            }
+            this.saved.incrementAndGet();
+            return response;
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("Deadline exceeded waiting for an identical call to FluidDB: "+request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for FluidDB");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof DeadlineExceededException && (deadline == null || !deadline.isExpired())) {
+                return null;
+            }
+            this.saved.incrementAndGet();
+            if(cause instanceof FluidException) {
+                throw (FluidException)cause;
+            } else if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            throw new FluidException(cause);
+        }
+    }
+    
+    /**
+     * @return the number of GET and HEAD calls made through this
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+    
+    /**
+     * @return the number of calls that shared another's response instead of going to 
+     *         FluidDB
+     */
+    public long getSaved() {
+        return this.saved.get();
+    }
+    
+    /**
+     * @return the number of distinct calls in flight
+     */
+    public int getInFlight() {
+        return this.inFlight.size();
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Remembers the last successful response to each GET so that asking for the same thing
+ * again doesn't mean downloading and decoding it again.
+ * <p>
+ * If FluidDB sent an ETag or Last-Modified header the next call for the same URI is made
+ * conditional (If-None-Match / If-Modified-Since) and a 304 Not Modified is answered with
+ * the remembered response. If it sent neither, the full body comes back each time but is
+ * compared (by length and CRC-32, then byte for byte) with the remembered one; when they
+ * match the remembered response is handed back instead, so its content has already been 
+ * decoded.
+ * <p>
+ * Every call still goes to FluidDB, so a response is never staler than one the caller 
+ * would have got anyway. Calls are keyed on URL, path, arguments, credentials and extra
+ * headers (see SingleFlight). 
+ * <p>
+ * Remembered responses stay in memory: the least recently used are dropped once their 
+ * bodies come to more than getMaxSize() bytes in all (2 MB by default) or there are more
+ * than getMaxEntries() of them, and bodies over getMaxBodySize() are never kept. Content
+ * decoded from a remembered body (e.g. its JSON) is kept with it, on top of that.
+ * This class is thread-safe.
+ */
+public class ValidatorCache {
+    
+    /**
+     * The default number of responses remembered
+     */
+    public final static int DEFAULT_MAX_ENTRIES = 256;
+    
+    /**
+     * The default size of the largest body remembered (in bytes)
+     */
+    public final static int DEFAULT_MAX_BODY_SIZE = 256*1024;
+    
+    /**
+     * The default total size of the bodies remembered (in bytes)
+     */
+    public final static long DEFAULT_MAX_SIZE = 2*1024*1024;
+    
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    
+    private volatile int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+    
+    private volatile long maxSize = DEFAULT_MAX_SIZE;
+    
+    /**
+     * Least recently used first (guarded by itself)
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    
+    /**
+     * The total size of the bodies in entries (guarded by entries)
+     */
+    private long size = 0;
+    
+    private final AtomicLong requests = new AtomicLong();
+    
+    private final AtomicLong notModified = new AtomicLong();
+    
+    private final AtomicLong unchanged = new AtomicLong();
+    
+    /**
+     * A remembered response and what it takes to revalidate it
+     */
+    private final static class Entry {
+        final FluidResponse response;
+        final String etag;
+        final String lastModified;
+        final long checksum;
+        final int size;
+        
+        Entry(FluidResponse response, String etag, String lastModified, long checksum) {
+            this.response = response;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+            this.size = response.getResponseBytes().length;
+        }
+    }
+    
+    /**
+     * Sends a request, making it conditional if there's a remembered response to
+     * revalidate
+     * @param request The call to make
+     * @param transport The transport to send it with
+     * @return The response (possibly the remembered one)
+     * @throws FluidException If the request couldn't be made
+     * @throws IOException If there was a problem talking to FluidDB
+     */
+    public FluidResponse execute(FluidRequest request, FluidTransport transport) throws FluidException, IOException {
+        if(request.getMethod() != Method.GET) {
+            return transport.execute(request);
+        }
+        this.requests.incrementAndGet();
+        String key = RequestKey.of(request);
+        Entry cached;
+        synchronized(this.entries) {
+            cached = this.entries.get(key);
+        }
+        FluidRequest sent = request;
+        if(cached != null) {
+            if(cached.etag != null) {
+                sent = sent.withHeader("If-None-Match", cached.etag);
+            }
+            if(cached.lastModified != null) {
+                sent = sent.withHeader("If-Modified-Since", cached.lastModified);
+            }
+        }
+        FluidResponse response = transport.execute(sent);
+        int code = response.getResponseCode();
+        if(code == 304 && cached != null) {
+            this.notModified.incrementAndGet();
+            return cached.response;
+        }
+        if(code != 200 || isNoStore(response)) {
+            if(cached != null) {
+                this.remove(key, cached);
+            }
+            return response;
+        }
+        byte[] bytes = response.getResponseBytes();
+        if(bytes.length > this.maxBodySize || bytes.length > this.maxSize) {
+            if(cached != null) {
+                this.remove(key, cached);
+            }
+            return response;
+        }
+        String etag = response.getResponseHeader("ETag");
+        String lastModified = response.getResponseHeader("Last-Modified");
+        long checksum = checksum(bytes);
+        if(cached != null && cached.checksum == checksum && isSame(cached.response, response)) {
+            // nothing changed so hand back the response that's (probably) been decoded
+            this.unchanged.incrementAndGet();
+            this.put(key, new Entry(cached.response, etag, lastModified, checksum));
+            return cached.response;
+        }
+        this.put(key, new Entry(response, etag, lastModified, checksum));
+        return response;
+    }
+    
+    private void put(String key, Entry entry) {
+        synchronized(this.entries) {
+            Entry previous = this.entries.put(key, entry);
+            if(previous != null) {
+                this.size -= previous.size;
+            }
+            this.size += entry.size;
+            // drop the least recently used until it's back within bounds
+            Iterator<Entry> eldest = this.entries.values().iterator();
+            while(eldest.hasNext() && (this.entries.size() > this.maxEntries || this.size > this.maxSize)) {
+                this.size -= eldest.next().size;
+                eldest.remove();
+            }
+        }
+    }
+    
+    private void remove(String key, Entry entry) {
+        synchronized(this.entries) {
+            if(this.entries.get(key) == entry) {
+                this.entries.remove(key);
+                this.size -= entry.size;
+            }
+        }
+    }
+    
+    private static boolean isNoStore(FluidResponse response) {
+        String cacheControl = response.getResponseHeader("Cache-Control");
+        return cacheControl != null && cacheControl.toLowerCase().contains("no-store");
+    }
+    
+    private static boolean isSame(FluidResponse a, FluidResponse b) {
+        String type = a.getResponseContentType();
+        if(type == null ? b.getResponseContentType() != null : !type.equals(b.getResponseContentType())) {
+            return false;
+        }
+        return Arrays.equals(a.getResponseBytes(), b.getResponseBytes());
+    }
+    
+    /**
+     * @param bytes a body
+     * @return its length and CRC-32 in one number
+     */
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return ((long)bytes.length << 32) | crc.getValue();
+    }
+    
+    /**
+     * Forgets every remembered response
+     */
+    public void clear() {
+        synchronized(this.entries) {
+            this.entries.clear();
+            this.size = 0;
+        }
+    }
+    
+    /**
+     * @return the number of responses remembered
+     */
+    public int size() {
+        synchronized(this.entries) {
+            return this.entries.size();
+        }
+    }
+    
+    /**
+     * @return the total size of the bodies remembered (in bytes)
+     */
+    public long getSize() {
+        synchronized(this.entries) {
+            return this.size;
+        }
+    }
+    
+    /**
+     * @param maxSize the most bytes of bodies to remember in all (the least recently used
+     *        are dropped to make room)
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * @return the most bytes of bodies to remember in all
+     */
+    public long getMaxSize() {
+        return this.maxSize;
+    }
+    
+    /**
+     * @param maxEntries the most responses to remember
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+    
+    /**
+     * @return the most responses to remember
+     */
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+    
+    /**
+     * @param maxBodySize the size of the largest body to remember (in bytes)
+     */
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+    
+    /**
+     * @return the size of the largest body to remember (in bytes)
+     */
+    public int getMaxBodySize() {
+        return this.maxBodySize;
+    }
+    
+    /**
+     * @return the number of GETs made through this
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+    
+    /**
+     * @return the number of GETs answered with 304 Not Modified
+     */
+    public long getNotModified() {
+        return this.notModified.get();
+    }
+    
+    /**
+     * @return the number of GETs whose full body was the same as the remembered one
+     */
+    public long getUnchanged() {
+        return this.unchanged.get();
+    }
+    
+    @Override
+    public String toString() {
+        return "requests="+this.requests.get()+" notModified="+this.notModified.get()+" unchanged="+this.unchanged.get()+" size="+this.size();
+    }
+}
@@ -68,7 +68,22 @@ public class StringUtil {
 	 * @return the resulting path
 	 */
 	public static String URIJoin(String[] s){
-		return StringUtil.join(s, "/").replaceAll("/[/]*", "/");
+		if (s == null || s.length==0) return "";
+		// join and collapse runs of "/" in one pass (no regex)
+		StringBuilder sb = new StringBuilder(64);
+		for(int i=0; i<s.length; i++){
+			if(i>0) appendPath(sb, "/");
+			appendPath(sb, String.valueOf(s[i]));
+		}
+		return sb.toString();
+	}
+	
+	private static void appendPath(StringBuilder sb, String s) {
+		for(int i=0; i<s.length(); i++){
+			char c = s.charAt(i);
+			if(c=='/' && sb.length()>0 && sb.charAt(sb.length()-1)=='/') continue;
+			sb.append(c);
+		}
 	}
 	
 	/**
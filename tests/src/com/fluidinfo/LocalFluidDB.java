@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.fluidinfo.utils.Method;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A tiny stand-in for FluidDB running on localhost so that the transport code can be 
+ * unit-tested without a network connection or credentials. Responses are canned with 
+ * the stub method; anything else gets a 404.
+ */
+public class LocalFluidDB implements HttpHandler {
+	
+	/**
+	 * A canned response
+	 */
+	private static class Stub {
+		int code;
+		String contentType;
+		byte[] body;
+	}
+	
+	private HttpServer server;
+	
+	private ExecutorService executor;
+	
+	private Map<String, Stub> stubs = new ConcurrentHashMap<String, Stub>();
+	
+	private AtomicInteger requestCount = new AtomicInteger();
+	
+	private volatile Headers lastRequestHeaders = null;
+	
+	private volatile byte[] lastRequestBody = null;
+	
+	private volatile String lastRequestQuery = null;
+	
+	private volatile long delay = 0;
+	
+	private volatile boolean compression = false;
+	
+	private AtomicInteger concurrentRequests = new AtomicInteger();
+	
+	private AtomicInteger maxConcurrentRequests = new AtomicInteger();
+	
+	/**
+	 * Starts the server on a free port
+	 * @throws IOException
+	 */
+	public LocalFluidDB() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/", this);
+		this.executor = Executors.newCachedThreadPool();
+		this.server.setExecutor(this.executor);
+		this.server.start();
+	}
+	
+	/**
+	 * @return the URL to pass to FluidConnector.setUrl
+	 */
+	public String getURL() {
+		return "http://127.0.0.1:"+this.server.getAddress().getPort();
+	}
+	
+	/**
+	 * Cans a response for the given method and path
+	 * @param method the HTTP method
+	 * @param path the path (without the query string)
+	 * @param code the status code to return
+	 * @param contentType the Content-Type to return
+	 * @param body the body to return
+	 */
+	public void stub(Method method, String path, int code, String contentType, String body) {
+		Stub s = new Stub();
+		s.code = code;
+		s.contentType = contentType;
+		try {
+			s.body = body.getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		this.stubs.put(method.toString()+" "+path, s);
+	}
+	
+	/**
+	 * @param delay how long (in milliseconds) to wait before every response
+	 */
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+	
+	/**
+	 * @param compression true to gzip (chunked) response bodies when the client accepts it
+	 */
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+	
+	/**
+	 * @return the number of requests received so far
+	 */
+	public int getRequestCount() {
+		return this.requestCount.get();
+	}
+	
+	/**
+	 * @return the largest number of requests that were being handled at the same time
+	 */
+	public int getMaxConcurrentRequests() {
+		return this.maxConcurrentRequests.get();
+	}
+	
+	/**
+	 * @return the headers of the most recent request
+	 */
+	public Headers getLastRequestHeaders() {
+		return this.lastRequestHeaders;
+	}
+	
+	/**
+	 * @return the body of the most recent request
+	 */
+	public byte[] getLastRequestBody() {
+		return this.lastRequestBody;
+	}
+	
+	/**
+	 * @return the (decoded) query string of the most recent request
+	 */
+	public String getLastRequestQuery() {
+		return this.lastRequestQuery;
+	}
+	
+	/**
+	 * Stops the server
+	 */
+	public void stop() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+	
+	public void handle(HttpExchange exchange) throws IOException {
+		int concurrent = this.concurrentRequests.incrementAndGet();
+		int max;
+		while(concurrent > (max = this.maxConcurrentRequests.get())) {
+			this.maxConcurrentRequests.compareAndSet(max, concurrent);
+		}
+		try {
+			this.respond(exchange);
+		} finally {
+			this.concurrentRequests.decrementAndGet();
+		}
+	}
+	
+	private void respond(HttpExchange exchange) throws IOException {
+		int n = this.requestCount.incrementAndGet();
+		this.lastRequestHeaders = exchange.getRequestHeaders();
+		this.lastRequestQuery = exchange.getRequestURI().getQuery();
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while((read = in.read(buffer)) != -1) {
+			requestBody.write(buffer, 0, read);
+		}
+		this.lastRequestBody = requestBody.toByteArray();
+		if(this.delay > 0) {
+			try {
+				Thread.sleep(this.delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Stub s = this.stubs.get(exchange.getRequestMethod()+" "+exchange.getRequestURI().getPath());
+		exchange.getResponseHeaders().add("X-FluidDB-Request-Id", "local-"+n);
+		if(s == null) {
+			exchange.getResponseHeaders().add("X-FluidDB-Error-Class", "NoSuchResource");
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+		exchange.getResponseHeaders().add("Content-Type", s.contentType);
+		if(s.code >= 400) {
+			exchange.getResponseHeaders().add("X-FluidDB-Error-Class", "LocalError");
+		}
+		if(s.code == 204 || exchange.getRequestMethod().equals("HEAD")) {
+			exchange.sendResponseHeaders(s.code, -1);
+		} else if(this.compression && this.lastRequestHeaders.getFirst("Accept-Encoding") != null
+				&& this.lastRequestHeaders.getFirst("Accept-Encoding").contains("gzip")) {
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(s.code, 0);
+			OutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+			out.write(s.body);
+			out.close();
+		} else {
+			exchange.sendResponseHeaders(s.code, s.body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(s.body);
+			out.close();
+		}
+		exchange.close();
+	}
+}
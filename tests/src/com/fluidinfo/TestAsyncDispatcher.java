@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks the asynchronous API (against a local stand-in for FluidDB)
+ */
+public class TestAsyncDispatcher {
+	
+	private LocalFluidDB server;
+	
+	@Before
+	public void setUp() throws Exception {
+		this.server = new LocalFluidDB();
+		this.server.stub(Method.GET, "/objects", 200, "application/json", "{\"ids\": [\"a\", \"b\"]}");
+		this.server.stub(Method.GET, "/namespaces/test", 200, "application/json", "{\"id\": \"abc\"}");
+	}
+	
+	@After
+	public void tearDown() {
+		this.server.stop();
+	}
+	
+	@Test
+	public void testSubmit() throws Exception {
+		AsyncDispatcher dispatcher = new AsyncDispatcher(2, 10);
+		CompletableFuture<String> f = dispatcher.submit(new Callable<String>() {
+			public String call() {
+				return "foo";
+			}
+		});
+		assertEquals("foo", f.get(1, TimeUnit.SECONDS));
+		CompletableFuture<String> failure = dispatcher.submit(new Callable<String>() {
+			public String call() throws Exception {
+				throw new FluidException("bar");
+			}
+		});
+		try {
+			failure.get(1, TimeUnit.SECONDS);
+			fail("Expected the future to complete exceptionally");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof FluidException);
+		}
+		assertEquals(2, dispatcher.getCompleted());
+		dispatcher.shutdown();
+	}
+	
+	@Test
+	public void testBackPressure() throws Exception {
+		final AsyncDispatcher dispatcher = new AsyncDispatcher(1, 1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<String> blocked = new Callable<String>() {
+			public String call() throws Exception {
+				release.await();
+				return "done";
+			}
+		};
+		// one running and one queued fills the dispatcher
+		dispatcher.submit(blocked);
+		dispatcher.submit(blocked);
+		final CountDownLatch submitted = new CountDownLatch(1);
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				dispatcher.submit(blocked);
+				submitted.countDown();
+			}
+		});
+		producer.start();
+		// the third submission has to wait for room in the queue
+		assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(1, dispatcher.getInFlight());
+		assertEquals(1, dispatcher.getQueued());
+		release.countDown();
+		assertTrue(submitted.await(1, TimeUnit.SECONDS));
+		dispatcher.shutdown();
+	}
+	
+	@Test
+	public void testCallAsync() throws Exception {
+		FluidConnector connector = new FluidConnector();
+		connector.setUrl(this.server.getURL());
+		List<CompletableFuture<FluidResponse>> futures = new ArrayList<CompletableFuture<FluidResponse>>();
+		for(int i=0; i<50; i++) {
+			futures.add(connector.callAsync(Method.GET, "/namespaces/test"));
+		}
+		for(CompletableFuture<FluidResponse> f : futures) {
+			FluidResponse r = f.get(5, TimeUnit.SECONDS);
+			assertEquals(200, r.getResponseCode());
+			assertEquals("{\"id\": \"abc\"}", r.getResponseContent());
+		}
+	}
+	
+	@Test
+	public void testSearchObjectsAsync() throws Exception {
+		FluidDB fdb = new FluidDB(this.server.getURL());
+		String[] ids = fdb.searchObjectsAsync("has foo/bar").get(5, TimeUnit.SECONDS);
+		assertEquals(2, ids.length);
+		assertEquals("a", ids[0]);
+		assertEquals("query=has+foo/bar", this.server.getLastRequestQuery());
+	}
+}
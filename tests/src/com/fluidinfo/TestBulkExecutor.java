@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.*;
+
+import com.fluidinfo.fom.Namespace;
+import com.fluidinfo.fom.Tag;
+import com.fluidinfo.fom.TagValue;
+import com.fluidinfo.utils.ExecutionMode;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks the bulk (fan-out) operations against a local stand-in for FluidDB
+ */
+public class TestBulkExecutor {
+	
+	private LocalFluidDB server;
+	
+	@Before
+	public void setUp() throws Exception {
+		this.server = new LocalFluidDB();
+	}
+	
+	@After
+	public void tearDown() {
+		this.server.stop();
+	}
+	
+	@Test
+	public void testInvokeAllKeepsOrder() throws Exception {
+		BulkExecutor executor = new BulkExecutor(4);
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for(int i=0; i<100; i++) {
+			final int n = i;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					return n;
+				}
+			});
+		}
+		for(ExecutionMode mode : ExecutionMode.values()) {
+			executor.setMode(mode);
+			List<Integer> results = executor.invokeAll(tasks);
+			for(int i=0; i<100; i++) {
+				assertEquals(i, results.get(i).intValue());
+			}
+		}
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testInvokeAllFailure() throws Exception {
+		BulkExecutor executor = new BulkExecutor(2);
+		List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+		tasks.add(new Callable<String>() {
+			public String call() throws Exception {
+				throw new IOException("foo");
+			}
+		});
+		try {
+			executor.invokeAll(tasks);
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertEquals("foo", e.getMessage());
+		}
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testGetTagValuesRespectsConcurrencyLimit() throws Exception {
+		String[] ids = new String[60];
+		for(int i=0; i<ids.length; i++) {
+			ids[i] = "id"+i;
+			this.server.stub(Method.GET, "/objects/"+ids[i]+"/test/rating", 200, "application/vnd.fluiddb.value+json", Integer.toString(i));
+		}
+		this.server.setDelay(10);
+		FluidDB fdb = new FluidDB(this.server.getURL());
+		fdb.setExecutionMode(ExecutionMode.VIRTUAL);
+		fdb.setMaxConcurrentRequests(4);
+		Tag rating = new Tag(null, "", "test/rating");
+		FluidResponse[] values = fdb.getTagValues(ids, rating);
+		assertEquals(ids.length, values.length);
+		for(int i=0; i<ids.length; i++) {
+			assertEquals(Integer.toString(i), values[i].getResponseContent());
+		}
+		TagValue[] typed = fdb.getValues(ids, rating);
+		for(int i=0; i<ids.length; i++) {
+			assertEquals(i, typed[i].asLong());
+		}
+		assertTrue(this.server.getMaxConcurrentRequests() <= 4);
+		assertTrue(this.server.getMaxConcurrentRequests() > 1);
+	}
+	
+	@Test
+	public void testVirtualThreadsWaitOnThePool() throws Exception {
+		// only JVMs with virtual threads (Java 21+) can run this
+		Assume.assumeTrue(BulkExecutor.isVirtualThreadSupported());
+		final java.lang.reflect.Method isVirtual = Thread.class.getMethod("isVirtual");
+		this.server.stub(Method.GET, "/objects/id/test/rating", 200, "application/vnd.fluiddb.value+json", "1");
+		final FluidDB fdb = new FluidDB(this.server.getURL());
+		fdb.setExecutionMode(ExecutionMode.VIRTUAL);
+		fdb.fdb.setSingleFlight(null);
+		// with no cap on requests every call but two waits for a pooled connection
+		fdb.fdb.getConnectionPool().setMaxConnectionsPerHost(2);
+		List<Callable<FluidResponse>> tasks = new ArrayList<Callable<FluidResponse>>();
+		for(int i=0; i<20; i++) {
+			tasks.add(new Callable<FluidResponse>() {
+				public FluidResponse call() throws Exception {
+					assertEquals(Boolean.TRUE, isVirtual.invoke(Thread.currentThread()));
+					return fdb.fdb.Call(Method.GET, "/objects/id/test/rating");
+				}
+			});
+		}
+		for(FluidResponse r : fdb.fdb.invokeAll(tasks)) {
+			assertEquals("1", r.getResponseContent());
+		}
+		assertTrue(this.server.getMaxConcurrentRequests() <= 2);
+		assertEquals(0, fdb.fdb.getPoolStats().getLeased());
+	}
+	
+	@Test
+	public void testNamespaceWalk() throws Exception {
+		this.stubNamespace("root", "\"a\", \"b\"");
+		this.stubNamespace("root/a", "\"c\"");
+		this.stubNamespace("root/b", "");
+		this.stubNamespace("root/a/c", "");
+		FluidDB fdb = new FluidDB(this.server.getURL());
+		List<Namespace> namespaces = fdb.getNamespace("root").walk();
+		assertEquals(4, namespaces.size());
+		assertEquals("root", namespaces.get(0).getName());
+		assertEquals("a", namespaces.get(1).getName());
+		assertEquals("b", namespaces.get(2).getName());
+		assertEquals("c", namespaces.get(3).getName());
+	}
+	
+	private void stubNamespace(String path, String children) {
+		this.server.stub(Method.GET, "/namespaces/"+path, 200, "application/json", 
+				"{\"id\": \""+path+"\", \"description\": \"\", \"namespaceNames\": ["+children+"], \"tagNames\": []}");
+	}
+}
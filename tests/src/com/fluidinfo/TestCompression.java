@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+
+import com.fluidinfo.http.ContentCoding;
+import com.fluidinfo.http.TransferStats;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks request and response compression against a local stand-in for FluidDB
+ */
+public class TestCompression {
+
+    private LocalFluidDB server;
+    private FluidConnector fc;
+    private String ids;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new LocalFluidDB();
+        this.fc = new FluidConnector();
+        this.fc.setUrl(this.server.getURL());
+        StringBuilder sb = new StringBuilder("{\"ids\": [");
+        for(int i = 0; i < 500; i++) {
+            sb.append(i > 0 ? ", " : "").append("\"5873e7cc-2a4a-44f7-a00e-7cebf92a7332\"");
+        }
+        this.ids = sb.append("]}").toString();
+        this.server.stub(Method.GET, "/objects", 200, "application/json", this.ids);
+        this.server.stub(Method.PUT, "/objects/1/test/big", 204, "application/json", "");
+    }
+
+    @After
+    public void tearDown() {
+        this.fc.getConnectionPool().close();
+        this.server.stop();
+    }
+
+    @Test
+    public void testResponseIsDecompressed() throws Exception {
+        this.server.setCompression(true);
+        FluidResponse r = this.fc.Call(Method.GET, "/objects");
+        assertEquals(this.ids, r.getResponseContent());
+        assertEquals("gzip, deflate", this.server.getLastRequestHeaders().getFirst("Accept-Encoding"));
+        TransferStats stats = this.fc.getTransferStats();
+        assertEquals(this.ids.length(), stats.getResponseBytes());
+        assertTrue(stats.getResponseWireBytes() < stats.getResponseBytes()/4);
+        // and the connection was still good for another request
+        this.fc.Call(Method.GET, "/objects");
+        assertEquals(1, this.fc.getPoolStats().getCreated());
+    }
+
+    @Test
+    public void testDeflateIsDecoded() throws Exception {
+        for(boolean zlib : new boolean[] {true, false}) {
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            DeflaterOutputStream out = new DeflaterOutputStream(deflated, new Deflater(Deflater.DEFAULT_COMPRESSION, !zlib));
+            out.write(this.ids.getBytes("UTF-8"));
+            out.close();
+            final boolean[] closed = new boolean[1];
+            InputStream wire = new ByteArrayInputStream(deflated.toByteArray()) {
+                @Override
+                public void close() throws IOException {
+                    closed[0] = true;
+                }
+            };
+            InputStream in = ContentCoding.decode(wire, "deflate");
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while((n = in.read(buffer)) != -1) {
+                decoded.write(buffer, 0, n);
+            }
+            in.close();
+            in.close();
+            assertEquals(this.ids, decoded.toString("UTF-8"));
+            assertTrue(closed[0]);
+        }
+    }
+
+    @Test
+    public void testCompressionCanBeTurnedOff() throws Exception {
+        this.server.setCompression(true);
+        this.fc.setResponseCompression(false);
+        FluidResponse r = this.fc.Call(Method.GET, "/objects");
+        assertEquals(this.ids, r.getResponseContent());
+        assertNull(this.server.getLastRequestHeaders().getFirst("Accept-Encoding"));
+        TransferStats stats = this.fc.getTransferStats();
+        assertEquals(stats.getResponseBytes(), stats.getResponseWireBytes());
+    }
+
+    @Test
+    public void testLargeRequestsAreCompressed() throws Exception {
+        this.fc.setRequestCompressionThreshold(1024);
+        this.fc.Call(Method.PUT, "/objects/1/test/big", "\"small\"");
+        assertNull(this.server.getLastRequestHeaders().getFirst("Content-Encoding"));
+        this.fc.Call(Method.PUT, "/objects/1/test/big", this.ids);
+        assertEquals("gzip", this.server.getLastRequestHeaders().getFirst("Content-Encoding"));
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(this.server.getLastRequestBody()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while((b = in.read()) != -1) {
+            out.write(b);
+        }
+        assertEquals(this.ids, out.toString("UTF-8"));
+        TransferStats stats = this.fc.getTransferStats();
+        assertEquals(this.ids.length() + 7, stats.getRequestBytes());
+        assertEquals(this.server.getLastRequestBody().length + 7, stats.getRequestWireBytes());
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.fluidinfo.http.ConnectionPool;
+import com.fluidinfo.http.TransferStats;
+import com.fluidinfo.resilience.RetryPolicy;
+import com.fluidinfo.transport.PooledTransport;
+import com.fluidinfo.utils.Method;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that a deadline bounds every call an operation makes
+ */
+public class TestDeadline {
+
+    /**
+     * A transport that takes a while to answer and remembers each call's deadline
+     */
+    private static class SlowTransport implements FluidTransport {
+        List<Deadline> deadlines = new ArrayList<Deadline>();
+        long latency;
+        int code = 200;
+
+        SlowTransport(long latency) {
+            this.latency = latency;
+        }
+
+        public synchronized FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            this.deadlines.add(request.getDeadline());
+            try {
+                Thread.sleep(this.latency);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+            return new FluidResponse(this.code, "", "application/json", "{}");
+        }
+    }
+
+    @Test
+    public void testDeadlinesNest() throws Exception {
+        final Deadline outer = Deadline.after(1, TimeUnit.SECONDS);
+        assertNull(Deadline.current());
+        outer.call(new Callable<Void>() {
+            public Void call() throws Exception {
+                assertSame(outer, Deadline.current());
+                // an inner deadline can't extend the outer one
+                Deadline.after(1, TimeUnit.HOURS).call(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        assertSame(outer, Deadline.current());
+                        return null;
+                    }
+                });
+                return null;
+            }
+        });
+        assertNull(Deadline.current());
+        Deadline expired = Deadline.after(0, TimeUnit.MILLISECONDS);
+        assertTrue(expired.isExpired());
+        assertEquals(0, expired.remaining(TimeUnit.MILLISECONDS));
+        try {
+            expired.check();
+            fail("An expired deadline should fail the check");
+        } catch (DeadlineExceededException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOperationStopsAtTheDeadline() throws Exception {
+        final FluidConnector fc = new FluidConnector();
+        final SlowTransport transport = new SlowTransport(150);
+        fc.setTransport(transport);
+        try {
+            Deadline.after(200, TimeUnit.MILLISECONDS).call(new Callable<Void>() {
+                public Void call() throws Exception {
+                    fc.Call(Method.GET, "/users/ntoll");
+                    fc.Call(Method.GET, "/namespaces/ntoll");
+                    // no time left for this one
+                    fc.Call(Method.GET, "/namespaces/ntoll/books");
+                    return null;
+                }
+            });
+            fail("The operation should have run out of time");
+        } catch (DeadlineExceededException e) {
+            // expected
+        }
+        assertEquals(2, transport.deadlines.size());
+        assertNotNull(transport.deadlines.get(0));
+        // calls made without a deadline don't get one
+        fc.Call(Method.GET, "/users/ntoll");
+        assertNull(transport.deadlines.get(2));
+    }
+
+    @Test
+    public void testDeadlineFollowsAsyncCalls() throws Exception {
+        final FluidConnector fc = new FluidConnector();
+        final SlowTransport transport = new SlowTransport(0);
+        fc.setTransport(transport);
+        final Deadline deadline = Deadline.after(5, TimeUnit.SECONDS);
+        deadline.call(new Callable<Void>() {
+            public Void call() throws Exception {
+                fc.callAsync(Method.GET, "/users/ntoll").get();
+                return null;
+            }
+        });
+        assertSame(deadline, transport.deadlines.get(0));
+    }
+
+    @Test
+    public void testRetriesStopAtTheDeadline() throws Exception {
+        final FluidConnector fc = new FluidConnector();
+        final SlowTransport transport = new SlowTransport(0);
+        transport.code = 503;
+        fc.setTransport(transport);
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setBaseDelay(60*1000);
+        retryPolicy.setMaxDelay(60*1000);
+        fc.setRetryPolicy(retryPolicy);
+        FluidResponse response = Deadline.after(1, TimeUnit.SECONDS).call(new Callable<FluidResponse>() {
+            public FluidResponse call() throws Exception {
+                return fc.Call(Method.GET, "/users/ntoll");
+            }
+        });
+        // unless the backoff happened to be under a second there wasn't time to retry
+        assertEquals(503, response.getResponseCode());
+        assertTrue(transport.deadlines.size() <= 2);
+    }
+
+    @Test
+    public void testRemainingTimeIsTheTimeout() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    // just answer
+                }
+                byte[] body = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        ConnectionPool pool = new ConnectionPool();
+        try {
+            final FluidConnector fc = new FluidConnector();
+            fc.setUrl("http://127.0.0.1:"+server.getAddress().getPort());
+            fc.setTransport(new PooledTransport(pool, FluidConnector.TIMEOUT, new TransferStats()));
+            fc.setRetryPolicy(null);
+            long start = System.nanoTime();
+            try {
+                Deadline.after(300, TimeUnit.MILLISECONDS).call(new Callable<FluidResponse>() {
+                    public FluidResponse call() throws Exception {
+                        return fc.Call(Method.GET, "/users/ntoll");
+                    }
+                });
+                fail("The call should have timed out at the deadline");
+            } catch (DeadlineExceededException e) {
+                // expected
+            }
+            assertTrue(System.nanoTime()-start < TimeUnit.MILLISECONDS.toNanos(1500));
+        } finally {
+            pool.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testWaitForAPooledConnectionKeepsToTheDeadline() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    // just answer
+                }
+                byte[] body = "{}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        final ConnectionPool pool = new ConnectionPool();
+        pool.setMaxConnectionsPerHost(1);
+        try {
+            final FluidConnector fc = new FluidConnector();
+            fc.setUrl("http://127.0.0.1:"+server.getAddress().getPort());
+            fc.setTransport(new PooledTransport(pool, FluidConnector.TIMEOUT, new TransferStats()));
+            fc.setRetryPolicy(null);
+            fc.setSingleFlight(null);
+            // a call without a deadline takes the only connection
+            Thread busy = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        fc.Call(Method.GET, "/users/ntoll");
+                    } catch (Exception e) {
+                        // only here to hold the connection
+                    }
+                }
+            });
+            busy.start();
+            while(pool.getStats().getLeased() == 0) {
+                Thread.sleep(5);
+            }
+            long start = System.nanoTime();
+            try {
+                Deadline.after(300, TimeUnit.MILLISECONDS).call(new Callable<FluidResponse>() {
+                    public FluidResponse call() throws Exception {
+                        return fc.Call(Method.GET, "/users/ntoll");
+                    }
+                });
+                fail("The wait for a connection should have stopped at the deadline");
+            } catch (DeadlineExceededException e) {
+                // expected
+            }
+            // rather than the pool's ten second lease timeout
+            assertTrue(System.nanoTime()-start < TimeUnit.MILLISECONDS.toNanos(1500));
+            busy.join();
+        } finally {
+            pool.close();
+            server.stop(0);
+        }
+    }
+}
@@ -1,5 +1,12 @@
 package com.fluidinfo;
 
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+
 import junit.framework.TestCase;
 import org.junit.*;
 
@@ -17,4 +24,87 @@ public class TestFluidResponse extends TestCase{
 		assertEquals("application/json", fr.getResponseContentType());
 		assertEquals("{\"value\": \"testing 123\"}", fr.getResponseContent());
 	}
+	
+	/**
+	 * Tests that raw bytes are decoded using the charset given in the content-type
+	 */
+	@Test
+	public void testFluidResponseDecodesBytes() throws Exception
+	{
+		byte[] utf8 = "{\"value\": \"caf\u00e9\"}\n".getBytes("UTF-8");
+		FluidResponse fr = new FluidResponse(200, "OK", "application/json", utf8, null, null);
+		assertEquals("UTF-8", fr.getResponseCharset().name());
+		assertEquals("{\"value\": \"caf\u00e9\"}\n", fr.getResponseContent());
+		assertSame(utf8, fr.getResponseBytes());
+		
+		byte[] latin1 = "caf\u00e9".getBytes("ISO-8859-1");
+		fr = new FluidResponse(200, "OK", "text/plain; charset=\"ISO-8859-1\"", latin1, null, null);
+		assertEquals("ISO-8859-1", fr.getResponseCharset().name());
+		assertEquals("caf\u00e9", fr.getResponseContent());
+		
+		InputStream in = fr.getResponseStream();
+		assertEquals(latin1.length, in.available());
+		assertEquals('c', in.read());
+	}
+	
+	/**
+	 * Tests that the JSON content is parsed once, shared and skipped when there's no body
+	 */
+	@Test
+	public void testFluidResponseJson() throws Exception
+	{
+		FluidResponse fr = new FluidResponse(200, "OK", "application/json", "{\"ids\": [\"a\", \"b\"]}".getBytes("UTF-8"), null, null);
+		assertSame(fr.getJson(), fr.getJson());
+		assertEquals(2, ((List<?>)fr.getJson().get("ids")).size());
+		assertEquals(Arrays.asList("a", "b"), fr.getIds());
+		assertSame(fr.getIds(), fr.getIds());
+		
+		assertNull(new FluidResponse(204, "No Content", "text/plain", "").getJson());
+		assertNull(new FluidResponse(200, "OK", "application/json", new byte[0], null, null).getJson());
+		assertTrue(new FluidResponse(204, "No Content", "text/plain", "").getIds().isEmpty());
+		
+		fr = new FluidResponse(200, "OK", "application/json", "not json");
+		for(int i = 0; i < 2; i++) {
+			try {
+				fr.getJson();
+				fail("Content that isn't JSON should fail to parse");
+			} catch (JSONException e) {
+				// expected
+			}
+		}
+	}
+	
+	/**
+	 * Tests that the shared JSON can't be changed by any caller, however deep they go
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFluidResponseJsonIsReadOnly() throws Exception
+	{
+		FluidResponse fr = new FluidResponse(200, "OK", "application/json", "{\"ids\": [\"a\", {\"b\": [1]}], \"c\": {\"d\": 2}}");
+		Map<String, java.lang.Object> json = fr.getJson();
+		List<java.lang.Object> ids = (List<java.lang.Object>)json.get("ids");
+		Map<String, java.lang.Object> inArray = (Map<String, java.lang.Object>)ids.get(1);
+		Map<String, java.lang.Object> inObject = (Map<String, java.lang.Object>)json.get("c");
+		assertReadOnly(json);
+		assertReadOnly(ids);
+		assertReadOnly(inArray);
+		assertReadOnly(inArray.get("b"));
+		assertReadOnly(inObject);
+		assertEquals(Long.valueOf(2), inObject.get("d"));
+	}
+	
+	private static void assertReadOnly(java.lang.Object container)
+	{
+		try {
+			if(container instanceof Map<?, ?>) {
+				((Map<?, ?>)container).clear();
+			} else {
+				((List<?>)container).clear();
+			}
+			fail("The JSON should be read-only: "+container);
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks the interceptor chain around FluidConnector.Call (no FluidDB needed)
+ */
+public class TestInterceptor {
+
+    /**
+     * Remembers every request it's sent
+     */
+    private static class EchoTransport implements FluidTransport {
+        List<FluidRequest> requests = new ArrayList<FluidRequest>();
+
+        public synchronized FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            this.requests.add(request);
+            return new FluidResponse(200, "OK", "application/json", "{}");
+        }
+    }
+
+    /**
+     * Notes when it's called and tags the request with a header
+     */
+    private static class Tagger implements Interceptor {
+        String name;
+        List<String> log;
+
+        Tagger(String name, List<String> log) {
+            this.name = name;
+            this.log = log;
+        }
+
+        public FluidResponse intercept(FluidRequest request, FluidTransport next) throws FluidException, IOException {
+            this.log.add("before "+this.name);
+            FluidResponse response = next.execute(request.withHeader("X-"+this.name, "yes"));
+            this.log.add("after "+this.name);
+            return response;
+        }
+    }
+
+    @Test
+    public void testInterceptorsRunInOrder() throws Exception {
+        FluidConnector fc = new FluidConnector();
+        EchoTransport transport = new EchoTransport();
+        fc.setTransport(transport);
+        List<String> log = new ArrayList<String>();
+        Tagger first = new Tagger("First", log);
+        fc.addInterceptor(first);
+        fc.addInterceptor(new Tagger("Second", log));
+        assertEquals(2, fc.getInterceptors().size());
+        assertSame(first, fc.getInterceptors().get(0));
+
+        assertEquals(200, fc.Call(Method.GET, "/users/test").getResponseCode());
+        assertEquals("[before First, before Second, after Second, after First]", log.toString());
+        FluidRequest sent = transport.requests.get(0);
+        assertEquals("yes", sent.getHeaders().get("X-First"));
+        assertEquals("yes", sent.getHeaders().get("X-Second"));
+
+        assertTrue(fc.removeInterceptor(first));
+        assertFalse(fc.removeInterceptor(first));
+        fc.Call(Method.GET, "/users/test");
+        assertNull(transport.requests.get(1).getHeaders().get("X-First"));
+        assertEquals("yes", transport.requests.get(1).getHeaders().get("X-Second"));
+    }
+
+    @Test
+    public void testInterceptorCanAnswerTheCall() throws Exception {
+        FluidConnector fc = new FluidConnector();
+        EchoTransport transport = new EchoTransport();
+        fc.setTransport(transport);
+        fc.addInterceptor(new Interceptor() {
+            public FluidResponse intercept(FluidRequest request, FluidTransport next) throws FluidException, IOException {
+                if(request.getPath().startsWith("/about")) {
+                    return new FluidResponse(204, "No Content", "text/plain", "");
+                }
+                return next.execute(request);
+            }
+        });
+        assertEquals(204, fc.Call(Method.GET, "/about/test").getResponseCode());
+        assertEquals(0, transport.requests.size());
+        assertEquals(200, fc.Call(Method.GET, "/objects").getResponseCode());
+        assertEquals(1, transport.requests.size());
+    }
+
+    @Test
+    public void testCallsWithDifferentIdentitiesAreNotShared() throws Exception {
+        final CountDownLatch bothSent = new CountDownLatch(2);
+        FluidConnector fc = new FluidConnector();
+        fc.setTransport(new FluidTransport() {
+            public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+                bothSent.countDown();
+                try {
+                    // hold the call open so the other one is made while it's in flight
+                    bothSent.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new FluidResponse(200, "OK", "application/json", "{\"user\": \""+request.getHeaders().get("Authorization")+"\"}");
+            }
+        });
+        final ThreadLocal<String> identity = new ThreadLocal<String>();
+        fc.addInterceptor(new Interceptor() {
+            public FluidResponse intercept(FluidRequest request, FluidTransport next) throws FluidException, IOException {
+                return next.execute(request.withHeader("Authorization", identity.get()));
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for(final String user : new String[] { "Bearer alice", "Bearer bob" }) {
+            final FluidConnector connector = fc;
+            results.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    identity.set(user);
+                    return connector.Call(Method.GET, "/users/test").getResponseContent();
+                }
+            }));
+        }
+        assertEquals("{\"user\": \"Bearer alice\"}", results.get(0).get());
+        assertEquals("{\"user\": \"Bearer bob\"}", results.get(1).get());
+        assertEquals(0, fc.getSingleFlight().getSaved());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testHeadersCantBeInjected() throws Exception {
+        FluidRequest request = new FluidRequest("http://localhost", "", "", Method.GET, "/users/ntoll", "", new Hashtable<String, String>(), "application/json");
+        String[][] invalid = {
+            {"X-Trace-Id", "1\r\nX-Injected: yes"},
+            {"X-Trace-Id", "1\n\nGET /users/fluiddb HTTP/1.1"},
+            {"X-Trace-Id\r\nX-Injected", "yes"},
+            {"X Trace Id", "1"},
+            {"X-Trace-Id:", "1"},
+            {"", "1"}
+        };
+        for(String[] header : invalid) {
+            try {
+                request.withHeader(header[0], header[1]);
+                fail("Header should have been rejected: "+header[0]+": "+header[1]);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals("a\tb", request.withHeader("X-Trace-Id", "a\tb").getHeaders().get("X-Trace-Id"));
+        // headers the transport builds itself are checked before they're written
+        LocalFluidDB server = new LocalFluidDB();
+        try {
+            FluidConnector fc = new FluidConnector();
+            fc.setUrl(server.getURL());
+            fc.Call(Method.PUT, "/objects/1/test/foo", "{}", new Hashtable<String, String>(), "application/json\r\nX-Injected: yes");
+            fail("The Content-Type should have been rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.*;
+
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks streamed search results against a local stand-in for FluidDB
+ */
+public class TestSearchResults {
+
+    private final static int COUNT = 20000;
+
+    private LocalFluidDB server;
+    private FluidDB db;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new LocalFluidDB();
+        this.db = new FluidDB(this.server.getURL());
+        StringBuilder sb = new StringBuilder("{\"ids\": [");
+        for(int i = 0; i < COUNT; i++) {
+            sb.append(i > 0 ? ", " : "").append("\"5873e7cc-2a4a-44f7-a00e-").append(String.format("%012d", i)).append("\"");
+        }
+        sb.append("], \"extra\": {\"nested\": [1, 2.5, true, null, \"x\\\"]\"]}}");
+        this.server.stub(Method.GET, "/objects", 200, "application/json", sb.toString());
+    }
+
+    @After
+    public void tearDown() {
+        this.db.fdb.getConnectionPool().close();
+        this.server.stop();
+    }
+
+    @Test
+    public void testAllIdsAreStreamed() throws Exception {
+        SearchResults results = this.db.streamObjects("has test/rating");
+        int i = 0;
+        while(results.hasNext()) {
+            assertEquals("5873e7cc-2a4a-44f7-a00e-"+String.format("%012d", i), results.next());
+            i++;
+        }
+        assertEquals(COUNT, i);
+        assertEquals(COUNT, results.getCount());
+        assertTrue(this.server.getLastRequestQuery().startsWith("query=has"));
+        // read to the end, so the connection went back to the pool
+        assertEquals(1, this.db.fdb.getPoolStats().getIdle());
+        assertEquals(0, this.db.fdb.getOutstandingRequests());
+        assertEquals(COUNT, this.db.searchObjects("has test/rating").length);
+        assertEquals(1, this.db.fdb.getPoolStats().getCreated());
+    }
+
+    @Test
+    public void testClosingEarlyDropsTheConnection() throws Exception {
+        Stream<String> ids = this.db.streamObjects("has test/rating").stream();
+        try {
+            Iterator<String> i = ids.limit(3).iterator();
+            assertEquals("5873e7cc-2a4a-44f7-a00e-000000000000", i.next());
+        } finally {
+            ids.close();
+        }
+        assertEquals(0, this.db.fdb.getPoolStats().getLeased());
+        assertEquals(0, this.db.fdb.getPoolStats().getIdle());
+    }
+
+    @Test
+    public void testOpenStreamsCountAsOutstanding() throws Exception {
+        this.db.fdb.setMaxConcurrentRequests(1);
+        SearchResults results = this.db.streamObjects("has test/rating");
+        try {
+            assertEquals(1, this.db.fdb.getOutstandingRequests());
+            // the open stream holds the only slot under the cap
+            Deadline.after(100, TimeUnit.MILLISECONDS).call(new Callable<FluidResponse>() {
+                public FluidResponse call() throws Exception {
+                    return db.fdb.Call(Method.GET, "/objects");
+                }
+            });
+            fail("The call should have waited for the stream to close");
+        } catch (DeadlineExceededException e) {
+            // expected
+        } finally {
+            results.close();
+        }
+        assertEquals(0, this.db.fdb.getOutstandingRequests());
+        // closing twice hands back nothing more
+        results.close();
+        assertEquals(200, this.db.fdb.Call(Method.GET, "/objects").getResponseCode());
+        assertEquals(0, this.db.fdb.getOutstandingRequests());
+    }
+
+    @Test
+    public void testErrorsAreThrown() throws Exception {
+        this.server.stub(Method.GET, "/objects", 400, "text/plain", "");
+        try {
+            this.db.streamObjects("has test/");
+            fail("A bad query should have been rejected");
+        } catch (FluidException e) {
+            assertTrue(e.getMessage().contains("400"));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks the disk-backed HTTP cache (and the store underneath it)
+ */
+public class TestHttpCache {
+
+    /**
+     * A transport that hands out queued responses and remembers what it was sent
+     */
+    private static class ScriptedTransport implements FluidTransport {
+        LinkedList<FluidResponse> responses = new LinkedList<FluidResponse>();
+        List<FluidRequest> requests = new ArrayList<FluidRequest>();
+
+        public synchronized FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            this.requests.add(request);
+            return this.responses.removeFirst();
+        }
+
+        void add(int code, String content, String... headers) {
+            Map<String, String> map = new HashMap<String, String>();
+            for(int i = 0; i < headers.length; i += 2) {
+                map.put(headers[i], headers[i+1]);
+            }
+            this.responses.add(new FluidResponse(code, "OK", "application/json", content.getBytes(), null, null, map));
+        }
+    }
+
+    private File directory;
+    private FluidConnector fc;
+    private ScriptedTransport transport;
+    private HttpCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = File.createTempFile("jfluiddb-cache", "");
+        this.directory.delete();
+        this.fc = new FluidConnector();
+        this.transport = new ScriptedTransport();
+        this.fc.setTransport(this.transport);
+        this.fc.setRetryPolicy(null);
+        this.cache = new HttpCache(this.directory, 1024*1024);
+        this.fc.setHttpCache(this.cache);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = this.directory.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+    }
+
+    @Test
+    public void testFreshResponsesAreServedFromDisk() throws Exception {
+        this.transport.add(200, "{\"id\": 1}", "Cache-Control", "max-age=3600", "Age", "10");
+        assertEquals("{\"id\": 1}", this.fc.Call(Method.GET, "/namespaces/ntoll").getResponseContent());
+        FluidResponse cached = this.fc.Call(Method.GET, "/namespaces/ntoll");
+        assertEquals("{\"id\": 1}", cached.getResponseContent());
+        assertTrue(Long.parseLong(cached.getResponseHeader("Age")) >= 10);
+        assertEquals(1, this.transport.requests.size());
+        assertEquals(1, this.cache.getHits());
+        // a new cache on the same directory (e.g. after a restart) is still warm
+        this.fc.setHttpCache(new HttpCache(this.directory, 1024*1024));
+        this.fc.setValidatorCache(null);
+        assertEquals("{\"id\": 1}", this.fc.Call(Method.GET, "/namespaces/ntoll").getResponseContent());
+        assertEquals(1, this.transport.requests.size());
+        // other arguments are a different resource
+        this.transport.add(200, "{}", "Expires", "Thu, 01 Dec 1994 16:00:00 GMT");
+        this.fc.Call(Method.GET, "/namespaces/ntoll", "", new Hashtable<String, String>(Collections.singletonMap("returnDescription", "True")));
+        assertEquals(2, this.transport.requests.size());
+    }
+
+    @Test
+    public void testStaleResponsesAreRevalidated() throws Exception {
+        this.transport.add(200, "{\"id\": 1}", "Cache-Control", "no-cache", "ETag", "\"v1\"");
+        this.transport.add(304, "", "ETag", "\"v1\"", "Cache-Control", "max-age=60");
+        this.fc.setValidatorCache(null);
+        this.fc.Call(Method.GET, "/tags/ntoll/rating");
+        FluidResponse response = this.fc.Call(Method.GET, "/tags/ntoll/rating");
+        assertEquals(200, response.getResponseCode());
+        assertEquals("{\"id\": 1}", response.getResponseContent());
+        assertEquals("\"v1\"", this.transport.requests.get(1).getHeaders().get("If-None-Match"));
+        assertEquals(1, this.cache.getRevalidated());
+        // the 304 made it fresh
+        this.fc.Call(Method.GET, "/tags/ntoll/rating");
+        assertEquals(2, this.transport.requests.size());
+    }
+
+    @Test
+    public void testWritesInvalidate() throws Exception {
+        this.transport.add(200, "5", "Cache-Control", "max-age=3600");
+        this.transport.add(204, "");
+        this.transport.add(200, "6", "Cache-Control", "no-store");
+        this.fc.Call(Method.GET, "/objects/1/ntoll/rating");
+        this.fc.Call(Method.PUT, "/objects/1/ntoll/rating", "6");
+        assertEquals(1, this.cache.getInvalidated());
+        assertEquals("6", this.fc.Call(Method.GET, "/objects/1/ntoll/rating").getResponseContent());
+        assertEquals(0, this.cache.getStore().getCount());
+    }
+
+    @Test
+    public void testStoreEvictsLeastRecentlyUsed() throws Exception {
+        DiskStore store = new DiskStore(this.directory, 250);
+        store.put("a", "/a", new byte[100]);
+        store.put("b", "/b", new byte[100]);
+        assertNotNull(store.get("a"));
+        store.put("c", "/c", new byte[100]);
+        assertEquals(1, store.getEvicted());
+        assertNull(store.get("b"));
+        assertEquals(2, store.getCount());
+        // reopening keeps the entries and their order
+        store = new DiskStore(this.directory, 250);
+        assertEquals(2, store.getCount());
+        assertEquals(100, store.get("c").length);
+        assertEquals(1, store.removeGroup("/a"));
+        assertEquals(1, store.getCount());
+    }
+
+    @Test
+    public void testKeyCoversExtraHeaders() throws Exception {
+        FluidRequest request = new FluidRequest("http://localhost", "", "", Method.GET, "/objects", "", new Hashtable<String, String>(), "");
+        FluidRequest alice = request.withHeader("Authorization", "Bearer alice");
+        this.transport.add(200, "\"alice\"", "Cache-Control", "max-age=3600");
+        this.transport.add(200, "\"bob\"", "Cache-Control", "max-age=3600");
+        assertEquals("\"alice\"", this.cache.execute(alice, this.transport).getResponseContent());
+        assertEquals("\"bob\"", this.cache.execute(request.withHeader("Authorization", "Bearer bob"), this.transport).getResponseContent());
+        assertEquals("\"alice\"", this.cache.execute(alice, this.transport).getResponseContent());
+        assertEquals(2, this.transport.requests.size());
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.fom;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.fluidinfo.FluidResponse;
+
+/**
+ * Checks decoding tag values (no FluidDB needed)
+ */
+public class TestTagValue {
+
+    private static TagValue primitive(String json) {
+        return new TagValue("application/vnd.fluiddb.value+json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNumbers() throws FOMException {
+        assertEquals(42, primitive("42").asLong());
+        assertEquals(-7, primitive(" -7\n").asLong());
+        assertEquals(Long.MAX_VALUE, primitive("9223372036854775807").asLong());
+        assertEquals(5, primitive("5.0").asLong());
+        assertEquals(1000, primitive("1e3").asLong());
+        assertEquals(42.0, primitive("42").asDouble(), 0);
+        assertEquals(-0.15, primitive("-0.15").asDouble(), 0);
+        assertEquals(6.02214076e23, primitive("6.02214076E23").asDouble(), 0);
+        assertEquals(0.1234567890123456789, primitive("0.1234567890123456789").asDouble(), 0);
+        // the fast path has to agree exactly with parseDouble
+        Random random = new Random(42);
+        for(int i = 0; i < 10000; i++) {
+            String literal = Long.toString(random.nextLong() % 1000000000000L)+"."+Integer.toString(random.nextInt(100000));
+            assertEquals(literal, Double.parseDouble(literal), primitive(literal).asDouble(), 0);
+        }
+        String[] bad = new String[] { "4.5", "\"42\"", "true", "null", "", "01", "1.", "-", "NaN", "0x10", "1e400" };
+        for(String json : bad) {
+            try {
+                primitive(json).asLong();
+                fail("Should have rejected "+json);
+            } catch (FOMException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testOtherPrimitives() throws FOMException {
+        assertTrue(primitive("true").asBoolean());
+        assertFalse(primitive("false").asBoolean());
+        assertEquals("caf\u00e9 \"quoted\"", primitive("\"caf\u00e9 \\\"quoted\\\"\"").asString());
+        assertEquals(Arrays.asList("b", "a"), Arrays.asList(primitive("[\"b\", \"a\", \"b\"]").asStringSet().toArray()));
+        assertTrue(primitive("null").isNull());
+        assertNull(primitive("null").asString());
+        assertNull(primitive("null").asStringSet());
+        assertEquals("[1]", primitive("[1]").toString());
+        try {
+            primitive("[1]").asStringSet();
+            fail("Sets can only hold strings");
+        } catch (FOMException e) {
+            // expected
+        }
+        try {
+            primitive("1").asBoolean();
+            fail("1 isn't a boolean");
+        } catch (FOMException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOpaqueValue() throws FOMException {
+        byte[] png = new byte[] { (byte)0x89, 'P', 'N', 'G' };
+        TagValue value = TagValue.fromResponse(new FluidResponse(200, "OK", "image/png", png, "", ""));
+        assertFalse(value.isPrimitive());
+        assertFalse(value.isNull());
+        assertEquals("image/png", value.getContentType());
+        assertSame(png, value.asBytes());
+        try {
+            value.asString();
+            fail("Opaque values can only be read as bytes");
+        } catch (FOMException e) {
+            assertTrue(e.getMessage().contains("image/png"));
+        }
+        assertTrue(TagValue.fromResponse(new FluidResponse(200, "OK", "application/vnd.fluiddb.value+json", "3")).isPrimitive());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.*;
+
+/**
+ * Checks that response bodies are read whole, whether or not their length is known
+ */
+public class TestBodyReader {
+
+    private byte[] bytes(int length) {
+        byte[] b = new byte[length];
+        for(int i = 0; i < length; i++) {
+            b[i] = (byte)i;
+        }
+        return b;
+    }
+
+    /**
+     * A stream that only returns a few bytes at a time, like a socket
+     */
+    private InputStream trickle(byte[] b) {
+        return new ByteArrayInputStream(b) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, 1000));
+            }
+        };
+    }
+
+    @Test
+    public void testKnownLength() throws IOException {
+        byte[] body = this.bytes(5000);
+        assertArrayEquals(body, BodyReader.readFully(this.trickle(body), body.length));
+        assertEquals(0, BodyReader.readFully(this.trickle(new byte[0]), 0).length);
+    }
+
+    @Test
+    public void testUnknownLengthSpansBuffers() throws IOException {
+        byte[] body = this.bytes(BufferPool.BUFFER_SIZE*3 + 17);
+        assertArrayEquals(body, BodyReader.readFully(this.trickle(body), -1));
+        body = this.bytes(BufferPool.BUFFER_SIZE);
+        assertArrayEquals(body, BodyReader.readFully(this.trickle(body), -1));
+    }
+
+    @Test(expected=EOFException.class)
+    public void testTruncatedBody() throws IOException {
+        BodyReader.readFully(this.trickle(this.bytes(10)), 20);
+    }
+}
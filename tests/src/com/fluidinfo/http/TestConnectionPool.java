@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks the connection pool against a local HTTP server (so no FluidDB credentials
+ * are needed)
+ */
+public class TestConnectionPool {
+
+    private HttpServer server;
+    private ConnectionPool pool;
+    private PooledHttpClient client;
+    private URL url;
+
+    @Before
+    public void setUp() throws Exception {
+        this.startServer(0);
+        this.pool = new ConnectionPool();
+        this.client = new PooledHttpClient(this.pool);
+        this.url = new URL("http://127.0.0.1:"+this.server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        this.pool.close();
+        this.server.stop(0);
+    }
+
+    private String get(String path) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        RawResponse response = this.client.execute("GET", new URL(this.url, path), headers, null, 1000, 1000);
+        assertEquals(200, response.getStatusCode());
+        InputStream in = response.getBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int n;
+        while((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testConnectionIsReused() throws IOException {
+        assertEquals("{\"path\": \"/foo\"}", this.get("/foo"));
+        assertEquals("{\"path\": \"/bar\"}", this.get("/bar"));
+        assertEquals("{\"path\": \"/chunked\"}", this.get("/chunked"));
+        PoolStats stats = this.pool.getStats();
+        assertEquals(1, stats.getCreated());
+        assertEquals(1, stats.getIdle());
+        assertEquals(0, stats.getLeased());
+    }
+
+    @Test
+    public void testUnreadBodyDiscardsConnection() throws IOException {
+        RawResponse response = this.client.execute("GET", new URL(this.url, "/foo"), new LinkedHashMap<String, String>(), null, 1000, 1000);
+        assertEquals(1, this.pool.getStats().getLeased());
+        response.getBody().close();
+        PoolStats stats = this.pool.getStats();
+        assertEquals(0, stats.getLeased());
+        assertEquals(0, stats.getIdle());
+    }
+
+    @Test
+    public void testIdleConnectionsAreEvicted() throws IOException {
+        this.get("/foo");
+        this.pool.setIdleTimeout(-1);
+        this.pool.evictIdle();
+        PoolStats stats = this.pool.getStats();
+        assertEquals(0, stats.getIdle());
+        assertEquals(1, stats.getEvicted());
+        this.pool.setIdleTimeout(ConnectionPool.DEFAULT_IDLE_TIMEOUT);
+        this.get("/foo");
+        assertEquals(2, this.pool.getStats().getCreated());
+    }
+
+    @Test
+    public void testStaleConnectionIsNotReused() throws Exception {
+        this.get("/foo");
+        // restart the server so the pooled connection is closed at the other end
+        int port = this.server.getAddress().getPort();
+        this.server.stop(0);
+        this.startServer(port);
+        this.pool.setValidateAfterInactivity(-1);
+        assertEquals("{\"path\": \"/foo\"}", this.get("/foo"));
+        PoolStats stats = this.pool.getStats();
+        assertEquals(2, stats.getCreated());
+        assertEquals(1, stats.getEvicted());
+    }
+
+    @Test
+    public void testMaxConnectionsPerHost() throws Exception {
+        this.pool.setMaxConnectionsPerHost(1);
+        this.pool.setLeaseTimeout(100);
+        RawResponse first = this.client.execute("GET", new URL(this.url, "/foo"), new LinkedHashMap<String, String>(), null, 1000, 1000);
+        try {
+            this.client.execute("GET", new URL(this.url, "/bar"), new LinkedHashMap<String, String>(), null, 1000, 1000);
+            fail("The second request should have timed out waiting for a connection");
+        } catch (IOException e) {
+            // expected
+        }
+        first.getBody().close();
+        assertEquals("{\"path\": \"/bar\"}", this.get("/bar"));
+    }
+
+    private void startServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = ("{\"path\": \""+exchange.getRequestURI().getPath()+"\"}").getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                if(exchange.getRequestURI().getPath().equals("/chunked")) {
+                    exchange.sendResponseHeaders(200, 0);
+                } else {
+                    exchange.sendResponseHeaders(200, body.length);
+                }
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        this.server.start();
+    }
+}
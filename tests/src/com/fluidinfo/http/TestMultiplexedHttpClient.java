@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.LocalFluidDB;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.TransportMode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks the HTTP/2 client (which falls back to HTTP/1.1 against the local server)
+ */
+public class TestMultiplexedHttpClient {
+
+    private LocalFluidDB server;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new LocalFluidDB();
+        this.server.stub(Method.GET, "/namespaces/test", 200, "application/json", "{\"id\": \"abc\"}");
+        this.server.stub(Method.PUT, "/namespaces/test", 204, "text/plain", "");
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        MultiplexedHttpClient client = new MultiplexedHttpClient(1000);
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Accept", "*/*");
+        RawResponse response = client.execute("GET", new URL(this.server.getURL()+"/namespaces/test"), headers, null, 1000);
+        assertEquals(200, response.getStatusCode());
+        assertEquals("OK", response.getStatusMessage());
+        assertEquals("application/json", response.getHeader("content-type"));
+        InputStream in = response.getBody();
+        byte[] buffer = new byte[64];
+        int n = in.read(buffer);
+        in.close();
+        assertEquals("{\"id\": \"abc\"}", new String(buffer, 0, n, "UTF-8"));
+    }
+
+    @Test
+    public void testConnectorTransportModesAgree() throws Exception {
+        FluidConnector fdb = new FluidConnector();
+        fdb.setUrl(this.server.getURL());
+        FluidResponse pooled = fdb.Call(Method.GET, "/namespaces/test");
+        fdb.setTransportMode(TransportMode.HTTP2);
+        FluidResponse multiplexed = fdb.Call(Method.GET, "/namespaces/test");
+        assertEquals(pooled.getResponseCode(), multiplexed.getResponseCode());
+        assertEquals(pooled.getResponseMessage(), multiplexed.getResponseMessage());
+        assertEquals(pooled.getResponseContentType(), multiplexed.getResponseContentType());
+        assertEquals(pooled.getResponseContent(), multiplexed.getResponseContent());
+        // a body-less PUT and a 404
+        assertEquals(204, fdb.Call(Method.PUT, "/namespaces/test", "{\"description\": \"foo\"}").getResponseCode());
+        FluidResponse missing = fdb.Call(Method.GET, "/namespaces/missing");
+        assertEquals(404, missing.getResponseCode());
+        assertEquals("NoSuchResource", missing.getResponseError());
+    }
+
+    @Test
+    public void testStalledBodyTimesOut() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        HttpServer stalling = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stalling.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, 100);
+                OutputStream out = exchange.getResponseBody();
+                out.write("{\"id\": ".getBytes("UTF-8"));
+                out.flush();
+                try {
+                    // send the headers and the start of the body, then stall
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+            }
+        });
+        stalling.start();
+        try {
+            MultiplexedHttpClient client = new MultiplexedHttpClient(1000);
+            URL url = new URL("http://127.0.0.1:"+stalling.getAddress().getPort()+"/namespaces/test");
+            RawResponse response = client.execute("GET", url, new LinkedHashMap<String, String>(), null, 300);
+            assertEquals(200, response.getStatusCode());
+            InputStream in = response.getBody();
+            long start = System.nanoTime();
+            try {
+                byte[] buffer = new byte[64];
+                while(in.read(buffer) != -1) {
+                    // keep reading until the server stalls
+                }
+                fail("Expected the stalled read to time out");
+            } catch (IOException e) {
+                // expected
+            } finally {
+                in.close();
+            }
+            long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+            assertTrue("took "+took+"ms", took < 2000);
+        } finally {
+            release.countDown();
+            stalling.stop(0);
+        }
+    }
+}
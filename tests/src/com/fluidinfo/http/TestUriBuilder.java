@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.http;
+
+import static org.junit.Assert.*;
+
+import java.net.URLEncoder;
+import java.util.Hashtable;
+
+import org.junit.Test;
+
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.transport.HttpTransport;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.StringUtil;
+
+/**
+ * Checks path templates and the URI builder against the StringUtil / URLEncoder based
+ * code they replace
+ */
+public class TestUriBuilder {
+
+    @Test
+    public void testQueryEncodingMatchesURLEncoder() throws Exception {
+        String[] values = {"", "plain", "has ntoll/rating > 5", "fluiddb/about = \"ISBN:0954641809\"",
+            "a+b&c=d%e", "caf\u00e9 \u20ac \ud83d\ude00", "*.-_~!'()", "lone \ud83d surrogate"};
+        for(String value : values) {
+            StringBuilder sb = new StringBuilder();
+            UriBuilder.formEncode(sb, value);
+            assertEquals(URLEncoder.encode(value, "UTF-8"), sb.toString());
+        }
+    }
+
+    @Test
+    public void testTemplateMatchesURIJoin() {
+        PathTemplate template = PathTemplate.compile("{root}/{id}/{tag}");
+        assertEquals(3, template.getVariableCount());
+        assertEquals("tag", template.getVariableName(2));
+        String[][] cases = {{"/objects", "1234", "ntoll/rating"}, {"/objects", "1234", "/ntoll/rating"},
+            {"/objects/", "/1234/", "ntoll//rating/"}};
+        for(String[] values : cases) {
+            assertEquals(StringUtil.URIJoin(values), template.expand(values));
+        }
+        assertEquals("/policies/ntoll/tags/update", PathTemplate.compile("/policies/{username}/{category}/{action}").expand("ntoll", "tags", "update"));
+        try {
+            template.expand("/objects", "1234");
+            fail("The wrong number of values should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTemplateEncoding() {
+        PathTemplate template = PathTemplate.compile("/tags/{path}");
+        assertEquals("/tags/ntoll/my%20books/caf%C3%A9", template.expand("ntoll/my books/caf\u00e9"));
+        assertEquals("/tags/a%3Fb%23c/already%2Fencoded", template.expand("a?b#c/already%2Fencoded"));
+        // encoded values are cached, plain ones are handed back as they are
+        assertSame(PathTemplate.encode("my books"), PathTemplate.encode("my books"));
+        String plain = "ntoll/rating";
+        assertSame(plain, PathTemplate.encode(plain));
+    }
+
+    @Test
+    public void testBuildURI() throws Exception {
+        Hashtable<String, String> args = new Hashtable<String, String>();
+        args.put("query", "has ntoll/rating");
+        args.put("showAbout", "True");
+        FluidRequest request = new FluidRequest("http://localhost", "", "", Method.GET, "/objects", "", args, null);
+        String uri = HttpTransport.buildURI(request);
+        assertTrue(uri.startsWith("http://localhost/objects?"));
+        assertTrue(uri.contains("query=has+ntoll%2Frating"));
+        assertTrue(uri.contains("showAbout=True"));
+        assertEquals(1, uri.split("&").length-1);
+        request = new FluidRequest("http://localhost", "", "", Method.GET, "/objects", "", new Hashtable<String, String>(), null);
+        assertEquals("http://localhost/objects", HttpTransport.buildURI(request));
+        UriBuilder builder = new UriBuilder();
+        builder.append("http://localhost").appendPath(PathTemplate.compile("/objects/{id}"), "1234").appendParameter("a", "1").appendParameter("b", "2");
+        assertEquals("http://localhost/objects/1234?a=1&b=2", builder.toString());
+        assertEquals("x?c=3", builder.reset().append("x").appendParameter("c", "3").toString());
+    }
+}
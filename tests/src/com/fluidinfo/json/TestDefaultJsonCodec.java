@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.json;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Checks the default JSON codec (and that it agrees with the org.json one)
+ */
+public class TestDefaultJsonCodec {
+
+    private final static String NAMESPACE = "{\"id\": \"5873e7cc-2a4a-44f7-a00e-7cebf92a7332\", " +
+        "\"description\": \"caf\u00e9 \\u00e9 \\ud83d\\ude00\", \"namespaceNames\": [\"a\", \"b\"], " +
+        "\"tagNames\": [], \"count\": 42, \"ratio\": -1.5e-1, \"indexed\": false, \"nothing\": null}";
+
+    private DefaultJsonCodec codec = new DefaultJsonCodec();
+
+    @Test
+    public void testRead() throws JSONException {
+        Map<String, Object> json = Json.asObject(this.read(NAMESPACE));
+        assertEquals(Arrays.asList("id", "description", "namespaceNames", "tagNames", "count", "ratio", "indexed", "nothing"),
+            Arrays.asList(json.keySet().toArray()));
+        assertEquals("5873e7cc-2a4a-44f7-a00e-7cebf92a7332", json.get("id"));
+        assertEquals("caf\u00e9 \u00e9 \ud83d\ude00", json.get("description"));
+        assertEquals(Arrays.asList("a", "b"), json.get("namespaceNames"));
+        assertEquals(0, ((List<?>)json.get("tagNames")).size());
+        assertEquals(Long.valueOf(42), json.get("count"));
+        assertEquals(Double.valueOf(-0.15), json.get("ratio"));
+        assertEquals(Boolean.FALSE, json.get("indexed"));
+        assertTrue(json.containsKey("nothing"));
+        assertNull(json.get("nothing"));
+        assertArrayEquals(new String[] { "a", "b" }, Json.getStringArray(json, "namespaceNames"));
+        assertFalse(Json.getBoolean(json, "indexed"));
+        // the same document read from a String rather than bytes
+        assertEquals(json, this.codec.read(NAMESPACE));
+    }
+
+    @Test
+    public void testWrite() throws JSONException {
+        Map<String, Object> payload = new LinkedHashMap<String, Object>();
+        payload.put("exceptions", new String[] { "fluiddb", "a\"b\\c" });
+        payload.put("policy", "open");
+        payload.put("whole", Double.valueOf(3));
+        payload.put("half", Double.valueOf(0.5));
+        payload.put("control", "\n\u0001\u2028");
+        payload.put("empty", Arrays.asList());
+        assertEquals("{\"exceptions\":[\"fluiddb\",\"a\\\"b\\\\c\"],\"policy\":\"open\",\"whole\":3,\"half\":0.5," +
+            "\"control\":\"\\n\\u0001\\u2028\",\"empty\":[]}", this.codec.write(payload));
+        try {
+            this.codec.write(Double.valueOf(Double.NaN));
+            fail("NaN isn't valid JSON");
+        } catch (JSONException e) {
+            // expected
+        }
+        assertEquals("\"\"", Json.quote(null));
+    }
+
+    @Test
+    public void testRoundTripMatchesOrgJson() throws JSONException {
+        OrgJsonCodec orgJson = new OrgJsonCodec();
+        Object value = this.read(NAMESPACE);
+        assertEquals(orgJson.read(NAMESPACE), value);
+        assertEquals(value, this.read(this.codec.write(value)));
+        assertEquals(value, orgJson.read(this.codec.write(value)));
+        assertEquals(value, this.read(orgJson.write(value)));
+        // and copied into org.json's own classes for code that still wants them
+        JSONObject copy = Json.toJSONObject(Json.asObject(value));
+        assertEquals("b", copy.getJSONArray("namespaceNames").getString(1));
+        assertEquals(42, copy.getInt("count"));
+        assertTrue(copy.isNull("nothing"));
+    }
+
+    @Test
+    public void testMalformedJson() {
+        String[] bad = new String[] { "", "{\"a\" 1}", "[1 2]", "{\"a\": \"unterminated", "[", "{} {}",
+            "[01]", "[1.]", "[tru]", "{\"a\":1,}", "[\"\\x\"]" };
+        for(String json : bad) {
+            try {
+                this.read(json);
+                fail("Should have rejected "+json);
+            } catch (JSONException e) {
+                // expected
+            }
+        }
+    }
+
+    private Object read(String json) throws JSONException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        // parse from the middle of a buffer to check the offset is honoured
+        byte[] buffer = new byte[bytes.length+4];
+        System.arraycopy(bytes, 0, buffer, 2, bytes.length);
+        return this.codec.read(buffer, 2, bytes.length);
+    }
+}
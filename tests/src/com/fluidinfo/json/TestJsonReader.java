@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.json;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks the streaming JSON reader
+ */
+public class TestJsonReader {
+
+    @Test
+    public void testTokens() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(
+            " {\"a\": [1, -2.5e3, true, false, null], \"b\" : \"tab\\tquote\\\" \\u00e9\", \"c\": {}, \"d\": []} "));
+        assertEquals(JsonReader.Token.BEGIN_OBJECT, reader.peek());
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.beginArray();
+        assertEquals(1, reader.nextLong());
+        assertEquals(-2500, reader.nextDouble(), 0);
+        assertTrue(reader.nextBoolean());
+        assertFalse(reader.nextBoolean());
+        assertEquals(JsonReader.Token.NULL, reader.peek());
+        reader.nextNull();
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("b", reader.nextName());
+        assertEquals("tab\tquote\" \u00e9", reader.nextString());
+        assertEquals("c", reader.nextName());
+        reader.skipValue();
+        assertEquals("d", reader.nextName());
+        reader.beginArray();
+        reader.endArray();
+        reader.endObject();
+        assertEquals(JsonReader.Token.END, reader.peek());
+    }
+
+    @Test
+    public void testLongStringsAndSkipping() throws IOException {
+        char[] chars = new char[20000];
+        Arrays.fill(chars, 'x');
+        String big = new String(chars);
+        JsonReader reader = new JsonReader(new StringReader(
+            "{\"skip\": {\"deep\": [[[\""+big+"\"]], {\"k\": \"v\"}]}, \"keep\": \""+big+"\\n\"}"));
+        reader.beginObject();
+        assertEquals("skip", reader.nextName());
+        reader.skipValue();
+        assertEquals("keep", reader.nextName());
+        assertEquals(big+"\n", reader.nextString());
+        reader.endObject();
+    }
+
+    @Test
+    public void testMalformedJson() throws IOException {
+        String[] bad = new String[] { "{\"a\" 1}", "[1 2]", "{\"a\": \"unterminated", "[", "{} {}" };
+        for(String json : bad) {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            try {
+                reader.skipValue();
+                reader.peek();
+                fail("Should have rejected "+json);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Malformed JSON"));
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.json;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.fom.Tag;
+
+/**
+ * Checks the byte-level JSON writer (and the request bodies written with it)
+ */
+public class TestJsonWriter {
+
+    @Test
+    public void testEscapingAndEncoding() throws JSONException {
+        String text = "quote\" slash\\ /\n\r\t\b\f\u0001 caf\u00e9 \u20ac \ud83d\ude00 \u2028";
+        JsonWriter writer = JsonWriter.get().beginObject()
+            .name("text").value(text)
+            .name("lone").value("\ud83d")
+            .name("none").value((String)null)
+            .endObject();
+        String json = new String(writer.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals("{\"text\":\"quote\\\" slash\\\\ /\\n\\r\\t\\b\\f\\u0001 caf\u00e9 \u20ac \ud83d\ude00 \\u2028\"," +
+            "\"lone\":\"\ufffd\",\"none\":null}", json);
+        // the same as the codec writes (and reads back)
+        StringBuilder quoted = new StringBuilder();
+        DefaultJsonCodec.quote(text, quoted);
+        assertTrue(json.contains(quoted));
+        Map<String, Object> read = Json.asObject(new DefaultJsonCodec().read(writer.toByteArray(), 0, writer.size()));
+        assertEquals(text, read.get("text"));
+    }
+
+    @Test
+    public void testValues() throws JSONException {
+        JsonWriter writer = JsonWriter.get().beginArray()
+            .value(0).value(-42).value(Long.MIN_VALUE).value(Long.MAX_VALUE)
+            .value(3.0).value(-0.5).value(1e300).value(-0.0)
+            .value(true).value(false).nullValue()
+            .value(new String[0]).value(new String[] { "a", "b" })
+            .beginObject().endObject()
+            .endArray();
+        assertEquals("[0,-42,-9223372036854775808,9223372036854775807,3,-0.5,1.0E300,-0,true,false,null,[],[\"a\",\"b\"],{}]",
+            writer.toString());
+        try {
+            JsonWriter.get().value(Double.NaN);
+            fail("NaN isn't valid JSON");
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWriterIsReused() {
+        JsonWriter writer = JsonWriter.get();
+        char[] chars = new char[1000];
+        java.util.Arrays.fill(chars, '\u00e9');
+        writer.value(new String(chars));
+        assertEquals(2002, writer.size());
+        assertSame(writer, JsonWriter.get());
+        assertEquals(0, writer.size());
+        assertEquals("[]", writer.value(new String[0]).toString());
+    }
+
+    @Test
+    public void testTagWithEmptyArray() throws Exception {
+        final List<FluidRequest> requests = new ArrayList<FluidRequest>();
+        FluidConnector fc = new FluidConnector();
+        fc.setTransport(new FluidTransport() {
+            public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+                requests.add(request);
+                return new FluidResponse(204, "No Content", "", "");
+            }
+        });
+        com.fluidinfo.fom.Object object = new com.fluidinfo.fom.Object(fc, "1", "1");
+        Tag tag = new Tag(fc, "", "test/list");
+        object.tag(tag, new String[0]);
+        object.tag(tag, new String[] { "x" });
+        assertEquals("[]", requests.get(0).getBody());
+        assertArrayEquals("[\"x\"]".getBytes(StandardCharsets.UTF_8), requests.get(1).getBodyBytes());
+        assertEquals("application/vnd.fluiddb.value+json", requests.get(1).getContentType());
+    }
+}
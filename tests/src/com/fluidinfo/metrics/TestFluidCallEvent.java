@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.fom.Namespace;
+import com.fluidinfo.resilience.RetryPolicy;
+
+/**
+ * Checks the Java Flight Recorder events emitted for calls to FluidDB (no FluidDB needed)
+ */
+public class TestFluidCallEvent {
+
+    /**
+     * Fails the first call with a 503 then answers every call with a namespace
+     */
+    private static class FlakyTransport implements FluidTransport {
+        int calls = 0;
+
+        public synchronized FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            if(this.calls++ == 0) {
+                return new FluidResponse(503, "Service Unavailable", "text/plain", "", null, "req-1");
+            }
+            Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            headers.put("X-FluidDB-Request-Id", "req-2");
+            return new FluidResponse(200, "OK", "application/json", 
+                "{\"id\": \"1234\", \"description\": \"books\", \"namespaceNames\": [], \"tagNames\": []}", null, "req-2", headers);
+        }
+    }
+
+    @Test
+    public void testEventsAreRecorded() throws Exception {
+        FluidConnector fc = new FluidConnector();
+        fc.setTransport(new FlakyTransport());
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setBaseDelay(1);
+        fc.setRetryPolicy(retryPolicy);
+        Path file = Files.createTempFile("jfluiddb", ".jfr");
+        try {
+            Recording recording = new Recording();
+            recording.enable(FluidCallEvent.class);
+            recording.enable(FomCallEvent.class);
+            recording.start();
+            new Namespace(fc, "", "test/books").getItem();
+            recording.stop();
+            recording.dump(file);
+            recording.close();
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            RecordedEvent call = null;
+            RecordedEvent fom = null;
+            for(RecordedEvent event : events) {
+                if(event.getEventType().getName().equals("com.fluidinfo.Call")) {
+                    call = event;
+                } else if(event.getEventType().getName().equals("com.fluidinfo.FomCall")) {
+                    fom = event;
+                }
+            }
+            assertNotNull(call);
+            assertEquals("GET", call.getString("method"));
+            assertEquals("/namespaces/test/books", call.getString("path"));
+            assertEquals(LatencyMetrics.NAMESPACES, call.getString("pathTemplate"));
+            assertEquals(200, call.getInt("statusCode"));
+            assertEquals("req-2", call.getString("requestId"));
+            assertEquals(1, call.getInt("retries"));
+            assertTrue(call.getLong("bytesIn") > 0);
+            assertEquals("Namespace.getItem", call.getString("operation"));
+            assertNull(call.getString("error"));
+
+            assertNotNull(fom);
+            assertEquals("Namespace.getItem", fom.getString("operation"));
+            assertEquals(200, fom.getInt("statusCode"));
+            assertNull(FomCallEvent.currentOperation());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testNothingIsRecordedWhenDisabled() throws Exception {
+        FluidConnector fc = new FluidConnector();
+        fc.setTransport(new FlakyTransport());
+        assertEquals(200, fc.Call(com.fluidinfo.utils.Method.GET, "/objects").getResponseCode());
+        assertNull(FomCallEvent.currentOperation());
+        // no event is made when nothing is recording (whether or not the recorder's running)
+        FluidRequest request = new FluidRequest(fc.getUrl(), null, null, com.fluidinfo.utils.Method.GET, "/objects", "", null, "application/json");
+        assertNull(CallEvents.startCall(request));
+        assertNull(CallEvents.startFomCall(Namespace.class, com.fluidinfo.utils.Method.GET, "/namespaces/test", 200));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks the latency histograms (no FluidDB needed)
+ */
+public class TestLatencyHistogram {
+
+    @Test
+    public void testBucketsAreWithinOnePercent() {
+        long[] values = new long[] { 0, 1, 255, 256, 257, 1000, 12345, 999999, 123456789L, (1L << 32)-1 };
+        for(long value : values) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index < LatencyHistogram.BUCKETS);
+            long low = LatencyHistogram.lowestValue(index);
+            long high = LatencyHistogram.highestValue(index);
+            assertTrue(value+" in ["+low+", "+high+"]", low <= value && value <= high);
+            assertTrue(high-low <= Math.max(0, value/100));
+        }
+        // buckets are contiguous
+        for(int i = 1; i < LatencyHistogram.BUCKETS; i++) {
+            assertEquals(LatencyHistogram.highestValue(i-1)+1, LatencyHistogram.lowestValue(i));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 1; i <= 1000; i++) {
+            histogram.record(i*100);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(50000, snapshot.getValueAtPercentile(50), 500);
+        assertEquals(99000, snapshot.getValueAtPercentile(99), 990);
+        assertEquals(99900, snapshot.getValueAtPercentile(99.9), 999);
+        assertEquals(100000, snapshot.getMax(), 1000);
+        assertEquals(100, snapshot.getMin());
+        assertEquals(50050, snapshot.getMean(), 500);
+        assertEquals(0, new LatencyHistogram().snapshot().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSnapshotAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(5000000);
+        histogram.recordNanos(7000000);
+        HistogramSnapshot first = histogram.snapshotAndReset();
+        assertEquals(2, first.getCount());
+        assertEquals(7000, first.getMax(), 70);
+        assertEquals(0, histogram.snapshot().getCount());
+        histogram.record(10);
+        assertEquals(1, histogram.snapshotAndReset().getCount());
+        // the earlier snapshot isn't affected
+        assertEquals(2, first.getCount());
+    }
+
+    @Test
+    public void testFamilies() {
+        assertEquals(LatencyMetrics.OBJECTS, LatencyMetrics.family("/objects"));
+        assertEquals(LatencyMetrics.OBJECTS, LatencyMetrics.family("/objects/1234"));
+        assertEquals(LatencyMetrics.OBJECTS, LatencyMetrics.family("/objects/1234/"));
+        assertEquals(LatencyMetrics.OBJECT_TAGS, LatencyMetrics.family("/objects/1234/fluiddb/about"));
+        assertEquals(LatencyMetrics.NAMESPACES, LatencyMetrics.family("/namespaces/test/foo"));
+        assertEquals(LatencyMetrics.TAGS, LatencyMetrics.family("/tags/test/foo"));
+        assertEquals(LatencyMetrics.PERMISSIONS, LatencyMetrics.family("/permissions/tags/test/foo"));
+        assertEquals(LatencyMetrics.POLICIES, LatencyMetrics.family("/policies/test/tags/update"));
+        assertEquals(LatencyMetrics.USERS, LatencyMetrics.family("//users/test"));
+        assertEquals("/about/*", LatencyMetrics.family("/about/foo/bar"));
+        assertEquals(LatencyMetrics.ROOT, LatencyMetrics.family("/"));
+        
+        LatencyMetrics metrics = new LatencyMetrics();
+        metrics.record(Method.GET, "/objects/1234/test/rating", 1000000, 3000000);
+        metrics.record(Method.GET, "/objects/5678/test/rating", 2000000, 4000000);
+        assertNull(metrics.getTotalTime(Method.PUT, LatencyMetrics.OBJECT_TAGS));
+        assertEquals(2, metrics.getTimeToFirstByte(Method.GET, LatencyMetrics.OBJECT_TAGS).snapshot().getCount());
+        assertEquals(4000, metrics.getTotalTime(Method.GET, LatencyMetrics.OBJECT_TAGS).snapshot().getMax(), 40);
+        assertEquals(1, metrics.getFamilies(Method.GET).size());
+        metrics.reset();
+        assertEquals(0, metrics.getTotalTime(Method.GET, LatencyMetrics.OBJECT_TAGS).snapshot().getCount());
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Hashtable;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.transport.InMemoryTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks the circuit breaker opens, probes and closes as it should
+ */
+public class TestCircuitBreaker {
+
+    private CircuitBreaker breaker;
+
+    /**
+     * A transport that answers with whatever status (and after whatever delay) it's told
+     */
+    private static class ScriptedTransport implements FluidTransport {
+        volatile int code = 200;
+        volatile long delay = 0;
+
+        public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            if(this.delay > 0) {
+                try {
+                    Thread.sleep(this.delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new FluidResponse(this.code, "", "application/json", "{}");
+        }
+    }
+
+    private ScriptedTransport transport;
+
+    private FluidRequest request = new FluidRequest("http://localhost", "", "", Method.GET, "/objects", "", new Hashtable<String, String>(), "application/json");
+
+    @Before
+    public void setUp() {
+        this.breaker = new CircuitBreaker("http://localhost");
+        this.breaker.getSettings().setMinimumCalls(4);
+        this.breaker.getSettings().setOpenDuration(50);
+        this.breaker.getSettings().setHalfOpenCalls(2);
+        this.transport = new ScriptedTransport();
+    }
+
+    private void call(int times) throws Exception {
+        for(int i = 0; i < times; i++) {
+            this.breaker.execute(this.request, this.transport);
+        }
+    }
+
+    @Test
+    public void testOpensOnFailureRate() throws Exception {
+        this.call(2);
+        this.transport.code = 503;
+        this.call(1);
+        assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+        this.call(1);
+        // 2 out of 4 failed
+        assertEquals(CircuitBreaker.State.OPEN, this.breaker.getState());
+        try {
+            this.call(1);
+            fail("The breaker should be open");
+        } catch (CircuitOpenException e) {
+            assertEquals("http://localhost", e.getEndpoint());
+        }
+        assertEquals(1, this.breaker.getRejected());
+        assertEquals(1, this.breaker.getTransitions(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void testClientErrorsDontCount() throws Exception {
+        this.transport.code = 404;
+        this.call(10);
+        assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+    }
+
+    @Test
+    public void testOpensOnSlowCalls() throws Exception {
+        this.breaker.getSettings().setSlowCallDuration(5);
+        this.transport.delay = 10;
+        this.call(4);
+        assertEquals(CircuitBreaker.State.OPEN, this.breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenProbes() throws Exception {
+        this.transport.code = 500;
+        this.call(4);
+        assertEquals(CircuitBreaker.State.OPEN, this.breaker.getState());
+        Thread.sleep(60);
+        // a failed probe opens it again
+        this.call(1);
+        assertEquals(CircuitBreaker.State.OPEN, this.breaker.getState());
+        assertEquals(1, this.breaker.getTransitions(CircuitBreaker.State.HALF_OPEN));
+        Thread.sleep(60);
+        this.transport.code = 200;
+        this.call(1);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, this.breaker.getState());
+        this.call(1);
+        assertEquals(CircuitBreaker.State.CLOSED, this.breaker.getState());
+    }
+
+    @Test
+    public void testConnectorFailsFast() throws Exception {
+        InMemoryTransport memory = new InMemoryTransport();
+        memory.stub(Method.GET, "/objects", 503, "text/html", "");
+        FluidConnector fc = new FluidConnector();
+        fc.setTransport(memory);
+        fc.setRetryPolicy(null);
+        fc.getCircuitBreakers().getSettings().setMinimumCalls(5);
+        for(int i = 0; i < 5; i++) {
+            assertEquals(503, fc.Call(Method.GET, "/objects").getResponseCode());
+        }
+        try {
+            fc.Call(Method.GET, "/objects");
+            fail("The breaker should be open");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        assertEquals(5, memory.getRequestCount());
+        assertEquals(CircuitBreaker.State.OPEN, fc.getCircuitBreakers().getStates().get(FluidConnector.URL));
+    }
+}
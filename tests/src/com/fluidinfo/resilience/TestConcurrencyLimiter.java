@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.*;
+
+import com.fluidinfo.Deadline;
+import com.fluidinfo.DeadlineExceededException;
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.transport.InMemoryTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks the adaptive concurrency limiter and its algorithms
+ */
+public class TestConcurrencyLimiter {
+
+    @Test
+    public void testAimd() {
+        AimdLimit aimd = new AimdLimit(0.5, 1000);
+        // not using the limit, so it stays put
+        assertEquals(10.0, aimd.update(10, 1000000, 1, false), 0.0001);
+        assertEquals(11.0, aimd.update(10, 1000000, 8, false), 0.0001);
+        assertEquals(5.0, aimd.update(10, 1000000, 8, true), 0.0001);
+        // too slow counts as a drop
+        assertEquals(5.0, aimd.update(10, 2000000000L, 8, false), 0.0001);
+    }
+
+    @Test
+    public void testGradientBacksOffWhenCallsSlowDown() {
+        GradientLimit gradient = new GradientLimit(2, 100, 1.0);
+        double limit = 20;
+        for(int i = 0; i < 50; i++) {
+            limit = gradient.update(limit, 10000000L, (int)limit, false);
+        }
+        double steady = limit;
+        assertTrue(steady > 20);
+        for(int i = 0; i < 5; i++) {
+            limit = gradient.update(limit, 100000000L, (int)limit, false);
+        }
+        assertTrue(limit < steady);
+    }
+
+    @Test
+    public void testShedsOverTheLimit() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new AimdLimit(), 2);
+        limiter.setQueueTimeout(0);
+        long first = limiter.acquire();
+        limiter.acquire();
+        try {
+            limiter.acquire();
+            fail("The limit is 2");
+        } catch (ConcurrencyLimitException e) {
+            // expected
+        }
+        assertEquals(1, limiter.getRejected());
+        assertEquals(2, limiter.getInFlight());
+        limiter.release(first, true);
+        // the drop lowered the limit so there's still no room
+        assertEquals(1, limiter.getLimit());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void testQueuesUntilThereIsRoom() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new AimdLimit(), 1);
+        limiter.setQueueTimeout(2000);
+        final long start = limiter.acquire();
+        Thread releaser = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                limiter.release(start, false);
+            }
+        };
+        releaser.start();
+        limiter.acquire();
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getRejected());
+        releaser.join();
+    }
+
+    @Test
+    public void testQueueingKeepsToTheDeadline() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new AimdLimit(), 1);
+        limiter.setQueueTimeout(10000);
+        limiter.acquire();
+        long start = System.nanoTime();
+        try {
+            limiter.acquire(Deadline.after(50, TimeUnit.MILLISECONDS));
+            fail("The deadline should have passed first");
+        } catch (DeadlineExceededException e) {
+            // expected
+        }
+        assertTrue(System.nanoTime()-start < TimeUnit.SECONDS.toNanos(2));
+        // running out of time isn't shedding
+        assertEquals(0, limiter.getRejected());
+        assertEquals(0, limiter.getQueued());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void testRoundTripLeavesOutTheWaitForTheRequestCap() throws Exception {
+        InMemoryTransport memory = new InMemoryTransport();
+        memory.stub(Method.GET, "/objects", 200, "application/json", "{\"ids\": []}");
+        memory.setLatency(300);
+        final AtomicLong longest = new AtomicLong();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new LimitAlgorithm() {
+            public double update(double limit, long rtt, int inFlight, boolean dropped) {
+                longest.set(Math.max(longest.get(), rtt));
+                return limit;
+            }
+        }, 10);
+        final FluidConnector fc = new FluidConnector();
+        fc.setTransport(memory);
+        fc.setConcurrencyLimiter(limiter);
+        fc.setSingleFlight(null);
+        // the second call is let through by the limiter but waits for the first to finish
+        fc.setMaxConcurrentRequests(1);
+        List<Callable<FluidResponse>> calls = new ArrayList<Callable<FluidResponse>>();
+        for(int i = 0; i < 2; i++) {
+            calls.add(new Callable<FluidResponse>() {
+                public FluidResponse call() throws Exception {
+                    return fc.Call(Method.GET, "/objects");
+                }
+            });
+        }
+        fc.invokeAll(calls);
+        // the second call would have taken twice as long counting the wait
+        assertTrue(longest.get() >= TimeUnit.MILLISECONDS.toNanos(300));
+        assertTrue(longest.get() < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void testConnectorKeepsToTheLimit() throws Exception {
+        final InMemoryTransport memory = new InMemoryTransport();
+        memory.stub(Method.GET, "/objects", 200, "application/json", "{\"ids\": []}");
+        memory.setLatency(20);
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final FluidConnector fc = new FluidConnector();
+        fc.setTransport(new FluidTransport() {
+            public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+                int now = concurrent.incrementAndGet();
+                synchronized(maxConcurrent) {
+                    maxConcurrent.set(Math.max(now, maxConcurrent.get()));
+                }
+                try {
+                    return memory.execute(request);
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+            }
+        });
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new AimdLimit(), 2);
+        limiter.setMaxLimit(2);
+        limiter.setQueueTimeout(-1);
+        fc.setConcurrencyLimiter(limiter);
+        // the calls are identical so stop them being coalesced into one
+        fc.setSingleFlight(null);
+        List<Callable<FluidResponse>> calls = new ArrayList<Callable<FluidResponse>>();
+        for(int i = 0; i < 10; i++) {
+            calls.add(new Callable<FluidResponse>() {
+                public FluidResponse call() throws Exception {
+                    return fc.Call(Method.GET, "/objects");
+                }
+            });
+        }
+        for(FluidResponse r : fc.invokeAll(calls)) {
+            assertEquals(200, r.getResponseCode());
+        }
+        assertEquals(2, maxConcurrent.get());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks that slow GETs are hedged and the first answer wins
+ */
+public class TestHedgingPolicy {
+
+    private HedgingPolicy policy;
+
+    /**
+     * A transport whose first call stalls (until it's interrupted) and the rest are quick
+     */
+    private static class StallingTransport implements FluidTransport {
+        AtomicInteger calls = new AtomicInteger();
+        volatile boolean interrupted = false;
+
+        public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            int n = this.calls.incrementAndGet();
+            if(n == 1) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    this.interrupted = true;
+                    throw new IOException("Cancelled");
+                }
+            }
+            return new FluidResponse(200, "OK", "application/json", "\"call "+n+"\"");
+        }
+    }
+
+    private FluidRequest request(Method method) {
+        return new FluidRequest("http://localhost", "", "", method, "/objects/1/test/foo", "", new Hashtable<String, String>(), "application/json");
+    }
+
+    @Before
+    public void setUp() {
+        this.policy = new HedgingPolicy();
+    }
+
+    @After
+    public void tearDown() {
+        this.policy.shutdown();
+    }
+
+    @Test
+    public void testSlowGetIsHedged() throws Exception {
+        StallingTransport transport = new StallingTransport();
+        long start = System.currentTimeMillis();
+        FluidResponse r = this.policy.execute(this.request(Method.GET), transport);
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertEquals("\"call 2\"", r.getResponseContent());
+        assertEquals(1, this.policy.getHedges());
+        assertEquals(1, this.policy.getHedgeWins());
+        Thread.sleep(50);
+        assertTrue(transport.interrupted);
+    }
+
+    @Test
+    public void testOnlyGetAndHeadAreHedged() throws Exception {
+        StallingTransport transport = new StallingTransport();
+        transport.calls.set(1);
+        this.policy.execute(this.request(Method.PUT), transport);
+        assertEquals(0, this.policy.getRequests());
+        this.policy.execute(this.request(Method.HEAD), transport);
+        assertEquals(1, this.policy.getRequests());
+        assertEquals(0, this.policy.getHedges());
+    }
+
+    @Test
+    public void testBudgetLimitsHedges() throws Exception {
+        this.policy.setBudget(new RetryBudget(0, 0));
+        this.policy.setMinDelay(1);
+        FluidResponse r = this.policy.execute(this.request(Method.GET), new FluidTransport() {
+            public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+                try {
+                    Thread.sleep(600);
+                } catch (InterruptedException e) {
+                    throw new IOException("Cancelled");
+                }
+                return new FluidResponse(200, "OK", "application/json", "\"slow\"");
+            }
+        });
+        assertEquals("\"slow\"", r.getResponseContent());
+        assertEquals(0, this.policy.getHedges());
+        assertEquals(1, this.policy.getBudgetExhausted());
+    }
+
+    @Test
+    public void testThreadsAreBounded() throws Exception {
+        HedgingPolicy bounded = new HedgingPolicy(1);
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        FluidTransport slow = new FluidTransport() {
+            public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+                threads.add(Thread.currentThread().getName());
+                try {
+                    Thread.sleep(600);
+                } catch (InterruptedException e) {
+                    throw new IOException("Cancelled");
+                }
+                return new FluidResponse(200, "OK", "application/json", "\"slow\"");
+            }
+        };
+        try {
+            // the call takes the only thread so there's none left for its hedge
+            assertEquals("\"slow\"", bounded.execute(this.request(Method.GET), slow).getResponseContent());
+            assertEquals(0, bounded.getHedges());
+            assertEquals(1, bounded.getUnhedged());
+            assertEquals(1, threads.size());
+            // with no threads at all calls are made on the caller's thread
+            bounded.shutdown();
+            assertEquals("\"slow\"", bounded.execute(this.request(Method.GET), slow).getResponseContent());
+            assertEquals(2, bounded.getUnhedged());
+            assertEquals(Thread.currentThread().getName(), threads.get(1));
+        } finally {
+            bounded.shutdown();
+        }
+    }
+
+    @Test
+    public void testDelayFollowsLatency() throws Exception {
+        FluidTransport quick = new FluidTransport() {
+            public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+                return new FluidResponse(200, "OK", "application/json", "{}");
+            }
+        };
+        assertEquals(HedgingPolicy.DEFAULT_INITIAL_DELAY, this.policy.getDelay());
+        for(int i = 0; i < 64; i++) {
+            this.policy.execute(this.request(Method.GET), quick);
+        }
+        assertEquals(HedgingPolicy.DEFAULT_MIN_DELAY, this.policy.getDelay());
+    }
+
+    @Test
+    public void testConnectorHedges() throws Exception {
+        FluidConnector fc = new FluidConnector();
+        StallingTransport transport = new StallingTransport();
+        fc.setTransport(transport);
+        fc.setHedgingPolicy(this.policy);
+        assertEquals("\"call 2\"", fc.Call(Method.GET, "/objects/1/test/foo").getResponseContent());
+        assertEquals(1, this.policy.getHedgeWins());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.transport.InMemoryTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks the token buckets and the rules that pick them
+ */
+public class TestRateLimiter {
+
+    @Test
+    public void testBurstThenRate() throws Exception {
+        TokenBucket bucket = new TokenBucket(20, 3);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        // the next permit is free in 50ms
+        assertFalse(bucket.tryAcquire(10, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        assertTrue(bucket.tryAcquire(200, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+
+    @Test
+    public void testNoPermitsAreLostUnderContention() throws Exception {
+        final TokenBucket bucket = new TokenBucket(0.001, 100);
+        final AtomicInteger granted = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for(int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for(int j = 0; j < 100; j++) {
+                        if(bucket.tryAcquire()) {
+                            granted.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for(Thread t : threads) {
+            t.join();
+        }
+        assertEquals(100, granted.get());
+    }
+
+    @Test
+    public void testMostSpecificRuleWins() {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit(null, "", 1, 1);
+        limiter.setLimit(null, "/objects", 1, 1);
+        limiter.setLimit(Method.GET, "/objects", 1, 1);
+        TokenBucket any = limiter.getBucket(Method.GET, "/namespaces/test");
+        TokenBucket objects = limiter.getBucket(Method.PUT, "/objects/1/test/foo");
+        TokenBucket getObjects = limiter.getBucket(Method.GET, "/objects/1");
+        assertNotNull(any);
+        assertNotSame(any, objects);
+        assertNotSame(objects, getObjects);
+        limiter.removeLimit(Method.GET, "/objects");
+        assertSame(objects, limiter.getBucket(Method.GET, "/objects/1"));
+    }
+
+    @Test
+    public void testConnectorRejectsWithoutWaiting() throws Exception {
+        InMemoryTransport memory = new InMemoryTransport();
+        memory.stub(Method.GET, "/objects", 200, "application/json", "{\"ids\": []}");
+        FluidConnector fc = new FluidConnector();
+        fc.setTransport(memory);
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimit(Method.GET, "/objects", 1, 2);
+        limiter.setTimeout(0);
+        fc.setRateLimiter(limiter);
+        fc.Call(Method.GET, "/objects");
+        fc.Call(Method.GET, "/objects");
+        try {
+            fc.Call(Method.GET, "/objects");
+            fail("The third call should have been rate limited");
+        } catch (RateLimitedException e) {
+            // expected
+        }
+        // other paths aren't limited
+        assertEquals(404, fc.Call(Method.GET, "/namespaces/test").getResponseCode());
+        assertEquals(3, memory.getRequestCount());
+        assertEquals(1, limiter.getRejected());
+    }
+}
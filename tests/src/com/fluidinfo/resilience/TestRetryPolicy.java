@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.resilience;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks which calls the retry policy repeats, and how often
+ */
+public class TestRetryPolicy {
+
+    private RetryPolicy policy;
+
+    /**
+     * A transport that fails a set number of times (with the given status, or a timeout 
+     * if it's 0) before answering 200
+     */
+    private static class FlakyTransport implements FluidTransport {
+        AtomicInteger calls = new AtomicInteger();
+        int failures;
+        int code;
+
+        FlakyTransport(int failures, int code) {
+            this.failures = failures;
+            this.code = code;
+        }
+
+        public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            if(this.calls.incrementAndGet() <= this.failures) {
+                if(this.code == 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                return new FluidResponse(this.code, "Oops", "text/html", "");
+            }
+            return new FluidResponse(200, "OK", "application/json", "{}");
+        }
+    }
+
+    private FluidRequest request(Method method) {
+        return new FluidRequest("http://localhost", "", "", method, "/objects", "", new Hashtable<String, String>(), "application/json");
+    }
+
+    @Before
+    public void setUp() {
+        this.policy = new RetryPolicy();
+        this.policy.setBaseDelay(0);
+    }
+
+    @Test
+    public void testServerErrorsAreRetried() throws Exception {
+        FlakyTransport transport = new FlakyTransport(2, 503);
+        assertEquals(200, this.policy.execute(this.request(Method.GET), transport).getResponseCode());
+        assertEquals(3, transport.calls.get());
+        assertEquals(3, this.policy.getAttempts());
+        assertEquals(2, this.policy.getRetries());
+        assertEquals(1, this.policy.getRecovered());
+    }
+
+    @Test
+    public void testTimeoutsAreRetriedUntilExhausted() throws Exception {
+        FlakyTransport transport = new FlakyTransport(5, 0);
+        try {
+            this.policy.execute(this.request(Method.PUT), transport);
+            fail("Every attempt timed out");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        assertEquals(RetryPolicy.DEFAULT_MAX_ATTEMPTS, transport.calls.get());
+        assertEquals(1, this.policy.getExhausted());
+    }
+
+    @Test
+    public void testClientErrorsAndPostsAreNotRetried() throws Exception {
+        FlakyTransport transport = new FlakyTransport(1, 404);
+        assertEquals(404, this.policy.execute(this.request(Method.GET), transport).getResponseCode());
+        transport = new FlakyTransport(1, 503);
+        assertEquals(503, this.policy.execute(this.request(Method.POST), transport).getResponseCode());
+        assertEquals(1, transport.calls.get());
+        this.policy.setRetryable(Method.POST, true);
+        transport = new FlakyTransport(1, 503);
+        assertEquals(200, this.policy.execute(this.request(Method.POST), transport).getResponseCode());
+    }
+
+    @Test
+    public void testBudgetLimitsRetries() throws Exception {
+        this.policy.setBudget(new RetryBudget(50, 1));
+        assertEquals(200, this.policy.execute(this.request(Method.GET), new FlakyTransport(1, 500)).getResponseCode());
+        // the one token has been spent and a single request only earns half a token back
+        assertEquals(500, this.policy.execute(this.request(Method.GET), new FlakyTransport(1, 500)).getResponseCode());
+        assertEquals(1, this.policy.getBudgetExhausted());
+        // but one more request tops it up again
+        assertEquals(200, this.policy.execute(this.request(Method.GET), new FlakyTransport(1, 500)).getResponseCode());
+    }
+
+    @Test
+    public void testBackoffIsCapped() {
+        this.policy.setBaseDelay(100);
+        this.policy.setMaxDelay(1000);
+        for(int i = 0; i < 100; i++) {
+            assertTrue(this.policy.backoff(1) <= 100);
+            assertTrue(this.policy.backoff(3) <= 400);
+            assertTrue(this.policy.backoff(40) <= 1000);
+        }
+    }
+}
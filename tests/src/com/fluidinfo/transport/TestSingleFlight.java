@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.fluidinfo.Deadline;
+import com.fluidinfo.DeadlineExceededException;
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks that identical calls in flight share one request
+ */
+public class TestSingleFlight {
+
+    /**
+     * A transport that holds every call until it's released (or its deadline passes)
+     */
+    private static class GatedTransport implements FluidTransport {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch gate = new CountDownLatch(1);
+        volatile boolean fail = false;
+
+        public FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            this.calls.incrementAndGet();
+            try {
+                Deadline deadline = request.getDeadline();
+                if(deadline == null) {
+                    this.gate.await();
+                } else if(!this.gate.await(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)) {
+                    throw new DeadlineExceededException("Deadline exceeded");
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+            if(this.fail) {
+                throw new IOException("Connection reset");
+            }
+            return new FluidResponse(200, "OK", "application/json", "{\"path\": \""+request.getPath()+"\"}");
+        }
+    }
+
+    private FluidConnector fc;
+    private GatedTransport transport;
+
+    @Before
+    public void setUp() {
+        this.fc = new FluidConnector();
+        this.transport = new GatedTransport();
+        this.fc.setTransport(this.transport);
+        this.fc.setRetryPolicy(null);
+    }
+
+    private List<Callable<FluidResponse>> calls(final Method method, final String path, int n) {
+        List<Callable<FluidResponse>> calls = new ArrayList<Callable<FluidResponse>>();
+        for(int i = 0; i < n; i++) {
+            calls.add(new Callable<FluidResponse>() {
+                public FluidResponse call() throws Exception {
+                    return fc.Call(method, path);
+                }
+            });
+        }
+        return calls;
+    }
+
+    private void openGateWhenWaiting(final int callers) {
+        new Thread() {
+            public void run() {
+                long deadline = System.currentTimeMillis() + 5000;
+                while(fc.getOutstandingRequests() + fc.getSingleFlight().getSaved() < callers && System.currentTimeMillis() < deadline) {
+                    Thread.yield();
+                }
+                transport.gate.countDown();
+            }
+        }.start();
+    }
+
+    @Test
+    public void testIdenticalGetsShareOneRequest() throws Exception {
+        this.openGateWhenWaiting(10);
+        List<FluidResponse> responses = this.fc.invokeAll(this.calls(Method.GET, "/namespaces/test", 10));
+        assertEquals(1, this.transport.calls.get());
+        for(FluidResponse r : responses) {
+            assertSame(responses.get(0), r);
+        }
+        assertEquals(9, this.fc.getSingleFlight().getSaved());
+        assertEquals(0, this.fc.getSingleFlight().getInFlight());
+    }
+
+    @Test
+    public void testFailuresAreShared() throws Exception {
+        this.transport.fail = true;
+        this.openGateWhenWaiting(4);
+        try {
+            this.fc.invokeAll(this.calls(Method.GET, "/namespaces/test", 4));
+            fail("The call should have failed");
+        } catch (IOException e) {
+            assertEquals("Connection reset", e.getMessage());
+        }
+        assertEquals(1, this.transport.calls.get());
+    }
+
+    private Future<FluidResponse> callInFlight(ExecutorService executor, final long deadline) throws Exception {
+        final int calls = this.transport.calls.get();
+        Future<FluidResponse> call = executor.submit(new Callable<FluidResponse>() {
+            public FluidResponse call() throws Exception {
+                if(deadline == 0) {
+                    return fc.Call(Method.GET, "/namespaces/test");
+                }
+                return Deadline.after(deadline, TimeUnit.MILLISECONDS).call(new Callable<FluidResponse>() {
+                    public FluidResponse call() throws Exception {
+                        return fc.Call(Method.GET, "/namespaces/test");
+                    }
+                });
+            }
+        });
+        while(this.transport.calls.get() == calls) {
+            Thread.yield();
+        }
+        return call;
+    }
+
+    @Test
+    public void testFollowersKeepToTheirOwnDeadline() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<FluidResponse> leader = this.callInFlight(executor, 0);
+            long start = System.nanoTime();
+            try {
+                Deadline.after(100, TimeUnit.MILLISECONDS).call(new Callable<FluidResponse>() {
+                    public FluidResponse call() throws Exception {
+                        return fc.Call(Method.GET, "/namespaces/test");
+                    }
+                });
+                fail("The follower should have run out of time");
+            } catch (DeadlineExceededException e) {
+                // expected
+            }
+            assertTrue(System.nanoTime()-start < TimeUnit.SECONDS.toNanos(2));
+            this.transport.gate.countDown();
+            assertEquals(200, leader.get().getResponseCode());
+            assertEquals(1, this.transport.calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFollowersOutliveTheLeadersDeadline() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<FluidResponse> leader = this.callInFlight(executor, 200);
+            Future<FluidResponse> follower = executor.submit(this.calls(Method.GET, "/namespaces/test", 1).get(0));
+            try {
+                leader.get();
+                fail("The leader should have run out of time");
+            } catch (java.util.concurrent.ExecutionException e) {
+                assertTrue(e.getCause() instanceof DeadlineExceededException);
+            }
+            // the follower, with no deadline of its own, calls for itself
+            while(this.transport.calls.get() < 2) {
+                Thread.yield();
+            }
+            this.transport.gate.countDown();
+            assertEquals(200, follower.get().getResponseCode());
+            assertEquals(0, this.fc.getSingleFlight().getSaved());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWritesAreNeverShared() throws Exception {
+        this.transport.gate.countDown();
+        this.fc.invokeAll(this.calls(Method.PUT, "/objects/1/test/foo", 3));
+        assertEquals(3, this.transport.calls.get());
+        assertEquals(0, this.fc.getSingleFlight().getRequests());
+    }
+
+    @Test
+    public void testKeyCoversArgsAndCredentials() {
+        Hashtable<String, String> a = new Hashtable<String, String>();
+        a.put("returnDescription", "True");
+        a.put("returnNamespaces", "True");
+        Hashtable<String, String> b = new Hashtable<String, String>();
+        b.put("returnNamespaces", "True");
+        b.put("returnDescription", "True");
+        FluidRequest one = new FluidRequest("http://localhost", "", "", Method.GET, "/namespaces/test", "", a, "");
+        FluidRequest two = new FluidRequest("http://localhost", "", "", Method.GET, "/namespaces/test", "", b, "");
+        FluidRequest other = new FluidRequest("http://localhost", "test", "secret", Method.GET, "/namespaces/test", "", b, "");
+        assertEquals(RequestKey.of(one), RequestKey.of(two));
+        assertFalse(RequestKey.of(one).equals(RequestKey.of(other)));
+        assertFalse(RequestKey.of(other).contains("secret"));
+        // headers an interceptor adds count too (bar the caches' own conditional ones)
+        FluidRequest alice = one.withHeader("Authorization", "Bearer alice");
+        assertFalse(RequestKey.of(alice).equals(RequestKey.of(one.withHeader("Authorization", "Bearer bob"))));
+        assertEquals(RequestKey.of(alice), RequestKey.of(alice.withHeader("If-None-Match", "\"1\"")));
+        assertEquals(RequestKey.of(alice), RequestKey.of(alice.withHeader("If-Modified-Since", "Thu, 01 Jan 2009 00:00:00 GMT")));
+        // and so does the method
+        FluidRequest head = new FluidRequest("http://localhost", "", "", Method.HEAD, "/namespaces/test", "", a, "");
+        assertFalse(RequestKey.of(one).equals(RequestKey.of(head)));
+    }
+}
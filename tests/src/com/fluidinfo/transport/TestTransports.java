@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import static org.junit.Assert.*;
+
+import java.util.Hashtable;
+import java.util.List;
+
+import org.junit.*;
+
+import com.fluidinfo.AsyncDispatcher;
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidDB;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.LocalFluidDB;
+import com.fluidinfo.utils.Method;
+import com.fluidinfo.utils.TransportMode;
+
+/**
+ * Checks that calls can be routed through the different transports
+ */
+public class TestTransports {
+
+    private LocalFluidDB server;
+    private FluidConnector fc;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new LocalFluidDB();
+        this.server.stub(Method.GET, "/objects", 200, "application/json", "{\"ids\": [\"abc\", \"def\"]}");
+        this.fc = new FluidConnector();
+        this.fc.setUrl(this.server.getURL());
+    }
+
+    @After
+    public void tearDown() {
+        this.fc.getConnectionPool().close();
+        this.server.stop();
+    }
+
+    @Test
+    public void testDefaultTransportFollowsMode() {
+        assertTrue(this.fc.getTransport() instanceof PooledTransport);
+        this.fc.setTransportMode(TransportMode.HTTP2);
+        assertTrue(this.fc.getTransport() instanceof MultiplexedTransport);
+        InMemoryTransport memory = new InMemoryTransport();
+        this.fc.setTransport(memory);
+        assertSame(memory, this.fc.getTransport());
+        this.fc.setTransport(null);
+        assertTrue(this.fc.getTransport() instanceof MultiplexedTransport);
+    }
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        RecordingTransport recorder = new RecordingTransport(this.fc.getTransport());
+        this.fc.setTransport(recorder);
+        Hashtable<String, String> args = new Hashtable<String, String>();
+        args.put("query", "has test/foo");
+        FluidResponse live = this.fc.Call(Method.GET, "/objects", "", args);
+        this.fc.Call(Method.GET, "/missing");
+        List<RecordingTransport.Exchange> exchanges = recorder.getExchanges();
+        assertEquals(2, exchanges.size());
+        assertEquals("/objects", exchanges.get(0).getRequest().getPath());
+        assertSame(live, exchanges.get(0).getResponse());
+        assertEquals(404, exchanges.get(1).getResponse().getResponseCode());
+
+        // play it back without the server
+        this.server.stop();
+        InMemoryTransport memory = new InMemoryTransport();
+        memory.load(exchanges);
+        FluidDB fdb = new FluidDB(this.server.getURL());
+        fdb.setTransport(memory);
+        String[] ids = fdb.searchObjects("has test/foo");
+        assertArrayEquals(new String[] {"abc", "def"}, ids);
+        assertEquals(1, memory.getRequestCount());
+    }
+
+    @Test
+    public void testInMemoryNotFound() throws Exception {
+        InMemoryTransport memory = new InMemoryTransport();
+        this.fc.setTransport(memory);
+        FluidResponse r = this.fc.Call(Method.GET, "/objects/xyz");
+        assertEquals(404, r.getResponseCode());
+        assertEquals("NoSuchResource", r.getResponseError());
+        assertEquals(this.server.getURL()+"/objects/xyz", r.getResponseContent());
+        assertEquals(0, this.server.getRequestCount());
+    }
+
+    @Test
+    public void testInMemoryKeysOnArguments() throws Exception {
+        InMemoryTransport memory = new InMemoryTransport();
+        this.fc.setTransport(memory);
+        Hashtable<String, String> foo = new Hashtable<String, String>();
+        foo.put("query", "has test/foo");
+        foo.put("limit", "10");
+        Hashtable<String, String> bar = new Hashtable<String, String>();
+        bar.put("query", "has test/bar");
+        memory.stub(Method.GET, "/objects", foo, new FluidResponse(200, "", "application/json", "{\"ids\": [\"foo\"]}"));
+        memory.stub(Method.GET, "/objects", bar, new FluidResponse(200, "", "application/json", "{\"ids\": [\"bar\"]}"));
+        Hashtable<String, String> reordered = new Hashtable<String, String>();
+        reordered.put("limit", "10");
+        reordered.put("query", "has test/foo");
+        assertEquals("{\"ids\": [\"foo\"]}", this.fc.Call(Method.GET, "/objects", "", reordered).getResponseContent());
+        assertEquals("{\"ids\": [\"bar\"]}", this.fc.Call(Method.GET, "/objects", "", bar).getResponseContent());
+        assertEquals(404, this.fc.Call(Method.GET, "/objects").getResponseCode());
+        // a path-only stub answers whatever the arguments
+        memory.stub(Method.GET, "/objects", 200, "application/json", "{\"ids\": []}");
+        assertEquals("{\"ids\": []}", this.fc.Call(Method.GET, "/objects").getResponseContent());
+        assertEquals("{\"ids\": [\"bar\"]}", this.fc.Call(Method.GET, "/objects", "", bar).getResponseContent());
+    }
+
+    @Test
+    public void testAsyncTransport() throws Exception {
+        AsyncDispatcher dispatcher = new AsyncDispatcher(2, 10);
+        AsyncTransport async = new AsyncTransport(this.fc.getTransport(), dispatcher);
+        FluidRequest request = new FluidRequest(this.server.getURL(), "", "", Method.GET, "/objects", "", new Hashtable<String, String>(), "application/json");
+        FluidResponse r = async.executeAsync(request).get();
+        assertEquals("{\"ids\": [\"abc\", \"def\"]}", r.getResponseContent());
+        this.fc.setTransport(async);
+        assertEquals(200, this.fc.Call(Method.GET, "/objects").getResponseCode());
+        dispatcher.shutdown();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2009 Nicholas H.Tollervey (ntoll) and others
+ *   
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.fluidinfo.transport;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.*;
+
+import com.fluidinfo.FluidConnector;
+import com.fluidinfo.FluidException;
+import com.fluidinfo.FluidRequest;
+import com.fluidinfo.FluidResponse;
+import com.fluidinfo.FluidTransport;
+import com.fluidinfo.utils.Method;
+
+/**
+ * Checks that repeated GETs are revalidated rather than downloaded again
+ */
+public class TestValidatorCache {
+
+    /**
+     * A transport that hands out queued responses and remembers what it was sent
+     */
+    private static class ScriptedTransport implements FluidTransport {
+        LinkedList<FluidResponse> responses = new LinkedList<FluidResponse>();
+        List<FluidRequest> requests = new ArrayList<FluidRequest>();
+
+        public synchronized FluidResponse execute(FluidRequest request) throws FluidException, IOException {
+            this.requests.add(request);
+            return this.responses.removeFirst();
+        }
+
+        void add(int code, String content, String... headers) {
+            Map<String, String> map = new HashMap<String, String>();
+            for(int i = 0; i < headers.length; i += 2) {
+                map.put(headers[i], headers[i+1]);
+            }
+            this.responses.add(new FluidResponse(code, "", "application/json", content.getBytes(), null, null, map));
+        }
+    }
+
+    private FluidConnector fc;
+    private ScriptedTransport transport;
+    private ValidatorCache cache;
+
+    @Before
+    public void setUp() {
+        this.fc = new FluidConnector();
+        this.transport = new ScriptedTransport();
+        this.fc.setTransport(this.transport);
+        this.fc.setRetryPolicy(null);
+        this.cache = this.fc.getValidatorCache();
+    }
+
+    @Test
+    public void testNotModifiedServesEarlierResponse() throws Exception {
+        this.transport.add(200, "{\"id\": 1}", "etag", "\"v1\"", "Last-Modified", "Mon, 05 Oct 2009 10:00:00 GMT");
+        this.transport.add(304, "");
+        FluidResponse first = this.fc.Call(Method.GET, "/namespaces/ntoll");
+        assertEquals("\"v1\"", first.getResponseHeader("ETag"));
+        assertTrue(this.transport.requests.get(0).getHeaders().isEmpty());
+        FluidResponse second = this.fc.Call(Method.GET, "/namespaces/ntoll");
+        assertSame(first, second);
+        Map<String, String> sent = this.transport.requests.get(1).getHeaders();
+        assertEquals("\"v1\"", sent.get("If-None-Match"));
+        assertEquals("Mon, 05 Oct 2009 10:00:00 GMT", sent.get("If-Modified-Since"));
+        assertEquals(1, this.cache.getNotModified());
+    }
+
+    @Test
+    public void testUnchangedBodyWithoutValidators() throws Exception {
+        this.transport.add(200, "{\"id\": 1}");
+        this.transport.add(200, "{\"id\": 1}");
+        this.transport.add(200, "{\"id\": 2}");
+        FluidResponse first = this.fc.Call(Method.GET, "/objects/1");
+        assertEquals("{\"id\": 1}", first.getResponseContent());
+        assertSame(first, this.fc.Call(Method.GET, "/objects/1"));
+        assertTrue(this.transport.requests.get(1).getHeaders().isEmpty());
+        assertEquals(1, this.cache.getUnchanged());
+        FluidResponse changed = this.fc.Call(Method.GET, "/objects/1");
+        assertNotSame(first, changed);
+        assertEquals("{\"id\": 2}", changed.getResponseContent());
+        assertEquals(3, this.cache.getRequests());
+    }
+
+    @Test
+    public void testOnlySuccessfulGetsAreKept() throws Exception {
+        this.transport.add(200, "{}", "ETag", "\"v1\"");
+        this.transport.add(204, "");
+        this.transport.add(404, "");
+        this.transport.add(200, "{}", "ETag", "\"v2\"", "Cache-Control", "no-store");
+        this.transport.add(200, "{}");
+        this.fc.Call(Method.GET, "/tags/ntoll/rating");
+        this.fc.Call(Method.PUT, "/tags/ntoll/rating", "{}");
+        assertTrue(this.transport.requests.get(1).getHeaders().isEmpty());
+        // the tag has gone so the remembered response is dropped...
+        assertEquals(404, this.fc.Call(Method.GET, "/tags/ntoll/rating").getResponseCode());
+        assertEquals(0, this.cache.size());
+        // ...and nothing marked no-store is remembered
+        this.fc.Call(Method.GET, "/tags/ntoll/rating");
+        assertEquals(0, this.cache.size());
+        this.fc.Call(Method.GET, "/tags/ntoll/rating");
+        assertTrue(this.transport.requests.get(4).getHeaders().isEmpty());
+    }
+
+    @Test
+    public void testMemoryIsBounded() throws Exception {
+        this.cache.setMaxSize(25);
+        for(int i = 1; i <= 3; i++) {
+            this.transport.add(200, "{\"id\": "+i+"}", "ETag", "\"v"+i+"\"");
+            this.fc.Call(Method.GET, "/objects/"+i);
+        }
+        // the least recently used went to make room
+        assertEquals(2, this.cache.size());
+        assertEquals(18, this.cache.getSize());
+        this.transport.add(200, "{\"id\": 1}", "ETag", "\"v1\"");
+        this.fc.Call(Method.GET, "/objects/1");
+        assertTrue(this.transport.requests.get(3).getHeaders().isEmpty());
+        // and nothing bigger than the whole cache is kept
+        this.transport.add(200, "{\"id\": \"far too big to keep\"}", "ETag", "\"v4\"");
+        this.fc.Call(Method.GET, "/objects/4");
+        assertEquals(2, this.cache.size());
+        this.cache.clear();
+        assertEquals(0, this.cache.getSize());
+    }
+}